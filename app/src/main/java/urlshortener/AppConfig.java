@@ -0,0 +1,236 @@
+package urlshortener;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Startup options for the app, parsed from the command line.
+ *
+ *   java -jar url-shortener.jar --port=8080 --executor=fixed --threads=8 --backlog=1024
+ *
+ * Executor modes for the redirect server:
+ *   single  - everything on the HttpServer dispatcher thread (old behaviour)
+ *   fixed   - fixed pool of --threads workers (default: one per core)
+ *   steal   - work-stealing ForkJoinPool with --threads parallelism
+ *   virtual - one virtual thread per request (Java 21+, falls back to fixed)
+ *
+ * Redirect server (see NioRedirectServer):
+ *   --server=jdk     com.sun.net.httpserver serves redirects and the API (default)
+ *   --server=nio     selector event loops (--threads of them) serve redirects on
+ *                    --port; the API moves to --api-port (default port + 1)
+ *
+ * Link storage (for the links not in the snapshot):
+ *   --store=compact  byte arena and primitive hash tables (CompactLinkStore, default)
+ *   --store=offheap  the same with the arena in direct memory
+ *   --store=maps     two ConcurrentHashMaps (ConcurrentLinkStore)
+ *
+ * Hot link cache (see CachedLinkStore):
+ *   --cache=N          links kept decoded on the heap in front of the snapshot
+ *                      and the store above (default 65536, 0 = no cache)
+ *   --cache-loaders=N  threads that read missed links for the redirect servers
+ *                      (default 4)
+ *
+ * Persistence:
+ *   --sync-ms=N     journal durability window: appends are fsynced in groups
+ *                   at most N ms after they are made (0 = as soon as possible)
+ *   --compact-mb=N  fold the journal into a new snapshot once it reaches N MB
+ *   --export-csv=F  write all links to file F and exit (no UI): CSV, or NDJSON
+ *                   if F ends in .ndjson or .jsonl; gzipped if F ends in .gz
+ *   --import=F      bulk-shorten the CSV/NDJSON file F, print results and exit
+ *
+ * Code allocation (see CodeAllocator):
+ *   --codes=block       one leased id block, handed to threads in 256-id
+ *                       chunks striped by thread (default)
+ *   --codes=sequential  one leased id block behind a lock
+ *
+ *   --analytics=off  skip per-link click counting on redirects (default on)
+ *   --strip-tracking drop utm_* and other click-tracking query parameters from
+ *                    URLs before shortening (see UrlNormalizer; default off)
+ *
+ * Unknown codes (see MissLimiter):
+ *   --miss-rate=N   404s per second allowed per client address before it gets
+ *                   429s (default 100, 0 = unlimited)
+ *   --miss-burst=N  404s a client may send at once (default 1000)
+ *
+ * Replication (see ReplicationLeader and Follower):
+ *   --replicate-port=N       ship the journal to followers connecting on port N
+ *                            (default off)
+ *   --replicate-acks=N       followers that must have a write on disk before it
+ *                            counts as done (default 0: shipped asynchronously)
+ *   --replicate-timeout-ms=N how long a write waits for those acks before it
+ *                            fails (default 2000)
+ *   --follow=H:P[,H:P...]    run headless as a read-only follower of the first
+ *                            leader that answers, in this directory
+ *
+ * Headless (see LinkService):
+ *   --headless     serve without the UI (also the default when there is no
+ *                  display); redirects start while the links are still loading
+ *   --search=off   no trigram index of the links on the heap (211 MB at 5M
+ *                  links); /api/search scans the store instead. Default on
+ *                  with the UI, off headless
+ *
+ * Load generator (see LoadGenerator; runs instead of the UI):
+ *   --loadgen                preload links, serve them with the options above
+ *                            and drive the server over loopback
+ *   --load-links=N           synthetic links to preload (default 100000)
+ *   --load-clients=N         concurrent keep-alive connections (default 64)
+ *   --load-client=threads|virtual|async
+ *                            blocking client per platform or virtual thread,
+ *                            or all connections on one selector (default threads)
+ *   --load-keys=uniform|zipf|miss
+ *                            key distribution (default zipf)
+ *   --load-zipf=S            Zipf exponent (default 0.99)
+ *   --load-miss=F            share of unknown codes with --load-keys=miss (default 0.9)
+ *   --load-rate=N            open loop: N requests/s in total (default 0 = closed loop)
+ *   --load-seconds=N         measured time (default 10), after
+ *   --load-warmup=N          seconds of warmup (default 3)
+ *   --load-out=F             append the result as a CSV row to F
+ */
+public class AppConfig {
+
+    public enum ExecutorMode { SINGLE, FIXED, STEAL, VIRTUAL }
+    public enum ServerMode { JDK, NIO }
+    public enum StoreMode { COMPACT, OFFHEAP, MAPS }
+
+    public int port = 8080;
+    public ExecutorMode executor = ExecutorMode.FIXED;
+    public ServerMode server = ServerMode.JDK;
+    public int apiPort = -1;
+    public StoreMode store = StoreMode.COMPACT;
+    public int cacheSize = 1 << 16;
+    public int cacheLoaders = 4;
+    public int threads = Runtime.getRuntime().availableProcessors();
+    public int backlog = 1024;
+    public long syncMillis = 20;
+    public long compactBytes = 64L << 20;
+    public String exportCsv;
+    public String importFile;
+    public CodeAllocator.Strategy codes = CodeAllocator.Strategy.BLOCK;
+    public boolean analytics = true;
+    public boolean stripTracking;
+    public int missRate = 100;
+    public int missBurst = 1000;
+    public int replicatePort = -1;
+    public int replicateAcks;
+    public long replicateTimeoutMillis = 2000;
+    public String[] follow;
+    public boolean headless;
+    public Boolean search; // null: on with the UI, off headless
+    public boolean loadgen;
+    public int loadLinks = 100_000;
+    public int loadClients = 64;
+    public LoadGenerator.Client loadClient = LoadGenerator.Client.THREADS;
+    public LoadGenerator.Keys loadKeys = LoadGenerator.Keys.ZIPF;
+    public double loadZipf = 0.99;
+    public double loadMiss = 0.9;
+    public int loadRate;
+    public int loadSeconds = 10;
+    public int loadWarmup = 3;
+    public String loadOut;
+
+    public static AppConfig parse(String[] args) {
+        AppConfig c = new AppConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String key = eq < 0 ? arg : arg.substring(0, eq);
+            String val = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (key) {
+                case "--port":     c.port = Integer.parseInt(val); break;
+                case "--executor": c.executor = ExecutorMode.valueOf(val.trim().toUpperCase()); break;
+                case "--server":   c.server = ServerMode.valueOf(val.trim().toUpperCase()); break;
+                case "--api-port": c.apiPort = Integer.parseInt(val); break;
+                case "--store":    c.store = StoreMode.valueOf(val.trim().toUpperCase()); break;
+                case "--cache":    c.cacheSize = Math.max(0, Integer.parseInt(val)); break;
+                case "--cache-loaders": c.cacheLoaders = Math.max(1, Integer.parseInt(val)); break;
+                case "--threads":  c.threads = Math.max(1, Integer.parseInt(val)); break;
+                case "--backlog":  c.backlog = Math.max(0, Integer.parseInt(val)); break;
+                case "--sync-ms":  c.syncMillis = Math.max(0, Long.parseLong(val)); break;
+                case "--compact-mb": c.compactBytes = Math.max(1, Long.parseLong(val)) << 20; break;
+                case "--export-csv": c.exportCsv = val; break;
+                case "--import":   c.importFile = val; break;
+                case "--codes":    c.codes = CodeAllocator.Strategy.valueOf(val.trim().toUpperCase()); break;
+                case "--analytics": c.analytics = !val.trim().equalsIgnoreCase("off"); break;
+                case "--strip-tracking": c.stripTracking = !val.trim().equalsIgnoreCase("off"); break;
+                case "--miss-rate":  c.missRate = Math.max(0, Integer.parseInt(val)); break;
+                case "--miss-burst": c.missBurst = Math.max(1, Integer.parseInt(val)); break;
+                case "--replicate-port": c.replicatePort = Integer.parseInt(val); break;
+                case "--replicate-acks": c.replicateAcks = Math.max(0, Integer.parseInt(val)); break;
+                case "--replicate-timeout-ms": c.replicateTimeoutMillis = Math.max(1, Long.parseLong(val)); break;
+                case "--follow":       c.follow = val.trim().split("\\s*,\\s*"); break;
+                case "--headless":     c.headless = true; break;
+                case "--search":       c.search = !val.trim().equalsIgnoreCase("off"); break;
+                case "--loadgen":      c.loadgen = true; break;
+                case "--load-links":   c.loadLinks = Math.max(1, Math.min(50_000_000, Integer.parseInt(val))); break;
+                case "--load-clients": c.loadClients = Math.max(1, Integer.parseInt(val)); break;
+                case "--load-client":  c.loadClient = LoadGenerator.Client.valueOf(val.trim().toUpperCase()); break;
+                case "--load-keys":    c.loadKeys = LoadGenerator.Keys.valueOf(val.trim().toUpperCase()); break;
+                case "--load-zipf":    c.loadZipf = Math.max(0.01, Double.parseDouble(val)); break;
+                case "--load-miss":    c.loadMiss = Math.max(0, Math.min(1, Double.parseDouble(val))); break;
+                case "--load-rate":    c.loadRate = Math.max(0, Integer.parseInt(val)); break;
+                case "--load-seconds": c.loadSeconds = Math.max(1, Integer.parseInt(val)); break;
+                case "--load-warmup":  c.loadWarmup = Math.max(0, Integer.parseInt(val)); break;
+                case "--load-out":     c.loadOut = val; break;
+                default: throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Creates the executor the redirect server should run handlers on,
+     * or null for {@link ExecutorMode#SINGLE} (HttpServer's own dispatcher thread).
+     */
+    public ExecutorService newServerExecutor() {
+        switch (executor) {
+            case SINGLE:
+                return null;
+            case STEAL:
+                return Executors.newWorkStealingPool(threads);
+            case VIRTUAL:
+                ExecutorService v = virtualThreadExecutor();
+                if (v != null) return v;
+                System.err.println("Virtual threads not available on this JVM; using fixed pool.");
+                // fall through
+            case FIXED:
+            default:
+                return Executors.newFixedThreadPool(threads, daemonFactory("redirect-"));
+        }
+    }
+
+    /** An empty store of the configured kind. */
+    public LinkStore newLinkStore() {
+        switch (store) {
+            case MAPS:    return new ConcurrentLinkStore();
+            case OFFHEAP: return new CompactLinkStore(true);
+            case COMPACT:
+            default:      return new CompactLinkStore(false);
+        }
+    }
+
+    // Looked up reflectively so the app still builds and runs on Java 8.
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static ThreadFactory daemonFactory(String prefix) {
+        AtomicInteger n = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @Override public String toString() {
+        if (server == ServerMode.NIO) return "server=nio, loops=" + threads + ", backlog=" + backlog;
+        return "executor=" + executor.name().toLowerCase()
+                + (executor == ExecutorMode.SINGLE ? "" : ", threads=" + threads)
+                + ", backlog=" + backlog;
+    }
+}
@@ -0,0 +1,48 @@
+package urlshortener;
+
+/**
+ * Fixed-width base62 encoding of non-negative longs, using the same alphabet
+ * the app has always used for codes (0-9, A-Z, a-z). Encoding writes into a
+ * caller-supplied buffer and decoding reads any CharSequence, so neither
+ * allocates.
+ */
+final class Base62 {
+
+    static final char[] ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    /** 62^0 .. 62^10; 62^10 is the largest power that fits in a long. */
+    static final long[] POW = new long[11];
+    static {
+        POW[0] = 1;
+        for (int i = 1; i < POW.length; i++) POW[i] = POW[i - 1] * 62;
+    }
+
+    private Base62() {}
+
+    /** Writes {@code v} as exactly {@code width} digits (zero-padded) at {@code off}. */
+    static void encode(long v, int width, char[] out, int off) {
+        for (int i = off + width - 1; i >= off; i--) {
+            out[i] = ALPHABET[(int) (v % 62)];
+            v /= 62;
+        }
+    }
+
+    /** Value of a base62 string, or -1 if it has a non-base62 char or is too long. */
+    static long decode(CharSequence s) {
+        if (s.length() == 0 || s.length() > 10) return -1;
+        long v = 0;
+        for (int i = 0; i < s.length(); i++) {
+            int d = digit(s.charAt(i));
+            if (d < 0) return -1;
+            v = v * 62 + d;
+        }
+        return v;
+    }
+
+    static int digit(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'Z') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'z') return c - 'a' + 36;
+        return -1;
+    }
+}
@@ -0,0 +1,292 @@
+package urlshortener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Streams URLs in from CSV or NDJSON and shortens them in parallel.
+ *
+ * Input is read in batches. Each batch is normalized, deduplicated against the
+ * store and given codes on a worker pool while the next batches are read, with
+ * a bounded number of batches in flight. Results are written in input order,
+ * one line per row, once the batch's journal records are durable, and those
+ * of the links it found already there, so a reported code survives a crash. Nothing holds the whole input in memory.
+ *
+ * CSV: one URL per line, optional second column with an alias and third
+ *      with the redirect status (302 for temporary). A header naming
+ *      url/original_url/long_url, alias/code and redirect columns is
+ *      honoured, so the app's own export can be imported back.
+ * NDJSON: one object per line, {"url": "...", "alias": "...", "redirect": 302}.
+ *
+ * Output mirrors the input format:
+ *      line,status,code,short_url,url
+ *      {"line":1,"status":"created","code":"...","short_url":"...","url":"..."}
+ * where status is created, existing, invalid or conflict.
+ */
+public class BulkImporter {
+
+    public enum Format { CSV, NDJSON }
+
+    /** Row counts for one run. */
+    public static final class Summary {
+        public long created, existing, invalid, conflicts;
+        public long rows() { return created + existing + invalid + conflicts; }
+        @Override public String toString() {
+            return rows() + " rows: " + created + " created, " + existing + " existing, "
+                    + invalid + " invalid, " + conflicts + " conflicts";
+        }
+    }
+
+    private static final int BATCH = 2048;
+
+    private final LinkStore store;
+    private final LinkJournal journal;
+    private final CodeAllocator codes;
+    private final UrlNormalizer normalizer;
+    private final Supplier<String> baseUrl;
+    private final Consumer<List<Link>> onCreated;
+    private final ExecutorService workers;
+    private final ExecutorService readers = Executors.newCachedThreadPool(AppConfig.daemonFactory("bulk-import-"));
+    private final int maxInFlight;
+    private volatile LinkExpiry expiry;
+
+    /**
+     * @param journal   may be null (nothing is persisted)
+     * @param onCreated gets each batch's newly created links, on a worker thread
+     */
+    public BulkImporter(LinkStore store, LinkJournal journal, CodeAllocator codes, UrlNormalizer normalizer,
+                        Supplier<String> baseUrl, Consumer<List<Link>> onCreated, int threads) {
+        this.store = store;
+        this.journal = journal;
+        this.codes = codes;
+        this.normalizer = normalizer;
+        this.baseUrl = baseUrl;
+        this.onCreated = onCreated;
+        this.workers = Executors.newFixedThreadPool(threads, AppConfig.daemonFactory("bulk-"));
+        this.maxInFlight = threads * 2;
+    }
+
+    /** Rows then never share a code that has an expiry, see {@link LinkExpiry#shorten}. */
+    void setExpiry(LinkExpiry expiry) {
+        this.expiry = expiry;
+    }
+
+    public void shutdown() {
+        readers.shutdown();
+        workers.shutdown();
+    }
+
+    /**
+     * {@link #run} on a thread of the importer's own, so the caller (an HTTP
+     * server thread) is free again at once rather than for the whole import.
+     */
+    public CompletableFuture<Summary> submit(InputStream in, Format format, Function<Format, Writer> openOutput) {
+        CompletableFuture<Summary> f = new CompletableFuture<>();
+        readers.execute(() -> {
+            try {
+                f.complete(run(in, format, openOutput));
+            } catch (IOException | RuntimeException e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    /**
+     * Imports everything from {@code in}. {@code openOutput} is called once with
+     * the detected (or given) format, before any result is written.
+     */
+    public Summary run(InputStream in, Format format, Function<Format, Writer> openOutput) throws IOException {
+        BufferedReader br = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        String first = br.readLine();
+        while (first != null && first.trim().isEmpty()) first = br.readLine();
+        if (format == null) format = first != null && first.trim().startsWith("{") ? Format.NDJSON : Format.CSV;
+        Writer out = openOutput.apply(format);
+        if (format == Format.CSV) out.write("line,status,code,short_url,url\n");
+        Summary summary = new Summary();
+        if (first == null) {
+            out.flush();
+            return summary;
+        }
+
+        int urlCol = 0, aliasCol = 1, redirectCol = 2;
+        long lineNo = 1;
+        String line = first;
+        if (format == Format.CSV) {
+            List<String> head = Csv.parseLine(first);
+            int u = indexOf(head, "url", "original_url", "long_url");
+            if (u >= 0) {
+                urlCol = u;
+                aliasCol = indexOf(head, "alias", "code");
+                redirectCol = indexOf(head, "redirect");
+                line = br.readLine();
+                lineNo++;
+            }
+        }
+
+        ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+        Batch batch = new Batch(format, urlCol, aliasCol, redirectCol);
+        for (; line != null; line = br.readLine(), lineNo++) {
+            if (line.trim().isEmpty()) continue;
+            batch.add(lineNo, line);
+            if (batch.size == BATCH) {
+                if (inFlight.size() == maxInFlight) drain(inFlight.poll(), out, summary);
+                inFlight.add(workers.submit(batch));
+                batch = new Batch(format, urlCol, aliasCol, redirectCol);
+            }
+        }
+        if (batch.size > 0) inFlight.add(workers.submit(batch));
+        while (!inFlight.isEmpty()) drain(inFlight.poll(), out, summary);
+        out.flush();
+        return summary;
+    }
+
+    private void drain(Future<Batch> f, Writer out, Summary summary) throws IOException {
+        Batch b;
+        try {
+            b = f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw new IOException("Bulk batch failed", e.getCause());
+        }
+        if (journal != null && b.lastSeq > 0) journal.awaitDurable(b.lastSeq);
+        out.write(b.output.toString());
+        out.flush();
+        summary.created += b.created;
+        summary.existing += b.existing;
+        summary.invalid += b.invalid;
+        summary.conflicts += b.conflicts;
+    }
+
+    private static int indexOf(List<String> head, String... names) {
+        for (int i = 0; i < head.size(); i++) {
+            String h = head.get(i).trim().toLowerCase(Locale.ROOT);
+            for (String n : names) if (h.equals(n)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * One batch of raw input lines. Parsing and shortening both happen in
+     * {@link #call()} on a worker, which fills in the result lines and counts.
+     */
+    private final class Batch implements Callable<Batch>, Supplier<String> {
+        final Format format;
+        final int urlCol, aliasCol, redirectCol;
+        final long[] lineNos = new long[BATCH];
+        String[] lines = new String[BATCH];
+        int size;
+
+        final StringBuilder output = new StringBuilder(BATCH * 96);
+        long created, existing, invalid, conflicts;
+        long lastSeq;
+        private boolean allocated;
+
+        Batch(Format format, int urlCol, int aliasCol, int redirectCol) {
+            this.format = format;
+            this.urlCol = urlCol;
+            this.aliasCol = aliasCol;
+            this.redirectCol = redirectCol;
+        }
+
+        void add(long lineNo, String line) {
+            lineNos[size] = lineNo;
+            lines[size] = line;
+            size++;
+        }
+
+        /** Code supplier for store.shorten that notes whether it was asked. */
+        @Override public String get() {
+            allocated = true;
+            return codes.next();
+        }
+
+        @Override public Batch call() {
+            String now = LinkService.timeStamp();
+            String base = baseUrl.get() + "/";
+            List<Link> fresh = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                String rawUrl = null, rawAlias = null, rawRedirect = null;
+                if (format == Format.NDJSON) {
+                    Map<String, String> obj = Json.parseFlatObject(lines[i]);
+                    if (obj != null) {
+                        rawUrl = obj.get("url");
+                        rawAlias = obj.get("alias");
+                        rawRedirect = obj.get("redirect");
+                    }
+                } else {
+                    List<String> cols = Csv.parseLine(lines[i]);
+                    rawUrl = urlCol < cols.size() ? cols.get(urlCol) : null;
+                    rawAlias = aliasCol >= 0 && aliasCol < cols.size() ? cols.get(aliasCol) : null;
+                    rawRedirect = redirectCol >= 0 && redirectCol < cols.size() ? cols.get(redirectCol) : null;
+                }
+                boolean temporary = rawRedirect != null && rawRedirect.trim().equals("302");
+                String raw = rawUrl == null ? "" : rawUrl.trim();
+                String alias = rawAlias == null ? "" : rawAlias.trim();
+                String url = raw.isEmpty() ? null : normalizer.normalize(raw);
+                String code = null, status;
+                if (url == null) {
+                    status = "invalid";
+                    invalid++;
+                } else if (!alias.isEmpty() && !LinkService.ALIAS.matcher(alias).matches()) {
+                    status = "invalid";
+                    invalid++;
+                } else synchronized (journal != null ? journal.createLock(url) : this) {
+                    // under the URL's lock, so the record that made an existing link is already appended
+                    if (!alias.isEmpty()) {
+                        boolean had = url.equals(store.get(alias));
+                        if (store.put(new Link(alias, url, now, temporary)) != null) {
+                            status = "conflict";
+                            conflicts++;
+                        } else {
+                            code = alias;
+                            status = had ? "existing" : "created";
+                        }
+                    } else {
+                        allocated = false;
+                        LinkExpiry e = expiry;
+                        code = e != null ? e.shorten(store, url, now, temporary, false, this)
+                                : store.shorten(url, now, temporary, this);
+                        status = allocated ? "created" : "existing";
+                    }
+                    if ("created".equals(status)) {
+                        created++;
+                        Link link = new Link(code, url, now, temporary);
+                        fresh.add(link);
+                        if (journal != null) lastSeq = journal.appendCreate(link);
+                    } else if ("existing".equals(status)) {
+                        existing++;
+                        // its record may still be in the group commit (or waiting for followers)
+                        if (journal != null) lastSeq = journal.appendedSeq();
+                    }
+                }
+                writeResult(lineNos[i], status, code, code == null ? null : base + code, url != null ? url : raw);
+            }
+            lines = null; // let the input go while waiting to be written
+            if (!fresh.isEmpty() && onCreated != null) onCreated.accept(fresh);
+            return this;
+        }
+
+        private void writeResult(long line, String status, String code, String shortUrl, String url) {
+            if (format == Format.NDJSON) {
+                output.append("{\"line\":").append(line).append(",\"status\":\"").append(status).append('"');
+                if (code != null) {
+                    Json.quote(output.append(",\"code\":"), code);
+                    Json.quote(output.append(",\"short_url\":"), shortUrl);
+                }
+                Json.quote(output.append(",\"url\":"), url).append("}\n");
+            } else {
+                output.append(line).append(',').append(status).append(',')
+                      .append(Csv.field(code)).append(',').append(Csv.field(shortUrl)).append(',')
+                      .append(Csv.field(url)).append('\n');
+            }
+        }
+    }
+}
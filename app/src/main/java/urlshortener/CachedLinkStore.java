@@ -0,0 +1,139 @@
+package urlshortener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} decorator that keeps the links being clicked in a
+ * bounded {@link LinkCache}, in front of a store that reads from disk (the
+ * mapped {@link LinkSnapshot} under a {@link SnapshotLinkStore}).
+ *
+ * {@link #linkAsync} answers hits at once and hands misses to a small pool
+ * of loader threads, so an event loop never waits for a page fault;
+ * concurrent misses on one code share a single read. {@link #link} loads on
+ * the caller's thread. Every load is timed into {@link #loads}.
+ *
+ * Only lookups by code are cached. Reverse lookups and writes go straight
+ * to the store; removals also invalidate the cached link.
+ */
+public class CachedLinkStore implements LinkStore {
+
+    private final LinkStore store;
+    private final LinkCache cache;
+    private final ExecutorService loader;
+    private final ConcurrentHashMap<String, CompletableFuture<Link>> loading = new ConcurrentHashMap<>();
+
+    /** Time to read a link from the store on a cache miss. */
+    public final Metrics.Histogram loads = new Metrics.Histogram();
+
+    /** @param loaders threads that serve asynchronous misses */
+    public CachedLinkStore(LinkStore store, int capacity, int loaders) {
+        this.store = store;
+        this.cache = new LinkCache(capacity);
+        this.loader = Executors.newFixedThreadPool(Math.max(1, loaders), AppConfig.daemonFactory("cache-load-"));
+    }
+
+    /** The wrapped store. */
+    public LinkStore delegate() {
+        return store;
+    }
+
+    public LinkCache cache() {
+        return cache;
+    }
+
+    /** Stops the loader threads; later misses load on the caller's thread. */
+    public void shutdown() {
+        loader.shutdown();
+    }
+
+    private Link load(String code) {
+        long stamp = cache.stamp(code);
+        long t = System.nanoTime();
+        Link l = store.link(code);
+        loads.since(t);
+        if (l != null) cache.put(code, l, stamp);
+        return l;
+    }
+
+    @Override public String get(String code) {
+        Link l = link(code);
+        return l == null ? null : l.url;
+    }
+
+    @Override public Link link(String code) {
+        Link l = cache.get(code);
+        return l != null ? l : load(code);
+    }
+
+    @Override public CompletableFuture<Link> linkAsync(String code) {
+        Link l = cache.get(code);
+        if (l != null) return CompletableFuture.completedFuture(l);
+        CompletableFuture<Link> f = new CompletableFuture<>();
+        CompletableFuture<Link> running = loading.putIfAbsent(code, f);
+        if (running != null) return running;
+        Runnable read = () -> {
+            long stamp = cache.stamp(code);
+            long t = System.nanoTime();
+            CompletableFuture<Link> pending;
+            try {
+                pending = store.linkAsync(code); // a store still loading answers later, see LazyLinkStore
+            } catch (RuntimeException | Error e) {
+                pending = new CompletableFuture<>();
+                pending.completeExceptionally(e);
+            }
+            pending.whenComplete((link, e) -> {
+                loads.since(t);
+                if (link != null) cache.put(code, link, stamp);
+                loading.remove(code, f);
+                if (e != null) f.completeExceptionally(e);
+                else f.complete(link);
+            });
+        };
+        try {
+            loader.execute(read);
+        } catch (RejectedExecutionException e) {
+            read.run();
+        }
+        return f;
+    }
+
+    @Override public String codeFor(String url) {
+        return store.codeFor(url);
+    }
+
+    @Override public String put(Link link) {
+        return store.put(link);
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        return store.shorten(url, created, temporary, newCode);
+    }
+
+    @Override public boolean remove(String code) {
+        boolean removed = store.remove(code);
+        cache.invalidate(code);
+        return removed;
+    }
+
+    @Override public int size() {
+        return store.size();
+    }
+
+    @Override public long codeRetries() {
+        return store.codeRetries();
+    }
+
+    @Override public long removals() {
+        return store.removals();
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        store.forEach(action);
+    }
+}
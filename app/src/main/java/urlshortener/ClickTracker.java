@@ -0,0 +1,246 @@
+package urlshortener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-code click analytics, kept off the redirect hot path.
+ *
+ * A click costs one map lookup, a LongAdder increment (exact totals) and a
+ * slot in a sharded ring buffer; it does not read the clock. A background
+ * thread drains the rings every {@link #DRAIN_MILLIS} into per-minute (last
+ * hour) and per-hour (last two days) buckets, timed by the drain, and into
+ * referrer / user-agent samples. If a ring is full the event still counts in
+ * the total but is dropped from the buckets, and the drop is counted.
+ *
+ * Only one click in {@link #SAMPLE_EVERY} carries its headers, so callers
+ * should ask {@link #shouldSample()} before reading them.
+ */
+public class ClickTracker {
+
+    static final int SAMPLE_EVERY = 16;
+    private static final int RING = 1 << 14;
+    private static final int MAX_SAMPLE_KEYS = 32;
+    static final long DRAIN_MILLIS = 20;
+
+    /**
+     * Per-code counters. Buckets and samples are allocated and written only by
+     * the aggregator, so a code's first click costs the redirect two small
+     * objects rather than its whole history.
+     */
+    static final class Stats {
+        final String code;
+        final LongAdder total = new LongAdder();
+        private History history; // null until the aggregator sees a click
+
+        Stats(String code) { this.code = code; }
+
+        synchronized void add(long millis, String referrer, String agent) {
+            if (history == null) history = new History();
+            history.add(millis, referrer, agent);
+        }
+    }
+
+    /** Per-minute and per-hour buckets and header samples of one code. */
+    private static final class History {
+        final int[] minutes = new int[60];
+        final long[] minuteAt = new long[60];
+        final int[] hours = new int[48];
+        final long[] hourAt = new long[48];
+        final Map<String, Integer> referrers = new HashMap<>();
+        final Map<String, Integer> agents = new HashMap<>();
+
+        void add(long millis, String referrer, String agent) {
+            long m = millis / 60_000, h = m / 60;
+            int ms = (int) (m % minutes.length), hs = (int) (h % hours.length);
+            if (minuteAt[ms] != m) { minuteAt[ms] = m; minutes[ms] = 0; }
+            if (hourAt[hs] != h) { hourAt[hs] = h; hours[hs] = 0; }
+            minutes[ms]++;
+            hours[hs]++;
+            if (referrer != null) count(referrers, referrer);
+            if (agent != null) count(agents, agent);
+        }
+
+        private static void count(Map<String, Integer> m, String key) {
+            if (m.size() >= MAX_SAMPLE_KEYS && !m.containsKey(key)) key = "(other)";
+            m.merge(key, 1, Integer::sum);
+        }
+
+        /** Counts for the last {@code n} periods, oldest first, ending at {@code now}. */
+        static int[] window(int[] counts, long[] at, long now, int n) {
+            int[] out = new int[n];
+            for (int k = 0; k < n; k++) {
+                long p = now - (n - 1 - k);
+                int slot = (int) (p % counts.length);
+                out[k] = at[slot] == p ? counts[slot] : 0;
+            }
+            return out;
+        }
+    }
+
+    /** Multi-producer, single-consumer ring of click events. */
+    private static final class Ring {
+        final AtomicReferenceArray<Stats> slots = new AtomicReferenceArray<>(RING);
+        final String[] referrers = new String[RING];
+        final String[] agents = new String[RING];
+        final AtomicLong head = new AtomicLong();
+        volatile long tail;
+
+        boolean offer(Stats s, String ref, String ua) {
+            long h;
+            do {
+                h = head.get();
+                if (h - tail >= RING) return false;
+            } while (!head.compareAndSet(h, h + 1));
+            int i = (int) h & (RING - 1);
+            referrers[i] = ref;
+            agents[i] = ua;
+            slots.lazySet(i, s); // publishes the fields above
+            return true;
+        }
+
+        /** @param millis when the events happened, to within a drain interval */
+        int drain(long millis) {
+            long t = tail, from = t;
+            while (true) {
+                int i = (int) t & (RING - 1);
+                Stats s = slots.get(i);
+                if (s == null) break;
+                s.add(millis, referrers[i], agents[i]);
+                referrers[i] = agents[i] = null;
+                slots.lazySet(i, null);
+                t++;
+            }
+            tail = t;
+            return (int) (t - from);
+        }
+    }
+
+    private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+    private final Ring[] rings;
+    private final LongAdder dropped = new LongAdder();
+    private final Thread aggregator;
+    private volatile boolean running = true;
+
+    public ClickTracker() {
+        int n = Integer.highestOneBit(Math.max(4, Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+        rings = new Ring[n];
+        for (int i = 0; i < n; i++) rings[i] = new Ring();
+        aggregator = new Thread(this::aggregate, "click-aggregator");
+        aggregator.setDaemon(true);
+        aggregator.start();
+    }
+
+    /** True for roughly one call in {@link #SAMPLE_EVERY}. */
+    public boolean shouldSample() {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_EVERY) == 0;
+    }
+
+    /** Records a click on an existing code; referrer and agent may be null. */
+    public void click(String code, String referrer, String userAgent) {
+        Stats s = stats.get(code);
+        if (s == null) s = stats.computeIfAbsent(code, Stats::new);
+        s.total.increment();
+        Ring r = rings[(int) Thread.currentThread().getId() & (rings.length - 1)];
+        if (!r.offer(s, referrer, userAgent)) dropped.increment();
+    }
+
+    /** Clicks that were counted but missed the buckets because a ring was full. */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    public long clicks(String code) {
+        Stats s = stats.get(code);
+        return s == null ? 0 : s.total.sum();
+    }
+
+    /** Drops the counters of a deleted code. */
+    public void forget(String code) {
+        stats.remove(code);
+    }
+
+    public void close() {
+        running = false;
+        aggregator.interrupt();
+    }
+
+    private void aggregate() {
+        while (running) {
+            int n = 0;
+            long now = System.currentTimeMillis();
+            for (Ring r : rings) n += r.drain(now);
+            if (n > RING / 4) continue; // busy: keep up before the rings fill
+            try {
+                Thread.sleep(DRAIN_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // --- JSON views for /api/stats ---
+
+    /** Full stats for one link. */
+    public String toJson(Link link) {
+        Stats s = stats.get(link.code);
+        StringBuilder sb = new StringBuilder(1024);
+        Json.quote(sb.append("{\"code\":"), link.code);
+        Json.quote(sb.append(",\"url\":"), link.url);
+        sb.append(",\"redirect\":").append(link.status());
+        sb.append(",\"clicks\":").append(s == null ? 0 : s.total.sum());
+        long nowMin = System.currentTimeMillis() / 60_000;
+        int[] minutes = new int[60], hours = new int[48];
+        Map<String, Integer> refs = Collections.emptyMap(), agents = Collections.emptyMap();
+        if (s != null) {
+            synchronized (s) {
+                History h = s.history;
+                if (h != null) {
+                    minutes = History.window(h.minutes, h.minuteAt, nowMin, 60);
+                    hours = History.window(h.hours, h.hourAt, nowMin / 60, 48);
+                    refs = new HashMap<>(h.referrers);
+                    agents = new HashMap<>(h.agents);
+                }
+            }
+        }
+        sb.append(",\"per_minute\":").append(Arrays.toString(minutes).replace(" ", ""));
+        sb.append(",\"per_hour\":").append(Arrays.toString(hours).replace(" ", ""));
+        sb.append(",\"sample_rate\":").append(1.0 / SAMPLE_EVERY);
+        appendCounts(sb.append(",\"referrers\":"), refs);
+        appendCounts(sb.append(",\"user_agents\":"), agents);
+        return sb.append('}').toString();
+    }
+
+    /** The {@code n} most clicked codes. */
+    public String topJson(int n) {
+        List<Stats> all = new ArrayList<>(stats.values());
+        long[] totals = new long[all.size()];
+        Integer[] order = new Integer[all.size()];
+        for (int i = 0; i < totals.length; i++) { totals[i] = all.get(i).total.sum(); order[i] = i; }
+        Arrays.sort(order, (a, b) -> Long.compare(totals[b], totals[a]));
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"tracked\":").append(all.size()).append(",\"dropped_events\":").append(dropped.sum());
+        sb.append(",\"top\":[");
+        for (int i = 0; i < Math.min(n, order.length); i++) {
+            if (i > 0) sb.append(',');
+            Json.quote(sb.append("{\"code\":"), all.get(order[i]).code);
+            sb.append(",\"clicks\":").append(totals[order[i]]).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    private static void appendCounts(StringBuilder sb, Map<String, Integer> m) {
+        sb.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Integer> e : m.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            Json.quote(sb, e.getKey()).append(':').append(e.getValue());
+        }
+        sb.append('}');
+    }
+}
@@ -0,0 +1,262 @@
+package urlshortener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hands out short codes in O(1), without hashing and without collisions
+ * between codes it has issued.
+ *
+ * Codes come from a counter of numeric ids. Each id is put through a keyed
+ * bijective scramble of the base62 space, so consecutive ids give unrelated
+ * looking codes of fixed width (7 chars for the first 62^7 ids, then 8, ...).
+ *
+ * Ids are leased in blocks from a small state file (the scramble key and the
+ * next unleased id), which is fsynced before any id in a new block is used.
+ * After a restart allocation resumes above every leased block, so codes are
+ * never reused; ids left in unfinished blocks are simply skipped.
+ *
+ * With {@link #journalTo} every lease is also journaled, so followers keep
+ * the key and high-water mark in their own state file (see {@link #adopt})
+ * and a promoted follower goes on above every id the old leader handed out.
+ *
+ * Strategies:
+ *   sequential - one shared counter; creators serialize on a short lock
+ *   block      - one shared lease, handed out in chunks of 256 ids to stripes
+ *                picked by thread id; a creator takes ids from its stripe's
+ *                chunk with a CAS on a cache line of its own, touches the
+ *                shared lease once per chunk, and only the thread that finds
+ *                the lease used up locks, to lease the next
+ */
+public abstract class CodeAllocator {
+
+    public enum Strategy { SEQUENTIAL, BLOCK }
+
+    private static final int MIN_WIDTH = 7;
+    private static final int MAX_WIDTH = 10;
+
+    private static final ThreadLocal<char[]> BUF = ThreadLocal.withInitial(() -> new char[MAX_WIDTH]);
+
+    private final Leases leases;
+    private final long[] roundKeys = new long[4];
+
+    protected CodeAllocator(Leases leases) {
+        this.leases = leases;
+        long k = leases.key;
+        for (int i = 0; i < roundKeys.length; i++) roundKeys[i] = mix(k += 0x9E3779B97F4A7C15L);
+    }
+
+    public static CodeAllocator open(Path stateFile, Strategy strategy) throws IOException {
+        Leases leases = new Leases(stateFile);
+        return strategy == Strategy.SEQUENTIAL ? new Sequential(leases) : new Block(leases);
+    }
+
+    /**
+     * Appends the current lease to the journal now and every new one as it is
+     * taken, before any id in it is used.
+     */
+    public void journalTo(LinkJournal journal) {
+        leases.journalTo(journal);
+    }
+
+    /**
+     * Takes a leader's key and lease into the state file, so an allocator
+     * opened on it later carries on above that leader's ids.
+     */
+    static void adopt(Path stateFile, long key, long next) throws IOException {
+        if (Files.exists(stateFile)) {
+            Leases own = new Leases(stateFile);
+            if (own.key == key && own.next >= next) return;
+        }
+        new Leases(stateFile, key, next).save();
+    }
+
+    /** A code this allocator (or an earlier run of it) has never returned. */
+    public abstract String next();
+
+    /** Code for a numeric id. Distinct ids always give distinct codes. */
+    final String code(long id) {
+        int width = MIN_WIDTH;
+        while (id >= Base62.POW[width]) {
+            id -= Base62.POW[width];
+            if (++width > MAX_WIDTH) throw new IllegalStateException("Code space exhausted");
+        }
+        char[] buf = BUF.get();
+        Base62.encode(scramble(id, width), width, buf, 0);
+        return new String(buf, 0, width);
+    }
+
+    /**
+     * Bijection on [0, 62^width): a four-round Feistel network over the two
+     * mixed-radix halves of the value, with modular addition so each round is
+     * invertible and the result stays inside the domain (no cycle walking).
+     */
+    final long scramble(long x, int width) {
+        long a = Base62.POW[width / 2];
+        long b = Base62.POW[width - width / 2];
+        long hi = x / b, lo = x % b;
+        hi = (hi + round(lo, 0) % a) % a;
+        lo = (lo + round(hi, 1) % b) % b;
+        hi = (hi + round(lo, 2) % a) % a;
+        lo = (lo + round(hi, 3) % b) % b;
+        return hi * b + lo;
+    }
+
+    private long round(long v, int i) {
+        return mix(v ^ roundKeys[i]) >>> 1;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /** First id of a freshly leased block of {@code size} ids. */
+    protected final long lease(int size) {
+        return leases.lease(size);
+    }
+
+    private static final class Sequential extends CodeAllocator {
+        private static final int LEASE = 1 << 14;
+        private long next, end;
+
+        Sequential(Leases leases) { super(leases); }
+
+        @Override public String next() {
+            long id;
+            synchronized (this) {
+                if (next == end) {
+                    next = lease(LEASE);
+                    end = next + LEASE;
+                }
+                id = next++;
+            }
+            return code(id);
+        }
+    }
+
+    private static final class Block extends CodeAllocator {
+        private static final int LEASE = 1 << 16;
+        private static final int CHUNK = 1 << 8;
+        private static final int PAD = 16; // longs between stripes: one cursor per 128 bytes
+
+        /** One leased block, chunk-aligned; chunks at or past end are claimed by threads that go on to lease the next. */
+        private static final class Range {
+            final AtomicLong next;
+            final long end;
+
+            Range(long start, long end) {
+                this.next = new AtomicLong(start);
+                this.end = end;
+            }
+        }
+
+        private volatile Range range = new Range(0, 0);
+        /** Per stripe, the next id of its chunk; a multiple of CHUNK means the chunk is used up. */
+        private final AtomicLongArray cursors;
+        private final int stripes;
+
+        Block(Leases leases) {
+            super(leases);
+            stripes = Integer.highestOneBit(Math.max(4, Runtime.getRuntime().availableProcessors() * 2 - 1) * 2);
+            cursors = new AtomicLongArray(stripes * PAD);
+        }
+
+        @Override public String next() {
+            int i = ((int) Thread.currentThread().getId() & (stripes - 1)) * PAD;
+            while (true) {
+                long id = cursors.get(i);
+                if ((id & (CHUNK - 1)) != 0) {
+                    if (cursors.compareAndSet(i, id, id + 1)) return code(id);
+                    continue;
+                }
+                long start = chunk();
+                cursors.compareAndSet(i, id, start + 1); // if another thread got there first, the rest of this chunk is skipped
+                return code(start);
+            }
+        }
+
+        /** First id of a fresh chunk from the shared lease, leasing the next block when it is used up. */
+        private long chunk() {
+            while (true) {
+                Range r = range;
+                long start = r.next.getAndAdd(CHUNK);
+                if (start < r.end) return start;
+                synchronized (this) {
+                    if (range == r) {
+                        long s = lease(LEASE);
+                        range = new Range((s + CHUNK - 1) & -CHUNK, (s + LEASE) & -CHUNK);
+                    }
+                }
+            }
+        }
+    }
+
+    /** Scramble key and lease high-water mark, kept in a two-line text file. */
+    static final class Leases {
+        private final Path file;
+        final long key;
+        private long next;
+        private LinkJournal journal;
+
+        Leases(Path file) throws IOException {
+            this.file = file.toAbsolutePath();
+            if (Files.exists(this.file)) {
+                long k = 0, n = -1;
+                List<String> lines = Files.readAllLines(this.file, StandardCharsets.UTF_8);
+                for (String line : lines) {
+                    if (line.startsWith("key=")) k = Long.parseUnsignedLong(line.substring(4), 16);
+                    else if (line.startsWith("next=")) n = Long.parseLong(line.substring(5));
+                }
+                if (n < 0) throw new IOException("Corrupt id state file: " + this.file);
+                key = k;
+                next = n;
+            } else {
+                key = new SecureRandom().nextLong();
+                next = 0;
+                save();
+            }
+        }
+
+        private Leases(Path file, long key, long next) {
+            this.file = file.toAbsolutePath();
+            this.key = key;
+            this.next = next;
+        }
+
+        synchronized void journalTo(LinkJournal journal) {
+            this.journal = journal;
+            journal.appendLease(key, next);
+        }
+
+        synchronized long lease(int size) {
+            long start = next;
+            next += size;
+            try {
+                save();
+            } catch (IOException e) {
+                next = start;
+                throw new UncheckedIOException("Cannot persist id lease", e);
+            }
+            if (journal != null) journal.appendLease(key, next);
+            return start;
+        }
+
+        private void save() throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            String body = "key=" + Long.toHexString(key) + "\nnext=" + next + "\n";
+            try (FileOutputStream out = new FileOutputStream(tmp.toFile())) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+                out.getFD().sync();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LinkJournal.syncDirectory(file.getParent());
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package urlshortener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} decorator that answers lookups of codes that were never
+ * stored without asking the store, using a Bloom filter of every code.
+ *
+ * The filter is blocked: all bits of a code sit in one 512-bit block (one
+ * cache line), so a check costs a single memory access. Codes are added
+ * before the store sees them, so a lookup racing a create can only pass.
+ * Deleted codes stay in the filter (and show up as false positives) until
+ * the next rebuild, which runs in the background once enough codes were
+ * deleted or the filter is over capacity. Until the first build finishes
+ * every lookup goes to the store.
+ */
+public class CodeFilter implements LinkStore {
+
+    private static final int BITS_PER_CODE = 10;
+    private static final int HASHES = 7;
+    private static final int MIN_CAPACITY = 1 << 16;
+    private static final CompletableFuture<Link> NONE = CompletableFuture.completedFuture(null);
+
+    private final LinkStore store;
+
+    /** Time per filter check, sampled (1 in 64). */
+    public final Metrics.Histogram checks = new Metrics.Histogram();
+    private final LongAdder rejects = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder rebuilds = new LongAdder();
+
+    // Creates hold the read lock from filter add to store insert; a rebuild
+    // takes the write lock to start, so every code is either already in the
+    // store when it walks it or gets added to the new filter too.
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile Bloom current; // null until the first build finishes: everything passes
+    private volatile Bloom next;    // being built
+    private final AtomicBoolean building = new AtomicBoolean();
+    private final LongAdder removedSinceBuild = new LongAdder();
+
+    public CodeFilter(LinkStore store) {
+        this.store = store;
+    }
+
+    /** The wrapped store. */
+    public LinkStore delegate() {
+        return store;
+    }
+
+    /** False only if {@code code} was never stored (since the last rebuild). */
+    public boolean mightContain(String code) {
+        Bloom b = current;
+        if (b == null) return true;
+        if ((ThreadLocalRandom.current().nextInt() & 63) != 0) return b.mightContain(hash(code));
+        long t = System.nanoTime();
+        boolean maybe = b.mightContain(hash(code));
+        checks.since(t);
+        return maybe;
+    }
+
+    /** Builds a fresh filter from the store on a background thread, unless one is already building. */
+    public void rebuildAsync() {
+        if (!building.compareAndSet(false, true)) return;
+        Thread t = new Thread(() -> {
+            try {
+                rebuild();
+            } finally {
+                building.set(false);
+            }
+        }, "code-filter");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void rebuild() {
+        Bloom b = new Bloom(Math.max(MIN_CAPACITY, store.size() * 2));
+        lock.writeLock().lock();
+        try {
+            next = b;
+            removedSinceBuild.reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        store.forEach(l -> b.add(hash(l.code)));
+        current = b;
+        next = null; // after current: adders read next first, so none misses both
+        rebuilds.increment();
+    }
+
+    private void add(String code) {
+        long h = hash(code);
+        Bloom n = next, c = current;
+        if (n != null) n.add(h);
+        if (c != null && c != n) c.add(h);
+        if (c != null && c.added() > c.capacity) rebuildAsync();
+    }
+
+    // --- Metrics ---
+
+    /** Lookups answered by the filter alone. */
+    public long rejects() {
+        return rejects.sum();
+    }
+
+    /** Lookups the filter let through for codes the store did not have. */
+    public long falsePositives() {
+        return falsePositives.sum();
+    }
+
+    /** Of the lookups for codes that do not exist, the fraction that still reached the store. */
+    public double falsePositiveRatio() {
+        long fp = falsePositives.sum(), all = fp + rejects.sum();
+        return all == 0 ? 0 : (double) fp / all;
+    }
+
+    public long rebuilds() {
+        return rebuilds.sum();
+    }
+
+    public long bytes() {
+        Bloom c = current, n = next;
+        return (c == null ? 0 : c.bytes()) + (n == null || n == c ? 0 : n.bytes());
+    }
+
+    // --- LinkStore ---
+
+    @Override public String get(String code) {
+        Link l = link(code);
+        return l == null ? null : l.url;
+    }
+
+    @Override public Link link(String code) {
+        if (!mightContain(code)) {
+            rejects.increment();
+            return null;
+        }
+        Link l = store.link(code);
+        if (l == null) falsePositives.increment();
+        return l;
+    }
+
+    @Override public CompletableFuture<Link> linkAsync(String code) {
+        if (!mightContain(code)) {
+            rejects.increment();
+            return NONE;
+        }
+        CompletableFuture<Link> f = store.linkAsync(code);
+        if (f.isDone() && !f.isCompletedExceptionally()) {
+            if (f.getNow(null) == null) falsePositives.increment();
+            return f;
+        }
+        return f.thenApply(l -> {
+            if (l == null) falsePositives.increment();
+            return l;
+        });
+    }
+
+    @Override public String codeFor(String url) {
+        return store.codeFor(url);
+    }
+
+    @Override public String put(Link link) {
+        lock.readLock().lock();
+        try {
+            add(link.code);
+            return store.put(link);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        lock.readLock().lock();
+        try {
+            return store.shorten(url, created, temporary, () -> {
+                String code = newCode.get();
+                add(code);
+                return code;
+            });
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override public boolean remove(String code) {
+        if (!store.remove(code)) return false;
+        removedSinceBuild.increment();
+        Bloom c = current;
+        if (c != null && removedSinceBuild.sum() > c.capacity / 8) rebuildAsync();
+        return true;
+    }
+
+    @Override public int size() {
+        return store.size();
+    }
+
+    @Override public long codeRetries() {
+        return store.codeRetries();
+    }
+
+    @Override public long removals() {
+        return store.removals();
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        store.forEach(action);
+    }
+
+    // --- Filter ---
+
+    /** 64-bit hash of a code's chars (FNV-1a, then a murmur3 finalizer). */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        return mix(h);
+    }
+
+    /** {@link #hash(String)} of a code given as ASCII bytes {@code b[from..to)}. */
+    static long hash(byte[] b, int from, int to) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = from; i < to; i++) h = (h ^ b[i]) * 0x100000001b3L;
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** Blocked Bloom filter: the high 32 hash bits pick a 512-bit block, a remix of the hash places 7 bits in it. */
+    private static final class Bloom {
+        final int capacity;
+        private final AtomicLongArray words;
+        private final int blockMask;
+        private final LongAdder added = new LongAdder();
+
+        Bloom(int capacity) {
+            this.capacity = capacity;
+            long blocks = Math.max(1, (long) capacity * BITS_PER_CODE / 512);
+            int n = Integer.highestOneBit((int) Math.min(blocks, 1 << 26));
+            if (n < blocks && n < 1 << 26) n <<= 1;
+            blockMask = n - 1;
+            words = new AtomicLongArray(n * 8);
+        }
+
+        void add(long h) {
+            int base = ((int) (h >>> 32) & blockMask) << 3;
+            long p = bits(h);
+            for (int i = 0; i < HASHES; i++, p >>>= 9) {
+                int bit = (int) p & 511;
+                long mask = 1L << bit;
+                int w = base + (bit >>> 6);
+                long old;
+                while (((old = words.get(w)) & mask) == 0 && !words.compareAndSet(w, old, old | mask)) {
+                    // lost a race with another add in the same word; retry
+                }
+            }
+            added.increment();
+        }
+
+        boolean mightContain(long h) {
+            int base = ((int) (h >>> 32) & blockMask) << 3;
+            long p = bits(h);
+            for (int i = 0; i < HASHES; i++, p >>>= 9) {
+                int bit = (int) p & 511;
+                if ((words.get(base + (bit >>> 6)) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        private static long bits(long h) {
+            h = (h ^ (h >>> 31)) * 0xbf58476d1ce4e5b9L;
+            return h ^ (h >>> 27);
+        }
+
+        long added() {
+            return added.sum();
+        }
+
+        long bytes() {
+            return words.length() * 8L;
+        }
+    }
+}
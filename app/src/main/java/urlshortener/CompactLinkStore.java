@@ -0,0 +1,686 @@
+package urlshortener;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} that keeps links as bytes instead of objects, for tens of
+ * millions of links (--store=compact, or --store=offheap for the arena outside
+ * the Java heap).
+ *
+ * Each link is one record in an append-only byte arena: code, URL and created
+ * timestamp, UTF-8. The scheme://host[:port] part of the URL is stored once in
+ * a prefix dictionary and the record keeps its id; a "yyyy-MM-dd HH:mm:ss"
+ * timestamp is kept as seconds. Two primitive hash tables point at records:
+ * codes packed into a long (bijective base62, up to 10 chars; other codes go
+ * to a small map) and a 64-bit fingerprint of the URL, checked against the
+ * record's URL so a fingerprint collision only costs another probe.
+ *
+ * Reads take no locks. Writes lock by URL as in {@link ConcurrentLinkStore},
+ * with the same ordering: creates add code -> record first, deletes drop the
+ * URL's entry first. Removed records stay in the arena for the life of the
+ * store: their bytes only come back when the process restarts and rebuilds
+ * the store from the snapshot and journal. Compaction does not rebuild it
+ * (see {@link SnapshotLinkStore}), so heavy delete or expiry churn grows the
+ * arena by the size of every removed record.
+ */
+public class CompactLinkStore implements LinkStore {
+
+    private static final int STRIPES = 256; // power of two
+    private static final int CHUNK = 4 << 20;
+    private static final int MAX_PREFIXES = 1 << 16;
+    private static final int MAX_PREFIX_LENGTH = 255;
+    private static final long ABSENT = -1;
+
+    private static final int TEMPORARY = 1, CREATED_SECONDS = 2, CREATED_NULL = 4;
+
+    private final Arena arena;
+    private final Table codes = new Table();      // packed code -> record
+    private final Table urls = new Table();       // URL fingerprint -> record; a fingerprint may repeat
+    private final ConcurrentHashMap<String, Long> otherCodes = new ConcurrentHashMap<>(); // codes that do not pack
+    private final ConcurrentHashMap<String, Integer> prefixIds = new ConcurrentHashMap<>();
+    private volatile String[] prefixes = new String[64]; // by id; id 0 is "no prefix"
+    private final Object[] locks = new Object[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+    private final LongAdder retries = new LongAdder();
+    private final AtomicLong removals = new AtomicLong();
+
+    public CompactLinkStore() {
+        this(false);
+    }
+
+    /** @param offHeap keep the arena in direct buffers, outside the Java heap */
+    public CompactLinkStore(boolean offHeap) {
+        arena = new Arena(offHeap);
+        prefixes[0] = "";
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    }
+
+    private Object lockFor(String url) {
+        int h = url.hashCode();
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    // --- LinkStore ---
+
+    @Override public String get(String code) {
+        long r = record(code);
+        if (r == ABSENT) return null;
+        Cursor c = new Cursor(arena, r);
+        c.skip(c.varint());
+        return url(c);
+    }
+
+    @Override public Link link(String code) {
+        long r = record(code);
+        if (r == ABSENT) return null;
+        Cursor c = new Cursor(arena, r);
+        c.skip(c.varint());
+        return rest(code, c);
+    }
+
+    @Override public String codeFor(String url) {
+        long r = urlRecord(url);
+        return r == ABSENT ? null : codeAt(r);
+    }
+
+    @Override public String put(Link link) {
+        String url = link.url;
+        synchronized (lockFor(url)) {
+            long r = record(link.code);
+            if (r == ABSENT) {
+                r = arena.append(encode(link.code), encodeRest(url, link.created, link.temporary));
+                long prev = addCode(link.code, r);
+                if (prev != ABSENT) return urlAt(prev); // made meanwhile for a URL of another stripe
+                size.incrementAndGet();
+            } else if (!urlEquals(r, url)) {
+                return urlAt(r);
+            }
+            urls.put(fingerprint(url), r, o -> urlEquals(o, url));
+            return null;
+        }
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        synchronized (lockFor(url)) {
+            long existing = urlRecord(url);
+            if (existing != ABSENT) return codeAt(existing);
+            byte[] rest = encodeRest(url, created, temporary);
+            while (true) {
+                String code = newCode.get();
+                if (record(code) == ABSENT) {
+                    long r = arena.append(encode(code), rest);
+                    if (addCode(code, r) == ABSENT) {
+                        size.incrementAndGet();
+                        urls.put(fingerprint(url), r, o -> urlEquals(o, url));
+                        return code;
+                    }
+                }
+                retries.increment();
+            }
+        }
+    }
+
+    @Override public boolean remove(String code) {
+        while (true) {
+            long r = record(code);
+            if (r == ABSENT) return false;
+            String url = urlAt(r);
+            synchronized (lockFor(url)) {
+                // Re-check under the lock: the code may have been removed and
+                // re-created for another URL (another stripe) meanwhile.
+                if (record(code) != r) continue;
+                urls.remove(fingerprint(url), r);
+                long key = pack(code);
+                if (key != 0) codes.remove(key, r);
+                else otherCodes.remove(code, r);
+                size.decrementAndGet();
+                removals.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    @Override public int size() {
+        return size.get();
+    }
+
+    @Override public long codeRetries() {
+        return retries.sum();
+    }
+
+    @Override public long removals() {
+        return removals.get();
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        LongConsumer each = r -> action.accept(linkAt(r));
+        codes.forEach(each);
+        for (Long r : otherCodes.values()) each.accept(r);
+    }
+
+    // --- Memory ---
+
+    /** Bytes appended to the arena so far, removed links included. */
+    public long arenaBytes() {
+        return arena.used();
+    }
+
+    /** Bytes held by the two hash tables. */
+    public long tableBytes() {
+        return codes.bytes() + urls.bytes();
+    }
+
+    /** Distinct scheme://host prefixes stored once instead of per link. */
+    public int prefixCount() {
+        return prefixIds.size();
+    }
+
+    // --- Codes ---
+
+    /**
+     * Bijective base62 of a code of 1 to 10 chars [0-9A-Za-z], or 0 if it has
+     * another char or is longer. Every digit counts from 1, so codes with
+     * leading zeros ("0a" and "a") stay distinct; 10 digits reach about 8.5e17.
+     */
+    static long pack(String code) {
+        int n = code.length();
+        if (n == 0 || n > 10) return 0;
+        long v = 0;
+        for (int i = 0; i < n; i++) {
+            char ch = code.charAt(i);
+            int d = ch < 128 ? DIGITS[ch] : 0;
+            if (d == 0) return 0;
+            v = v * 62 + d;
+        }
+        return v;
+    }
+
+    /** Base62 digit + 1 by ASCII char, 0 for any other char; a table, as random codes defeat branch prediction. */
+    private static final byte[] DIGITS = new byte[128];
+    static {
+        for (int i = 0; i < Base62.ALPHABET.length; i++) DIGITS[Base62.ALPHABET[i]] = (byte) (i + 1);
+    }
+
+    private long record(String code) {
+        long key = pack(code);
+        if (key != 0) return codes.get(key);
+        Long r = otherCodes.get(code);
+        return r == null ? ABSENT : r;
+    }
+
+    /** Adds code -> record unless the code is taken; returns the taking record, or ABSENT. */
+    private long addCode(String code, long r) {
+        long key = pack(code);
+        if (key != 0) return codes.putIfAbsent(key, r);
+        Long prev = otherCodes.putIfAbsent(code, r);
+        return prev == null ? ABSENT : prev;
+    }
+
+    private long urlRecord(String url) {
+        return urls.find(fingerprint(url), r -> urlEquals(r, url));
+    }
+
+    /** 64-bit hash of a URL's chars, four at a time, then a murmur3 finalizer. */
+    static long fingerprint(String s) {
+        int n = s.length(), i = 0;
+        long h = 0xcbf29ce484222325L ^ n;
+        for (; i + 4 <= n; i += 4) {
+            long w = s.charAt(i) | (long) s.charAt(i + 1) << 16 | (long) s.charAt(i + 2) << 32 | (long) s.charAt(i + 3) << 48;
+            h = Long.rotateLeft(h ^ w * 0x9E3779B97F4A7C15L, 29) * 0xff51afd7ed558ccdL;
+        }
+        for (; i < n; i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        h = mix(h);
+        return h == 0 ? 1 : h; // 0 marks an empty slot
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    // --- Records ---
+    //
+    //   varint code length, code       UTF-8
+    //   varint prefix id               0 = none
+    //   varint suffix length, suffix   UTF-8, the URL after the prefix
+    //   flags                          TEMPORARY, CREATED_SECONDS, CREATED_NULL
+    //   created                        zigzag varint seconds, or varint length + UTF-8
+
+    private static byte[] encode(String code) {
+        byte[] b = code.getBytes(StandardCharsets.UTF_8);
+        Out o = new Out(b.length + 5);
+        o.bytes(b);
+        return o.toArray();
+    }
+
+    private byte[] encodeRest(String url, String created, boolean temporary) {
+        int pid = prefixId(url);
+        byte[] suffix = url.substring(prefixes[pid].length()).getBytes(StandardCharsets.UTF_8);
+        Out o = new Out(suffix.length + 32);
+        o.varint(pid);
+        o.bytes(suffix);
+        long seconds = created == null ? Long.MIN_VALUE : packCreated(created);
+        if (created == null) {
+            o.flags(CREATED_NULL, temporary);
+        } else if (seconds != Long.MIN_VALUE) {
+            o.flags(CREATED_SECONDS, temporary);
+            o.varint((seconds << 1) ^ (seconds >> 63));
+        } else {
+            o.flags(0, temporary);
+            o.bytes(created.getBytes(StandardCharsets.UTF_8));
+        }
+        return o.toArray();
+    }
+
+    private String codeAt(long r) {
+        Cursor c = new Cursor(arena, r);
+        return c.string(c.varint());
+    }
+
+    private String urlAt(long r) {
+        Cursor c = new Cursor(arena, r);
+        c.skip(c.varint());
+        return url(c);
+    }
+
+    private Link linkAt(long r) {
+        Cursor c = new Cursor(arena, r);
+        return rest(c.string(c.varint()), c);
+    }
+
+    private String url(Cursor c) {
+        String prefix = prefixes[c.varint()];
+        String suffix = c.string(c.varint());
+        return prefix.isEmpty() ? suffix : prefix.concat(suffix);
+    }
+
+    private Link rest(String code, Cursor c) {
+        String url = url(c);
+        int flags = c.get();
+        String created;
+        if ((flags & CREATED_NULL) != 0) {
+            created = null;
+        } else if ((flags & CREATED_SECONDS) != 0) {
+            long z = c.varlong();
+            created = formatCreated((z >>> 1) ^ -(z & 1));
+        } else {
+            created = c.string(c.varint());
+        }
+        return new Link(code, url, created, (flags & TEMPORARY) != 0);
+    }
+
+    /** Compares the record's URL with {@code url} without building it. */
+    private boolean urlEquals(long r, String url) {
+        Cursor c = new Cursor(arena, r);
+        c.skip(c.varint());
+        String prefix = prefixes[c.varint()];
+        if (!url.startsWith(prefix)) return false;
+        int n = c.varint(), at = prefix.length();
+        if (url.length() - at > n || url.length() - at < n / 3) return false; // UTF-8 takes 1-3 bytes a char
+        for (int i = 0; i < n; i++, at++) {
+            int b = c.get();
+            if (b >= 0x80) { // not ASCII: decode the rest and compare that
+                c.skip(-1);
+                String rest = c.string(n - i);
+                return rest.length() == url.length() - at && url.regionMatches(at, rest, 0, rest.length());
+            }
+            if (at >= url.length() || url.charAt(at) != b) return false;
+        }
+        return at == url.length();
+    }
+
+    /** Id of the URL's scheme://host[:port], assigning one if there is room; 0 for none. */
+    private int prefixId(String url) {
+        int scheme = url.indexOf("://");
+        if (scheme <= 0 || scheme > 16) return 0;
+        int end = scheme + 3;
+        while (end < url.length()) {
+            char ch = url.charAt(end);
+            if (ch == '/' || ch == '?' || ch == '#') break;
+            end++;
+        }
+        if (end > MAX_PREFIX_LENGTH) return 0;
+        String prefix = url.substring(0, end);
+        Integer id = prefixIds.get(prefix);
+        if (id != null) return id;
+        synchronized (prefixIds) {
+            id = prefixIds.get(prefix);
+            if (id != null) return id;
+            int next = prefixIds.size() + 1;
+            if (next >= MAX_PREFIXES) return 0;
+            String[] p = prefixes;
+            if (next == p.length) p = Arrays.copyOf(p, p.length * 2);
+            p[next] = prefix;
+            prefixes = p;
+            prefixIds.put(prefix, next);
+            return next;
+        }
+    }
+
+    /** Seconds for a "yyyy-MM-dd HH:mm:ss" timestamp that formats back to the same text, else Long.MIN_VALUE. */
+    static long packCreated(String s) {
+        if (s.length() != 19 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != ' '
+                || s.charAt(13) != ':' || s.charAt(16) != ':') return Long.MIN_VALUE;
+        int year = digits(s, 0, 4), month = digits(s, 5, 2), day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2), minute = digits(s, 14, 2), second = digits(s, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) return Long.MIN_VALUE;
+        try {
+            return LocalDateTime.of(year, month, day, hour, minute, second).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeException e) {
+            return Long.MIN_VALUE;
+        }
+    }
+
+    static String formatCreated(long seconds) {
+        LocalDateTime t = LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+        char[] c = "0000-00-00 00:00:00".toCharArray();
+        put(c, 0, 4, t.getYear());
+        put(c, 5, 2, t.getMonthValue());
+        put(c, 8, 2, t.getDayOfMonth());
+        put(c, 11, 2, t.getHour());
+        put(c, 14, 2, t.getMinute());
+        put(c, 17, 2, t.getSecond());
+        return new String(c);
+    }
+
+    private static int digits(String s, int at, int n) {
+        int v = 0;
+        for (int i = at; i < at + n; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') return -1;
+            v = v * 10 + ch - '0';
+        }
+        return v;
+    }
+
+    private static void put(char[] c, int at, int n, int v) {
+        for (int i = at + n - 1; i >= at; i--, v /= 10) c[i] = (char) ('0' + v % 10);
+    }
+
+    /** Record builder. */
+    private static final class Out {
+        private byte[] buf;
+        private int n;
+
+        Out(int capacity) {
+            buf = new byte[capacity];
+        }
+
+        void varint(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[n++] = (byte) (v | 0x80);
+                v >>>= 7;
+            }
+            buf[n++] = (byte) v;
+        }
+
+        void bytes(byte[] b) {
+            varint(b.length);
+            ensure(b.length);
+            System.arraycopy(b, 0, buf, n, b.length);
+            n += b.length;
+        }
+
+        void flags(int flags, boolean temporary) {
+            ensure(1);
+            buf[n++] = (byte) (temporary ? flags | TEMPORARY : flags);
+        }
+
+        private void ensure(int more) {
+            if (n + more > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, n + more));
+        }
+
+        byte[] toArray() {
+            return n == buf.length ? buf : Arrays.copyOf(buf, n);
+        }
+    }
+
+    /** Reads one record. */
+    private static final class Cursor {
+        private final ByteBuffer b;
+        private final byte[] a; // b's array when on the heap
+        private int pos;
+
+        Cursor(Arena arena, long r) {
+            b = arena.chunk(r);
+            a = b.hasArray() ? b.array() : null;
+            pos = (int) r;
+        }
+
+        int get() {
+            return (a != null ? a[pos++] : b.get(pos++)) & 0xFF;
+        }
+
+        void skip(int n) {
+            pos += n;
+        }
+
+        int varint() {
+            return (int) varlong();
+        }
+
+        long varlong() {
+            long v = 0;
+            for (int shift = 0; ; shift += 7) {
+                int x = get();
+                v |= (long) (x & 0x7F) << shift;
+                if (x < 0x80) return v;
+            }
+        }
+
+        String string(int n) {
+            String s;
+            if (a != null) {
+                s = new String(a, pos, n, StandardCharsets.UTF_8);
+            } else {
+                byte[] t = new byte[n];
+                for (int i = 0; i < n; i++) t[i] = b.get(pos + i);
+                s = new String(t, StandardCharsets.UTF_8);
+            }
+            pos += n;
+            return s;
+        }
+    }
+
+    /**
+     * Append-only chunks of records, addressed by chunk index (high 32 bits)
+     * and position. A record never spans chunks. Readers only use absolute
+     * gets and reach a record through a table entry written after it.
+     */
+    private static final class Arena {
+        private final boolean direct;
+        private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+        private ByteBuffer tail; // guarded by this
+        private long used;       // guarded by this
+
+        Arena(boolean direct) {
+            this.direct = direct;
+        }
+
+        ByteBuffer chunk(long r) {
+            return chunks[(int) (r >>> 32)];
+        }
+
+        synchronized long append(byte[] a, byte[] b) {
+            int n = a.length + b.length;
+            if (tail == null || tail.remaining() < n) {
+                int size = Math.max(CHUNK, n);
+                tail = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+                ByteBuffer[] c = Arrays.copyOf(chunks, chunks.length + 1);
+                c[c.length - 1] = tail;
+                chunks = c;
+            }
+            long r = ((long) (chunks.length - 1) << 32) | tail.position();
+            tail.put(a).put(b);
+            used += n;
+            return r;
+        }
+
+        synchronized long used() {
+            return used;
+        }
+    }
+
+    /**
+     * Open-addressing long -> long table of (key, value) slot pairs in 64
+     * segments that each grow under their own lock. Key 0 is an empty slot;
+     * a removed entry keeps its key with value ABSENT until the segment is
+     * next rehashed. Writers set the value before the key, and readers find
+     * the current slots through a volatile field, so lookups take no locks.
+     */
+    private static final class Table {
+        private static final int SEGMENTS = 64;
+
+        private final Segment[] segments = new Segment[SEGMENTS];
+
+        Table() {
+            for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment();
+        }
+
+        private static final class Segment {
+            volatile AtomicLongArray slots = new AtomicLongArray(2 * 16);
+            int used; // slots with a key, removed ones included; guarded by this
+        }
+
+        private Segment segment(long h) {
+            return segments[(int) (h >>> 58)];
+        }
+
+        long get(long key) {
+            return find(key, null);
+        }
+
+        /** First live value under {@code key} that {@code match} accepts (any, if null), or ABSENT. */
+        long find(long key, LongPredicate match) {
+            long h = mix(key);
+            AtomicLongArray s = segment(h).slots;
+            int mask = s.length() / 2 - 1;
+            for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                long k = s.get(2 * i);
+                if (k == 0) return ABSENT;
+                if (k == key) {
+                    long v = s.get(2 * i + 1);
+                    if (v != ABSENT && (match == null || match.test(v))) return v;
+                }
+            }
+        }
+
+        long putIfAbsent(long key, long value) {
+            return put(key, value, null, false);
+        }
+
+        /** Points the live entry {@code match} accepts at {@code value}, or adds one. */
+        void put(long key, long value, LongPredicate match) {
+            put(key, value, match, true);
+        }
+
+        private long put(long key, long value, LongPredicate match, boolean replace) {
+            long h = mix(key);
+            Segment seg = segment(h);
+            synchronized (seg) {
+                AtomicLongArray s = seg.slots;
+                int mask = s.length() / 2 - 1, reuse = -1, i;
+                for (i = (int) h & mask; ; i = (i + 1) & mask) {
+                    long k = s.get(2 * i);
+                    if (k == 0) break;
+                    if (k != key) continue;
+                    long v = s.get(2 * i + 1);
+                    if (v == ABSENT) {
+                        if (reuse < 0) reuse = i;
+                    } else if (match == null || match.test(v)) {
+                        if (replace) s.set(2 * i + 1, value);
+                        return v;
+                    }
+                }
+                if (reuse >= 0) {
+                    s.set(2 * reuse + 1, value);
+                    return ABSENT;
+                }
+                if ((seg.used + 1) * 4L > (s.length() / 2) * 3L) {
+                    s = rehash(seg);
+                    mask = s.length() / 2 - 1;
+                    for (i = (int) h & mask; s.get(2 * i) != 0; i = (i + 1) & mask) { }
+                }
+                s.set(2 * i + 1, value);
+                s.set(2 * i, key);
+                seg.used++;
+                return ABSENT;
+            }
+        }
+
+        boolean remove(long key, long value) {
+            long h = mix(key);
+            Segment seg = segment(h);
+            synchronized (seg) {
+                AtomicLongArray s = seg.slots;
+                int mask = s.length() / 2 - 1;
+                for (int i = (int) h & mask; ; i = (i + 1) & mask) {
+                    long k = s.get(2 * i);
+                    if (k == 0) return false;
+                    if (k == key && s.get(2 * i + 1) == value) {
+                        s.set(2 * i + 1, ABSENT);
+                        return true;
+                    }
+                }
+            }
+        }
+
+        /** Copies the live entries into slots at most half full and publishes them. */
+        private static AtomicLongArray rehash(Segment seg) {
+            AtomicLongArray old = seg.slots;
+            int live = 0;
+            for (int i = 1; i < old.length(); i += 2) {
+                if (old.get(i - 1) != 0 && old.get(i) != ABSENT) live++;
+            }
+            int cap = 16;
+            while (cap < (live + 1) * 2) cap <<= 1;
+            AtomicLongArray s = new AtomicLongArray(2 * cap);
+            for (int j = 0; j < old.length(); j += 2) {
+                long k = old.get(j), v = old.get(j + 1);
+                if (k == 0 || v == ABSENT) continue;
+                int i = (int) mix(k) & (cap - 1);
+                while (s.get(2 * i) != 0) i = (i + 1) & (cap - 1);
+                s.lazySet(2 * i + 1, v);
+                s.lazySet(2 * i, k);
+            }
+            seg.slots = s;
+            seg.used = live;
+            return s;
+        }
+
+        void forEach(LongConsumer action) {
+            for (Segment seg : segments) {
+                AtomicLongArray s = seg.slots;
+                for (int i = 0; i < s.length(); i += 2) {
+                    if (s.get(i) == 0) continue;
+                    long v = s.get(i + 1);
+                    if (v != ABSENT) action.accept(v);
+                }
+            }
+        }
+
+        long bytes() {
+            long n = 0;
+            for (Segment seg : segments) n += seg.slots.length() * 8L;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package urlshortener;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} on two ConcurrentHashMaps.
+ *
+ * Reads go straight to the maps. Writes take one of a fixed set of striped
+ * locks chosen by URL, so creators of different URLs run in parallel while
+ * the two directions of a single URL change together. Code uniqueness comes
+ * from putIfAbsent on the forward map.
+ *
+ * Ordering keeps the reverse map a subset of the forward map for lock-free
+ * readers: creates write code -> url first, deletes drop url -> code first.
+ */
+public class ConcurrentLinkStore implements LinkStore {
+
+    private static final int STRIPES = 256; // power of two
+
+    private final ConcurrentHashMap<String, Link> codeToUrl = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, String> urlToCode = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder retries = new LongAdder();
+    private final AtomicLong removals = new AtomicLong();
+
+    public ConcurrentLinkStore() {
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    }
+
+    private Object lockFor(String url) {
+        int h = url.hashCode();
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    @Override public String get(String code) {
+        Link l = codeToUrl.get(code);
+        return l == null ? null : l.url;
+    }
+
+    @Override public Link link(String code) {
+        return codeToUrl.get(code);
+    }
+
+    @Override public String codeFor(String url) {
+        return urlToCode.get(url);
+    }
+
+    @Override public String put(Link link) {
+        synchronized (lockFor(link.url)) {
+            Link prev = codeToUrl.putIfAbsent(link.code, link);
+            if (prev != null && !prev.url.equals(link.url)) return prev.url;
+            urlToCode.put(link.url, link.code);
+            return null;
+        }
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        synchronized (lockFor(url)) {
+            String existing = urlToCode.get(url);
+            if (existing != null) return existing;
+            String code = newCode.get();
+            while (codeToUrl.putIfAbsent(code, new Link(code, url, created, temporary)) != null) {
+                retries.increment();
+                code = newCode.get();
+            }
+            urlToCode.put(url, code);
+            return code;
+        }
+    }
+
+    @Override public long codeRetries() {
+        return retries.sum();
+    }
+
+    @Override public long removals() {
+        return removals.get();
+    }
+
+    @Override public boolean remove(String code) {
+        while (true) {
+            Link link = codeToUrl.get(code);
+            if (link == null) return false;
+            String url = link.url;
+            synchronized (lockFor(url)) {
+                // Re-check under the lock: the code may have been removed and
+                // re-created for another URL (another stripe) meanwhile.
+                if (codeToUrl.get(code) != link) continue;
+                urlToCode.remove(url, code);
+                codeToUrl.remove(code, link);
+                removals.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    @Override public int size() {
+        return codeToUrl.size();
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        codeToUrl.values().forEach(action);
+    }
+}
@@ -0,0 +1,39 @@
+package urlshortener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Minimal RFC 4180-style CSV helpers shared by persistence and export. */
+final class Csv {
+
+    private Csv() {}
+
+    static String field(String s) {
+        if (s == null) return "";
+        if (s.contains(",") || s.contains("\"") || s.contains("\n")) {
+            return "\"" + s.replace("\"", "\"\"") + "\"";
+        }
+        return s;
+    }
+
+    static List<String> parseLine(String line) {
+        List<String> out = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean inQuotes = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (inQuotes) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') { sb.append('"'); i++; }
+                    else { inQuotes = false; }
+                } else sb.append(c);
+            } else {
+                if (c == ',') { out.add(sb.toString()); sb.setLength(0); }
+                else if (c == '"') { inQuotes = true; }
+                else sb.append(c);
+            }
+        }
+        out.add(sb.toString());
+        return out;
+    }
+}
@@ -0,0 +1,512 @@
+package urlshortener;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Read-only copy of a leader's links, kept current over TCP (see
+ * {@link ReplicationLeader}); runs headless instead of the UI with --follow.
+ *
+ * The follower keeps its own data directory (the working directory, laid out
+ * like the leader's) and serves redirects from it with the usual --server
+ * options, plus /metrics and /api/replication. On every connect it takes a
+ * fresh snapshot from the leader, swaps it in once it is complete, and then
+ * applies and journals the leader's records as they come, acking each one
+ * once it is on its own disk. If the leader goes away it tries the next
+ * address in --follow, round and round, serving what it has meanwhile.
+ *
+ * POST /api/replication/promote stops following and turns the follower into
+ * a leader: it starts expiring links, accepts POST /api/shorten and, with
+ * --replicate-port, ships its own journal to the remaining followers (which
+ * find it through their --follow lists and bootstrap from it).
+ *
+ * Followers do not count clicks, and click budgets are enforced by the leader
+ * only; the budgets it checkpoints reach the followers like any other record.
+ */
+public class Follower {
+
+    private static final long READ_TIMEOUT_MILLIS = 30 * ReplicationLeader.HEARTBEAT_MILLIS;
+    private static final long RETRY_MILLIS = 1000;
+    private static final String[] API_PATHS = {"/api/shorten", "/api/replication", "/metrics"};
+    private static final Path IDS = Paths.get(LinkService.DATA_NAME + ".ids");
+
+    private final AppConfig config;
+    private final Replica replica = new Replica();
+    private final RedirectHandler handler;
+    private final Metrics metrics = new Metrics();
+
+    // Owned by the follow thread until promotion; read by the API.
+    private volatile LinkJournal journal;
+    private volatile SnapshotLinkStore links;
+    private volatile LinkExpiry expiry;
+
+    private volatile String leaderAddress;
+    private volatile Socket socket;
+    private volatile boolean connected;
+    private volatile long applied, head, appliedMillis, heardMillis;
+    private final LongAdder appliedTotal = new LongAdder();
+    private final LongAdder bootstraps = new LongAdder();
+    private final Object acks = new Object();
+    private long ackSeq, ackLocal; // leader seq applied and its local journal seq, under acks
+
+    private volatile boolean promoted;
+    private Thread follower;
+    private volatile ReplicationLeader leader;
+    private volatile BulkImporter importer;
+
+    private HttpServer server;
+    private NioRedirectServer nioServer;
+    private int port, apiPort;
+
+    Follower(AppConfig config) {
+        this.config = config;
+        this.handler = new RedirectHandler(new MeteredLinkStore(replica), null,
+                config.missRate > 0 ? new MissLimiter(config.missRate, config.missBurst) : null, null);
+    }
+
+    /** Runs a follower for --follow until the JVM exits. */
+    static void run(AppConfig config) throws IOException, InterruptedException {
+        Follower f = new Follower(config);
+        f.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(f::close, "replica-shutdown"));
+        f.follower.join();
+        Thread.currentThread().join(); // promoted: keep serving
+    }
+
+    void start() throws IOException {
+        long t = System.nanoTime();
+        open();
+        System.out.printf("Loaded %d links in %.0f ms%n", links.size(), (System.nanoTime() - t) / 1e6);
+        registerMetrics();
+        startServer();
+        follower = new Thread(this::followLoop, "replica");
+        follower.start();
+    }
+
+    /** Opens whatever copy is on disk and serves it. */
+    private void open() throws IOException {
+        LinkJournal j = LinkService.newJournal(config);
+        LinkExpiry e = new LinkExpiry(j, this::removeExpired);
+        links = LinkService.recoverStore(j, config, e);
+        journal = j;
+        expiry = e;
+        replica.swap(links);
+    }
+
+    // --- Following ---
+
+    private void followLoop() {
+        for (int i = 0; !promoted; i = (i + 1) % config.follow.length) {
+            String address = config.follow[i];
+            try (Socket s = new Socket()) {
+                socket = s;
+                if (promoted) break;
+                int colon = address.lastIndexOf(':');
+                s.connect(new InetSocketAddress(address.substring(0, colon),
+                        Integer.parseInt(address.substring(colon + 1))), (int) RETRY_MILLIS * 2);
+                s.setSoTimeout((int) READ_TIMEOUT_MILLIS);
+                s.setTcpNoDelay(true);
+                leaderAddress = address;
+                follow(s);
+            } catch (IOException | RuntimeException ex) {
+                if (!promoted && connected) System.err.println("Replication: lost " + address + ": " + ex.getMessage());
+            } finally {
+                connected = false;
+            }
+            if (!promoted && i == config.follow.length - 1) sleep(RETRY_MILLIS);
+        }
+    }
+
+    /** One session with a leader: bootstrap, then apply records until it breaks. */
+    private void follow(Socket s) throws IOException {
+        InputStream in = new BufferedInputStream(s.getInputStream(), 1 << 16);
+        OutputStream out = new BufferedOutputStream(s.getOutputStream());
+        ReplicationLeader.ascii(out, "F\t" + name() + "\n");
+        out.flush();
+        String line = ReplicationLeader.readLine(in);
+        if (line == null || !line.startsWith("L\t")) throw new IOException("Not a leader: " + line);
+        String[] f = line.split("\t");
+        long seq = Long.parseLong(f[1]), t = System.nanoTime();
+        Applier a = bootstrap(in, Long.parseLong(f[2]));
+        heardMillis = System.currentTimeMillis();
+        applied = head = seq;
+        appliedMillis = heardMillis;
+        synchronized (acks) {
+            ackSeq = seq;
+            ackLocal = a.local;
+        }
+        connected = true;
+        bootstraps.increment();
+        System.out.printf("Replication: following %s from seq %d (%d links, copied in %.0f ms)%n",
+                leaderAddress, seq, links.size(), (System.nanoTime() - t) / 1e6);
+        Thread acker = new Thread(() -> sendAcks(s, out), "replica-acks");
+        acker.setDaemon(true);
+        acker.start();
+        try {
+            while ((line = ReplicationLeader.readLine(in)) != null) {
+                heardMillis = System.currentTimeMillis();
+                if (line.startsWith("R\t")) {
+                    int t1 = line.indexOf('\t', 2), t2 = line.indexOf('\t', t1 + 1);
+                    long rs = Long.parseLong(line.substring(2, t1));
+                    if (rs <= applied) continue;
+                    LinkJournal.apply(line.substring(t2 + 1), a);
+                    appliedTotal.increment();
+                    appliedMillis = Long.parseLong(line.substring(t1 + 1, t2));
+                    applied = rs;
+                    if (rs > head) head = rs;
+                    synchronized (acks) {
+                        ackSeq = rs;
+                        ackLocal = a.local;
+                        acks.notifyAll();
+                    }
+                } else if (line.startsWith("H\t")) {
+                    head = Math.max(head, Long.parseLong(line.split("\t")[1]));
+                }
+            }
+        } catch (SocketTimeoutException ex) {
+            throw new IOException("Leader silent for " + READ_TIMEOUT_MILLIS + " ms");
+        } finally {
+            s.close();
+            synchronized (acks) {
+                acks.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Replaces the local copy with the leader's snapshot and the changes since,
+     * then swaps it in for the redirect handler. The old copy keeps serving
+     * until then.
+     */
+    private Applier bootstrap(InputStream in, long bytes) throws IOException {
+        journal.close();
+        LinkJournal j = LinkService.newJournal(config);
+        SnapshotLinkStore s;
+        LinkExpiry e;
+        Applier a;
+        try {
+            j.replaceBase(in, bytes);
+            s = new SnapshotLinkStore(j.openBase(), config.newLinkStore());
+            j.onCompacted(snap -> s.rebase(snap, config.newLinkStore()));
+            j.recover(new LinkJournal.Replay() { // nothing left to replay after replaceBase
+                @Override public void create(Link link) {}
+                @Override public void delete(String code) {}
+            });
+            e = new LinkExpiry(j, this::removeExpired);
+            a = new Applier(s, j, e);
+            for (String line; !"E".equals(line = ReplicationLeader.readLine(in)); ) {
+                if (line == null) throw new EOFException("Bootstrap cut short");
+                LinkJournal.apply(line, a);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Back to what is on disk: the old copy, or the new snapshot and part of its changes.
+            ReplicationLeader.closeQuietly(j);
+            open();
+            throw ex;
+        }
+        journal = j;
+        links = s;
+        expiry = e;
+        replica.swap(s);
+        return a;
+    }
+
+    /** Applies leader records to a store and journals them locally, last writer wins. */
+    private static final class Applier implements LinkJournal.Replay {
+        final SnapshotLinkStore store;
+        final LinkJournal journal;
+        final LinkExpiry expiry;
+        long local; // seq of the last local journal append
+
+        Applier(SnapshotLinkStore store, LinkJournal journal, LinkExpiry expiry) {
+            this.store = store;
+            this.journal = journal;
+            this.expiry = expiry;
+        }
+
+        @Override public void create(Link link) {
+            if (store.put(link) != null) {
+                store.remove(link.code);
+                store.put(link);
+            }
+            local = journal.appendCreate(link);
+        }
+
+        @Override public void delete(String code) {
+            store.remove(code);
+            expiry.clear(code);
+            local = journal.appendDelete(code);
+        }
+
+        @Override public void expiry(String code, long expiresAt, long clicksLeft) {
+            expiry.restore(code, expiresAt, clicksLeft);
+            local = journal.appendExpiry(code, expiresAt, clicksLeft);
+        }
+
+        /** Kept on disk before the records after it are acked: if promoted, codes go on above the leader's. */
+        @Override public void lease(long key, long next) {
+            try {
+                CodeAllocator.adopt(IDS, key, next);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /** Acks the newest applied record once it is durable here; batches naturally behind the fsync. */
+    private void sendAcks(Socket s, OutputStream out) {
+        LinkJournal j = journal;
+        long sent = -1;
+        try {
+            while (!s.isClosed()) {
+                long seq, local;
+                synchronized (acks) {
+                    while (ackSeq == sent && !s.isClosed()) acks.wait();
+                    seq = ackSeq;
+                    local = ackLocal;
+                }
+                if (s.isClosed()) break;
+                j.awaitLocal(local);
+                ReplicationLeader.ascii(out, "A\t" + seq + "\n");
+                out.flush();
+                sent = seq;
+            }
+        } catch (IOException | InterruptedException ex) {
+            ReplicationLeader.closeQuietly(s);
+        }
+    }
+
+    // --- Promotion ---
+
+    /** Stops following and starts taking writes; a no-op if already promoted. */
+    synchronized void promote() throws IOException {
+        if (promoted) return;
+        promoted = true;
+        Socket s = socket;
+        if (s != null) ReplicationLeader.closeQuietly(s);
+        try {
+            follower.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        connected = false;
+        // The follow thread is gone: the journal, store and expiry are ours now.
+        LinkJournal j = journal;
+        if (config.replicatePort >= 0) {
+            ReplicationLeader l = new ReplicationLeader(config.replicatePort, config.replicateAcks,
+                    config.replicateTimeoutMillis, links, expiry);
+            j.tap(l);
+            l.registerMetrics(metrics);
+            leader = l;
+        }
+        expiry.start();
+        handler.setExpiry(expiry);
+        CodeAllocator codes = CodeAllocator.open(IDS, config.codes); // the leader's key, above its leases
+        codes.journalTo(j);
+        String base = "http://localhost:" + port;
+        importer = new BulkImporter(replica, j, codes, new UrlNormalizer(config.stripTracking), () -> base, null,
+                config.threads);
+        System.out.println("Replication: promoted to leader at seq " + applied
+                + (leader != null ? ", followers may connect on port " + leader.port() : ""));
+    }
+
+    /** Deletes links whose expiry came due; only runs once promoted. */
+    private int removeExpired(List<String> codes) {
+        int n = 0;
+        for (String code : codes) {
+            if (!replica.remove(code)) continue;
+            journal.appendDelete(code);
+            n++;
+        }
+        return n;
+    }
+
+    /** Stops following (or leading) and serving. */
+    void close() {
+        promoted = true;
+        ReplicationLeader.closeQuietly(() -> {
+            Socket s = socket;
+            if (s != null) s.close();
+        });
+        if (leader != null) leader.close();
+        if (importer != null) importer.shutdown();
+        try {
+            if (follower != null) follower.join(RETRY_MILLIS * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (server != null) server.stop(0);
+        if (nioServer != null) ReplicationLeader.closeQuietly(nioServer);
+        expiry.close();
+        ReplicationLeader.closeQuietly(journal);
+    }
+
+    // --- Status ---
+
+    long lagRecords() {
+        return Math.max(0, head - applied);
+    }
+
+    /** How far behind the leader's clock the newest applied record is; while disconnected, time since last contact. */
+    long lagMillis() {
+        if (promoted) return 0;
+        long now = System.currentTimeMillis();
+        if (!connected) return heardMillis == 0 ? 0 : now - heardMillis;
+        return applied >= head ? 0 : Math.max(0, now - appliedMillis);
+    }
+
+    String toJson() {
+        ReplicationLeader l = leader;
+        if (l != null) return l.toJson();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"role\":\"").append(promoted ? "leader" : "follower").append('"');
+        if (!promoted) {
+            sb.append(",\"leader\":");
+            if (leaderAddress == null) sb.append("null"); else Json.quote(sb, leaderAddress);
+            sb.append(",\"connected\":").append(connected)
+              .append(",\"seq\":").append(applied)
+              .append(",\"head\":").append(head)
+              .append(",\"lag_records\":").append(lagRecords())
+              .append(",\"lag_ms\":").append(lagMillis())
+              .append(",\"bootstraps\":").append(bootstraps.sum());
+        }
+        return sb.append(",\"links\":").append(replica.size()).append('}').toString();
+    }
+
+    /** Port redirects are served on. */
+    int port() {
+        return port;
+    }
+
+    private String name() {
+        return "replica:" + port;
+    }
+
+    private void registerMetrics() {
+        String req = "urlshortener_http_requests_total", reqHelp = "Requests served by the redirect handler.";
+        metrics.counter(req, reqHelp, "result=\"301\"", handler.served301::sum);
+        metrics.counter(req, reqHelp, "result=\"302\"", handler.served302::sum);
+        metrics.counter(req, reqHelp, "result=\"404\"", handler.served404::sum);
+        metrics.counter(req, reqHelp, "result=\"landing\"", handler.servedLanding::sum);
+        metrics.counter(req, reqHelp, "result=\"429\"", handler.served429::sum);
+        metrics.histogram("urlshortener_redirect_seconds", "Time spent in the redirect handler.", null, handler.latency);
+        metrics.gauge("urlshortener_links", "Links currently stored.", () -> (long) replica.size());
+        metrics.gauge("urlshortener_replica_connected", "1 while following a leader.", () -> connected ? 1L : 0L);
+        metrics.gauge("urlshortener_replica_lag_records", "Leader records not applied here yet.", this::lagRecords);
+        metrics.gauge("urlshortener_replica_lag_seconds",
+                "Age of the newest applied record by the leader's clock while behind (0 when caught up).",
+                () -> lagMillis() / 1000.0);
+        metrics.counter("urlshortener_replica_applied_total", "Leader records applied.", null, appliedTotal::sum);
+        metrics.counter("urlshortener_replica_bootstraps_total", "Snapshots taken from a leader.", null, bootstraps::sum);
+    }
+
+    // --- HTTP ---
+
+    private void startServer() throws IOException {
+        if (config.server == AppConfig.ServerMode.NIO) {
+            nioServer = new NioRedirectServer(handler, config.port, config.backlog, config.threads, () -> apiPort, API_PATHS);
+            port = nioServer.port();
+            apiPort = bindServer(config.apiPort >= 0 ? config.apiPort : port + 1, false);
+        } else {
+            port = apiPort = bindServer(config.port, true);
+        }
+        System.out.println("Serving redirects on port " + port + (apiPort != port ? ", API on " + apiPort : "")
+                + " (" + config + ")");
+    }
+
+    private int bindServer(int p, boolean redirects) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(p), config.backlog);
+        if (redirects) server.createContext("/", handler);
+        HttpHandler[] api = {new LinkService.BulkHandler(() -> importer), new ReplicationHandler(),
+                ex -> respond(ex, "text/plain; version=0.0.4; charset=utf-8", metrics.render())};
+        for (int i = 0; i < API_PATHS.length; i++) server.createContext(API_PATHS[i], api[i]);
+        ExecutorService executor = config.newServerExecutor();
+        server.setExecutor(executor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /** GET /api/replication: status as JSON; POST /api/replication/promote: become the leader. */
+    private class ReplicationHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            String path = ex.getRequestURI().getPath();
+            if ("POST".equals(ex.getRequestMethod()) && path.equals("/api/replication/promote")) {
+                try {
+                    promote();
+                } catch (IOException e) {
+                    respond(ex, 500, "text/plain; charset=utf-8", "Promotion failed: " + e.getMessage());
+                    return;
+                }
+            } else if (!"GET".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(405, -1);
+                ex.close();
+                return;
+            }
+            respond(ex, "application/json", toJson());
+        }
+    }
+
+    private static void respond(HttpExchange ex, String type, String body) throws IOException {
+        respond(ex, 200, type, body);
+    }
+
+    private static void respond(HttpExchange ex, int status, String type, String body) throws IOException {
+        byte[] b = body.getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().add("Content-Type", type);
+        ex.sendResponseHeaders(status, b.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(b); }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The store the redirect handler sees: whichever copy is current. Removal
+     * counts carry over a swap (and bump), so nothing cached against the old
+     * copy stays valid.
+     */
+    private static final class Replica implements LinkStore {
+        private volatile LinkStore current = new ConcurrentLinkStore();
+        private volatile long removedBefore;
+
+        void swap(LinkStore next) {
+            removedBefore += current.removals() + 1;
+            current = next;
+        }
+
+        @Override public String get(String code) { return current.get(code); }
+        @Override public Link link(String code) { return current.link(code); }
+        @Override public CompletableFuture<Link> linkAsync(String code) { return current.linkAsync(code); }
+        @Override public String codeFor(String url) { return current.codeFor(url); }
+        @Override public String put(Link link) { return current.put(link); }
+        @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+            return current.shorten(url, created, temporary, newCode);
+        }
+        @Override public boolean remove(String code) { return current.remove(code); }
+        @Override public int size() { return current.size(); }
+        @Override public long codeRetries() { return current.codeRetries(); }
+        @Override public long removals() { return removedBefore + current.removals(); }
+        @Override public void forEach(Consumer<Link> action) { current.forEach(action); }
+    }
+}
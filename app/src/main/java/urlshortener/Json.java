@@ -0,0 +1,102 @@
+package urlshortener;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Just enough JSON for the HTTP API: string quoting and flat-object parsing. */
+final class Json {
+
+    private Json() {}
+
+    /** Appends {@code s} as a JSON string literal. */
+    static StringBuilder quote(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+    /**
+     * Parses a single-line object of string, number, boolean or null members.
+     * Nested values are not supported. Returns null if the line is not such an object.
+     */
+    static Map<String, String> parseFlatObject(String s) {
+        Map<String, String> out = new HashMap<>();
+        int[] pos = {skip(s, 0)};
+        if (pos[0] >= s.length() || s.charAt(pos[0]) != '{') return null;
+        pos[0] = skip(s, pos[0] + 1);
+        if (pos[0] < s.length() && s.charAt(pos[0]) == '}') return out;
+        while (pos[0] < s.length()) {
+            String key = string(s, pos);
+            if (key == null) return null;
+            pos[0] = skip(s, pos[0]);
+            if (pos[0] >= s.length() || s.charAt(pos[0]) != ':') return null;
+            pos[0] = skip(s, pos[0] + 1);
+            String val;
+            if (pos[0] < s.length() && s.charAt(pos[0]) == '"') {
+                val = string(s, pos);
+                if (val == null) return null;
+            } else {
+                int start = pos[0];
+                while (pos[0] < s.length() && ",} \t".indexOf(s.charAt(pos[0])) < 0) pos[0]++;
+                val = s.substring(start, pos[0]);
+                if (val.equals("null")) val = null;
+            }
+            out.put(key, val);
+            pos[0] = skip(s, pos[0]);
+            if (pos[0] >= s.length()) return null;
+            char c = s.charAt(pos[0]++);
+            if (c == '}') return out;
+            if (c != ',') return null;
+            pos[0] = skip(s, pos[0]);
+        }
+        return null;
+    }
+
+    private static int skip(String s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    private static String string(String s, int[] pos) {
+        int i = pos[0];
+        if (i >= s.length() || s.charAt(i) != '"') return null;
+        StringBuilder sb = new StringBuilder();
+        for (i++; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"') { pos[0] = i + 1; return sb.toString(); }
+            if (c != '\\') { sb.append(c); continue; }
+            if (++i >= s.length()) return null;
+            char e = s.charAt(i);
+            switch (e) {
+                case 'n': sb.append('\n'); break;
+                case 'r': sb.append('\r'); break;
+                case 't': sb.append('\t'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 >= s.length()) return null;
+                    try {
+                        sb.append((char) Integer.parseInt(s.substring(i + 1, i + 5), 16));
+                    } catch (NumberFormatException ex) {
+                        return null;
+                    }
+                    i += 4;
+                    break;
+                default: sb.append(e); // \" \\ \/
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package urlshortener;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} that serves while the store under it is still being
+ * recovered, see {@link LinkService}.
+ *
+ * Recovery maps the base snapshot, which is quick, and then replays the
+ * journal over it, which is not. Before the replay starts the journal is
+ * scanned for the codes it mentions ({@link LinkJournal#scanCodes}). A code
+ * it never mentions reads the same from the bare snapshot as it will once
+ * the replay is done, so lookups of such codes (and of codes that do not
+ * exist at all) are answered at once, mid-replay; lookups made before the
+ * scan is done wait for it. Lookups of the codes the journal does mention,
+ * reverse lookups, walks and all writes wait until recovery has finished.
+ * {@link #linkAsync} completes once it can instead of waiting. Counts never wait.
+ */
+public class LazyLinkStore implements LinkStore {
+
+    private final CompletableFuture<Void> scanned = new CompletableFuture<>();
+    private final CompletableFuture<Void> ready = new CompletableFuture<>();
+    private volatile LinkStore store;   // null until the snapshot is mapped
+    private volatile long[] touched;    // sorted CodeFilter hashes of the journal's codes; null until scanned
+    private volatile long removedBefore;
+
+    /**
+     * Starts answering lookups of codes outside {@code touched} from
+     * {@code store}, which the journal is about to be replayed into.
+     */
+    void serve(LinkStore store, long[] touched) {
+        this.store = store;
+        this.touched = touched; // after store: a reader that sees touched sees the store too
+        scanned.complete(null);
+    }
+
+    /** Recovery is done: {@code store} (the one being served, or a replacement) is complete. */
+    void loaded(LinkStore store) {
+        LinkStore old = this.store;
+        if (old != store) {
+            removedBefore += (old == null ? 0 : old.removals()) + 1; // nothing looked up in old stays valid
+            this.store = store;
+        }
+        ready.complete(null);
+        scanned.complete(null);
+    }
+
+    public boolean isLoaded() {
+        return ready.isDone();
+    }
+
+    /** The store under this one, or null before the snapshot is mapped. */
+    public LinkStore delegate() {
+        return store;
+    }
+
+    /** The store, if {@code code} can be looked up in it without waiting for the replay, else null. */
+    private LinkStore now(String code) {
+        if (ready.isDone()) return store;
+        long[] t = touched;
+        return t != null && Arrays.binarySearch(t, CodeFilter.hash(code)) < 0 ? store : null;
+    }
+
+    /** Waits for recovery, then returns the complete store under this one (to read it in place). */
+    public LinkStore recovered() {
+        ready.join();
+        return store;
+    }
+
+    private LinkStore storeFor(String code) {
+        LinkStore s = now(code);
+        if (s != null) return s;
+        scanned.join();
+        s = now(code);
+        return s != null ? s : recovered();
+    }
+
+    @Override public String get(String code) {
+        return storeFor(code).get(code);
+    }
+
+    @Override public Link link(String code) {
+        return storeFor(code).link(code);
+    }
+
+    @Override public CompletableFuture<Link> linkAsync(String code) {
+        LinkStore s = now(code);
+        if (s != null) return s.linkAsync(code);
+        return (scanned.isDone() ? ready : scanned).thenCompose(v -> linkAsync(code));
+    }
+
+    @Override public String codeFor(String url) {
+        return recovered().codeFor(url);
+    }
+
+    @Override public String put(Link link) {
+        return recovered().put(link);
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        return recovered().shorten(url, created, temporary, newCode);
+    }
+
+    @Override public boolean remove(String code) {
+        return recovered().remove(code);
+    }
+
+    @Override public int size() {
+        LinkStore s = store;
+        return s == null ? 0 : s.size();
+    }
+
+    @Override public long codeRetries() {
+        LinkStore s = store;
+        return s == null ? 0 : s.codeRetries();
+    }
+
+    @Override public long removals() {
+        LinkStore s = store;
+        return removedBefore + (s == null ? 0 : s.removals());
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        recovered().forEach(action);
+    }
+}
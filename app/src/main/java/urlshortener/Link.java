@@ -0,0 +1,29 @@
+package urlshortener;
+
+/**
+ * One short link: code, target URL, creation timestamp and redirect type
+ * (301 by default, 302 when {@code temporary}). Immutable.
+ */
+public final class Link {
+
+    public final String code;
+    public final String url;
+    public final String created;
+    public final boolean temporary;
+
+    public Link(String code, String url, String created) {
+        this(code, url, created, false);
+    }
+
+    public Link(String code, String url, String created, boolean temporary) {
+        this.code = code;
+        this.url = url;
+        this.created = created;
+        this.temporary = temporary;
+    }
+
+    /** HTTP status to redirect with. */
+    public int status() {
+        return temporary ? 302 : 301;
+    }
+}
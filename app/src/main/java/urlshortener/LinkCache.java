@@ -0,0 +1,374 @@
+package urlshortener;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Size-bounded cache of links by code with W-TinyLFU admission and eviction.
+ *
+ * New entries go into a small LRU window (1% of the capacity). The rest is
+ * a segmented LRU: probation, and protected for entries hit again while on
+ * probation (80% of it). When the window overflows, its oldest entry has to
+ * win a place in the main area against the oldest entry on probation. The
+ * one seen more often, by a 4-bit count-min sketch of recent accesses, stays
+ * and the other is evicted. One-hit wonders and scans therefore cannot push
+ * out the links that keep getting clicked. The sketch halves all counters
+ * every 10 * capacity accesses, so old popularity fades.
+ *
+ * The cache is split into segments by code hash, each with its own lock,
+ * policy and sketch. A hit takes no lock: the link comes out of a concurrent
+ * map and the access goes into a small ring picked by thread. Whoever fills
+ * a ring drains the segment's rings into the policy if it gets the lock with
+ * {@code tryLock}; otherwise it moves on, and when a ring is full further
+ * accesses are dropped. Losing a few accesses under contention only blurs the
+ * recency and frequency estimates. Writes drain the rings before they change
+ * the policy. Misses are not recorded; a link is counted in the sketch when
+ * it is put. Invalidation bumps the segment's generation, and
+ * {@link #put} drops a value that was read before the last invalidation
+ * (see {@link #stamp}), so a load racing a delete never brings the link back.
+ */
+public class LinkCache {
+
+    private static final int WINDOW = 0, PROBATION = 1, PROTECTED = 2, DROPPED = -1;
+    private static final int RING = 16;
+
+    private static final class Node {
+        final String code;
+        final int hash;
+        volatile Link link;
+        Node prev, next; // these and queue under the segment lock
+        int queue;
+
+        Node(String code, int hash, Link link) {
+            this.code = code;
+            this.hash = hash;
+            this.link = link;
+        }
+    }
+
+    /** 4-bit count-min sketch: four rows of counters packed 16 to a long. */
+    private static final class Sketch {
+        private static final long[] SEEDS = {0x97CB3127L, 0xBE5F6A1FL, 0xC2B2AE35L, 0x85EBCA6BL};
+        private final long[] table;
+        private final int widthBits;
+        private final int sampleSize;
+        private int additions;
+
+        Sketch(int capacity) {
+            widthBits = Math.max(4, 32 - Integer.numberOfLeadingZeros(Math.max(1, capacity) - 1));
+            table = new long[(4 << widthBits) >>> 4];
+            sampleSize = (int) Math.min(Integer.MAX_VALUE, 10L * Math.max(16, capacity));
+        }
+
+        private int slot(int hash, int row) {
+            long x = (hash + SEEDS[row]) * 0x9E3779B97F4A7C15L;
+            return (row << widthBits) | (int) (x >>> (64 - widthBits));
+        }
+
+        int frequency(int hash) {
+            int f = 15;
+            for (int r = 0; r < 4; r++) {
+                int s = slot(hash, r);
+                f = Math.min(f, (int) (table[s >>> 4] >>> ((s & 15) << 2)) & 15);
+            }
+            return f;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int r = 0; r < 4; r++) {
+                int s = slot(hash, r), shift = (s & 15) << 2;
+                if (((table[s >>> 4] >>> shift) & 15) != 15) {
+                    table[s >>> 4] += 1L << shift;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < table.length; i++) table[i] = (table[i] >>> 1) & 0x7777777777777777L;
+                additions /= 2;
+            }
+        }
+    }
+
+    /** Lossy multi-producer ring of accessed nodes, drained under the segment lock. */
+    private static final class Ring {
+        final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<>(RING);
+        final AtomicLong head = new AtomicLong();
+        volatile long tail;
+
+        /** Records an access unless the ring is full or another thread got the slot; true once it is full. */
+        boolean offer(Node n) {
+            long h = head.get();
+            if (h - tail >= RING) return true;
+            if (head.compareAndSet(h, h + 1)) slots.lazySet((int) h & (RING - 1), n);
+            return h + 1 - tail >= RING;
+        }
+
+        void drain(Segment s) {
+            long t = tail;
+            while (true) {
+                int i = (int) t & (RING - 1);
+                Node n = slots.get(i);
+                if (n == null) break; // empty, or a slot taken but not yet written
+                slots.lazySet(i, null);
+                s.onAccess(n);
+                t++;
+            }
+            tail = t;
+        }
+    }
+
+    private final class Segment {
+        final ConcurrentHashMap<String, Node> map;
+        final ReentrantLock lock = new ReentrantLock();
+        final Ring[] rings;
+        final Sketch sketch;
+        final Node[] queues = {sentinel(), sentinel(), sentinel()};
+        final int[] sizes = new int[3];
+        final int maxWindow, maxMain, maxProtected;
+        volatile long generation;
+
+        Segment(int capacity, int rings) {
+            map = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16) * 4 / 3 + 1);
+            this.rings = new Ring[rings];
+            for (int i = 0; i < rings; i++) this.rings[i] = new Ring();
+            sketch = new Sketch(capacity);
+            maxWindow = Math.max(1, capacity / 100);
+            maxMain = Math.max(1, capacity - maxWindow);
+            maxProtected = maxMain * 4 / 5;
+        }
+
+        Link get(String code) {
+            Node n = map.get(code);
+            if (n == null) return null;
+            Ring r = rings[(int) Thread.currentThread().getId() & (rings.length - 1)];
+            if (r.offer(n) && lock.tryLock()) {
+                try {
+                    drain();
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return n.link;
+        }
+
+        /** Under the lock. */
+        private void drain() {
+            for (Ring r : rings) r.drain(this);
+        }
+
+        /** Replays a buffered hit, under the lock. */
+        void onAccess(Node n) {
+            switch (n.queue) {
+                case DROPPED: // evicted or invalidated since
+                    return;
+                case WINDOW:
+                case PROTECTED:
+                    unlink(n);
+                    append(n, n.queue);
+                    break;
+                default: // a second hit on probation earns protection
+                    unlink(n);
+                    sizes[PROBATION]--;
+                    append(n, PROTECTED);
+                    sizes[PROTECTED]++;
+                    if (sizes[PROTECTED] > maxProtected) demote();
+            }
+            sketch.increment(n.hash);
+        }
+
+        void put(String code, int hash, Link link, long stamp) {
+            lock.lock();
+            try {
+                if (generation != stamp) return;
+                drain();
+                sketch.increment(hash);
+                Node n = map.get(code);
+                if (n != null) {
+                    n.link = link;
+                    return;
+                }
+                n = new Node(code, hash, link);
+                map.put(code, n);
+                append(n, WINDOW);
+                if (++sizes[WINDOW] <= maxWindow) return;
+                Node candidate = queues[WINDOW].next;
+                unlink(candidate);
+                sizes[WINDOW]--;
+                append(candidate, PROBATION);
+                sizes[PROBATION]++;
+                evict(candidate);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /** Shrinks the main area to size; the window's old entry competes with probation's oldest. */
+        private void evict(Node candidate) {
+            while (sizes[PROBATION] + sizes[PROTECTED] > maxMain) {
+                Node victim = queues[PROBATION].next;
+                if (victim == queues[PROBATION]) {
+                    demote();
+                    continue;
+                }
+                if (victim != candidate && candidate != null
+                        && sketch.frequency(candidate.hash) <= sketch.frequency(victim.hash)) {
+                    victim = candidate;
+                }
+                if (victim == candidate) candidate = null;
+                drop(victim);
+                evictions.increment();
+            }
+        }
+
+        private void demote() {
+            Node n = queues[PROTECTED].next;
+            unlink(n);
+            sizes[PROTECTED]--;
+            append(n, PROBATION);
+            sizes[PROBATION]++;
+        }
+
+        void invalidate(String code) {
+            lock.lock();
+            try {
+                generation++;
+                drain();
+                Node n = map.get(code);
+                if (n != null) drop(n);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                generation++;
+                drain();
+                for (Node n : map.values()) n.queue = DROPPED;
+                map.clear();
+                for (Node s : queues) s.prev = s.next = s;
+                Arrays.fill(sizes, 0);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void drop(Node n) {
+            map.remove(n.code);
+            unlink(n);
+            sizes[n.queue]--;
+            n.queue = DROPPED;
+        }
+
+        int size() {
+            return map.size();
+        }
+
+        private void append(Node n, int queue) {
+            Node s = queues[queue];
+            n.queue = queue;
+            n.prev = s.prev;
+            n.next = s;
+            s.prev.next = n;
+            s.prev = n;
+        }
+    }
+
+    private static Node sentinel() {
+        Node s = new Node(null, 0, null);
+        s.prev = s.next = s;
+        return s;
+    }
+
+    private static void unlink(Node n) {
+        n.prev.next = n.next;
+        n.next.prev = n.prev;
+        n.prev = n.next = null;
+    }
+
+    private final Segment[] segments;
+    private final int capacity;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /** Holds at most {@code capacity} links (rounded to a multiple of the segment count). */
+    public LinkCache(int capacity) {
+        int n = Integer.highestOneBit(Math.max(1, Math.min(16, capacity / 1024)));
+        int rings = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) segments[i] = new Segment(Math.max(1, capacity / n), rings);
+        this.capacity = Math.max(1, capacity / n) * n;
+    }
+
+    private static int hash(String code) {
+        int h = code.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private Segment segment(int hash) {
+        return segments[(hash >>> 24) & (segments.length - 1)];
+    }
+
+    /** The cached link, or null. Counts as an access either way. */
+    public Link get(String code) {
+        int h = hash(code);
+        Link l = segment(h).get(code);
+        (l != null ? hits : misses).increment();
+        return l;
+    }
+
+    /** To be taken before reading the value that is then passed to {@link #put}. */
+    public long stamp(String code) {
+        return segment(hash(code)).generation;
+    }
+
+    /** Caches a link read after {@code stamp} was taken, unless the code was invalidated since. */
+    public void put(String code, Link link, long stamp) {
+        int h = hash(code);
+        segment(h).put(code, h, link, stamp);
+    }
+
+    public void invalidate(String code) {
+        segment(hash(code)).invalidate(code);
+    }
+
+    /** Drops every link, e.g. after the store under the cache was replaced. */
+    public void clear() {
+        for (Segment s : segments) s.clear();
+    }
+
+    public int size() {
+        int n = 0;
+        for (Segment s : segments) n += s.size();
+        return n;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /** Share of lookups answered from the cache so far. */
+    public double hitRatio() {
+        long h = hits.sum(), all = h + misses.sum();
+        return all == 0 ? 0 : (double) h / all;
+    }
+}
@@ -0,0 +1,409 @@
+package urlshortener;
+
+import java.io.Closeable;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Optional per-link expiry: a deadline, a click budget, or both. Links
+ * without either cost nothing here.
+ *
+ * Deadlines sit in a hierarchical timing wheel of {@link #LEVELS} levels of
+ * 64 slots: level 0 holds the next 64 ticks, level 1 the next 64 * 64 and so
+ * on, so with one-second ticks the wheel spans decades. Every tick fires one
+ * level-0 slot and, when a lower level wraps around, moves one slot of the
+ * level above down into it. Scheduling and cancelling are O(1) and a tick
+ * only touches links that are due, however many links there are.
+ *
+ * A click budget is counted down on the redirect path; once it hits zero the
+ * link answers 404 and is removed on the next tick. Budgets are written back
+ * to the journal every {@link #CHECKPOINT_MILLIS} and on close, so a crash may
+ * hand out up to a minute of clicks again.
+ *
+ * Links with a rule are redirected with 302 whatever they were made with:
+ * browsers keep a 301 for good and would never come back to be counted or
+ * turned away.
+ *
+ * Rules are journaled as X records, see {@link LinkJournal}. Expired links
+ * are handed to a {@link Remover}, which deletes them everywhere else.
+ */
+public class LinkExpiry implements Closeable {
+
+    static final int LEVELS = 5;
+    private static final int BITS = 6, SLOTS = 1 << BITS, MASK = SLOTS - 1;
+    /** Click budgets are journaled this often, and on close. */
+    static final long CHECKPOINT_MILLIS = 60_000;
+    /** expiresAt of a rule without a deadline. */
+    public static final long NEVER = 0;
+    /** Click budget of a rule without one. */
+    public static final long UNLIMITED = -1;
+
+    /** Deletes expired links from the store, journal, index and UI. */
+    public interface Remover {
+        /** Called on the expiry thread once per tick and reason; returns how many of the codes still existed. */
+        int remove(List<String> codes);
+    }
+
+    /** The expiry of one link. Wheel fields are guarded by the wheel lock. */
+    private static final class Rule {
+        final String code;
+        final long expiresAt;
+        final AtomicLong clicksLeft; // null: no budget
+        final long deadline;         // in ticks
+        volatile long persisted;     // budget last journaled
+        volatile boolean dirty;      // queued for the next checkpoint
+        Rule prev, next;
+        int level = -1, slot;
+
+        Rule(String code, long expiresAt, long clicksLeft, long tickMillis) {
+            this.code = code;
+            this.expiresAt = expiresAt;
+            this.clicksLeft = clicksLeft < 0 ? null : new AtomicLong(clicksLeft);
+            this.deadline = expiresAt == NEVER ? Long.MAX_VALUE : (expiresAt + tickMillis - 1) / tickMillis;
+            this.persisted = clicksLeft;
+        }
+
+        long left() {
+            return clicksLeft == null ? UNLIMITED : Math.max(0, clicksLeft.get());
+        }
+    }
+
+    private final LinkJournal journal;
+    private final Remover remover;
+    private final long tickMillis;
+    private final ConcurrentHashMap<String, Rule> rules = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Rule> spent = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Rule> dirty = new ConcurrentLinkedQueue<>();
+    private volatile int budgets; // rules with a click budget; 0 keeps click() to one read
+
+    private final Object lock = new Object();
+    private final Rule[][] wheel = new Rule[LEVELS][SLOTS];
+    private long tick;
+
+    private final LongAdder expiredTtl = new LongAdder();
+    private final LongAdder expiredClicks = new LongAdder();
+    private Thread ticker;
+    private volatile boolean running;
+
+    /** @param journal may be null (rules not saved) */
+    public LinkExpiry(LinkJournal journal, Remover remover) {
+        this(journal, remover, 1000, System.currentTimeMillis());
+    }
+
+    LinkExpiry(LinkJournal journal, Remover remover, long tickMillis, long now) {
+        this.journal = journal;
+        this.remover = remover;
+        this.tickMillis = tickMillis;
+        this.tick = now / tickMillis;
+    }
+
+    /** Starts the thread that advances the wheel once per tick. */
+    public void start() {
+        running = true;
+        ticker = new Thread(this::run, "link-expiry");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Gives a link a deadline ({@link #NEVER} for none) and a click budget
+     * ({@link #UNLIMITED} for none), replacing any it had, and journals it.
+     * Giving neither clears the link's expiry.
+     *
+     * @return the journal sequence number of the record (for {@link LinkJournal#awaitDurable}), or 0
+     */
+    public long set(String code, long expiresAt, long maxClicks) {
+        synchronized (lock) {
+            install(code, expiresAt, maxClicks);
+            return journal != null ? journal.appendExpiry(code, expiresAt, maxClicks) : 0;
+        }
+    }
+
+    /**
+     * {@link LinkStore#shorten} that keeps rules to the links they were set
+     * on. With {@code own}, or when the URL's current code has a rule, the
+     * link gets a fresh code instead of sharing that one, so an expiry never
+     * reaches links made without it. Call {@link #set} on the code afterwards.
+     */
+    public String shorten(LinkStore store, String url, String created, boolean temporary, boolean own,
+                          Supplier<String> newCode) {
+        if (!own) {
+            String code = store.shorten(url, created, temporary, newCode);
+            if (!has(code)) return code;
+        }
+        while (true) {
+            String code = newCode.get();
+            if (store.put(new Link(code, url, created, temporary)) == null) return code;
+        }
+    }
+
+    /** True if the link has a deadline or click budget: it must be answered with 302. */
+    public boolean has(String code) {
+        return !rules.isEmpty() && rules.containsKey(code);
+    }
+
+    /** {@link #set} without journaling, for recovery. */
+    public void restore(String code, long expiresAt, long clicksLeft) {
+        synchronized (lock) {
+            install(code, expiresAt, clicksLeft);
+        }
+    }
+
+    /** Forgets the expiry of a deleted link; the journal's delete record covers it. */
+    public void clear(String code) {
+        synchronized (lock) {
+            Rule old = rules.remove(code);
+            if (old != null) uninstall(old);
+        }
+    }
+
+    /**
+     * Counts a click against the link's budget. False if the budget is used
+     * up: the link is on its way out and should be answered like a miss.
+     */
+    public boolean click(String code) {
+        if (budgets == 0) return true;
+        Rule r = rules.get(code);
+        if (r == null || r.clicksLeft == null) return true;
+        long left = r.clicksLeft.decrementAndGet();
+        if (left < 0) return false;
+        if (!r.dirty) {
+            r.dirty = true;
+            dirty.add(r);
+        }
+        if (left == 0) spent.add(r);
+        return true;
+    }
+
+    /** Hands every rule to {@code replay}, with the clicks left now; for a follower's bootstrap. */
+    public void replayTo(LinkJournal.Replay replay) {
+        for (Rule r : rules.values()) replay.expiry(r.code, r.expiresAt, r.left());
+    }
+
+    /** Links that currently have an expiry. */
+    public int size() {
+        return rules.size();
+    }
+
+    public long expiredByTtl() {
+        return expiredTtl.sum();
+    }
+
+    public long expiredByClicks() {
+        return expiredClicks.sum();
+    }
+
+    /** The expiry of a link as JSON; both fields are null if it has none. */
+    public String toJson(String code) {
+        Rule r = rules.get(code);
+        StringBuilder sb = new StringBuilder(96);
+        Json.quote(sb.append("{\"code\":"), code);
+        sb.append(",\"expires_at\":");
+        if (r == null || r.expiresAt == NEVER) sb.append("null");
+        else Json.quote(sb, Instant.ofEpochMilli(r.expiresAt).toString());
+        sb.append(",\"clicks_left\":");
+        if (r == null || r.clicksLeft == null) sb.append("null");
+        else sb.append(r.left());
+        return sb.append('}').toString();
+    }
+
+    /**
+     * Parses a time to live such as "90", "15m", "12h" or "7d" (seconds if
+     * there is no unit) into millis; -1 if it is not one.
+     */
+    public static long parseTtl(String s) {
+        s = s.trim();
+        if (s.isEmpty()) return -1;
+        long unit;
+        switch (Character.toLowerCase(s.charAt(s.length() - 1))) {
+            case 's': unit = 1000L; break;
+            case 'm': unit = 60_000L; break;
+            case 'h': unit = 3_600_000L; break;
+            case 'd': unit = 86_400_000L; break;
+            default: unit = 0;
+        }
+        String digits = unit == 0 ? s : s.substring(0, s.length() - 1).trim();
+        if (unit == 0) unit = 1000L;
+        try {
+            long n = Long.parseLong(digits);
+            return n <= 0 || n > Long.MAX_VALUE / unit / 2 ? -1 : n * unit;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Stops the ticker and journals the click budgets spent since the last checkpoint. */
+    @Override public void close() {
+        running = false;
+        if (ticker != null) {
+            ticker.interrupt();
+            try {
+                ticker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+    }
+
+    private void run() {
+        long lastCheckpoint = System.currentTimeMillis();
+        while (running) {
+            long now = System.currentTimeMillis();
+            try {
+                advance(now);
+                if (now - lastCheckpoint >= CHECKPOINT_MILLIS) {
+                    checkpoint();
+                    lastCheckpoint = now;
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(); // keep ticking
+            }
+            try {
+                Thread.sleep(tickMillis - System.currentTimeMillis() % tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /** Moves the wheel up to {@code now}, then removes what fell due and what ran out of clicks. */
+    void advance(long now) {
+        List<Rule> due = new ArrayList<>();
+        synchronized (lock) {
+            long target = now / tickMillis;
+            while (tick < target) {
+                tick++;
+                for (int l = LEVELS - 1; l > 0; l--) {
+                    if ((tick & ((1L << (BITS * l)) - 1)) == 0) cascade(l, (int) (tick >>> (BITS * l)) & MASK);
+                }
+                Rule r = detach(0, (int) tick & MASK);
+                while (r != null) {
+                    Rule next = r.next;
+                    r.next = null;
+                    if (r.deadline <= tick) {
+                        if (rules.remove(r.code, r)) {
+                            if (r.clicksLeft != null) budgets--;
+                            due.add(r);
+                        }
+                    } else {
+                        place(r, tick + 1); // only reachable for deadlines past the wheel's span
+                    }
+                    r = next;
+                }
+            }
+        }
+        expire(due, expiredTtl);
+
+        List<Rule> used = new ArrayList<>();
+        for (Rule r; (r = spent.poll()) != null; ) {
+            synchronized (lock) {
+                if (!rules.remove(r.code, r)) continue;
+                uninstall(r);
+            }
+            used.add(r);
+        }
+        expire(used, expiredClicks);
+    }
+
+    private void expire(List<Rule> rs, LongAdder counter) {
+        if (rs.isEmpty()) return;
+        List<String> codes = new ArrayList<>(rs.size());
+        for (Rule r : rs) codes.add(r.code);
+        counter.add(remover.remove(codes));
+    }
+
+    /** Journals the budgets of rules clicked since the last checkpoint. */
+    void checkpoint() {
+        if (journal == null) {
+            dirty.clear();
+            return;
+        }
+        for (Rule r; (r = dirty.poll()) != null; ) {
+            r.dirty = false;
+            // Under the lock so a checkpoint never lands behind a newer set() or a delete.
+            synchronized (lock) {
+                long left = r.left();
+                if (rules.get(r.code) != r || left == r.persisted) continue;
+                journal.appendExpiry(r.code, r.expiresAt, left);
+                r.persisted = left;
+            }
+        }
+    }
+
+    // --- Wheel, all under lock ---
+
+    private void install(String code, long expiresAt, long clicksLeft) {
+        Rule old = expiresAt == NEVER && clicksLeft < 0 ? rules.remove(code)
+                : rules.put(code, new Rule(code, expiresAt, clicksLeft, tickMillis));
+        if (old != null) uninstall(old);
+        Rule r = rules.get(code);
+        if (r == null) return;
+        if (r.clicksLeft != null) {
+            budgets++;
+            if (clicksLeft == 0) spent.add(r); // used up before a restart
+        }
+        if (expiresAt != NEVER) place(r, tick + 1);
+    }
+
+    private void uninstall(Rule r) {
+        if (r.clicksLeft != null) budgets--;
+        if (r.level < 0) return;
+        if (r.prev != null) r.prev.next = r.next;
+        else wheel[r.level][r.slot] = r.next;
+        if (r.next != null) r.next.prev = r.prev;
+        r.prev = r.next = null;
+        r.level = -1;
+    }
+
+    /**
+     * Puts a rule in the lowest level whose span reaches its deadline, in the
+     * slot the deadline's bits for that level pick. A deadline before
+     * {@code earliest} fires then; one beyond the top level's span is parked
+     * at its far end and placed again when that slot comes down.
+     *
+     * @param earliest tick + 1 for new rules (this tick has fired), tick while
+     *                 cascading (level 0's slot for this tick is fired next)
+     */
+    private void place(Rule r, long earliest) {
+        long d = Math.max(r.deadline, earliest);
+        long delta = d - tick;
+        int l = 0;
+        while (l < LEVELS - 1 && delta >= 1L << (BITS * (l + 1))) l++;
+        if (delta >= 1L << (BITS * LEVELS)) d = tick + (1L << (BITS * LEVELS)) - 1;
+        int s = (int) (d >>> (BITS * l)) & MASK;
+        Rule head = wheel[l][s];
+        r.prev = null;
+        r.next = head;
+        if (head != null) head.prev = r;
+        wheel[l][s] = r;
+        r.level = l;
+        r.slot = s;
+    }
+
+    /** Unhooks a whole slot; returns its first rule, linked through next. */
+    private Rule detach(int level, int slot) {
+        Rule r = wheel[level][slot];
+        wheel[level][slot] = null;
+        for (Rule x = r; x != null; x = x.next) {
+            x.prev = null;
+            x.level = -1;
+        }
+        return r;
+    }
+
+    private void cascade(int level, int slot) {
+        Rule r = detach(level, slot);
+        while (r != null) {
+            Rule next = r.next;
+            place(r, tick);
+            r = next;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package urlshortener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams every link out as CSV or NDJSON, optionally gzip-compressed.
+ *
+ * Links in the mapped snapshot of a {@link SnapshotLinkStore} are copied as
+ * UTF-8 bytes straight from the file and escaped on the way out, without
+ * decoding them into Strings; links made since the snapshot follow. Other
+ * stores are walked with {@link LinkStore#forEach}. Output goes through one
+ * 64 KB buffer and nothing else is held, so the same code writes a file or a
+ * chunked HTTP response of any size.
+ *
+ * CSV has the app's usual columns (code, short_url, original_url,
+ * created_at, redirect); NDJSON has one object per line with the members of
+ * /api/search results. Links created or deleted while an export runs may or
+ * may not be in it.
+ *
+ * An exporter writes one export. Other threads may watch {@link #written} and
+ * call {@link #cancel}, which stops the export within a few thousand links
+ * with a CancellationException.
+ */
+public class LinkExporter {
+
+    public enum Format {
+        CSV(".csv"), NDJSON(".ndjson");
+
+        public final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /** By file name: .ndjson or .jsonl (optionally followed by .gz) is NDJSON, anything else CSV. */
+        public static Format forFileName(String name) {
+            String n = name.toLowerCase();
+            if (n.endsWith(".gz")) n = n.substring(0, n.length() - 3);
+            return n.endsWith(".ndjson") || n.endsWith(".jsonl") ? NDJSON : CSV;
+        }
+    }
+
+    private static final byte[] CSV_HEADER =
+            "code,short_url,original_url,created_at,redirect\n".getBytes(StandardCharsets.UTF_8);
+    private static final int CHECK_EVERY = 4096; // links between cancel checks
+
+    private final Format format;
+    private final boolean gzip;
+    private final byte[] base;
+    private final byte[] buf = new byte[1 << 16];
+    private byte[] entry = new byte[256];
+    private int pos;
+    private OutputStream out;
+    private volatile long written;
+    private volatile long total;
+    private volatile boolean cancelled;
+
+    /** @param baseUrl short link prefix, e.g. "http://localhost:8080/" */
+    public LinkExporter(Format format, boolean gzip, String baseUrl) {
+        this.format = format;
+        this.gzip = gzip;
+        this.base = baseUrl.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** Links written so far. */
+    public long written() {
+        return written;
+    }
+
+    /** Links in the store when the export started (an estimate of the final count). */
+    public long total() {
+        return total;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Writes all links of {@code store} to {@code os} and flushes it, leaving
+     * it open. Returns the number of links written.
+     *
+     * @throws CancellationException if {@link #cancel} was called meanwhile
+     */
+    public long export(LinkStore store, OutputStream os) throws IOException {
+        total = store.size();
+        GZIPOutputStream gz = !gzip ? null : new GZIPOutputStream(os, 1 << 16) {
+            { def.setLevel(Deflater.BEST_SPEED); } // repetitive rows: level 1 is about as small, several times faster
+        };
+        out = gz != null ? gz : os;
+        if (format == Format.CSV) put(CSV_HEADER, 0, CSV_HEADER.length);
+        try {
+            if (store instanceof SnapshotLinkStore) {
+                SnapshotLinkStore.Layers s = ((SnapshotLinkStore) store).layers();
+                exportSnapshot(s.base(), s.deletedFromBase());
+                s.forEachAdded(this::row);
+            } else {
+                store.forEach(this::row);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        flush();
+        if (gz != null) gz.finish();
+        os.flush();
+        return written;
+    }
+
+    private void exportSnapshot(LinkSnapshot snap, Set<String> deleted) throws IOException {
+        BitSet skip = new BitSet();
+        for (String code : deleted) {
+            int i = snap.indexOf(code);
+            if (i >= 0) skip.set(i);
+        }
+        for (int i = 0, n = snap.size(); i < n; i++) {
+            if (skip.get(i)) continue;
+            int c = snap.codeLen(i), u = snap.urlLen(i), t = snap.createdLen(i), len = c + u + t;
+            if (entry.length < len) entry = new byte[Math.max(len, entry.length * 2)];
+            snap.entryBytes(i, entry);
+            row(entry, 0, c, c, u, c + u, t, snap.temporary(i));
+        }
+    }
+
+    private void row(Link l) {
+        byte[] c = l.code.getBytes(StandardCharsets.UTF_8);
+        byte[] u = l.url.getBytes(StandardCharsets.UTF_8);
+        byte[] t = l.created == null ? new byte[0] : l.created.getBytes(StandardCharsets.UTF_8);
+        int len = c.length + u.length + t.length;
+        if (entry.length < len) entry = new byte[Math.max(len, entry.length * 2)];
+        System.arraycopy(c, 0, entry, 0, c.length);
+        System.arraycopy(u, 0, entry, c.length, u.length);
+        System.arraycopy(t, 0, entry, c.length + u.length, t.length);
+        try {
+            row(entry, 0, c.length, c.length, u.length, c.length + u.length, t.length, l.temporary);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** One line from code, url and created bytes at the given offsets of {@code b}. */
+    private void row(byte[] b, int code, int codeLen, int url, int urlLen, int created, int createdLen,
+                     boolean temporary) throws IOException {
+        if (format == Format.CSV) {
+            csv(null, b, code, codeLen);
+            put((byte) ',');
+            csv(base, b, code, codeLen);
+            put((byte) ',');
+            csv(null, b, url, urlLen);
+            put((byte) ',');
+            csv(null, b, created, createdLen);
+            put((byte) ',');
+        } else {
+            ascii("{\"code\":");
+            json(null, b, code, codeLen);
+            ascii(",\"short_url\":");
+            json(base, b, code, codeLen);
+            ascii(",\"url\":");
+            json(null, b, url, urlLen);
+            ascii(",\"created\":");
+            json(null, b, created, createdLen);
+            ascii(",\"redirect\":");
+        }
+        ascii(temporary ? "302" : "301");
+        if (format == Format.NDJSON) put((byte) '}');
+        put((byte) '\n');
+        if (++written % CHECK_EVERY == 0 && cancelled) throw new CancellationException("Export cancelled");
+    }
+
+    /** A CSV field of prefix + b[off, off + len), quoted when it holds a comma, quote or newline (as Csv.field). */
+    private void csv(byte[] prefix, byte[] b, int off, int len) throws IOException {
+        boolean quote = (prefix != null && needsQuote(prefix, 0, prefix.length)) || needsQuote(b, off, len);
+        if (!quote) {
+            if (prefix != null) put(prefix, 0, prefix.length);
+            put(b, off, len);
+            return;
+        }
+        put((byte) '"');
+        if (prefix != null) quoted(prefix, 0, prefix.length);
+        quoted(b, off, len);
+        put((byte) '"');
+    }
+
+    private static boolean needsQuote(byte[] b, int off, int len) {
+        for (int i = off, end = off + len; i < end; i++) {
+            byte c = b[i];
+            if (c == ',' || c == '"' || c == '\n') return true;
+        }
+        return false;
+    }
+
+    private void quoted(byte[] b, int off, int len) throws IOException {
+        for (int i = off, end = off + len; i < end; i++) {
+            if (b[i] == '"') put((byte) '"');
+            put(b[i]);
+        }
+    }
+
+    /** A JSON string of prefix + b[off, off + len); UTF-8 multibyte sequences pass through, as Json.quote. */
+    private void json(byte[] prefix, byte[] b, int off, int len) throws IOException {
+        put((byte) '"');
+        if (prefix != null) escaped(prefix, 0, prefix.length);
+        escaped(b, off, len);
+        put((byte) '"');
+    }
+
+    private void escaped(byte[] b, int off, int len) throws IOException {
+        int run = off; // start of bytes not written yet that need no escaping
+        for (int i = off, end = off + len; i < end; i++) {
+            int c = b[i] & 0xFF;
+            if (c >= 0x20 && c != '"' && c != '\\') continue;
+            put(b, run, i - run);
+            run = i + 1;
+            switch (c) {
+                case '"':  ascii("\\\""); break;
+                case '\\': ascii("\\\\"); break;
+                case '\n': ascii("\\n"); break;
+                case '\r': ascii("\\r"); break;
+                case '\t': ascii("\\t"); break;
+                default:
+                    ascii("\\u00");
+                    put((byte) Character.forDigit(c >> 4, 16));
+                    put((byte) Character.forDigit(c & 15, 16));
+            }
+        }
+        put(b, run, off + len - run);
+    }
+
+    // --- Buffer ---
+
+    private void ascii(String s) throws IOException {
+        if (pos + s.length() > buf.length) flush();
+        for (int i = 0; i < s.length(); i++) buf[pos++] = (byte) s.charAt(i);
+    }
+
+    private void put(byte b) throws IOException {
+        if (pos == buf.length) flush();
+        buf[pos++] = b;
+    }
+
+    private void put(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (pos == buf.length) flush();
+            int n = Math.min(len, buf.length - pos);
+            System.arraycopy(b, off, buf, pos, n);
+            pos += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void flush() throws IOException {
+        out.write(buf, 0, pos);
+        pos = 0;
+    }
+}
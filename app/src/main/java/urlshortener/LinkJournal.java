@@ -0,0 +1,649 @@
+package urlshortener;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Append-only write-ahead log for link creates and deletes, folded into a
+ * {@link LinkSnapshot} base file in the background.
+ *
+ * On disk:
+ *   urls-N.snap         base snapshot holding everything in segments below N
+ *   urls-N.expiry       X records of the links in urls-N.snap that expire
+ *   urls.journal.N      journal segments, one record per line:
+ *                         C \t code \t url \t created [\t 302]
+ *                         D \t code
+ *                         X \t code \t expiresAtMillis \t clicksLeft
+ *                           (0 / -1 for none; both none clears it)
+ *                         I \t key \t next
+ *                           code allocator lease: scramble key (hex) and the
+ *                           first id not leased yet, see {@link CodeAllocator}
+ *   urls.csv            legacy base file, imported once if there is no snapshot
+ *
+ * Appends only copy the record into an in-memory batch. A flusher thread
+ * writes the batch and fsyncs it once per durability window (group commit),
+ * so many creates share one fsync. {@link #awaitDurable(long)} blocks until
+ * a given append is on disk (and, with a {@link Tap} such as
+ * {@link ReplicationLeader}, on enough followers' disks too).
+ *
+ * When the live segment passes the compaction threshold the flusher rolls to
+ * a new segment and a background task folds base + old segments into a new
+ * snapshot. Snapshots are never overwritten in place (the running process
+ * may have the old one mapped); older ones are deleted once superseded, and
+ * the new one is handed to {@link #onCompacted} to serve from instead.
+ * Replay is idempotent, so a crash at any point of compaction loses nothing.
+ * New files are renamed into place and new segments created with an fsync
+ * of the directory after, so the name survives a crash as well as the data.
+ *
+ * A failed write or fsync is final: the flusher stops, and every later
+ * append and {@link #awaitDurable} throws, rather than queueing changes that
+ * will never reach the disk.
+ */
+public class LinkJournal implements Closeable {
+
+    /** Receives journal records in order during recovery. */
+    public interface Replay {
+        void create(Link link);
+        void delete(String code);
+        /** The link's expiry changed, see {@link LinkExpiry}. */
+        default void expiry(String code, long expiresAt, long clicksLeft) {}
+        /** The code allocator leased ids below {@code next}, see {@link CodeAllocator#journalTo}. */
+        default void lease(long key, long next) {}
+    }
+
+    /** Sees every record as it is appended, see {@link ReplicationLeader}. */
+    public interface Tap {
+        /** Called in journal order under the append lock, so it must not block. */
+        void appended(long seq, byte[] record);
+        /** Called by {@link #awaitDurable} once {@code seq} is on local disk; may block further. */
+        default void await(long seq) throws IOException {}
+    }
+
+    private final Path dir;
+    private final String name;
+    private final String segmentPrefix;
+    private final long syncMillis;
+    private final long compactBytes;
+
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream(64 * 1024);
+    private long appendedSeq;
+    private long durableSeq;
+    private boolean closed;
+    private IOException failure;
+    private volatile Tap tap;
+    private final Object[] createLocks = new Object[64];
+
+    // Owned by the flusher thread once recover() has returned.
+    private FileChannel segment;
+    private long segmentNo;
+    private Thread flusher;
+
+    private final ExecutorService compactor =
+            Executors.newSingleThreadExecutor(AppConfig.daemonFactory("journal-compact-"));
+    private volatile boolean compacting;
+    private volatile Consumer<LinkSnapshot> compacted;
+
+    /** Write + fsync time of each group commit. */
+    public final Metrics.Histogram syncs = new Metrics.Histogram();
+    /** Duration of each background compaction into a new snapshot. */
+    public final Metrics.Histogram compactions = new Metrics.Histogram();
+
+    public LinkJournal(Path dir, String name, long syncMillis, long compactBytes) {
+        this.dir = dir.toAbsolutePath();
+        this.name = name;
+        this.segmentPrefix = name + ".journal.";
+        this.syncMillis = Math.max(0, syncMillis);
+        this.compactBytes = Math.max(1, compactBytes);
+        for (int i = 0; i < createLocks.length; i++) createLocks[i] = new Object();
+    }
+
+    /**
+     * Maps the newest base snapshot, importing the legacy CSV first if there is
+     * no snapshot yet. Older, superseded snapshots are cleaned up.
+     */
+    public LinkSnapshot openBase() throws IOException {
+        List<Long> snaps = numbered(name + "-", ".snap");
+        if (snaps.isEmpty()) {
+            Path csv = dir.resolve(name + ".csv");
+            if (!Files.exists(csv)) return LinkSnapshot.EMPTY;
+            LinkSnapshot.importCsv(csv, snapshotPath(0));
+            snaps.add(0L);
+        }
+        long newest = snaps.get(snaps.size() - 1);
+        for (long n : snaps) {
+            if (n < newest) {
+                deleteQuietly(snapshotPath(n));
+                deleteQuietly(expiryPath(n));
+            }
+        }
+        return LinkSnapshot.open(snapshotPath(newest));
+    }
+
+    /**
+     * Replays every journal segment (on top of the base from {@link #openBase()}),
+     * then opens a fresh segment for appends. Left-over segments are compacted
+     * in the background.
+     */
+    public void recover(Replay replay) throws IOException {
+        List<Long> snaps = numbered(name + "-", ".snap");
+        if (!snaps.isEmpty()) replayExpiry(snaps.get(snaps.size() - 1), replay);
+        List<Long> segs = segments();
+        for (long n : segs) replay(segmentPath(n), replay);
+
+        // New segments must number above every snapshot, or a later compaction
+        // would write a snapshot that looks older than the one it replaces.
+        segmentNo = Math.max(segs.isEmpty() ? 1 : segs.get(segs.size() - 1) + 1,
+                snaps.isEmpty() ? 1 : snaps.get(snaps.size() - 1));
+        segment = openSegment(segmentNo);
+        flusher = new Thread(this::flushLoop, "journal-flush");
+        flusher.setDaemon(true);
+        flusher.start();
+        if (!segs.isEmpty()) compactAsync(segmentNo);
+    }
+
+    /**
+     * The {@link CodeFilter#hash} of every code that {@link #recover} would
+     * replay a record for, sorted (repeats included). Only the code field is
+     * looked at, straight from the bytes, so this takes a fraction of the time
+     * the replay does; until the replay is done, any code not in here reads
+     * the same from the bare base snapshot (see {@link LazyLinkStore}).
+     */
+    public long[] scanCodes() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<Long> snaps = numbered(name + "-", ".snap");
+        if (!snaps.isEmpty()) files.add(expiryPath(snaps.get(snaps.size() - 1)));
+        for (long n : segments()) files.add(segmentPath(n));
+        long[] hashes = new long[1024];
+        int count = 0;
+        byte[] buf = new byte[1 << 16], code = new byte[64];
+        for (Path p : files) {
+            if (!Files.exists(p)) continue;
+            try (InputStream in = Files.newInputStream(p)) {
+                int field = 0, len = 0, n;
+                boolean ascii = true;
+                while ((n = in.read(buf)) > 0) {
+                    for (int i = 0; i < n; i++) {
+                        if (field > 1) { // past the code: skip to the end of the record
+                            while (i < n && buf[i] != '\n') i++;
+                            if (i == n) break;
+                        }
+                        byte b = buf[i];
+                        if (b == '\t' || b == '\n') {
+                            if (field == 1) {
+                                if (count == hashes.length) hashes = Arrays.copyOf(hashes, count * 2);
+                                hashes[count++] = ascii ? CodeFilter.hash(code, 0, len)
+                                        : CodeFilter.hash(new String(code, 0, len, StandardCharsets.UTF_8));
+                            }
+                            field = b == '\n' ? 0 : field + 1;
+                            len = 0;
+                            ascii = true;
+                        } else if (field == 1) {
+                            if (len == code.length) code = Arrays.copyOf(code, len * 2);
+                            code[len++] = b;
+                            ascii &= b >= 0;
+                        }
+                    }
+                }
+            }
+        }
+        long[] sorted = Arrays.copyOf(hashes, count);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Hands each snapshot compaction writes, mapped, to {@code listener} (on
+     * the compaction thread), which then owns the mapping. It holds every
+     * record of the segments folded into it, all of them appended after the
+     * change they describe was made.
+     */
+    public void onCompacted(Consumer<LinkSnapshot> listener) {
+        compacted = listener;
+    }
+
+    /** Hands every later append to {@code tap} as well. */
+    public void tap(Tap tap) {
+        synchronized (lock) {
+            this.tap = tap;
+        }
+    }
+
+    public long appendCreate(Link l) {
+        return append(createRecord(l));
+    }
+
+    public long appendDelete(String code) {
+        return append(deleteRecord(code));
+    }
+
+    static String createRecord(Link l) {
+        return "C\t" + l.code + "\t" + l.url + "\t" + l.created + (l.temporary ? "\t302\n" : "\n");
+    }
+
+    static String deleteRecord(String code) {
+        return "D\t" + code + "\n";
+    }
+
+    public long appendExpiry(String code, long expiresAt, long clicksLeft) {
+        return append(expiryRecord(code, expiresAt, clicksLeft));
+    }
+
+    static String expiryRecord(String code, long expiresAt, long clicksLeft) {
+        return "X\t" + code + "\t" + expiresAt + "\t" + clicksLeft + "\n";
+    }
+
+    public long appendLease(long key, long next) {
+        return append(leaseRecord(key, next));
+    }
+
+    static String leaseRecord(long key, long next) {
+        return "I\t" + Long.toHexString(key) + "\t" + next + "\n";
+    }
+
+    /**
+     * Lock for the URL, held from putting a new link in the store until its
+     * create record is appended, and by a lookup that answers with a link
+     * already there. Under it {@link #appendedSeq()} covers the record that
+     * made that link, which may still be waiting for its group commit.
+     */
+    public Object createLock(String url) {
+        return createLocks[url.hashCode() & (createLocks.length - 1)];
+    }
+
+    /** Sequence number of the latest append; awaiting it covers every record appended so far. */
+    public long appendedSeq() {
+        synchronized (lock) {
+            return appendedSeq;
+        }
+    }
+
+    /** @throws UncheckedIOException once a write has failed (see {@link #failure()}) */
+    private long append(String record) {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("Journal closed");
+            if (failure != null) throw new UncheckedIOException("Journal write failed, changes are not saved", failure);
+            pending.write(bytes, 0, bytes.length);
+            if (pending.size() == bytes.length) lock.notifyAll(); // wake an idle flusher
+            if (tap != null) tap.appended(appendedSeq + 1, bytes);
+            return ++appendedSeq;
+        }
+    }
+
+    /**
+     * Blocks until the append with this sequence number has been fsynced,
+     * and, with a {@link Tap}, until the tap lets it through (replicated).
+     */
+    public void awaitDurable(long seq) throws IOException {
+        awaitLocal(seq);
+        Tap t = tap;
+        if (t != null) t.await(seq);
+    }
+
+    /** Blocks until the append with this sequence number has been fsynced here. */
+    public void awaitLocal(long seq) throws IOException {
+        synchronized (lock) {
+            while (durableSeq < seq && failure == null) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            if (durableSeq < seq) throw failure;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            ByteArrayOutputStream batch;
+            long seq;
+            boolean last;
+            try {
+                synchronized (lock) {
+                    while (!closed && pending.size() == 0) lock.wait();
+                }
+                // Let the durability window fill before paying for the fsync.
+                if (syncMillis > 0 && !isClosed()) Thread.sleep(syncMillis);
+                synchronized (lock) {
+                    batch = pending;
+                    pending = spare;
+                    seq = appendedSeq;
+                    last = closed;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                if (batch.size() > 0) {
+                    long t = System.nanoTime();
+                    batch.writeTo(Channels.newOutputStream(segment));
+                    segment.force(false);
+                    syncs.since(t);
+                }
+                if (!last && segment.size() >= compactBytes && !compacting) {
+                    segment.close();
+                    segment = openSegment(++segmentNo);
+                    compactAsync(segmentNo);
+                }
+                if (last) segment.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                synchronized (lock) {
+                    failure = e;
+                    lock.notifyAll();
+                }
+                return;
+            }
+
+            synchronized (lock) {
+                batch.reset();
+                spare = batch;
+                durableSeq = seq;
+                lock.notifyAll();
+            }
+            if (last) return;
+        }
+    }
+
+    /** The write error that stopped the journal, or null while it is healthy. */
+    public IOException failure() {
+        synchronized (lock) { return failure; }
+    }
+
+    private boolean isClosed() {
+        synchronized (lock) { return closed; }
+    }
+
+    /** Flushes and fsyncs everything appended so far, then stops the flusher. */
+    @Override public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            if (flusher != null) flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compactor.shutdown();
+        synchronized (lock) {
+            if (failure != null) throw failure;
+        }
+    }
+
+    /**
+     * Replaces all snapshots and segments with the snapshot file read from
+     * {@code in} ({@code length} bytes), numbered above everything there was.
+     * For a follower taking a fresh copy from its leader; call it before
+     * {@link #openBase()}.
+     */
+    public void replaceBase(InputStream in, long length) throws IOException {
+        List<Long> snaps = numbered(name + "-", ".snap"), segs = segments();
+        long n = 1 + Math.max(snaps.isEmpty() ? 0 : snaps.get(snaps.size() - 1),
+                segs.isEmpty() ? 0 : segs.get(segs.size() - 1));
+        Path target = snapshotPath(n), tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            byte[] buf = new byte[1 << 16];
+            OutputStream out = Channels.newOutputStream(ch);
+            for (long left = length; left > 0; ) {
+                int r = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (r < 0) throw new EOFException("Snapshot cut short");
+                out.write(buf, 0, r);
+                left -= r;
+            }
+            ch.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(dir);
+        for (long s : segs) Files.deleteIfExists(segmentPath(s));
+        for (long s : snaps) {
+            deleteQuietly(snapshotPath(s));
+            deleteQuietly(expiryPath(s));
+        }
+    }
+
+    // --- Compaction ---
+
+    private void compactAsync(long below) {
+        compacting = true;
+        compactor.execute(() -> {
+            long t = System.nanoTime();
+            try {
+                compact(below);
+                compactions.since(t);
+            } catch (IOException e) {
+                e.printStackTrace(); // segments stay; next run retries
+            } finally {
+                compacting = false;
+            }
+        });
+    }
+
+    /**
+     * Merges the newest snapshot with all segments numbered below {@code below}
+     * into a new snapshot. Both sides are sorted by code, so this streams.
+     */
+    private void compact(long below) throws IOException {
+        List<Long> snaps = numbered(name + "-", ".snap");
+        try (LinkSnapshot base = snaps.isEmpty() ? LinkSnapshot.EMPTY
+                : LinkSnapshot.open(snapshotPath(snaps.get(snaps.size() - 1)))) {
+            compact(below, snaps, base);
+        }
+    }
+
+    /** {@link #compact(long)} over its own mapping of the newest snapshot, unmapped afterwards. */
+    private void compact(long below, List<Long> snaps, LinkSnapshot base) throws IOException {
+
+        // code -> link, or null for a delete
+        TreeMap<String, Link> changes = new TreeMap<>();
+        // code -> {expiresAt, clicksLeft} of links that still expire
+        TreeMap<String, long[]> expiry = new TreeMap<>();
+        Replay fold = new Replay() {
+            @Override public void create(Link l) {
+                Link prev = changes.get(l.code);
+                changes.put(l.code, prev != null && prev.url.equals(l.url)
+                        ? new Link(l.code, l.url, prev.created, l.temporary) : l);
+            }
+            @Override public void delete(String code) {
+                changes.put(code, null);
+                expiry.remove(code);
+            }
+            @Override public void expiry(String code, long expiresAt, long clicksLeft) {
+                if (expiresAt == LinkExpiry.NEVER && clicksLeft < 0) expiry.remove(code);
+                else expiry.put(code, new long[] {expiresAt, clicksLeft});
+            }
+        };
+        if (!snaps.isEmpty()) replayExpiry(snaps.get(snaps.size() - 1), fold);
+        List<Long> folded = new ArrayList<>();
+        for (long n : segments()) {
+            if (n >= below) break;
+            replay(segmentPath(n), fold);
+            folded.add(n);
+        }
+        if (folded.isEmpty()) return;
+
+        try (LinkSnapshot.Writer w = new LinkSnapshot.Writer(snapshotPath(below))) {
+            Iterator<Map.Entry<String, Link>> it = changes.entrySet().iterator();
+            Map.Entry<String, Link> ch = it.hasNext() ? it.next() : null;
+            int i = 0, n = base.size();
+            while (i < n || ch != null) {
+                int cmp = i == n ? 1 : ch == null ? -1 : base.code(i).compareTo(ch.getKey());
+                if (cmp < 0) {
+                    w.add(base.code(i), base.url(i), base.created(i), base.temporary(i));
+                    i++;
+                    continue;
+                }
+                Link l = ch.getValue();
+                if (l != null) {
+                    String created = cmp == 0 && base.url(i).equals(l.url) ? base.created(i) : l.created;
+                    w.add(l.code, l.url, created, l.temporary);
+                }
+                if (cmp == 0) i++;
+                ch = it.hasNext() ? it.next() : null;
+            }
+            // Written before the snapshot that it belongs to becomes visible.
+            writeExpiry(expiryPath(below), expiry);
+            w.finish();
+        }
+        for (long n : folded) Files.deleteIfExists(segmentPath(n));
+        for (long n : snaps) {
+            deleteQuietly(snapshotPath(n));
+            deleteQuietly(expiryPath(n));
+        }
+        Consumer<LinkSnapshot> listener = compacted;
+        if (listener != null) listener.accept(LinkSnapshot.open(snapshotPath(below)));
+    }
+
+    private static void writeExpiry(Path target, Map<String, long[]> expiry) throws IOException {
+        Files.deleteIfExists(target);
+        if (expiry.isEmpty()) return;
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer w = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(ch), StandardCharsets.UTF_8), 1 << 16)) {
+            for (Map.Entry<String, long[]> e : expiry.entrySet()) {
+                w.write(expiryRecord(e.getKey(), e.getValue()[0], e.getValue()[1]));
+            }
+            w.flush();
+            ch.force(false);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(target.getParent());
+    }
+
+    /**
+     * Fsyncs a directory, so that files just created or renamed in it survive
+     * a crash. Not every platform can open a directory (Windows cannot, and
+     * makes renames durable on its own); there this does nothing.
+     */
+    static void syncDirectory(Path dir) throws IOException {
+        try (FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+            ch.force(true);
+        } catch (AccessDeniedException | UnsupportedOperationException e) {
+            // not supported here
+        }
+    }
+
+    // --- Reading ---
+
+    private static void replay(Path seg, Replay replay) throws IOException {
+        // A record is only valid once its newline is on disk; a torn tail from a
+        // crash mid-write is skipped.
+        boolean complete;
+        try (RandomAccessFile raf = new RandomAccessFile(seg.toFile(), "r")) {
+            long len = raf.length();
+            if (len == 0) return;
+            raf.seek(len - 1);
+            complete = raf.read() == '\n';
+        }
+        try (BufferedReader br = Files.newBufferedReader(seg, StandardCharsets.UTF_8)) {
+            String line = br.readLine();
+            while (line != null) {
+                String next = br.readLine();
+                if (next == null && !complete) break;
+                apply(line, replay);
+                line = next;
+            }
+        }
+    }
+
+    /** Applies one record (without its newline); anything that is not one of ours is skipped. */
+    static void apply(String record, Replay replay) {
+        String[] f = record.split("\t", -1);
+        if (f[0].equals("C") && f.length >= 4) {
+            replay.create(new Link(f[1], f[2], f[3], f.length >= 5 && f[4].equals("302")));
+        } else if (f[0].equals("D") && f.length >= 2) {
+            replay.delete(f[1]);
+        } else if (f[0].equals("X") && f.length >= 4) {
+            try {
+                replay.expiry(f[1], Long.parseLong(f[2]), Long.parseLong(f[3]));
+            } catch (NumberFormatException ignore) {
+                // not one of ours
+            }
+        } else if (f[0].equals("I") && f.length >= 3) {
+            try {
+                replay.lease(Long.parseUnsignedLong(f[1], 16), Long.parseLong(f[2]));
+            } catch (NumberFormatException ignore) {
+                // not one of ours
+            }
+        }
+    }
+
+    // --- Segment files ---
+
+    private Path segmentPath(long n) {
+        return dir.resolve(segmentPrefix + n);
+    }
+
+    private FileChannel openSegment(long n) throws IOException {
+        FileChannel ch = FileChannel.open(segmentPath(n),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            syncDirectory(dir); // before any record in it counts as durable
+        } catch (IOException e) {
+            ch.close();
+            throw e;
+        }
+        return ch;
+    }
+
+    private Path snapshotPath(long n) {
+        return dir.resolve(name + "-" + n + ".snap");
+    }
+
+    private Path expiryPath(long n) {
+        return dir.resolve(name + "-" + n + ".expiry");
+    }
+
+    /** The X records that belong to snapshot n, if it has any. */
+    private void replayExpiry(long n, Replay replay) throws IOException {
+        Path p = expiryPath(n);
+        if (Files.exists(p)) replay(p, replay);
+    }
+
+    /** Existing segment numbers, ascending. */
+    private List<Long> segments() throws IOException {
+        return numbered(segmentPrefix, "");
+    }
+
+    /** Numbers N of files named prefix + N + suffix in the data directory, ascending. */
+    private List<Long> numbered(String prefix, String suffix) throws IOException {
+        List<Long> out = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path p : ds) {
+                String f = p.getFileName().toString();
+                try {
+                    out.add(Long.parseLong(f.substring(prefix.length(), f.length() - suffix.length())));
+                } catch (NumberFormatException ignore) {
+                    // not one of ours
+                }
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    // The old snapshot may still be mapped (and undeletable on Windows); the
+    // next startup retries.
+    private static void deleteQuietly(Path p) {
+        try {
+            Files.deleteIfExists(p);
+        } catch (IOException ignore) {
+            // retried on next start
+        }
+    }
+}
@@ -0,0 +1,760 @@
+package urlshortener;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Everything but the UI: the store, its journal, the redirect server and the
+ * API. {@link UrlShortenerApp} is a front end attached to one; with
+ * --headless (or without a display) it runs alone, see {@link #run}.
+ *
+ * {@link #start} binds the server first and recovers the links on a
+ * background thread. The store is a {@link LazyLinkStore} until then: once
+ * the snapshot is mapped and the journal scanned, codes the journal does not
+ * mention are served straight from the snapshot, and the rest wait for the
+ * replay rather than getting a 404. Writes (the UI, POST /api/shorten,
+ * /api/expiry) are held off until recovery is done. Each phase is timed
+ * from process start and exported as urlshortener_startup_seconds, next to
+ * the time to the first redirect.
+ */
+public class LinkService implements Closeable {
+
+    /** What a front end hears about; called from any thread. */
+    public interface Listener {
+        /** A one-line status update. */
+        void message(String msg);
+        /** Links created without the front end (bulk imports). */
+        default void added(List<Link> links) {}
+        /** Links deleted without the front end (expiry). */
+        default void removed(List<String> codes) {}
+        /** The store moved onto a newer snapshot; views that read the old one in place should load it again. */
+        default void rebased() {}
+        /** Recovery is done: all links are there and writes are accepted. */
+        default void loaded() {}
+    }
+
+    static final String DATA_NAME = "urls";
+    static final Pattern ALIAS = Pattern.compile("[A-Za-z0-9_-]{3,32}");
+
+    /** HttpServer contexts besides "/"; the NIO server sends these paths to the API port. */
+    private static final String[] API_PATHS = {"/api/shorten", "/api/stats", "/api/search", "/api/expiry", "/api/export",
+            "/api/replication", "/metrics"};
+
+    final AppConfig config;
+    final UrlNormalizer normalizer;
+
+    // --- Storage ---
+    final LazyLinkStore links = new LazyLinkStore(); // under all of them: the recovered store once loaded
+    final CachedLinkStore cache;        // under metered: hot links, async misses; null with --cache=0
+    final MeteredLinkStore metered;     // under store: times lookups/creates
+    final CodeFilter codeFilter;        // == store: rejects unknown codes before the lookup
+    final LinkStore store;
+    final ClickTracker clicks;
+    final SearchIndex search = new SearchIndex();
+    final RedirectHandler redirects;
+    volatile LinkJournal journal;       // null if the links could not be loaded (changes not saved)
+    volatile LinkExpiry expiry;
+    volatile CodeAllocator codes;
+    volatile BulkImporter importer;
+    volatile ReplicationLeader replication; // with --replicate-port
+    private volatile boolean loaded;
+    private volatile Listener listener = msg -> System.err.println(msg);
+
+    // --- Server ---
+    private HttpServer server;
+    private NioRedirectServer nioServer;
+    private ExecutorService serverExecutor;
+    private volatile int port;
+    private volatile int apiPort; // where /api and /metrics are served; == port unless --server=nio
+
+    // --- Metrics ---
+    final Metrics metrics = new Metrics();
+    final Metrics.Histogram exportTime = new Metrics.Histogram();
+    private final long startNanos; // System.nanoTime() at process start
+    private volatile long listeningNanos, mappedNanos, scannedNanos, loadedNanos; // 0 until reached
+    private volatile double loadSeconds;
+
+    public LinkService(AppConfig config) {
+        this.config = config;
+        this.port = config.port;
+        this.normalizer = new UrlNormalizer(config.stripTracking);
+        this.clicks = config.analytics ? new ClickTracker() : null;
+        this.expiry = new LinkExpiry(null, this::removeExpired); // until recovery brings the journalled one
+        this.cache = config.cacheSize > 0 ? new CachedLinkStore(links, config.cacheSize, config.cacheLoaders) : null;
+        this.store = codeFilter = new CodeFilter(metered = new MeteredLinkStore(cache != null ? cache : links));
+        // Click budgets are enforced once they are all recovered.
+        this.redirects = new RedirectHandler(store, clicks,
+                config.missRate > 0 ? new MissLimiter(config.missRate, config.missBurst) : null, null);
+        long upMillis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+        this.startNanos = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(Math.max(0, upMillis));
+    }
+
+    /** Runs the service without a UI, for --headless, until the JVM exits. */
+    static void run(AppConfig config) throws InterruptedException {
+        if (config.search == null) config.search = false; // no search box to keep quick
+        LinkService s = new LinkService(config);
+        s.attach(new Listener() {
+            @Override public void message(String msg) {
+                System.out.println(msg);
+            }
+
+            @Override public void loaded() {
+                System.out.printf("Startup (ms after process start): listening %.0f, snapshot mapped %.0f,"
+                                + " journal scanned %.0f, all links loaded %.0f%n",
+                        s.sinceStart(s.listeningNanos) * 1e3, s.sinceStart(s.mappedNanos) * 1e3,
+                        s.sinceStart(s.scannedNanos) * 1e3, s.sinceStart(s.loadedNanos) * 1e3);
+            }
+        });
+        s.redirects.firstRedirect.thenAccept(t ->
+                System.out.printf("First redirect %.0f ms after process start%n", s.sinceStart(t) * 1e3));
+        s.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(s::close, "shutdown"));
+        System.out.printf("Serving redirects on port %d%s (%s), %.0f ms after process start; loading links...%n",
+                s.port, s.apiPort != s.port ? ", API on " + s.apiPort : "", config, s.sinceStart(s.listeningNanos) * 1e3);
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Starts serving and recovering the links in the background. Links that
+     * are already on disk resolve as soon as the snapshot is mapped (or, for
+     * the ones the journal changed, as soon as they are replayed).
+     */
+    public void start() {
+        registerMetrics();
+        startServer();
+        listeningNanos = System.nanoTime();
+        Thread t = new Thread(this::load, "load-links");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Sends later events to {@code l}; if the links are loaded already it hears that at once. */
+    public synchronized void attach(Listener l) {
+        listener = l;
+        if (loaded) l.loaded();
+    }
+
+    /** True once recovery is done and the store takes writes. */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    String baseUrl() {
+        return "http://localhost:" + port;
+    }
+
+    /** Seconds from process start to {@code nanos} (a System.nanoTime()), or NaN for 0 (not yet). */
+    private double sinceStart(long nanos) {
+        return nanos == 0 ? Double.NaN : (nanos - startNanos) / 1e9;
+    }
+
+    // --- Persistence ---
+
+    static LinkJournal newJournal(AppConfig config) {
+        return new LinkJournal(Paths.get("."), DATA_NAME, config.syncMillis, config.compactBytes);
+    }
+
+    /**
+     * Maps the base snapshot and replays the journal over it, expiry rules into
+     * {@code expiry} if not null. The store moves onto each snapshot that
+     * compaction writes after that.
+     */
+    static SnapshotLinkStore recoverStore(LinkJournal journal, AppConfig config, LinkExpiry expiry) throws IOException {
+        SnapshotLinkStore s = new SnapshotLinkStore(journal.openBase(), config.newLinkStore());
+        journal.onCompacted(snap -> s.rebase(snap, config.newLinkStore()));
+        replay(journal, s, expiry);
+        return s;
+    }
+
+    private static void replay(LinkJournal journal, SnapshotLinkStore s, LinkExpiry expiry) throws IOException {
+        journal.recover(new LinkJournal.Replay() {
+            @Override public void create(Link link) { s.put(link); }
+            @Override public void delete(String code) {
+                s.remove(code);
+                if (expiry != null) expiry.clear(code);
+            }
+            @Override public void expiry(String code, long expiresAt, long clicksLeft) {
+                if (expiry != null) expiry.restore(code, expiresAt, clicksLeft);
+            }
+        });
+    }
+
+    /**
+     * The load thread: maps the snapshot and serves it through {@link #links}
+     * while the journal is replayed, then starts everything that needs all
+     * the links (writes, expiry, replication, the filter and search index).
+     */
+    private void load() {
+        long t = System.nanoTime();
+        LinkJournal j = newJournal(config);
+        LinkExpiry e = new LinkExpiry(j, this::removeExpired);
+        LinkStore recovered;
+        boolean failed = false;
+        try {
+            SnapshotLinkStore s = new SnapshotLinkStore(j.openBase(), config.newLinkStore());
+            j.onCompacted(snap -> rebase(s, snap));
+            mappedNanos = System.nanoTime();
+            long[] touched = j.scanCodes();
+            scannedNanos = System.nanoTime();
+            links.serve(s, touched);
+            replay(j, s, e);
+            recovered = s;
+            journal = j;
+            expiry = e;
+        } catch (IOException | RuntimeException ex) {
+            recovered = config.newLinkStore();
+            failed = true;
+            listener.message("Failed to load links (changes will not be saved): " + ex.getMessage());
+        }
+        loadedNanos = System.nanoTime();
+        loadSeconds = (loadedNanos - t) / 1e9;
+        links.loaded(recovered); // answers the lookups that were waiting, on this thread
+        if (failed && cache != null) cache.cache().clear(); // it may hold links of the half-loaded store
+
+        LinkJournal journal = this.journal;
+        if (journal != null && config.replicatePort >= 0) {
+            try {
+                replication = new ReplicationLeader(config.replicatePort, config.replicateAcks,
+                        config.replicateTimeoutMillis, (SnapshotLinkStore) recovered, expiry);
+                journal.tap(replication);
+                replication.registerMetrics(metrics);
+            } catch (IOException ex) {
+                listener.message("Failed to start replication on port " + config.replicatePort + ": " + ex.getMessage());
+            }
+        }
+        if (journal != null) {
+            metrics.histogram("urlshortener_journal_sync_seconds", "Journal group commit write + fsync.", null, journal.syncs);
+            metrics.histogram("urlshortener_compaction_seconds", "Journal compactions into a new snapshot.", null, journal.compactions);
+            metrics.gauge("urlshortener_journal_failed", "1 once a journal write has failed and changes are no longer saved.",
+                    () -> journal.failure() == null ? 0L : 1L);
+        }
+        try {
+            codes = CodeAllocator.open(Paths.get(DATA_NAME + ".ids"), config.codes);
+            if (journal != null) codes.journalTo(journal); // for followers, should one be promoted
+            importer = new BulkImporter(store, journal, codes, normalizer, this::baseUrl, added -> {
+                for (Link l : added) search.add(l.code, l.url);
+                listener.added(added);
+            }, config.threads);
+            importer.setExpiry(expiry);
+        } catch (IOException ex) {
+            listener.message("Failed to open code allocator state: " + ex.getMessage());
+        }
+        indexLinks(recovered);
+        expiry.start();
+        redirects.setExpiry(expiry);
+        listener.message(String.format("Loaded %,d links in %.0f ms.", recovered.size(), loadSeconds * 1e3));
+        synchronized (this) {
+            loaded = true;
+            listener.loaded();
+        }
+    }
+
+    /**
+     * Builds the code filter and the search index on background threads; until
+     * they are done every lookup goes to the store and searches scan it. With
+     * --search=off searches keep scanning it.
+     */
+    private void indexLinks(LinkStore recovered) {
+        codeFilter.rebuildAsync();
+        if (Boolean.FALSE.equals(config.search)) {
+            search.scanOnly(recovered);
+            return;
+        }
+        Thread t = new Thread(() -> search.load(recovered), "search-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Serves {@code newer}, just written by compaction, in place of the
+     * snapshot the store was on. The store's delta and tombstones start over
+     * with the changes since; the hot cache starts over too, and the search
+     * index and the front end's table are rebuilt over the new base so the old
+     * mapping can go, and the rows of deleted links with it.
+     */
+    private void rebase(SnapshotLinkStore s, LinkSnapshot newer) {
+        s.rebase(newer, config.newLinkStore());
+        if (cache != null) cache.cache().clear();
+        synchronized (this) {
+            if (!loaded) return; // the search index and the front end read the store once it is
+            listener.rebased();
+        }
+        Thread t = new Thread(() -> search.load(s), "search-index");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /** Deletes links whose time to live or click budget ran out; called by {@link #expiry}. */
+    private int removeExpired(List<String> codes) {
+        LinkJournal journal = this.journal;
+        List<String> removed = new ArrayList<>(codes.size());
+        for (String code : codes) {
+            if (!store.remove(code)) continue;
+            if (journal != null) journal.appendDelete(code);
+            if (clicks != null) clicks.forget(code);
+            search.remove(code);
+            removed.add(code);
+        }
+        if (!removed.isEmpty()) listener.removed(removed);
+        return removed.size();
+    }
+
+    /** Stops serving and closes the journal; the JVM can exit after this. */
+    @Override public void close() {
+        stopServer();
+        if (importer != null) importer.shutdown();
+        if (clicks != null) clicks.close();
+        if (cache != null) cache.shutdown();
+        expiry.close();
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        if (replication != null) replication.close();
+    }
+
+    private void registerMetrics() {
+        String req = "urlshortener_http_requests_total", reqHelp = "Requests served by the redirect handler.";
+        metrics.counter(req, reqHelp, "result=\"301\"", redirects.served301::sum);
+        metrics.counter(req, reqHelp, "result=\"302\"", redirects.served302::sum);
+        metrics.counter(req, reqHelp, "result=\"404\"", redirects.served404::sum);
+        metrics.counter(req, reqHelp, "result=\"landing\"", redirects.servedLanding::sum);
+        metrics.counter(req, reqHelp, "result=\"429\"", redirects.served429::sum);
+        metrics.histogram("urlshortener_redirect_seconds", "Time spent in the redirect handler.", null, redirects.latency);
+        MeteredLinkStore s = metered;
+        metrics.histogram("urlshortener_store_lookup_seconds", "Store lookups by code or URL.", null, s.lookups);
+        metrics.histogram("urlshortener_store_create_seconds", "Store creates (shorten and alias).", null, s.creates);
+        metrics.gauge("urlshortener_links", "Links currently stored.", () -> (long) store.size());
+        CodeFilter f = codeFilter;
+        metrics.counter("urlshortener_code_filter_rejects_total", "Code lookups answered by the Bloom filter alone.",
+                null, f::rejects);
+        metrics.counter("urlshortener_code_filter_false_positives_total",
+                "Code lookups the filter passed that the store then missed.", null, f::falsePositives);
+        metrics.gauge("urlshortener_code_filter_false_positive_ratio",
+                "Share of lookups for unknown codes that still reached the store.", f::falsePositiveRatio);
+        metrics.histogram("urlshortener_code_filter_check_seconds", "Bloom filter check time (1 in 64 sampled).",
+                null, f.checks);
+        metrics.gauge("urlshortener_code_filter_bytes", "Memory held by the Bloom filter.", f::bytes);
+        metrics.counter("urlshortener_code_filter_rebuilds_total", "Bloom filter rebuilds.", null, f::rebuilds);
+        if (cache != null) {
+            LinkCache c = cache.cache();
+            metrics.counter("urlshortener_cache_hits_total", "Code lookups answered from the hot link cache.", null, c::hits);
+            metrics.counter("urlshortener_cache_misses_total", "Code lookups the cache had to load from the store.",
+                    null, c::misses);
+            metrics.gauge("urlshortener_cache_hit_ratio", "Share of code lookups answered from the cache.", c::hitRatio);
+            metrics.counter("urlshortener_cache_evictions_total", "Links evicted from the cache to stay within --cache.",
+                    null, c::evictions);
+            metrics.gauge("urlshortener_cache_links", "Links in the cache.", () -> (long) c.size());
+            metrics.histogram("urlshortener_cache_load_seconds",
+                    "Store reads on cache misses (the mapped snapshot, or the store above it).", null, cache.loads);
+        }
+        metrics.counter("urlshortener_code_retries_total", "Offered codes that were already taken.", null, store::codeRetries);
+        metrics.gauge("urlshortener_load_seconds", "Time to map the snapshot and replay the journal at startup.",
+                () -> loadSeconds);
+        String up = "urlshortener_startup_seconds", upHelp = "Time from process start to each startup phase (NaN until reached).";
+        metrics.gauge(up, upHelp, "phase=\"listening\"", () -> sinceStart(listeningNanos));
+        metrics.gauge(up, upHelp, "phase=\"snapshot_mapped\"", () -> sinceStart(mappedNanos));
+        metrics.gauge(up, upHelp, "phase=\"journal_scanned\"", () -> sinceStart(scannedNanos));
+        metrics.gauge(up, upHelp, "phase=\"first_redirect\"", () -> sinceStart(redirects.firstRedirect.getNow(0L)));
+        metrics.gauge(up, upHelp, "phase=\"loaded\"", () -> sinceStart(loadedNanos));
+        metrics.histogram("urlshortener_export_seconds", "Completed exports, from the UI and /api/export.", null, exportTime);
+        String exp = "urlshortener_links_expired_total", expHelp = "Links deleted because their expiry came due.";
+        metrics.counter(exp, expHelp, "reason=\"ttl\"", () -> expiry.expiredByTtl());
+        metrics.counter(exp, expHelp, "reason=\"clicks\"", () -> expiry.expiredByClicks());
+        metrics.gauge("urlshortener_links_expiring", "Links with a time to live or click budget.", () -> (long) expiry.size());
+        if (clicks != null) {
+            metrics.counter("urlshortener_click_events_dropped_total", "Clicks left out of the time buckets (ring full).",
+                    null, clicks::dropped);
+        }
+    }
+
+    // --- Helpers ---
+
+    static String timeStamp() {
+        return DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").format(LocalDateTime.now());
+    }
+
+    /** A positive count, or -1. */
+    static long parseCount(String s) {
+        try {
+            long n = Long.parseLong(s.trim());
+            return n > 0 ? n : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Map<String, String> queryParams(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) return params;
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String k = eq < 0 ? pair : pair.substring(0, eq), v = eq < 0 ? "" : pair.substring(eq + 1);
+            params.putIfAbsent(URLDecoder.decode(k, "UTF-8"), URLDecoder.decode(v, "UTF-8"));
+        }
+        return params;
+    }
+
+    // --- Tiny HTTP Server ---
+
+    private void startServer() {
+        if (config.server == AppConfig.ServerMode.NIO) {
+            port = listen(port, this::bindNio);
+            apiPort = listen(config.apiPort >= 0 ? config.apiPort : port + 1, this::bindServer);
+        } else {
+            port = apiPort = listen(port, this::bindServer);
+        }
+    }
+
+    /** Moves the server to port {@code p} (the UI's Change Port). */
+    void restartServer(int p) {
+        stopServer();
+        port = p;
+        startServer();
+    }
+
+    private interface Binder {
+        int bind(int port) throws IOException;
+    }
+
+    /** Binds to p, or to a random port if p is taken. Returns the bound port (p if nothing could be bound). */
+    private int listen(int p, Binder binder) {
+        try {
+            return binder.bind(p);
+        } catch (BindException be) {
+            listener.message("Port " + p + " in use. Trying 0 (random)...");
+            try {
+                int bound = binder.bind(0);
+                listener.message("Server started on random port " + bound);
+                return bound;
+            } catch (IOException e2) {
+                listener.message("Failed to start server: " + e2.getMessage());
+            }
+        } catch (IOException e) {
+            listener.message("Failed to start server: " + e.getMessage());
+        }
+        return p;
+    }
+
+    private int bindServer(int p) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(p), config.backlog);
+        server.createContext("/", redirects);
+        HttpHandler[] api = {new BulkHandler(() -> importer), new StatsHandler(), new SearchHandler(), new ExpiryHandler(), new ExportHandler(),
+                new ReplicationHandler(), new MetricsHandler()};
+        for (int i = 0; i < API_PATHS.length; i++) server.createContext(API_PATHS[i], api[i]);
+        serverExecutor = config.newServerExecutor();
+        server.setExecutor(serverExecutor);
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    private int bindNio(int p) throws IOException {
+        nioServer = new NioRedirectServer(redirects, p, config.backlog, config.threads, () -> apiPort, API_PATHS);
+        return nioServer.port();
+    }
+
+    private void stopServer() {
+        if (nioServer != null) {
+            try {
+                nioServer.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            nioServer = null;
+        }
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+        if (serverExecutor != null) {
+            serverExecutor.shutdown();
+            serverExecutor = null;
+        }
+    }
+
+    /**
+     * POST /api/shorten: streamed bulk shortening, see BulkImporter. The import
+     * runs on the importer's threads and answers the exchange from there, so
+     * a long one does not hold a server thread (with --executor=single, the
+     * only one) away from redirects.
+     */
+    static class BulkHandler implements HttpHandler {
+        private final Supplier<BulkImporter> importers;
+
+        /** @param importers the importer to use, or null while there is none (503) */
+        BulkHandler(Supplier<BulkImporter> importers) {
+            this.importers = importers;
+        }
+
+        @Override public void handle(HttpExchange ex) throws IOException {
+            BulkImporter importer = importers.get();
+            if (!"POST".equals(ex.getRequestMethod()) || importer == null) {
+                ex.getResponseHeaders().add("Allow", "POST");
+                ex.sendResponseHeaders(importer == null ? 503 : 405, -1);
+                ex.close();
+                return;
+            }
+            String type = ex.getRequestHeaders().getFirst("Content-Type");
+            BulkImporter.Format format = type == null ? null
+                    : type.contains("json") ? BulkImporter.Format.NDJSON
+                    : type.contains("csv") ? BulkImporter.Format.CSV : null;
+            AtomicBoolean started = new AtomicBoolean();
+            importer.submit(ex.getRequestBody(), format, fmt -> {
+                ex.getResponseHeaders().add("Content-Type",
+                        fmt == BulkImporter.Format.CSV ? "text/csv; charset=utf-8" : "application/x-ndjson");
+                try {
+                    ex.sendResponseHeaders(200, 0); // chunked: rows stream back as batches commit
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                started.set(true);
+                return new OutputStreamWriter(ex.getResponseBody(), StandardCharsets.UTF_8);
+            }).whenComplete((summary, e) -> {
+                try {
+                    if (e != null && !started.get()) ex.sendResponseHeaders(500, -1);
+                } catch (IOException ignored) {
+                    // the client is gone
+                } finally {
+                    ex.close();
+                }
+            });
+        }
+    }
+
+    /** GET /api/stats (top codes) and /api/stats/{code}: click analytics as JSON. */
+    private class StatsHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            if (!"GET".equals(ex.getRequestMethod()) || clicks == null) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(clicks == null ? 503 : 405, -1);
+                ex.close();
+                return;
+            }
+            String path = ex.getRequestURI().getPath();
+            String code = path.length() > "/api/stats/".length() ? path.substring("/api/stats/".length()) : "";
+            String json;
+            if (code.isEmpty()) {
+                json = clicks.topJson(50);
+            } else {
+                Link link = store.link(code);
+                if (link == null) {
+                    ex.sendResponseHeaders(404, -1);
+                    ex.close();
+                    return;
+                }
+                json = clicks.toJson(link);
+            }
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+    }
+
+    /**
+     * GET /api/search?q=&offset=&limit=: one page of links whose code or URL
+     * contains q (any case), as JSON. limit defaults to 50, at most 1000.
+     */
+    private class SearchHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(405, -1);
+                ex.close();
+                return;
+            }
+            Map<String, String> params = queryParams(ex.getRequestURI().getRawQuery());
+            String q = params.get("q");
+            int offset, limit;
+            try {
+                offset = Math.max(0, Integer.parseInt(params.getOrDefault("offset", "0")));
+                limit = Math.min(1000, Math.max(0, Integer.parseInt(params.getOrDefault("limit", "50"))));
+            } catch (NumberFormatException e) {
+                q = null;
+                offset = limit = 0;
+            }
+            if (q == null || q.isEmpty()) {
+                ex.sendResponseHeaders(400, -1);
+                ex.close();
+                return;
+            }
+            SearchIndex.Result r = search.search(q, offset, limit);
+            String base = baseUrl() + "/";
+            StringBuilder sb = new StringBuilder(128 + r.links.size() * 128);
+            Json.quote(sb.append("{\"query\":"), q);
+            sb.append(",\"offset\":").append(offset).append(",\"limit\":").append(limit)
+              .append(",\"total\":").append(r.total).append(",\"total_capped\":").append(r.totalCapped)
+              .append(",\"results\":[");
+            for (int i = 0; i < r.links.size(); i++) {
+                Link l = r.links.get(i);
+                if (i > 0) sb.append(',');
+                Json.quote(sb.append("{\"code\":"), l.code);
+                Json.quote(sb.append(",\"short_url\":"), base + l.code);
+                Json.quote(sb.append(",\"url\":"), l.url);
+                Json.quote(sb.append(",\"created\":"), l.created);
+                sb.append(",\"redirect\":").append(l.status()).append('}');
+            }
+            byte[] body = sb.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+    }
+
+    /**
+     * /api/expiry/{code}: GET shows the link's expiry, POST ?ttl=7d&max_clicks=N
+     * replaces it (either may be left out, not both), DELETE clears it.
+     * 503 until the links are loaded. A change is answered once its journal
+     * record is durable, like a create; 500 if the journal failed.
+     *
+     * This acts on the code as named, which everyone who shortened its URL
+     * shares; new links with an expiry get a code of their own from the form.
+     * Once a link has a rule it is redirected with 302, but clients that
+     * cached an earlier 301 for it are out of reach.
+     */
+    private class ExpiryHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            String method = ex.getRequestMethod();
+            if (!"GET".equals(method) && !"POST".equals(method) && !"DELETE".equals(method)) {
+                ex.getResponseHeaders().add("Allow", "GET, POST, DELETE");
+                ex.sendResponseHeaders(405, -1);
+                ex.close();
+                return;
+            }
+            if (!loaded) {
+                ex.getResponseHeaders().add("Retry-After", "1");
+                ex.sendResponseHeaders(503, -1);
+                ex.close();
+                return;
+            }
+            String path = ex.getRequestURI().getPath();
+            String code = path.length() > "/api/expiry/".length() ? path.substring("/api/expiry/".length()) : "";
+            if (code.isEmpty() || store.link(code) == null) {
+                ex.sendResponseHeaders(404, -1);
+                ex.close();
+                return;
+            }
+            long expiresAt = LinkExpiry.NEVER, maxClicks = LinkExpiry.UNLIMITED;
+            if ("POST".equals(method)) {
+                Map<String, String> params = queryParams(ex.getRequestURI().getRawQuery());
+                String ttlText = params.get("ttl"), maxText = params.get("max_clicks");
+                long ttl = ttlText == null ? 0 : LinkExpiry.parseTtl(ttlText);
+                maxClicks = maxText == null ? LinkExpiry.UNLIMITED : parseCount(maxText);
+                if (ttl < 0 || (maxText != null && maxClicks <= 0) || (ttlText == null && maxText == null)) {
+                    ex.sendResponseHeaders(400, -1);
+                    ex.close();
+                    return;
+                }
+                if (ttl > 0) expiresAt = System.currentTimeMillis() + ttl;
+            }
+            if (!"GET".equals(method)) {
+                try {
+                    long seq = expiry.set(code, expiresAt, maxClicks);
+                    LinkJournal journal = LinkService.this.journal;
+                    if (journal != null && seq > 0) journal.awaitDurable(seq); // confirmed only once saved
+                } catch (IOException | UncheckedIOException e) { // the journal failed: not saved
+                    ex.sendResponseHeaders(500, -1);
+                    ex.close();
+                    return;
+                }
+            }
+            byte[] body = expiry.toJson(code).getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+    }
+
+    /**
+     * GET /api/export?format=csv|ndjson: every link, streamed as a chunked
+     * response straight from the store (see LinkExporter). Gzipped with
+     * Content-Encoding when the client accepts it or asks with gzip=1.
+     */
+    private class ExportHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(405, -1);
+                ex.close();
+                return;
+            }
+            Map<String, String> params = queryParams(ex.getRequestURI().getRawQuery());
+            String fmt = params.getOrDefault("format", "csv");
+            LinkExporter.Format format = "csv".equals(fmt) ? LinkExporter.Format.CSV
+                    : "ndjson".equals(fmt) ? LinkExporter.Format.NDJSON : null;
+            if (format == null) {
+                ex.sendResponseHeaders(400, -1);
+                ex.close();
+                return;
+            }
+            String accept = ex.getRequestHeaders().getFirst("Accept-Encoding");
+            boolean gzip = "1".equals(params.get("gzip")) || "true".equals(params.get("gzip"))
+                    || (accept != null && accept.contains("gzip"));
+            ex.getResponseHeaders().add("Content-Type",
+                    format == LinkExporter.Format.CSV ? "text/csv; charset=utf-8" : "application/x-ndjson");
+            ex.getResponseHeaders().add("Content-Disposition",
+                    "attachment; filename=\"urls" + format.extension + "\"");
+            if (gzip) ex.getResponseHeaders().add("Content-Encoding", "gzip");
+            long start = System.nanoTime();
+            ex.sendResponseHeaders(200, 0); // chunked
+            try (OutputStream os = ex.getResponseBody()) {
+                new LinkExporter(format, gzip, baseUrl() + "/").export(links.recovered(), os);
+                exportTime.since(start);
+            }
+        }
+    }
+
+    /** GET /api/replication: the leader's view of its followers as JSON. */
+    private class ReplicationHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            if (!"GET".equals(ex.getRequestMethod())) {
+                ex.getResponseHeaders().add("Allow", "GET");
+                ex.sendResponseHeaders(405, -1);
+                ex.close();
+                return;
+            }
+            ReplicationLeader r = replication;
+            String json = r != null ? r.toJson() : "{\"role\":\"standalone\"}";
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "application/json");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+    }
+
+    /** GET /metrics: everything in {@link #metrics}, Prometheus text format. */
+    private class MetricsHandler implements HttpHandler {
+        @Override public void handle(HttpExchange ex) throws IOException {
+            byte[] body = metrics.render().getBytes(StandardCharsets.UTF_8);
+            ex.getResponseHeaders().add("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            ex.sendResponseHeaders(200, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+    }
+}
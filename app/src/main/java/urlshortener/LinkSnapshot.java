@@ -0,0 +1,437 @@
+package urlshortener;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable, memory-mapped snapshot of all links.
+ *
+ * File layout (big-endian):
+ *   header      64 bytes: magic, version, count, blob/index offsets
+ *   blob        per link: code bytes, url bytes, created bytes (UTF-8)
+ *   code index  count x 16 bytes, sorted by code (String order):
+ *                 long blobOffset, int urlLen, short codeLen,
+ *                 byte createdLen, byte flags (bit 0: temporary/302)
+ *               (version 1 files had short createdLen and no flags)
+ *   url index   count x 8 bytes, sorted: (int urlHash << 32) | entry
+ *
+ * Opening a snapshot only maps the file, so lookups work straight away and
+ * cost a binary search over the mapped index. Nothing is copied onto the heap
+ * except the strings a lookup returns. Each section is mapped in 1 GB chunks
+ * (a MappedByteBuffer stops at 2 GB), so offsets are longs throughout.
+ */
+public final class LinkSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x554C4E4B; // "ULNK"
+    private static final int VERSION = 2;
+    private static final int FLAG_TEMPORARY = 1;
+    private static final int HEADER = 64;
+    private static final int ENTRY = 16;
+
+    static final LinkSnapshot EMPTY = new LinkSnapshot(VERSION, 0, Region.EMPTY, Region.EMPTY, Region.EMPTY);
+
+    private final int version;
+    private final int count;
+    private final Region blob;
+    private final Region codes;
+    private final Region urls;
+
+    private LinkSnapshot(int version, int count, Region blob, Region codes, Region urls) {
+        this.version = version;
+        this.count = count;
+        this.blob = blob;
+        this.codes = codes;
+        this.urls = urls;
+    }
+
+    public static LinkSnapshot open(Path file) throws IOException {
+        return open(file, Region.SHIFT);
+    }
+
+    /** {@link #open(Path)} with chunks of 2^shift bytes (at least 16), so tests can cross chunk boundaries. */
+    static LinkSnapshot open(Path file, int shift) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            while (h.hasRemaining() && ch.read(h, h.position()) > 0) { /* fill */ }
+            h.flip();
+            int version = h.remaining() < HEADER ? 0 : h.getInt(4);
+            if (version < 1 || version > VERSION || h.getInt(0) != MAGIC) {
+                throw new IOException("Not a link snapshot: " + file);
+            }
+            int count = h.getInt(8);
+            long blobOff = h.getLong(16), blobLen = h.getLong(24);
+            long codesOff = h.getLong(32), urlsOff = h.getLong(40);
+            // The mapping stays valid after the channel is closed.
+            return new LinkSnapshot(version, count,
+                    Region.map(ch, blobOff, blobLen, shift),
+                    Region.map(ch, codesOff, (long) count * ENTRY, shift),
+                    Region.map(ch, urlsOff, (long) count * 8, shift));
+        }
+    }
+
+    /**
+     * Unmaps the file now instead of whenever the GC gets to it, so a deleted
+     * snapshot's disk space comes back at once. Only for a snapshot nothing
+     * else reads any more (e.g. compaction's own copy of the base): touching
+     * it afterwards can crash the JVM.
+     */
+    @Override public void close() {
+        blob.unmap();
+        codes.unmap();
+        urls.unmap();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // --- Lookups ---
+
+    /** Target URL for a code, or null. */
+    public String get(String code) {
+        int i = indexOf(code);
+        return i < 0 ? null : url(i);
+    }
+
+    public Link link(String code) {
+        int i = indexOf(code);
+        return i < 0 ? null : new Link(code, url(i), created(i), temporary(i));
+    }
+
+    /** Some code pointing at this URL, or null. */
+    public String codeFor(String url) {
+        return codeFor(url, Collections.<String>emptySet());
+    }
+
+    /** Some code pointing at this URL other than those in {@code skip}, or null. */
+    public String codeFor(String url, Set<String> skip) {
+        long key = (long) hash(url) << 32;
+        // Lower bound: first entry whose hash half is >= the URL's hash.
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (urls.getLong(mid * 8L) < key) lo = mid + 1; else hi = mid;
+        }
+        for (int j = lo; j < count; j++) {
+            long e = urls.getLong(j * 8L);
+            if ((e >>> 32) != (key >>> 32)) break;
+            int i = (int) e;
+            if (compare(url, offset(i) + codeLen(i), urlLen(i)) != 0) continue;
+            String code = code(i);
+            if (!skip.contains(code)) return code;
+        }
+        return null;
+    }
+
+    /** Entry index of a code, or -1. */
+    public int indexOf(String code) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compare(code, offset(mid), codeLen(mid));
+            if (c == 0) return mid;
+            if (c < 0) hi = mid - 1; else lo = mid + 1;
+        }
+        return -1;
+    }
+
+    // --- Entry access (0 <= i < size(), ascending code order) ---
+
+    public String code(int i) {
+        return string(offset(i), codeLen(i));
+    }
+
+    public String url(int i) {
+        return string(offset(i) + codeLen(i), urlLen(i));
+    }
+
+    public String created(int i) {
+        return string(offset(i) + codeLen(i) + urlLen(i), createdLen(i));
+    }
+
+    public boolean temporary(int i) {
+        return version > 1 && (codes.get(i * (long) ENTRY + 15) & FLAG_TEMPORARY) != 0;
+    }
+
+    public Link link(int i) {
+        return new Link(code(i), url(i), created(i), temporary(i));
+    }
+
+    // Raw entry layout, for readers that copy bytes out (LinkExporter): code,
+    // url and created are adjacent UTF-8 runs, see entryBytes.
+
+    long offset(int i)    { return codes.getLong(i * (long) ENTRY); }
+    int urlLen(int i)     { return codes.getInt(i * (long) ENTRY + 8); }
+    int codeLen(int i)    { return codes.getShort(i * (long) ENTRY + 12) & 0xFFFF; }
+    int createdLen(int i) {
+        long e = i * (long) ENTRY + 14;
+        return version > 1 ? codes.get(e) & 0xFF : codes.getShort(e) & 0xFFFF;
+    }
+
+    /** Copies entry i's code, url and created bytes, back to back, into {@code dst} (which must fit them). */
+    void entryBytes(int i, byte[] dst) {
+        blob.get(offset(i), dst, 0, codeLen(i) + urlLen(i) + createdLen(i));
+    }
+
+    /** Length of the file this snapshot was mapped from, as {@link #writeTo} writes it. */
+    public long fileSize() {
+        return HEADER + blob.size + (long) count * ENTRY + (long) count * 8;
+    }
+
+    /** Writes the snapshot back out in its file format, e.g. to a follower (see ReplicationLeader). */
+    public void writeTo(OutputStream out) throws IOException {
+        long blobLen = blob.size;
+        ByteBuffer h = ByteBuffer.allocate(HEADER);
+        h.putInt(MAGIC).putInt(version).putInt(count).putInt(0);
+        h.putLong(HEADER).putLong(blobLen);
+        h.putLong(HEADER + blobLen).putLong(HEADER + blobLen + (long) count * ENTRY);
+        WritableByteChannel ch = Channels.newChannel(out);
+        h.clear();
+        while (h.hasRemaining()) ch.write(h);
+        for (Region r : new Region[] {blob, codes, urls}) {
+            for (ByteBuffer part : r.parts) {
+                ByteBuffer b = part.duplicate();
+                b.clear();
+                while (b.hasRemaining()) ch.write(b);
+            }
+        }
+    }
+
+    private String string(long off, int len) {
+        byte[] b = new byte[len];
+        blob.get(off, b, 0, len);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Compares a string with stored UTF-8 bytes in String order. ASCII is
+     * compared in place; anything else falls back to decoding.
+     */
+    private int compare(String s, long off, int len) {
+        int n = Math.min(s.length(), len);
+        for (int k = 0; k < n; k++) {
+            int b = blob.get(off + k);
+            char c = s.charAt(k);
+            if (b < 0 || c >= 0x80) return s.compareTo(string(off, len));
+            if (c != b) return c - b;
+        }
+        return s.length() - len;
+    }
+
+    static int hash(String s) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 15);
+    }
+
+    /**
+     * A section of the file, mapped as consecutive chunks of 2^shift bytes
+     * (1 GB). Index entries (16 and 8 bytes) never straddle two chunks; blob
+     * strings may, and are read byte by byte.
+     */
+    private static final class Region {
+        static final int SHIFT = 30;
+        static final Region EMPTY = new Region(new ByteBuffer[] {ByteBuffer.allocate(0)}, 0, SHIFT);
+
+        final ByteBuffer[] parts;
+        final long size;
+        private final ByteBuffer only; // parts[0] when that is all there is: the common case, read directly
+        private final int shift, mask;
+
+        private Region(ByteBuffer[] parts, long size, int shift) {
+            this.parts = parts;
+            this.size = size;
+            this.only = parts.length == 1 ? parts[0] : null;
+            this.shift = shift;
+            this.mask = (1 << shift) - 1;
+        }
+
+        static Region map(FileChannel ch, long off, long len, int shift) throws IOException {
+            long chunk = 1L << shift;
+            ByteBuffer[] parts = new ByteBuffer[(int) Math.max(1, (len + chunk - 1) >>> shift)];
+            for (int k = 0; k < parts.length; k++) {
+                long from = k * chunk;
+                parts[k] = ch.map(FileChannel.MapMode.READ_ONLY, off + from, Math.min(chunk, len - from));
+            }
+            return new Region(parts, len, shift);
+        }
+
+        private ByteBuffer part(long off) {
+            return only != null ? only : parts[(int) (off >>> shift)];
+        }
+
+        byte get(long off)       { return part(off).get((int) off & mask); }
+        short getShort(long off) { return part(off).getShort((int) off & mask); }
+        int getInt(long off)     { return part(off).getInt((int) off & mask); }
+        long getLong(long off)   { return part(off).getLong((int) off & mask); }
+
+        void get(long off, byte[] dst, int at, int len) {
+            for (int k = 0; k < len; k++) dst[at + k] = get(off + k);
+        }
+
+        void unmap() {
+            if (this == EMPTY) return;
+            for (ByteBuffer b : parts) LinkSnapshot.unmap(b);
+        }
+    }
+
+    /** Releases a mapped buffer now (Java 9+: Unsafe.invokeCleaner, Java 8: its Cleaner); else leaves it to the GC. */
+    private static void unmap(ByteBuffer b) {
+        if (!(b instanceof MappedByteBuffer)) return;
+        try {
+            Class<?> unsafe = Class.forName("sun.misc.Unsafe");
+            Field f = unsafe.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            try {
+                unsafe.getMethod("invokeCleaner", ByteBuffer.class).invoke(f.get(null), b);
+            } catch (NoSuchMethodException e) {
+                Method cleaner = b.getClass().getMethod("cleaner");
+                cleaner.setAccessible(true);
+                Object c = cleaner.invoke(b);
+                if (c != null) c.getClass().getMethod("clean").invoke(c);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // not supported here: the mapping goes when the buffer is collected
+        }
+    }
+
+    // --- Writing ---
+
+    /**
+     * Streams links into a new snapshot. Links must be added in strictly
+     * ascending code order; the file appears atomically on {@link #finish()}.
+     */
+    public static final class Writer implements Closeable {
+        private final Path target;
+        private final Path tmp;
+        private final FileChannel ch;
+        private final DataOutputStream out;
+        private long blobLen;
+        private String last;
+        private int n;
+        private long[] offsets = new long[1024];
+        private int[] urlLens = new int[1024];
+        private short[] codeLens = new short[1024];
+        private byte[] createdLens = new byte[1024];
+        private byte[] flags = new byte[1024];
+        private long[] urlKeys = new long[1024];
+
+        public Writer(Path target) throws IOException {
+            this.target = target.toAbsolutePath();
+            this.tmp = this.target.resolveSibling(this.target.getFileName() + ".tmp");
+            this.ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            ch.position(HEADER);
+            this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), 1 << 16));
+        }
+
+        public void add(String code, String url, String created, boolean temporary) throws IOException {
+            if (last != null && code.compareTo(last) <= 0) {
+                throw new IllegalArgumentException("Codes out of order: " + last + " >= " + code);
+            }
+            byte[] c = code.getBytes(StandardCharsets.UTF_8);
+            byte[] u = url.getBytes(StandardCharsets.UTF_8);
+            byte[] t = created == null ? new byte[0] : created.getBytes(StandardCharsets.UTF_8);
+            if (c.length > 0xFFFF || t.length > 0xFF) throw new IllegalArgumentException("Field too long: " + code);
+            if (n == offsets.length) grow();
+            offsets[n] = blobLen;
+            urlLens[n] = u.length;
+            codeLens[n] = (short) c.length;
+            createdLens[n] = (byte) t.length;
+            flags[n] = (byte) (temporary ? FLAG_TEMPORARY : 0);
+            urlKeys[n] = ((long) hash(url) << 32) | n;
+            out.write(c);
+            out.write(u);
+            out.write(t);
+            blobLen += c.length + u.length + t.length;
+            last = code;
+            n++;
+        }
+
+        private void grow() {
+            int cap = offsets.length * 2;
+            offsets = Arrays.copyOf(offsets, cap);
+            urlLens = Arrays.copyOf(urlLens, cap);
+            codeLens = Arrays.copyOf(codeLens, cap);
+            createdLens = Arrays.copyOf(createdLens, cap);
+            flags = Arrays.copyOf(flags, cap);
+            urlKeys = Arrays.copyOf(urlKeys, cap);
+        }
+
+        public void finish() throws IOException {
+            for (int i = 0; i < n; i++) {
+                out.writeLong(offsets[i]);
+                out.writeInt(urlLens[i]);
+                out.writeShort(codeLens[i]);
+                out.writeByte(createdLens[i]);
+                out.writeByte(flags[i]);
+            }
+            long[] keys = Arrays.copyOf(urlKeys, n);
+            Arrays.sort(keys);
+            for (long k : keys) out.writeLong(k);
+            out.flush();
+
+            ByteBuffer h = ByteBuffer.allocate(HEADER);
+            h.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(0);
+            h.putLong(HEADER).putLong(blobLen);
+            h.putLong(HEADER + blobLen).putLong(HEADER + blobLen + (long) n * ENTRY);
+            h.clear();
+            while (h.hasRemaining()) ch.write(h, h.position());
+            ch.force(true);
+            ch.close();
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LinkJournal.syncDirectory(target.getParent());
+        }
+
+        /** Abandons an unfinished snapshot. */
+        @Override public void close() throws IOException {
+            if (ch.isOpen()) {
+                ch.close();
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Imports a CSV in the app's column layout (code, short_url, original_url,
+     * created_at[, redirect]). Rows are sorted in memory; a later row for the
+     * same code wins.
+     */
+    public static void importCsv(Path csv, Path target) throws IOException {
+        List<Link> rows = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            br.readLine(); // header
+            String line;
+            while ((line = br.readLine()) != null) {
+                List<String> cols = Csv.parseLine(line);
+                if (cols.size() < 4) continue;
+                rows.add(new Link(cols.get(0), cols.get(2), cols.get(3), cols.size() > 4 && cols.get(4).trim().equals("302")));
+            }
+        }
+        rows.sort((a, b) -> a.code.compareTo(b.code)); // stable: equal codes keep file order
+        try (Writer w = new Writer(target)) {
+            for (int i = 0; i < rows.size(); i++) {
+                Link l = rows.get(i);
+                if (i + 1 < rows.size() && rows.get(i + 1).code.equals(l.code)) continue;
+                w.add(l.code, l.url, l.created, l.temporary);
+            }
+            w.finish();
+        }
+    }
+}
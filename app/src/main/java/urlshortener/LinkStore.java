@@ -0,0 +1,62 @@
+package urlshortener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Two-way mapping between short codes and URLs, shared by the Swing UI and
+ * the redirect server.
+ *
+ * Invariant: whenever {@link #codeFor(String)} returns a code, {@link #get(String)}
+ * for that code returns the same URL. Readers never block.
+ */
+public interface LinkStore {
+
+    /** URL for a code, or null. Called on every redirect, so it must not block. */
+    String get(String code);
+
+    /** Full link for a code, or null. */
+    Link link(String code);
+
+    /**
+     * {@link #link} for callers that must not wait on disk: completes at once
+     * unless the store has to read the link first (see {@link CachedLinkStore}).
+     */
+    default CompletableFuture<Link> linkAsync(String code) {
+        return CompletableFuture.completedFuture(link(code));
+    }
+
+    /** Current code for a URL, or null. */
+    String codeFor(String url);
+
+    /**
+     * Maps the link's code to its URL and points the URL at this code.
+     * Returns null on success, or the URL the code is already taken by.
+     */
+    String put(Link link);
+
+    /**
+     * Returns the existing code for the URL, or maps it to a fresh code from
+     * the supplier (asked again while the offered code is already taken).
+     */
+    String shorten(String url, String created, boolean temporary, Supplier<String> newCode);
+
+    /** Removes a code; the URL's reverse entry goes too if it pointed at this code. */
+    boolean remove(String code);
+
+    int size();
+
+    /** How many codes offered to {@link #shorten} so far were already taken. */
+    long codeRetries();
+
+    /**
+     * How many codes have been removed so far. A live code is never pointed
+     * elsewhere, only removed, so a cached lookup taken when this had some
+     * value is still right for as long as it keeps that value.
+     */
+    long removals();
+
+    /** Weakly consistent walk over all links. */
+    void forEach(Consumer<Link> action);
+}
@@ -0,0 +1,239 @@
+package urlshortener;
+
+import java.util.*;
+import java.util.function.Supplier;
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Table model that reads links from the store on demand instead of holding
+ * copies of them.
+ *
+ * Rows are snapshot entries (by snapshot index, nothing copied) followed by
+ * the codes added since the snapshot was written. Deleted rows are hidden
+ * through a compacted row map that only exists once something was deleted.
+ * The short URL is computed from the current base URL when painted, so a port
+ * change only needs a repaint.
+ *
+ * A search narrows the table to a given set of codes ({@link #showOnly});
+ * rows added meanwhile stay hidden until the filter is replaced or cleared.
+ *
+ * Must be used on the EDT only. Bulk changes fire one event per call.
+ */
+public class LinkTableModel extends AbstractTableModel {
+
+    private static final String[] COLUMNS = {"Code", "Short URL", "Original URL", "Created At", "Clicks"};
+
+    private final Supplier<String> baseUrl;
+    private final ClickTracker clicks;
+
+    private LinkStore store = new ConcurrentLinkStore();
+    private LinkSnapshot base = LinkSnapshot.EMPTY;
+    private final List<String> added = new ArrayList<>();
+    private final Map<String, Integer> addedIndex = new HashMap<>();
+    private final BitSet removed = new BitSet();
+
+    // Visible row -> physical row, or null while nothing is removed (identity).
+    private int[] rows;
+    private int rowCount;
+    // Physical rows shown while a search is active, or null.
+    private int[] filter;
+
+    // getValueAt goes column by column through a row, so keep the last row's link.
+    private int cachedRow = -1;
+    private Link cachedLink;
+
+    /** @param clicks may be null (analytics off) */
+    public LinkTableModel(Supplier<String> baseUrl, ClickTracker clicks) {
+        this.baseUrl = baseUrl;
+        this.clicks = clicks;
+    }
+
+    /**
+     * Shows everything in {@code store}. A {@link SnapshotLinkStore} is read in
+     * place; any other store is walked once for its codes. Loaded again after
+     * the store is rebased, the rows of deleted links are gone for good.
+     */
+    public void load(LinkStore store) {
+        this.store = store;
+        base = LinkSnapshot.EMPTY;
+        added.clear();
+        addedIndex.clear();
+        removed.clear();
+        filter = null;
+        if (store instanceof SnapshotLinkStore) {
+            SnapshotLinkStore.Layers s = ((SnapshotLinkStore) store).layers();
+            base = s.base();
+            for (String code : s.deletedFromBase()) {
+                int i = base.indexOf(code);
+                if (i >= 0) removed.set(i);
+            }
+            s.forEachAdded(l -> append(l.code));
+        } else {
+            store.forEach(l -> append(l.code));
+        }
+        rebuildRows();
+        fireTableDataChanged();
+    }
+
+    /** Adds rows for new codes; codes already shown are repainted instead. */
+    public void addAll(Collection<String> codes) {
+        int first = getRowCount();
+        boolean updated = false;
+        for (String code : codes) {
+            int p = physicalIndexOf(code);
+            if (p >= 0 && !removed.get(p)) {
+                updated = true;
+                continue;
+            }
+            p = append(code);
+            if (rows != null) {
+                if (rowCount == rows.length) rows = Arrays.copyOf(rows, Math.max(16, rowCount * 2));
+                rows[rowCount] = p;
+            }
+            rowCount++;
+        }
+        invalidate();
+        if (getRowCount() > first) fireTableRowsInserted(first, getRowCount() - 1);
+        if (updated && first > 0) fireTableRowsUpdated(0, first - 1);
+    }
+
+    public void add(String code) {
+        addAll(Collections.singletonList(code));
+    }
+
+    /** Hides the rows of deleted codes. */
+    public void removeAll(Collection<String> codes) {
+        boolean any = false;
+        for (String code : codes) {
+            int p = physicalIndexOf(code);
+            if (p >= 0 && !removed.get(p)) {
+                removed.set(p);
+                any = true;
+            }
+        }
+        if (!any) return;
+        rebuildRows();
+        if (filter != null) {
+            int n = 0;
+            for (int p : filter) if (!removed.get(p)) filter[n++] = p;
+            filter = Arrays.copyOf(filter, n);
+        }
+        fireTableDataChanged();
+    }
+
+    /** Shows only these codes (unknown or deleted ones are skipped), in row order. */
+    public void showOnly(Collection<String> codes) {
+        int[] f = new int[codes.size()];
+        int n = 0;
+        for (String code : codes) {
+            int p = physicalIndexOf(code);
+            if (p >= 0 && !removed.get(p)) f[n++] = p;
+        }
+        f = Arrays.copyOf(f, n);
+        Arrays.sort(f);
+        filter = f;
+        invalidate();
+        fireTableDataChanged();
+    }
+
+    /** Shows all rows again. */
+    public void showAll() {
+        if (filter == null) return;
+        filter = null;
+        invalidate();
+        fireTableDataChanged();
+    }
+
+    public boolean isFiltered() {
+        return filter != null;
+    }
+
+    /** Visible row of a code, or -1. */
+    public int indexOf(String code) {
+        int p = physicalIndexOf(code);
+        if (p < 0 || removed.get(p)) return -1;
+        if (filter != null) return Math.max(-1, Arrays.binarySearch(filter, p));
+        if (rows == null) return p;
+        int i = Arrays.binarySearch(rows, 0, rowCount, p); // physical order is kept
+        return i < 0 ? -1 : i;
+    }
+
+    public String codeAt(int row) {
+        int p = filter != null ? filter[row] : rows == null ? row : rows[row];
+        return p < base.size() ? base.code(p) : added.get(p - base.size());
+    }
+
+    /** The link shown in a row, read from the store. Null if it was deleted meanwhile. */
+    public Link linkAt(int row) {
+        if (row != cachedRow) {
+            cachedLink = store.link(codeAt(row));
+            cachedRow = row;
+        }
+        return cachedLink;
+    }
+
+    public String shortUrl(String code) {
+        return baseUrl.get() + "/" + code;
+    }
+
+    // --- AbstractTableModel ---
+
+    @Override public int getRowCount() {
+        return filter != null ? filter.length : rowCount;
+    }
+
+    @Override public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override public String getColumnName(int c) {
+        return COLUMNS[c];
+    }
+
+    @Override public Class<?> getColumnClass(int c) {
+        return c == 4 ? Long.class : String.class;
+    }
+
+    @Override public Object getValueAt(int row, int col) {
+        if (col == 0) return codeAt(row);
+        if (col == 1) return shortUrl(codeAt(row));
+        if (col == 4) return clicks == null ? null : clicks.clicks(codeAt(row));
+        Link l = linkAt(row);
+        if (l == null) return null;
+        return col == 2 ? l.url : l.created;
+    }
+
+    // --- Row bookkeeping ---
+
+    private int append(String code) {
+        int p = base.size() + added.size();
+        added.add(code);
+        addedIndex.put(code, p);
+        return p;
+    }
+
+    private int physicalIndexOf(String code) {
+        // A snapshot code that was deleted and made again lives in 'added'.
+        Integer p = addedIndex.get(code);
+        return p != null ? p : base.indexOf(code);
+    }
+
+    private void rebuildRows() {
+        int physical = base.size() + added.size();
+        int live = physical - removed.cardinality();
+        if (live == physical) {
+            rows = null;
+        } else {
+            rows = new int[Math.max(16, live)];
+            int n = 0;
+            for (int p = removed.nextClearBit(0); p < physical; p = removed.nextClearBit(p + 1)) rows[n++] = p;
+        }
+        rowCount = live;
+        invalidate();
+    }
+
+    private void invalidate() {
+        cachedRow = -1;
+        cachedLink = null;
+    }
+}
@@ -0,0 +1,677 @@
+package urlshortener;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Load generator for the redirect server, run with --loadgen (no UI).
+ *
+ * Preloads --load-links synthetic links into a store built the way the app
+ * builds it (see AppConfig for --store, --cache, --miss-rate and so on), starts
+ * the configured server (--server, --executor, --threads) on a loopback port
+ * and drives it with --load-clients keep-alive connections:
+ *
+ *   --load-client=threads  one platform thread per connection, blocking I/O
+ *   --load-client=virtual  the same on virtual threads (Java 21+, else threads)
+ *   --load-client=async    every connection on one selector thread
+ *
+ * Keys are uniform over the links, Zipfian (--load-zipf exponent, hot keys
+ * spread over the code space) or miss-heavy (--load-miss share of unknown
+ * codes, the rest uniform). Closed loop by default: each connection sends its
+ * next request when the last one is answered. With --load-rate=N requests go
+ * out on a fixed schedule of N per second in total (open loop), and latency
+ * is measured from when a request was due, so a server that falls behind
+ * shows it in the percentiles instead of quietly slowing the clients down.
+ *
+ * After --load-warmup seconds, --load-seconds are measured and reported:
+ * throughput, responses by status and latency percentiles, plus the
+ * handler's own p99 from {@link RedirectHandler#latency}. --load-out=F also
+ * appends the result as a CSV row, so runs with different settings can be
+ * compared side by side. The generator shares the machine with the server,
+ * so on few cores its own CPU use is part of what is measured.
+ */
+public class LoadGenerator {
+
+    public enum Keys { UNIFORM, ZIPF, MISS }
+    public enum Client { THREADS, VIRTUAL, ASYNC }
+
+    private static final int STALL_MILLIS = 5000; // a request unanswered this long is an error
+    private static final int CODE_DIGITS = 5; // 62^5 codes, enough for any --load-links
+    private static final byte[] GET = "GET /".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REQUEST_TAIL = " HTTP/1.1\r\nHost: 127.0.0.1\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final String CSV_HEADER = "server,executor,threads,store,cache,links,keys,clients,client,rate,seconds,"
+            + "requests,throughput,p50_us,p90_us,p99_us,p999_us,max_us,redirects,not_found,too_many,errors";
+
+    private final AppConfig config;
+    private RedirectHandler handler;
+    private HttpServer httpServer;
+    private NioRedirectServer nioServer;
+    private ExecutorService serverExecutor;
+    private CachedLinkStore cache;
+    private ClickTracker clicks;
+    private int port;
+
+    // Phases, as System.nanoTime() values: results count for requests due in [measureStart, measureEnd).
+    private long measureStart, measureEnd;
+
+    public LoadGenerator(AppConfig config) {
+        this.config = config;
+    }
+
+    /** Runs the whole test and prints the report to stdout. */
+    public static void run(AppConfig config) throws IOException, InterruptedException {
+        LoadGenerator g = new LoadGenerator(config);
+        try {
+            g.start();
+            Result r = g.drive();
+            String report = g.report(r);
+            System.out.print(report);
+            if (config.loadOut != null) g.append(r, Paths.get(config.loadOut).toFile());
+        } finally {
+            g.stop();
+        }
+    }
+
+    // --- Server side ---
+
+    private void start() throws IOException {
+        System.out.printf(Locale.ROOT, "Preloading %,d links...%n", config.loadLinks);
+        LinkStore links = config.newLinkStore();
+        for (int i = 0; i < config.loadLinks; i++) {
+            links.put(new Link(code('k', i), "https://example.com/articles/" + i + "?ref=loadgen",
+                    "2024-01-01 00:00:00", i % 10 == 0));
+        }
+        if (config.cacheSize > 0) cache = new CachedLinkStore(links, config.cacheSize, config.cacheLoaders);
+        CodeFilter filter = new CodeFilter(new MeteredLinkStore(cache != null ? cache : links));
+        filter.rebuildAsync();
+        while (filter.rebuilds() == 0) LockSupport.parkNanos(1_000_000);
+        if (config.analytics) clicks = new ClickTracker();
+        handler = new RedirectHandler(filter, clicks,
+                config.missRate > 0 ? new MissLimiter(config.missRate, config.missBurst) : null);
+        if (config.server == AppConfig.ServerMode.NIO) {
+            nioServer = new NioRedirectServer(handler, 0, config.backlog, config.threads, () -> 0);
+            port = nioServer.port();
+        } else {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), config.backlog);
+            httpServer.createContext("/", handler);
+            serverExecutor = config.newServerExecutor();
+            httpServer.setExecutor(serverExecutor);
+            httpServer.start();
+            port = httpServer.getAddress().getPort();
+        }
+    }
+
+    private void stop() throws IOException {
+        if (nioServer != null) nioServer.close();
+        if (httpServer != null) httpServer.stop(0);
+        if (serverExecutor != null) serverExecutor.shutdown();
+        if (cache != null) cache.shutdown();
+        if (clicks != null) clicks.close();
+    }
+
+    /** A synthetic code: the prefix char and n as fixed-width base62. */
+    static String code(char prefix, long n) {
+        char[] c = new char[CODE_DIGITS + 1];
+        c[0] = prefix;
+        Base62.encode(n, CODE_DIGITS, c, 1);
+        return new String(c);
+    }
+
+    // --- Client side ---
+
+    /** Measured results of one connection, merged into the report at the end. */
+    static final class Result {
+        final Recorder latency = new Recorder();
+        long redirects, notFound, tooMany, errors;
+
+        void add(Result o) {
+            latency.add(o.latency);
+            redirects += o.redirects;
+            notFound += o.notFound;
+            tooMany += o.tooMany;
+            errors += o.errors;
+        }
+
+        long requests() {
+            return redirects + notFound + tooMany + errors;
+        }
+    }
+
+    /** What one connection asks for next and when; knows nothing about I/O. */
+    private final class Workload {
+        final SplittableRandom random;
+        final Zipf zipf;
+        final byte[] request = new byte[GET.length + CODE_DIGITS + 1 + REQUEST_TAIL.length];
+        final long interval; // open loop: nanos between this connection's requests; 0 = closed loop
+        final Result result = new Result();
+        long due;
+
+        Workload(int id, long t0) {
+            random = new SplittableRandom(0x5EED + id * 0x9E3779B97F4A7C15L);
+            zipf = config.loadKeys == Keys.ZIPF ? new Zipf(config.loadLinks, config.loadZipf) : null;
+            System.arraycopy(GET, 0, request, 0, GET.length);
+            System.arraycopy(REQUEST_TAIL, 0, request, GET.length + CODE_DIGITS + 1, REQUEST_TAIL.length);
+            if (config.loadRate > 0) {
+                interval = (long) (1e9 * config.loadClients / config.loadRate);
+                due = t0 + (long) (1e9 * id / config.loadRate); // stagger connections across one interval
+            } else {
+                interval = 0;
+                due = t0;
+            }
+        }
+
+        /** Fills {@link #request} with the next key. */
+        void next() {
+            int n = config.loadLinks;
+            long key;
+            char prefix = 'k';
+            switch (config.loadKeys) {
+                case ZIPF:
+                    // Rank r -> key r * P mod n (P prime > n): a bijection, so the hot keys are scattered.
+                    key = (zipf.sample(random) - 1) * 1_000_000_007L % n;
+                    break;
+                case MISS:
+                    boolean miss = random.nextDouble() < config.loadMiss;
+                    if (miss) prefix = 'm';
+                    key = miss ? random.nextLong(Base62.POW[CODE_DIGITS]) : random.nextInt(n);
+                    break;
+                default:
+                    key = random.nextInt(n);
+            }
+            int off = GET.length;
+            request[off] = (byte) prefix;
+            for (int i = off + CODE_DIGITS; i > off; i--) {
+                request[i] = (byte) Base62.ALPHABET[(int) (key % 62)];
+                key /= 62;
+            }
+        }
+
+        /** Nanos to wait before the next request is due (closed loop: 0). */
+        long waitNanos(long now) {
+            return interval == 0 ? 0 : due - now;
+        }
+
+        /** Records an answered request sent (closed loop) or due (open loop) at {@code start}. */
+        void done(long start, long end, int status) {
+            if (start >= measureStart && start < measureEnd) {
+                if (status >= 300 && status < 400) result.redirects++;
+                else if (status == 404) result.notFound++;
+                else if (status == 429) result.tooMany++;
+                else result.errors++;
+                result.latency.record(end - start);
+            }
+            if (interval != 0) due += interval;
+        }
+
+        /** The time the current request counts from. */
+        long start(long sentAt) {
+            return interval == 0 ? sentAt : due;
+        }
+
+        boolean finished(long now) {
+            return (interval == 0 ? now : due) >= measureEnd;
+        }
+    }
+
+    private Result drive() throws IOException, InterruptedException {
+        long t0 = System.nanoTime();
+        measureStart = t0 + TimeUnit.SECONDS.toNanos(config.loadWarmup);
+        measureEnd = measureStart + TimeUnit.SECONDS.toNanos(config.loadSeconds);
+        System.out.printf(Locale.ROOT, "Driving http://127.0.0.1:%d/ for %ds (%ds warmup)...%n",
+                port, config.loadWarmup + config.loadSeconds, config.loadWarmup);
+        List<Workload> work = new ArrayList<>(config.loadClients);
+        for (int i = 0; i < config.loadClients; i++) work.add(new Workload(i, t0));
+        if (config.loadClient == Client.ASYNC) {
+            new AsyncClient(work).run();
+        } else {
+            ExecutorService pool = config.loadClient == Client.VIRTUAL ? AppConfig.virtualThreadExecutor() : null;
+            if (pool == null) {
+                if (config.loadClient == Client.VIRTUAL) {
+                    System.err.println("Virtual threads not available on this JVM; using platform threads.");
+                }
+                pool = Executors.newFixedThreadPool(config.loadClients, AppConfig.daemonFactory("loadgen-"));
+            }
+            for (Workload w : work) pool.execute(() -> blockingClient(w));
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        Result total = new Result();
+        for (Workload w : work) total.add(w.result);
+        return total;
+    }
+
+    /** One connection on the calling thread: send, read the answer, reconnect when the server closes. */
+    private void blockingClient(Workload w) {
+        Response resp = new Response();
+        byte[] buf = new byte[4096];
+        Socket s = null;
+        try {
+            while (true) {
+                long wait = w.waitNanos(System.nanoTime());
+                if (wait > 0) LockSupport.parkNanos(wait);
+                if (w.finished(System.nanoTime())) break;
+                w.next();
+                long sent = System.nanoTime(), start = w.start(sent);
+                int status = -1;
+                for (int attempt = 0; attempt < 2 && status < 0; attempt++) {
+                    try {
+                        if (s == null) s = connect();
+                        s.getOutputStream().write(w.request);
+                        resp.reset();
+                        InputStream in = s.getInputStream();
+                        int n;
+                        while ((n = in.read(buf)) > 0 && !resp.feed(buf, 0, n)) { /* until complete */ }
+                        if (!resp.complete) throw new EOFException();
+                        status = resp.status;
+                        if (resp.close) s = close(s);
+                    } catch (IOException e) {
+                        // A kept-alive connection the server has since closed: retry once on a new one.
+                        s = close(s);
+                        if (resp.started) break;
+                    }
+                }
+                w.done(start, System.nanoTime(), status);
+            }
+        } finally {
+            close(s);
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket s = new Socket();
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(STALL_MILLIS);
+        s.connect(new InetSocketAddress("127.0.0.1", port), STALL_MILLIS);
+        return s;
+    }
+
+    /** Closes s if open; returns null. */
+    private static Socket close(Socket s) {
+        if (s == null) return null;
+        try {
+            s.close();
+        } catch (IOException ignored) {
+            // closing anyway
+        }
+        return null;
+    }
+
+    /** All connections on one selector thread; the open-loop schedule bounds each select. */
+    private final class AsyncClient {
+        private final Selector selector;
+        private final List<Conn> conns = new ArrayList<>();
+
+        private final class Conn {
+            final Workload w;
+            final Response resp = new Response();
+            SocketChannel ch;
+            SelectionKey key;
+            ByteBuffer out;
+            long sent, start;
+            boolean busy, done, retried;
+
+            Conn(Workload w) {
+                this.w = w;
+            }
+        }
+
+        AsyncClient(List<Workload> work) throws IOException {
+            selector = Selector.open();
+            for (Workload w : work) conns.add(new Conn(w));
+        }
+
+        void run() throws IOException {
+            ByteBuffer in = ByteBuffer.allocateDirect(1 << 16);
+            byte[] buf = new byte[1 << 16];
+            int live = conns.size();
+            try {
+                while (live > 0) {
+                    long now = System.nanoTime(), nextDue = Long.MAX_VALUE;
+                    if (now - measureEnd > TimeUnit.MILLISECONDS.toNanos(STALL_MILLIS)) {
+                        for (Conn c : conns) if (c.busy) c.w.done(c.start, now, -1);
+                        break;
+                    }
+                    for (Conn c : conns) {
+                        if (c.busy || c.done) continue;
+                        if (c.w.finished(now)) {
+                            c.done = true;
+                            live--;
+                            close(c);
+                            continue;
+                        }
+                        long wait = c.w.waitNanos(now);
+                        if (wait <= 0) send(c, now);
+                        else nextDue = Math.min(nextDue, wait);
+                    }
+                    if (live == 0) break;
+                    selector.select(Math.max(1, Math.min(STALL_MILLIS, TimeUnit.NANOSECONDS.toMillis(nextDue))));
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey k = it.next();
+                        it.remove();
+                        Conn c = (Conn) k.attachment();
+                        if (!k.isValid()) continue;
+                        if (k.isWritable()) write(c);
+                        if (k.isValid() && k.isReadable()) read(c, in, buf);
+                    }
+                }
+            } finally {
+                for (Conn c : conns) close(c);
+                selector.close();
+            }
+        }
+
+        private void send(Conn c, long now) {
+            c.w.next();
+            c.sent = now;
+            c.start = c.w.start(now);
+            c.busy = true;
+            c.retried = false;
+            transmit(c);
+        }
+
+        /** (Re)sends the current request, connecting first if needed. */
+        private void transmit(Conn c) {
+            c.resp.reset();
+            c.out = ByteBuffer.wrap(c.w.request);
+            try {
+                if (c.ch == null) {
+                    c.ch = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+                    c.ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    c.ch.configureBlocking(false);
+                    c.key = c.ch.register(selector, SelectionKey.OP_READ, c);
+                }
+                write(c);
+            } catch (IOException e) {
+                failed(c);
+            }
+        }
+
+        private void write(Conn c) {
+            try {
+                c.ch.write(c.out);
+                c.key.interestOps(c.out.hasRemaining() ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+            } catch (IOException e) {
+                failed(c);
+            }
+        }
+
+        private void read(Conn c, ByteBuffer in, byte[] buf) {
+            try {
+                in.clear();
+                int n = c.ch.read(in);
+                if (n < 0) throw new EOFException();
+                in.flip();
+                in.get(buf, 0, n);
+                if (!c.busy || !c.resp.feed(buf, 0, n)) return;
+                if (c.resp.close) close(c);
+                c.busy = false;
+                c.w.done(c.start, System.nanoTime(), c.resp.status);
+            } catch (IOException e) {
+                failed(c);
+            }
+        }
+
+        /** A closed kept-alive connection gets one retry on a new one; anything else is an error. */
+        private void failed(Conn c) {
+            close(c);
+            if (!c.busy) return;
+            if (!c.retried && !c.resp.started) {
+                c.retried = true;
+                transmit(c);
+                return;
+            }
+            c.busy = false;
+            c.w.done(c.start, System.nanoTime(), -1);
+        }
+
+        private void close(Conn c) {
+            if (c.ch == null) return;
+            try {
+                c.ch.close();
+            } catch (IOException ignored) {
+                // closing anyway
+            }
+            c.ch = null;
+            c.key = null;
+        }
+    }
+
+    /** Incremental parser for one HTTP/1.1 response with a Content-Length (or no) body. */
+    static final class Response {
+        private final byte[] head = new byte[8192];
+        private int headLen;
+        private long bodyLeft = -1; // -1 while in the headers
+        int status;
+        boolean close, complete, started;
+
+        void reset() {
+            headLen = 0;
+            bodyLeft = -1;
+            status = 0;
+            close = complete = started = false;
+        }
+
+        /** Takes the next bytes; true once the response is complete. */
+        boolean feed(byte[] b, int off, int len) throws IOException {
+            if (len > 0) started = true;
+            int end = off + len;
+            while (bodyLeft < 0 && off < end) {
+                if (headLen == head.length) throw new IOException("Response headers too long");
+                head[headLen++] = b[off++];
+                if (headLen >= 4 && head[headLen - 1] == '\n' && head[headLen - 2] == '\r'
+                        && head[headLen - 3] == '\n' && head[headLen - 4] == '\r') {
+                    parseHead();
+                }
+            }
+            if (bodyLeft >= 0) {
+                bodyLeft -= Math.min(bodyLeft, end - off);
+                complete = bodyLeft == 0;
+            }
+            return complete;
+        }
+
+        private void parseHead() throws IOException {
+            String[] lines = new String(head, 0, headLen, StandardCharsets.ISO_8859_1).split("\r\n");
+            if (lines[0].length() < 12 || !lines[0].startsWith("HTTP/1.")) throw new IOException("Bad status line: " + lines[0]);
+            status = Integer.parseInt(lines[0].substring(9, 12));
+            bodyLeft = 0;
+            close = lines[0].startsWith("HTTP/1.0");
+            for (int i = 1; i < lines.length; i++) {
+                String l = lines[i].toLowerCase(Locale.ROOT);
+                if (l.startsWith("content-length:")) bodyLeft = Long.parseLong(l.substring(15).trim());
+                else if (l.startsWith("connection:")) close = l.contains("close");
+                else if (l.startsWith("transfer-encoding:")) throw new IOException("Chunked responses not supported");
+            }
+        }
+    }
+
+    /**
+     * Latency histogram with 32 linear sub-buckets per power of two, so each
+     * percentile is within about 3% (Metrics.Histogram's power-of-two buckets
+     * are too coarse to compare runs). One per connection, no synchronization.
+     */
+    static final class Recorder {
+        private static final int SUB_BITS = 5, SUB = 1 << SUB_BITS, LINEAR = 2 * SUB;
+        private final long[] counts = new long[LINEAR + (63 - SUB_BITS) * SUB];
+        private long n, max;
+
+        void record(long nanos) {
+            long v = Math.max(0, nanos);
+            counts[index(v)]++;
+            n++;
+            if (v > max) max = v;
+        }
+
+        private static int index(long v) {
+            if (v < LINEAR) return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v); // >= SUB_BITS + 1
+            return LINEAR + (e - SUB_BITS - 1) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+        }
+
+        /** Midpoint of the values bucket i holds. */
+        private static long value(int i) {
+            if (i < LINEAR) return i;
+            int e = (i - LINEAR) / SUB + SUB_BITS + 1, shift = e - SUB_BITS;
+            long low = ((long) (SUB + (i - LINEAR) % SUB)) << shift;
+            return low + (1L << shift) / 2;
+        }
+
+        void add(Recorder o) {
+            for (int i = 0; i < counts.length; i++) counts[i] += o.counts[i];
+            n += o.n;
+            max = Math.max(max, o.max);
+        }
+
+        long count() {
+            return n;
+        }
+
+        long max() {
+            return max;
+        }
+
+        /** Nanos at quantile q; 0 if empty. */
+        long quantile(double q) {
+            if (n == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(value(i), max);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Zipf(s) ranks 1..n by rejection-inversion (Hörmann and Derflinger, 1996):
+     * O(1) per sample with no table, so any n works.
+     */
+    static final class Zipf {
+        private final long n;
+        private final double s, hIntegralX1, hIntegralN, threshold;
+
+        Zipf(long n, double s) {
+            this.n = n;
+            this.s = s;
+            hIntegralX1 = hIntegral(1.5) - 1;
+            hIntegralN = hIntegral(n + 0.5);
+            threshold = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        long sample(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                long k = Math.max(1, Math.min(n, (long) (x + 0.5)));
+                if (k - x <= threshold || u >= hIntegral(k + 0.5) - h(k)) return k;
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-s * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - s) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = Math.max(-1, x * (1 - s));
+            return Math.exp(helper1(t) * x);
+        }
+
+        /** log(1 + x) / x, also near 0. */
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        /** (exp(x) - 1) / x, also near 0. */
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+
+    // --- Report ---
+
+    private String keysLabel() {
+        switch (config.loadKeys) {
+            case ZIPF: return "zipf(" + config.loadZipf + ")";
+            case MISS: return "miss(" + config.loadMiss + ")";
+            default:   return "uniform";
+        }
+    }
+
+    private String report(Result r) {
+        Recorder l = r.latency;
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%nserver=%s executor=%s threads=%d store=%s cache=%d links=%,d%n",
+                lower(config.server), lower(config.executor), config.threads, lower(config.store), config.cacheSize,
+                config.loadLinks));
+        sb.append(String.format(Locale.ROOT, "keys=%s clients=%d client=%s %s, %ds measured%n%n",
+                keysLabel(), config.loadClients, lower(config.loadClient),
+                config.loadRate > 0 ? "open loop at " + config.loadRate + " req/s" : "closed loop", config.loadSeconds));
+        sb.append(String.format(Locale.ROOT, "requests    %,d (%,.0f req/s)%n", r.requests(),
+                r.requests() / (double) config.loadSeconds));
+        sb.append(String.format(Locale.ROOT, "responses   %,d redirects, %,d not found, %,d too many, %,d errors%n",
+                r.redirects, r.notFound, r.tooMany, r.errors));
+        sb.append(String.format(Locale.ROOT, "latency     p50 %s  p90 %s  p99 %s  p99.9 %s  max %s%n",
+                micros(l.quantile(0.5)), micros(l.quantile(0.9)), micros(l.quantile(0.99)),
+                micros(l.quantile(0.999)), micros(l.max())));
+        Metrics.Histogram h = handler.latency;
+        sb.append(String.format(Locale.ROOT, "handler     p50 <= %.1f us  p99 <= %.1f us  p99.9 <= %.1f us"
+                        + " (server side only, to within 25%%)%n",
+                h.quantile(0.5) / 1e3, h.quantile(0.99) / 1e3, h.quantile(0.999) / 1e3));
+        return sb.toString();
+    }
+
+    private static String micros(long nanos) {
+        return nanos < 1_000_000 ? String.format(Locale.ROOT, "%.0f us", nanos / 1e3)
+                : String.format(Locale.ROOT, "%.2f ms", nanos / 1e6);
+    }
+
+    private static String lower(Enum<?> e) {
+        return e.name().toLowerCase(Locale.ROOT);
+    }
+
+    /** Appends the result to a CSV file, writing the header first if it is new. */
+    private void append(Result r, File f) throws IOException {
+        Recorder l = r.latency;
+        String row = String.join(",", lower(config.server), lower(config.executor), String.valueOf(config.threads),
+                lower(config.store), String.valueOf(config.cacheSize), String.valueOf(config.loadLinks),
+                Csv.field(keysLabel()), String.valueOf(config.loadClients), lower(config.loadClient),
+                String.valueOf(config.loadRate), String.valueOf(config.loadSeconds), String.valueOf(r.requests()),
+                String.format(Locale.ROOT, "%.0f", r.requests() / (double) config.loadSeconds),
+                us(l.quantile(0.5)), us(l.quantile(0.9)), us(l.quantile(0.99)), us(l.quantile(0.999)), us(l.max()),
+                String.valueOf(r.redirects), String.valueOf(r.notFound), String.valueOf(r.tooMany),
+                String.valueOf(r.errors));
+        boolean fresh = !f.exists() || f.length() == 0;
+        Files.write(f.toPath(), ((fresh ? CSV_HEADER + "\n" : "") + row + "\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    private static String us(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+    }
+}
@@ -0,0 +1,90 @@
+package urlshortener;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} decorator that times lookups and creates into
+ * {@link Metrics.Histogram}s. Everything else passes straight through.
+ */
+public class MeteredLinkStore implements LinkStore {
+
+    private final LinkStore store;
+    /** get / link / linkAsync (until it completes) / codeFor */
+    public final Metrics.Histogram lookups = new Metrics.Histogram();
+    /** put / shorten */
+    public final Metrics.Histogram creates = new Metrics.Histogram();
+
+    public MeteredLinkStore(LinkStore store) {
+        this.store = store;
+    }
+
+    /** The wrapped store, for readers that should not show up in the timings (the UI). */
+    public LinkStore delegate() {
+        return store;
+    }
+
+    @Override public String get(String code) {
+        long t = System.nanoTime();
+        String url = store.get(code);
+        lookups.since(t);
+        return url;
+    }
+
+    @Override public Link link(String code) {
+        long t = System.nanoTime();
+        Link l = store.link(code);
+        lookups.since(t);
+        return l;
+    }
+
+    @Override public CompletableFuture<Link> linkAsync(String code) {
+        long t = System.nanoTime();
+        CompletableFuture<Link> f = store.linkAsync(code);
+        if (f.isDone()) lookups.since(t);
+        else f.whenComplete((l, e) -> lookups.since(t));
+        return f;
+    }
+
+    @Override public String codeFor(String url) {
+        long t = System.nanoTime();
+        String code = store.codeFor(url);
+        lookups.since(t);
+        return code;
+    }
+
+    @Override public String put(Link link) {
+        long t = System.nanoTime();
+        String taken = store.put(link);
+        creates.since(t);
+        return taken;
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        long t = System.nanoTime();
+        String code = store.shorten(url, created, temporary, newCode);
+        creates.since(t);
+        return code;
+    }
+
+    @Override public boolean remove(String code) {
+        return store.remove(code);
+    }
+
+    @Override public int size() {
+        return store.size();
+    }
+
+    @Override public long codeRetries() {
+        return store.codeRetries();
+    }
+
+    @Override public long removals() {
+        return store.removals();
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        store.forEach(action);
+    }
+}
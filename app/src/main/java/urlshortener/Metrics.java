@@ -0,0 +1,190 @@
+package urlshortener;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Named counters, gauges and latency histograms, rendered in the Prometheus
+ * text format for GET /metrics.
+ *
+ * The registry only holds names and read callbacks; the values live with the
+ * code that produces them (LongAdders, {@link Histogram}s, sizes), so recording
+ * is a plain field update and never allocates. Rendering reads everything on
+ * the scraping thread.
+ */
+public final class Metrics {
+
+    /**
+     * Lock-free latency histogram with power-of-two buckets from about 1 µs
+     * up to about 68 s, each split in four linear sub-buckets so quantiles
+     * are within 25% (the export keeps the power-of-two bounds).
+     * {@link #record(long)} is two LongAdder increments.
+     */
+    public static final class Histogram {
+        private static final int MIN_SHIFT = 10;   // first bucket: <= 1024 ns
+        private static final int BUCKETS = 27;     // last finite bucket: <= 2^36 ns
+        private static final int SUB_BITS = 2, SUB = 1 << SUB_BITS;
+
+        private final LongAdder[] counts = new LongAdder[(BUCKETS + 1) * SUB];
+        private final LongAdder sumNanos = new LongAdder();
+
+        public Histogram() {
+            for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            long v = Math.max(0, nanos - 1);
+            int b = 64 - Long.numberOfLeadingZeros(v) - MIN_SHIFT;
+            int i = b <= 0 ? 0 : b >= BUCKETS ? BUCKETS * SUB
+                    : b * SUB + (int) (v >>> (b + MIN_SHIFT - 1 - SUB_BITS)) - SUB; // top bits past the leading one
+            counts[i].increment();
+            sumNanos.add(nanos);
+        }
+
+        /** Records the time since {@code startNanos} (a System.nanoTime() value). */
+        public void since(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long count() {
+            long n = 0;
+            for (LongAdder c : counts) n += c.sum();
+            return n;
+        }
+
+        /** Upper bound of the sub-bucket holding quantile {@code q}, in nanoseconds; 0 if empty. */
+        public long quantile(double q) {
+            long[] snap = new long[counts.length];
+            long n = 0;
+            for (int i = 0; i < snap.length; i++) n += snap[i] = counts[i].sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(q * n), seen = 0;
+            for (int i = 0; i < snap.length; i++) {
+                seen += snap[i];
+                if (seen >= rank) return subUpperNanos(i);
+            }
+            return upperNanos(BUCKETS);
+        }
+
+        /** Count in power-of-two bucket {@code bucket}, all its sub-buckets. */
+        private long bucketCount(int bucket) {
+            long n = 0;
+            for (int i = bucket * SUB; i < (bucket + 1) * SUB; i++) n += counts[i].sum();
+            return n;
+        }
+
+        private static long upperNanos(int bucket) {
+            return 1L << (Math.min(bucket, BUCKETS) + MIN_SHIFT);
+        }
+
+        private static long subUpperNanos(int i) {
+            int b = i / SUB;
+            if (b == 0 || b >= BUCKETS) return upperNanos(b);
+            long low = 1L << (b + MIN_SHIFT - 1);
+            return low + (i % SUB + 1) * (low >> SUB_BITS);
+        }
+    }
+
+    private enum Type { COUNTER, GAUGE, HISTOGRAM }
+
+    private static final class Entry {
+        final String name, help, labels;
+        final Type type;
+        final LongSupplier longValue;
+        final DoubleSupplier doubleValue;
+        final Histogram histogram;
+
+        Entry(String name, String help, String labels, Type type,
+              LongSupplier longValue, DoubleSupplier doubleValue, Histogram histogram) {
+            this.name = name;
+            this.help = help;
+            this.labels = labels == null ? "" : labels;
+            this.type = type;
+            this.longValue = longValue;
+            this.doubleValue = doubleValue;
+            this.histogram = histogram;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Registers a counter. Series of one family share a name and differ in
+     * {@code labels}, e.g. {@code result="404"}; register them next to each other.
+     */
+    public synchronized void counter(String name, String help, String labels, LongSupplier value) {
+        entries.add(new Entry(name, help, labels, Type.COUNTER, value, null, null));
+    }
+
+    public synchronized void gauge(String name, String help, LongSupplier value) {
+        entries.add(new Entry(name, help, null, Type.GAUGE, value, null, null));
+    }
+
+    public synchronized void gauge(String name, String help, DoubleSupplier value) {
+        entries.add(new Entry(name, help, null, Type.GAUGE, null, value, null));
+    }
+
+    /** A gauge series of a labelled family, see {@link #counter}. */
+    public synchronized void gauge(String name, String help, String labels, DoubleSupplier value) {
+        entries.add(new Entry(name, help, labels, Type.GAUGE, null, value, null));
+    }
+
+    /** Registers a histogram, exported in seconds. */
+    public synchronized void histogram(String name, String help, String labels, Histogram h) {
+        entries.add(new Entry(name, help, labels, Type.HISTOGRAM, null, null, h));
+    }
+
+    /** All metrics in the Prometheus text exposition format (version 0.0.4). */
+    public synchronized String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        String family = null;
+        for (Entry e : entries) {
+            if (!e.name.equals(family)) {
+                family = e.name;
+                sb.append("# HELP ").append(e.name).append(' ').append(e.help).append('\n');
+                sb.append("# TYPE ").append(e.name).append(' ')
+                  .append(e.type.name().toLowerCase(Locale.ROOT)).append('\n');
+            }
+            switch (e.type) {
+                case HISTOGRAM:
+                    renderHistogram(sb, e);
+                    break;
+                default:
+                    sb.append(e.name);
+                    if (!e.labels.isEmpty()) sb.append('{').append(e.labels).append('}');
+                    sb.append(' ');
+                    if (e.longValue != null) sb.append(e.longValue.getAsLong());
+                    else sb.append(number(e.doubleValue.getAsDouble()));
+                    sb.append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void renderHistogram(StringBuilder sb, Entry e) {
+        Histogram h = e.histogram;
+        String sep = e.labels.isEmpty() ? "" : e.labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < Histogram.BUCKETS; i++) {
+            cumulative += h.bucketCount(i);
+            sb.append(e.name).append("_bucket{").append(sep).append("le=\"")
+              .append(number(Histogram.upperNanos(i) / 1e9)).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += h.bucketCount(Histogram.BUCKETS);
+        String labels = e.labels.isEmpty() ? "" : "{" + e.labels + "}";
+        sb.append(e.name).append("_bucket{").append(sep).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        sb.append(e.name).append("_sum").append(labels).append(' ').append(number(h.sumNanos.sum() / 1e9)).append('\n');
+        sb.append(e.name).append("_count").append(labels).append(' ').append(cumulative).append('\n');
+    }
+
+    private static String number(double d) {
+        if (Double.isNaN(d)) return "NaN";
+        if (d == Math.rint(d) && Math.abs(d) < 1e15) return Long.toString((long) d);
+        return Double.toString(d);
+    }
+}
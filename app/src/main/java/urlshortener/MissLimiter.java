@@ -0,0 +1,80 @@
+package urlshortener;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * Token bucket per client address for requests that hit no link (404s).
+ *
+ * Buckets live in a fixed table of {@link #SLOTS} entries; an address may
+ * use any of the 8 slots of the group its hash picks. Memory stays at about
+ * 1.5 MB however many clients show up. Nothing is ever explicitly expired: a
+ * bucket that has refilled completely says nothing a fresh bucket would not,
+ * so its slot is simply taken over by the next client that needs one. If all
+ * 8 slots belong to clients still being limited, the request is let through.
+ */
+public class MissLimiter {
+
+    static final int SLOTS = 1 << 16;
+    private static final int PROBES = 8;
+    private static final int STRIPES = 64;
+
+    private final long ratePerSecond;
+    private final long burstMilli; // bucket size in thousandths of a token
+    private final long[] keys = new long[SLOTS];
+    private final long[] tokens = new long[SLOTS]; // thousandths of a token
+    private final long[] stamps = new long[SLOTS]; // millis of the last refill
+    private final Object[] locks = new Object[STRIPES];
+
+    /** {@code perSecond} misses per client refill, up to {@code burst} at once. */
+    public MissLimiter(int perSecond, int burst) {
+        this.ratePerSecond = Math.max(1, perSecond);
+        this.burstMilli = Math.max(1, burst) * 1000L;
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    }
+
+    /** Key for a client address; never 0 (the free-slot marker). */
+    public static long key(InetSocketAddress remote) {
+        InetAddress a = remote == null ? null : remote.getAddress();
+        if (a == null) return 1;
+        // Inet4Address.hashCode() is the address itself; IPv6 hashes its bytes.
+        return (a.hashCode() & 0xFFFFFFFFL) | (a.getAddress().length == 4 ? 1L << 32 : 2L << 32);
+    }
+
+    /** Takes a token for this client's miss; false if its bucket is empty. */
+    public boolean tryAcquire(long key) {
+        return tryAcquire(key, System.currentTimeMillis());
+    }
+
+    boolean tryAcquire(long key, long now) {
+        int group = ((int) (key ^ (key >>> 17)) * 0x9E3779B9 >>> 16) & ~(PROBES - 1); // 16 bits: SLOTS
+        synchronized (locks[(group / PROBES) & (STRIPES - 1)]) {
+            int free = -1;
+            for (int s = group; s < group + PROBES; s++) {
+                if (keys[s] == key) return take(s, now);
+                if (free < 0 && (keys[s] == 0 || refill(s, now) >= burstMilli)) free = s;
+            }
+            if (free < 0) return true; // table crowded with limited clients: fail open
+            keys[free] = key;
+            tokens[free] = burstMilli;
+            stamps[free] = now;
+            return take(free, now);
+        }
+    }
+
+    private boolean take(int s, long now) {
+        long t = refill(s, now);
+        stamps[s] = now;
+        if (t < 1000) {
+            tokens[s] = t;
+            return false;
+        }
+        tokens[s] = t - 1000;
+        return true;
+    }
+
+    private long refill(int s, long now) {
+        long elapsed = Math.max(0, now - stamps[s]);
+        return Math.min(burstMilli, tokens[s] + elapsed * ratePerSecond);
+    }
+}
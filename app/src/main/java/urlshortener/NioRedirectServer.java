@@ -0,0 +1,700 @@
+package urlshortener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.IntSupplier;
+
+/**
+ * Selector-based HTTP/1.1 redirect server, the --server=nio alternative to
+ * running {@link RedirectHandler} under com.sun.net.httpserver. Responses,
+ * counters, latency histogram, click tracking and click budgets are the same.
+ *
+ * A few event loops each own their connections; nothing runs per request on
+ * another thread. Connections are kept alive and may pipeline: every complete
+ * request in a read is answered, and the answers leave in one write from the
+ * loop's direct buffer. The code is hashed and compared straight from the
+ * request bytes, and each loop caches the whole pre-encoded response head per
+ * code, so a repeated redirect creates no objects. Cached entries stay valid
+ * while {@link LinkStore#removals()} is unchanged.
+ *
+ * Other codes are looked up with {@link LinkStore#linkAsync}. When that has
+ * to go to disk the connection is parked: it reads nothing more, and the
+ * loop answers it (and any requests pipelined behind it) once the loader
+ * thread wakes it up. Other connections are served meanwhile.
+ *
+ * The API lives on the HttpServer port; requests for its paths are answered
+ * with a 307 to it so clients that follow redirects keep working.
+ */
+public class NioRedirectServer implements Closeable {
+
+    /** Largest request head accepted; longer ones get a 431. */
+    static final int MAX_HEAD = 16 << 10;
+    /** Keep-alive connections idle this long are closed. */
+    static final long IDLE_MILLIS = 30_000;
+    private static final int CACHE_SLOTS = 1 << 14; // per loop, direct-mapped
+
+    private static final byte[] LANDING_HEAD = ascii("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\n"
+            + "Content-Length: " + RedirectHandler.LANDING_PAGE.length + "\r\n");
+    private static final byte[] BAD_REQUEST = ascii("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    private static final byte[] SERVER_ERROR = ascii("HTTP/1.1 500 Internal Server Error\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    private static final byte[] NOT_FOUND_HEAD = ascii("HTTP/1.1 404 Not Found\r\nContent-Type: text/html; charset=utf-8\r\n"
+            + "Content-Length: " + RedirectHandler.NOT_FOUND_PAGE.length + "\r\n");
+    private static final byte[] TOO_MANY_HEAD = ascii("HTTP/1.1 429 Too Many Requests\r\nContent-Type: text/html; charset=utf-8\r\n"
+            + "Retry-After: 1\r\nContent-Length: " + RedirectHandler.TOO_MANY_PAGE.length + "\r\n");
+    private static final byte[] TOO_LARGE = ascii("HTTP/1.1 431 Request Header Fields Too Large\r\nContent-Length: 0\r\nConnection: close\r\n\r\n");
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private final RedirectHandler handler;
+    private final IntSupplier apiPort;
+    private final byte[][] apiPaths;
+    private final ServerSocketChannel server;
+    private final Loop[] loops;
+    private volatile boolean running = true;
+
+    /**
+     * Binds and starts {@code loops} event loop threads.
+     *
+     * @param apiPort  current port of the HttpServer that serves {@code apiPaths}
+     * @param apiPaths path prefixes (the HttpServer contexts) to send there with a 307
+     */
+    public NioRedirectServer(RedirectHandler handler, int port, int backlog, int loops,
+                             IntSupplier apiPort, String... apiPaths) throws IOException {
+        this.handler = handler;
+        this.apiPort = apiPort;
+        this.apiPaths = new byte[apiPaths.length][];
+        for (int i = 0; i < apiPaths.length; i++) this.apiPaths[i] = ascii(apiPaths[i]);
+        server = ServerSocketChannel.open();
+        try {
+            server.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            server.bind(new InetSocketAddress(port), backlog);
+            server.configureBlocking(false);
+            this.loops = new Loop[Math.max(1, loops)];
+            for (int i = 0; i < this.loops.length; i++) this.loops[i] = new Loop();
+            server.register(this.loops[0].selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException | RuntimeException e) {
+            server.close();
+            throw e;
+        }
+        for (int i = 0; i < this.loops.length; i++) {
+            Thread t = new Thread(this.loops[i], "nio-redirect-" + (i + 1));
+            t.setDaemon(true);
+            this.loops[i].thread = t;
+            t.start();
+        }
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Stops accepting, closes every connection and waits for the loops to exit. */
+    @Override public void close() throws IOException {
+        running = false;
+        server.close();
+        for (Loop l : loops) l.selector.wakeup();
+        for (Loop l : loops) {
+            try {
+                l.thread.join(2000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    /** One connection: unparsed input, and output the socket has not taken yet. */
+    private static final class Conn {
+        final SocketChannel ch;
+        SelectionKey key;
+        byte[] in = new byte[2048];
+        int inLength;
+        long skip;          // request body bytes still to discard
+        ByteBuffer pending; // unwritten output, or null
+        boolean closing;    // close once the output is written
+        long lastActive;
+        long client;        // MissLimiter key of the remote address
+        Lookup lookup;      // request waiting for its link, or null
+
+        Conn(SocketChannel ch) {
+            this.ch = ch;
+        }
+    }
+
+    /** A code being looked up, and what answering the request needs once it is found. */
+    private static final class Lookup {
+        final String code;
+        final byte[] codeBytes;
+        final int hash, slot; // slot < 0: do not cache the response
+        final long removals;  // taken before the lookup
+        final boolean head;
+        // Set when the connection is parked: the request head is gone by the time the link is.
+        CompletableFuture<Link> future;
+        byte[] tail;
+        long start;
+        boolean sampled;
+        String referrer, agent;
+
+        Lookup(String code, byte[] codeBytes, int hash, int slot, long removals, boolean head) {
+            this.code = code;
+            this.codeBytes = codeBytes;
+            this.hash = hash;
+            this.slot = slot;
+            this.removals = removals;
+            this.head = head;
+        }
+    }
+
+    /** Cached response head for one code, valid while the store's removal count is {@code removals}. */
+    private static final class Entry {
+        final byte[] code;
+        final int hash;
+        final Link link;
+        final byte[] head;
+        long removals;
+        private byte[] forced; // 302 head for a permanent link that has an expiry
+
+        Entry(byte[] code, int hash, Link link, long removals) {
+            this.code = code;
+            this.hash = hash;
+            this.link = link;
+            this.removals = removals;
+            this.head = (link.temporary ? "HTTP/1.1 302 Found\r\nLocation: " : "HTTP/1.1 301 Moved Permanently\r\nLocation: ")
+                    .concat(link.url).concat("\r\nContent-Length: 0\r\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        byte[] forced() {
+            if (forced == null) {
+                forced = "HTTP/1.1 302 Found\r\nLocation: ".concat(link.url).concat("\r\nContent-Length: 0\r\n")
+                        .getBytes(StandardCharsets.UTF_8);
+            }
+            return forced;
+        }
+    }
+
+    private final class Loop implements Runnable {
+        final Selector selector = Selector.open();
+        final Queue<SocketChannel> incoming = new ConcurrentLinkedQueue<>();
+        final Queue<Conn> loaded = new ConcurrentLinkedQueue<>(); // parked connections whose link is in
+        final ByteBuffer out = ByteBuffer.allocateDirect(64 << 10);
+        final Entry[] cache = new Entry[CACHE_SLOTS];
+        Thread thread;
+        int nextLoop;
+
+        // Ends every response head: the Date header, refreshed once a second.
+        long dateSecond = -1;
+        byte[] keepAliveTail, keepAlive10Tail, closeTail;
+        byte[] tail; // the one for the request being handled
+
+        // Header values of the request being handled, as offsets into Conn.in.
+        int refStart, refEnd, uaStart, uaEnd, hostStart, hostEnd;
+        long requestStart;
+
+        Loop() throws IOException {
+        }
+
+        @Override public void run() {
+            try {
+                while (running) {
+                    selector.select(1000);
+                    long now = System.currentTimeMillis();
+                    if (now / 1000 != dateSecond) tick(now);
+                    for (SocketChannel ch; (ch = incoming.poll()) != null; ) register(ch, now);
+                    for (Conn c; (c = loaded.poll()) != null; ) {
+                        try {
+                            resume(c);
+                        } catch (IOException | RuntimeException e) {
+                            close(c);
+                        }
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            try {
+                                accept(now);
+                            } catch (IOException e) {
+                                if (running) e.printStackTrace(); // e.g. out of file descriptors; retried next select
+                            }
+                            continue;
+                        }
+                        Conn c = (Conn) key.attachment();
+                        try {
+                            if (key.isWritable()) writable(c);
+                            if (key.isValid() && key.isReadable()) readable(c, now);
+                        } catch (IOException | RuntimeException e) {
+                            close(c);
+                        }
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                if (running) e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    if (key.attachment() instanceof Conn) close((Conn) key.attachment());
+                }
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                    // shutting down
+                }
+            }
+        }
+
+        private void tick(long now) {
+            dateSecond = now / 1000;
+            String date = "Date: " + HTTP_DATE.format(Instant.ofEpochSecond(dateSecond)) + "\r\n";
+            keepAliveTail = ascii(date + "\r\n");
+            keepAlive10Tail = ascii(date + "Connection: keep-alive\r\n\r\n");
+            closeTail = ascii(date + "Connection: close\r\n\r\n");
+            for (SelectionKey key : selector.keys()) {
+                Object a = key.attachment();
+                if (a instanceof Conn && now - ((Conn) a).lastActive > IDLE_MILLIS) close((Conn) a);
+            }
+        }
+
+        private void accept(long now) throws IOException {
+            for (SocketChannel ch; (ch = server.accept()) != null; ) {
+                Loop target = loops[nextLoop++ % loops.length];
+                if (target == this) {
+                    register(ch, now);
+                } else {
+                    target.incoming.add(ch);
+                    target.selector.wakeup();
+                }
+            }
+        }
+
+        private void register(SocketChannel ch, long now) {
+            try {
+                ch.configureBlocking(false);
+                ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Conn c = new Conn(ch);
+                c.lastActive = now;
+                if (handler.limiter != null) c.client = MissLimiter.key((InetSocketAddress) ch.getRemoteAddress());
+                c.key = ch.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                try {
+                    ch.close();
+                } catch (IOException ignored) {
+                    // already gone
+                }
+            }
+        }
+
+        private void close(Conn c) {
+            if (c.key != null) c.key.cancel();
+            try {
+                c.ch.close();
+            } catch (IOException ignored) {
+                // nothing left to do
+            }
+        }
+
+        private void readable(Conn c, long now) throws IOException {
+            if (c.inLength == c.in.length) c.in = Arrays.copyOf(c.in, Math.min(c.in.length * 2, MAX_HEAD));
+            int n = c.ch.read(ByteBuffer.wrap(c.in, c.inLength, c.in.length - c.inLength));
+            if (n < 0) {
+                close(c);
+                return;
+            }
+            c.lastActive = now;
+            c.inLength += n;
+            process(c);
+        }
+
+        private void writable(Conn c) throws IOException {
+            c.ch.write(c.pending);
+            if (c.pending.hasRemaining()) return;
+            c.pending = null;
+            if (c.lookup != null) {
+                c.key.interestOps(0); // parked: nothing to read until the link is in
+                return;
+            }
+            if (c.closing) {
+                close(c);
+                return;
+            }
+            c.key.interestOps(SelectionKey.OP_READ);
+            process(c); // requests that arrived pipelined while the output was stuck
+        }
+
+        /** Answers every complete request buffered on the connection, then writes. */
+        private void process(Conn c) throws IOException {
+            byte[] a = c.in;
+            int start = 0, end = c.inLength;
+            while (start < end && !c.closing && c.pending == null && c.lookup == null) {
+                if (c.skip > 0) {
+                    int k = (int) Math.min(c.skip, end - start);
+                    c.skip -= k;
+                    start += k;
+                    continue;
+                }
+                int headEnd = headEnd(a, start, end);
+                if (headEnd < 0) {
+                    if (end - start >= MAX_HEAD) reject(c, TOO_LARGE);
+                    break;
+                }
+                request(c, a, start, headEnd);
+                start = headEnd;
+            }
+            System.arraycopy(a, start, a, 0, end - start);
+            c.inLength = end - start;
+            flush(c);
+            if (c.closing && c.pending == null && c.lookup == null) close(c);
+        }
+
+        /** Handles one request whose head is a[start, headEnd). */
+        private void request(Conn c, byte[] a, int start, int headEnd) throws IOException {
+            long t0 = System.nanoTime();
+            int lineEnd = indexOf(a, start, headEnd, '\r');
+            int sp1 = indexOf(a, start, lineEnd, ' ');
+            int sp2 = sp1 < 0 ? -1 : indexOf(a, sp1 + 1, lineEnd, ' ');
+            if (sp2 < 0 || sp1 == start || sp2 == sp1 + 1) {
+                reject(c, BAD_REQUEST);
+                return;
+            }
+            boolean http11 = regionEquals(a, sp2 + 1, lineEnd, "HTTP/1.1");
+            if (!http11 && !regionEquals(a, sp2 + 1, lineEnd, "HTTP/1.0")) {
+                reject(c, BAD_REQUEST);
+                return;
+            }
+            boolean keepAlive = http11;
+            long contentLength = 0;
+            refStart = uaStart = hostStart = -1;
+            for (int ls = lineEnd + 2; ls < headEnd - 2; ) {
+                int le = indexOf(a, ls, headEnd, '\r');
+                int colon = indexOf(a, ls, le, ':');
+                if (colon > ls) {
+                    int vs = colon + 1, ve = le;
+                    while (vs < ve && (a[vs] == ' ' || a[vs] == '\t')) vs++;
+                    while (ve > vs && (a[ve - 1] == ' ' || a[ve - 1] == '\t')) ve--;
+                    if (nameIs(a, ls, colon, "connection")) {
+                        if (containsIgnoreCase(a, vs, ve, "close")) keepAlive = false;
+                        else if (containsIgnoreCase(a, vs, ve, "keep-alive")) keepAlive = true;
+                    } else if (nameIs(a, ls, colon, "content-length")) {
+                        contentLength = digits(a, vs, ve);
+                    } else if (nameIs(a, ls, colon, "transfer-encoding")) {
+                        contentLength = -1; // a redirect request has no business sending a chunked body
+                    } else if (nameIs(a, ls, colon, "referer")) {
+                        refStart = vs;
+                        refEnd = ve;
+                    } else if (nameIs(a, ls, colon, "user-agent")) {
+                        uaStart = vs;
+                        uaEnd = ve;
+                    } else if (nameIs(a, ls, colon, "host")) {
+                        hostStart = vs;
+                        hostEnd = ve;
+                    }
+                }
+                ls = le + 2;
+            }
+            if (contentLength < 0) {
+                reject(c, BAD_REQUEST);
+                return;
+            }
+            c.skip = contentLength;
+            if (!keepAlive) c.closing = true;
+            tail = !keepAlive ? closeTail : http11 ? keepAliveTail : keepAlive10Tail;
+            boolean head = regionEquals(a, start, sp1, "HEAD");
+            requestStart = t0;
+            try {
+                serve(c, a, sp1 + 1, sp2, head);
+            } finally {
+                if (c.lookup == null) handler.latency.since(t0);
+            }
+        }
+
+        private void serve(Conn c, byte[] a, int ts, int te, boolean head) throws IOException {
+            int pe = ts;
+            boolean plain = a[ts] == '/';
+            while (pe < te && a[pe] != '?' && a[pe] != '#') {
+                if (a[pe] == '%') plain = false;
+                pe++;
+            }
+            if (!plain) {
+                // Escaped or absolute-form target: decode it the way HttpServer would.
+                String path;
+                try {
+                    path = new URI(new String(a, ts, te - ts, StandardCharsets.UTF_8)).getPath();
+                } catch (URISyntaxException e) {
+                    reject(c, BAD_REQUEST);
+                    return;
+                }
+                if (path == null || path.length() <= 1) landing(c, head);
+                else if (isApi(ascii(path), 0, path.length())) toApi(c, a, ts, te);
+                else serveCode(c, path.substring(1), head);
+                return;
+            }
+            if (pe - ts <= 1) {
+                landing(c, head);
+                return;
+            }
+            if (isApi(a, ts, pe)) {
+                toApi(c, a, ts, te);
+                return;
+            }
+            int cs = ts + 1, len = pe - cs;
+            int hash = 0;
+            for (int i = cs; i < pe; i++) hash = 31 * hash + a[i];
+            int slot = (hash ^ (hash >>> 16)) & (CACHE_SLOTS - 1);
+            Entry e = cache[slot];
+            if (e != null && e.hash == hash && e.code.length == len && regionEquals(a, cs, e.code)) {
+                long removals = handler.store.removals();
+                if (e.removals == removals) redirect(c, e, head, null);
+                else lookup(c, new Lookup(e.link.code, e.code, hash, slot, removals, head)); // still there?
+                return;
+            }
+            long removals = handler.store.removals();
+            lookup(c, new Lookup(new String(a, cs, len, StandardCharsets.UTF_8), Arrays.copyOfRange(a, cs, pe),
+                    hash, slot, removals, head));
+        }
+
+        /** Uncached lookup for codes that only exist as a decoded String. */
+        private void serveCode(Conn c, String code, boolean head) throws IOException {
+            lookup(c, new Lookup(code, code.getBytes(StandardCharsets.UTF_8), 0, -1, 0, head));
+        }
+
+        /** Answers the request now if the store has the link at hand, else parks the connection. */
+        private void lookup(Conn c, Lookup l) throws IOException {
+            CompletableFuture<Link> f = handler.store.linkAsync(l.code);
+            if (f.isDone()) {
+                found(c, l, f, false);
+                return;
+            }
+            ClickTracker clicks = handler.clicks;
+            if (clicks != null && clicks.shouldSample()) {
+                l.sampled = true;
+                l.referrer = text(c.in, refStart, refEnd);
+                l.agent = text(c.in, uaStart, uaEnd);
+            }
+            l.future = f;
+            l.tail = tail;
+            l.start = requestStart;
+            c.lookup = l;
+            c.key.interestOps(c.pending != null ? SelectionKey.OP_WRITE : 0);
+            f.whenComplete((link, e) -> {
+                loaded.add(c);
+                selector.wakeup();
+            });
+        }
+
+        /** Answers a parked connection's request, then carries on with what it pipelined behind it. */
+        private void resume(Conn c) throws IOException {
+            Lookup l = c.lookup;
+            c.lookup = null;
+            if (l == null || !c.key.isValid()) return;
+            tail = l.tail;
+            try {
+                found(c, l, l.future, true);
+            } finally {
+                handler.latency.since(l.start);
+            }
+            if (c.pending == null) c.key.interestOps(SelectionKey.OP_READ);
+            process(c);
+        }
+
+        private void found(Conn c, Lookup l, CompletableFuture<Link> f, boolean parked) throws IOException {
+            if (f.isCompletedExceptionally()) {
+                reject(c, SERVER_ERROR);
+                return;
+            }
+            Link link = f.getNow(null);
+            Entry e = l.slot < 0 ? null : cache[l.slot];
+            if (link == null) {
+                if (e != null && e.link.code.equals(l.code)) cache[l.slot] = null;
+                notFound(c, l.code, l.head);
+                return;
+            }
+            if (e != null && e.link == link) {
+                e.removals = l.removals;
+            } else {
+                e = new Entry(l.codeBytes, l.hash, link, l.removals);
+                if (l.slot >= 0) cache[l.slot] = e;
+            }
+            redirect(c, e, l.head, parked ? l : null);
+        }
+
+        /** @param parked the lookup the request waited for (its sampled headers), or null if the head is at hand */
+        private void redirect(Conn c, Entry e, boolean head, Lookup parked) throws IOException {
+            LinkExpiry expiry = handler.expiry;
+            if (expiry != null && !expiry.click(e.link.code)) {
+                notFound(c, e.link.code, head);
+                return;
+            }
+            ClickTracker clicks = handler.clicks;
+            if (clicks != null) {
+                if (parked != null ? parked.sampled : clicks.shouldSample()) {
+                    clicks.click(e.link.code, parked != null ? parked.referrer : text(c.in, refStart, refEnd),
+                            parked != null ? parked.agent : text(c.in, uaStart, uaEnd));
+                } else {
+                    clicks.click(e.link.code, null, null);
+                }
+            }
+            boolean temporary = RedirectHandler.temporary(e.link, expiry);
+            handler.redirected(temporary);
+            emit(c, temporary == e.link.temporary ? e.head : e.forced());
+            emit(c, tail);
+        }
+
+        private void landing(Conn c, boolean head) throws IOException {
+            handler.servedLanding.increment();
+            emit(c, LANDING_HEAD);
+            emit(c, tail);
+            if (!head) emit(c, RedirectHandler.LANDING_PAGE);
+        }
+
+        private void notFound(Conn c, String code, boolean head) throws IOException {
+            if (handler.limiter != null && !handler.limiter.tryAcquire(c.client)) {
+                handler.served429.increment();
+                emit(c, TOO_MANY_HEAD);
+                emit(c, tail);
+                if (!head) emit(c, RedirectHandler.TOO_MANY_PAGE);
+                return;
+            }
+            handler.served404.increment();
+            byte[] body = handler.notFoundBody(code);
+            emit(c, body == RedirectHandler.NOT_FOUND_PAGE ? NOT_FOUND_HEAD
+                    : ascii("HTTP/1.1 404 Not Found\r\nContent-Type: text/html; charset=utf-8\r\nContent-Length: "
+                            + body.length + "\r\n"));
+            emit(c, tail);
+            if (!head) emit(c, body);
+        }
+
+        private boolean isApi(byte[] a, int ps, int pe) {
+            for (byte[] p : apiPaths) {
+                if (pe - ps >= p.length && regionEquals(a, ps, p)) return true;
+            }
+            return false;
+        }
+
+        private void toApi(Conn c, byte[] a, int ts, int te) throws IOException {
+            String host = hostStart < 0 ? "localhost" : text(a, hostStart, hostEnd);
+            int colon = host.lastIndexOf(':');
+            if (colon > host.lastIndexOf(']')) host = host.substring(0, colon);
+            String target = new String(a, ts, te - ts, StandardCharsets.UTF_8);
+            if (target.charAt(0) != '/') target = URI.create(target).getRawPath();
+            emit(c, ("HTTP/1.1 307 Temporary Redirect\r\nLocation: http://" + host + ":" + apiPort.getAsInt()
+                    + target + "\r\nContent-Length: 0\r\n").getBytes(StandardCharsets.UTF_8));
+            emit(c, tail);
+        }
+
+        private void reject(Conn c, byte[] response) throws IOException {
+            emit(c, response);
+            c.closing = true;
+        }
+
+        /** Queues response bytes in the loop's direct buffer, or behind output the socket has not taken. */
+        private void emit(Conn c, byte[] b) throws IOException {
+            if (c.pending == null && out.remaining() < b.length) flush(c);
+            if (c.pending == null && out.remaining() >= b.length) {
+                out.put(b);
+                return;
+            }
+            ByteBuffer p = c.pending == null ? ByteBuffer.allocate(Math.max(b.length, 4096)) : c.pending;
+            if (c.pending != null) {
+                p.compact();
+                if (p.remaining() < b.length) {
+                    ByteBuffer bigger = ByteBuffer.allocate(p.position() + b.length + 4096);
+                    p.flip();
+                    bigger.put(p);
+                    p = bigger;
+                }
+            }
+            p.put(b).flip();
+            c.pending = p;
+            c.key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        /** Writes what the direct buffer holds; the rest waits on the connection for OP_WRITE. */
+        private void flush(Conn c) throws IOException {
+            if (out.position() == 0) return;
+            out.flip();
+            try {
+                while (out.hasRemaining() && c.ch.write(out) > 0) {
+                    // keep writing while the socket takes it
+                }
+                if (out.hasRemaining()) {
+                    ByteBuffer p = ByteBuffer.allocate(out.remaining() + 4096);
+                    p.put(out).flip();
+                    c.pending = p;
+                    c.key.interestOps(SelectionKey.OP_WRITE);
+                }
+            } finally {
+                out.clear();
+            }
+        }
+    }
+
+    // --- Byte helpers ---
+
+    /** End of the request head starting at {@code from} (just past the blank line), or -1. */
+    private static int headEnd(byte[] a, int from, int end) {
+        for (int i = from + 3; i < end; i++) {
+            if (a[i] == '\n' && a[i - 1] == '\r' && a[i - 2] == '\n' && a[i - 3] == '\r') return i + 1;
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] a, int from, int to, char c) {
+        for (int i = from; i < to; i++) if (a[i] == c) return i;
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] a, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) if (a[from + i] != s.charAt(i)) return false;
+        return true;
+    }
+
+    private static boolean regionEquals(byte[] a, int from, byte[] b) {
+        for (int i = 0; i < b.length; i++) if (a[from + i] != b[i]) return false;
+        return true;
+    }
+
+    /** Case-insensitive header name match; {@code lower} must be lower case. */
+    private static boolean nameIs(byte[] a, int from, int to, String lower) {
+        if (to - from != lower.length()) return false;
+        for (int i = 0; i < lower.length(); i++) if ((a[from + i] | 0x20) != lower.charAt(i)) return false;
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] a, int from, int to, String lower) {
+        for (int i = from; i + lower.length() <= to; i++) {
+            if (nameIs(a, i, i + lower.length(), lower)) return true;
+        }
+        return false;
+    }
+
+    /** Non-negative decimal, or -1 if malformed. */
+    private static long digits(byte[] a, int from, int to) {
+        if (from == to || to - from > 18) return -1;
+        long n = 0;
+        for (int i = from; i < to; i++) {
+            if (a[i] < '0' || a[i] > '9') return -1;
+            n = n * 10 + (a[i] - '0');
+        }
+        return n;
+    }
+
+    private static String text(byte[] a, int from, int to) {
+        return from < 0 ? null : new String(a, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,193 @@
+package urlshortener;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+
+/**
+ * GET /{code}: redirects to the stored URL (301, or 302 for temporary links),
+ * serves the landing page for "/" and a 404 page otherwise. Counts every
+ * request by outcome and times it for /metrics.
+ *
+ * Misses are cheap on purpose: if the store is a {@link CodeFilter} that
+ * rules the code out, the 404 is a fixed page, and with a {@link MissLimiter}
+ * a client past its miss budget gets a fixed 429 instead.
+ *
+ * With a {@link LinkExpiry}, a link whose click budget is used up is
+ * answered like an unknown code until the expiry thread removes it, and a
+ * link with any rule is redirected with 302 so browsers do not cache it.
+ *
+ * Codes are looked up with {@link LinkStore#linkAsync}. If the store has to
+ * read one from disk, the exchange is answered from the loader thread once
+ * the link is there and the handler thread moves on.
+ *
+ * {@link NioRedirectServer} serves the same responses without HttpServer and
+ * reports into the same counters.
+ */
+public class RedirectHandler implements HttpHandler {
+
+    static final byte[] LANDING_PAGE = ("<!doctype html><html><head><meta charset='utf-8'><title>Local URL Shortener</title></head>" +
+            "<body style='font-family:Arial,Helvetica,sans-serif;padding:24px;'>" +
+            "<h2>Local URL Shortener</h2>" +
+            "<p>This is the local redirect server. Create links in the desktop app.</p>" +
+            "</body></html>").getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_HEAD = "<h2>404 - Unknown short code</h2><p>No mapping for <b>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] NOT_FOUND_TAIL = "</b></p>".getBytes(StandardCharsets.UTF_8);
+    static final byte[] NOT_FOUND_PAGE = "<h2>404 - Unknown short code</h2>".getBytes(StandardCharsets.UTF_8);
+    static final byte[] TOO_MANY_PAGE = "<h2>429 - Too many unknown codes, slow down</h2>".getBytes(StandardCharsets.UTF_8);
+
+    final LinkStore store;
+    final ClickTracker clicks;
+    final MissLimiter limiter;
+    volatile LinkExpiry expiry;
+    private final CodeFilter filter;
+
+    final LongAdder served301 = new LongAdder();
+    final LongAdder served302 = new LongAdder();
+    final LongAdder served404 = new LongAdder();
+    final LongAdder served429 = new LongAdder();
+    final LongAdder servedLanding = new LongAdder();
+    final Metrics.Histogram latency = new Metrics.Histogram();
+    /** Completes with the {@link System#nanoTime} of the first redirect served, for startup timing. */
+    final CompletableFuture<Long> firstRedirect = new CompletableFuture<>();
+
+    /** @param clicks may be null (analytics off) */
+    public RedirectHandler(LinkStore store, ClickTracker clicks) {
+        this(store, clicks, null);
+    }
+
+    /** @param limiter may be null (misses not limited) */
+    public RedirectHandler(LinkStore store, ClickTracker clicks, MissLimiter limiter) {
+        this(store, clicks, limiter, null);
+    }
+
+    /** @param expiry may be null (no click budgets) */
+    public RedirectHandler(LinkStore store, ClickTracker clicks, MissLimiter limiter, LinkExpiry expiry) {
+        this.store = store;
+        this.clicks = clicks;
+        this.limiter = limiter;
+        this.expiry = expiry;
+        this.filter = store instanceof CodeFilter ? (CodeFilter) store : null;
+    }
+
+    /** Starts enforcing click budgets, e.g. on a follower that was just promoted. */
+    void setExpiry(LinkExpiry expiry) {
+        this.expiry = expiry;
+    }
+
+    @Override public void handle(HttpExchange ex) throws IOException {
+        long start = System.nanoTime();
+        boolean later = false;
+        try {
+            later = serve(ex, start);
+        } finally {
+            if (!later) latency.since(start);
+        }
+    }
+
+    /** True if the answer was left to the thread that loads the link. */
+    private boolean serve(HttpExchange ex, long start) throws IOException {
+        String path = ex.getRequestURI().getPath();
+        if (path == null || path.equals("/") || path.length() <= 1) {
+            servedLanding.increment();
+            ex.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            ex.sendResponseHeaders(200, LANDING_PAGE.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(LANDING_PAGE); }
+            return false;
+        }
+        String code = path.substring(1);
+        CompletableFuture<Link> f = store.linkAsync(code);
+        if (f.isDone()) {
+            answer(ex, code, f.join());
+            return false;
+        }
+        f.whenComplete((link, e) -> {
+            try {
+                if (e == null) {
+                    answer(ex, code, link);
+                } else {
+                    ex.sendResponseHeaders(500, -1);
+                    ex.close();
+                }
+            } catch (IOException | RuntimeException io) {
+                ex.close();
+            } finally {
+                latency.since(start);
+            }
+        });
+        return true;
+    }
+
+    private void answer(HttpExchange ex, String code, Link link) throws IOException {
+        LinkExpiry expiry = this.expiry;
+        if (link != null && (expiry == null || expiry.click(code))) {
+            if (clicks != null) {
+                if (clicks.shouldSample()) {
+                    clicks.click(code, ex.getRequestHeaders().getFirst("Referer"),
+                            ex.getRequestHeaders().getFirst("User-Agent"));
+                } else {
+                    clicks.click(code, null, null);
+                }
+            }
+            boolean temporary = temporary(link, expiry);
+            redirected(temporary);
+            ex.getResponseHeaders().add("Location", link.url);
+            ex.sendResponseHeaders(temporary ? 302 : 301, -1);
+            ex.close();
+        } else if (limiter != null && !limiter.tryAcquire(MissLimiter.key(ex.getRemoteAddress()))) {
+            served429.increment();
+            ex.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            ex.getResponseHeaders().add("Retry-After", "1");
+            ex.sendResponseHeaders(429, TOO_MANY_PAGE.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(TOO_MANY_PAGE); }
+        } else {
+            served404.increment();
+            byte[] body = notFoundBody(code);
+            ex.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+            ex.sendResponseHeaders(404, body.length);
+            try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+        }
+    }
+
+    /** 302 rather than 301: the link was made temporary, or it has an expiry. */
+    static boolean temporary(Link link, LinkExpiry expiry) {
+        return link.temporary || (expiry != null && expiry.has(link.code));
+    }
+
+    /** Counts a redirect; the servers call this just before sending it. */
+    void redirected(boolean temporary) {
+        (temporary ? served302 : served301).increment();
+        if (!firstRedirect.isDone()) firstRedirect.complete(System.nanoTime());
+    }
+
+    /** The fixed 404 page if the filter rules the code out (scanners), else the page naming it. */
+    byte[] notFoundBody(String code) {
+        return filter != null && !filter.mightContain(code) ? NOT_FOUND_PAGE : notFoundPage(code);
+    }
+
+    /** The 404 page for a code, with the code HTML-escaped. */
+    static byte[] notFoundPage(String code) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(NOT_FOUND_HEAD.length + NOT_FOUND_TAIL.length + code.length() + 16);
+        out.write(NOT_FOUND_HEAD, 0, NOT_FOUND_HEAD.length);
+        byte[] b = code.getBytes(StandardCharsets.UTF_8);
+        for (byte c : b) {
+            switch (c) {
+                case '&': out.write(AMP, 0, AMP.length); break;
+                case '<': out.write(LT, 0, LT.length); break;
+                case '>': out.write(GT, 0, GT.length); break;
+                default: out.write(c);
+            }
+        }
+        out.write(NOT_FOUND_TAIL, 0, NOT_FOUND_TAIL.length);
+        return out.toByteArray();
+    }
+
+    private static final byte[] AMP = {'&', 'a', 'm', 'p', ';'};
+    private static final byte[] LT = {'&', 'l', 't', ';'};
+    private static final byte[] GT = {'&', 'g', 't', ';'};
+}
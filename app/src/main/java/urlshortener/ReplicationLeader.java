@@ -0,0 +1,466 @@
+package urlshortener;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ships the journal to read-only followers over TCP (see {@link Follower}).
+ *
+ * Installed as the journal's {@link LinkJournal.Tap}, it keeps every record
+ * appended since the slowest follower's last ack in memory and streams them
+ * to each follower from its own sender thread. Protocol, one line each:
+ *
+ *   follower: F \t name                     hello
+ *   leader:   L \t seq \t bytes             bootstrap at seq, then the snapshot file
+ *             C|D|X ...                     the links made, deleted or given an
+ *                                           expiry since that snapshot
+ *             I ...                         the code allocator's newest lease, so
+ *                                           a promoted follower issues no id twice
+ *             E                             end of bootstrap
+ *             R \t seq \t millis \t record  a journal record, in order
+ *             H \t seq \t millis            heartbeat: newest seq and when it was made
+ *   follower: A \t seq                      records up to seq are on its disk
+ *
+ * The bootstrap is taken while writes go on: the store is changed before a
+ * record is journaled, so a change either shows in the state the follower is
+ * sent or comes after seq in the stream, and replaying a record on top of its
+ * own effect is harmless.
+ *
+ * With acks > 0, {@link #await} (reached through {@link LinkJournal#awaitDurable})
+ * returns only once that many followers have the record on disk, and throws if
+ * they do not within the timeout, so the write is not reported as done. A
+ * follower counts only from its own A lines, sent once it has applied and
+ * fsynced the data; one still bootstrapping has confirmed nothing. A
+ * follower that falls more than {@link #MAX_BACKLOG} records behind is
+ * dropped; it bootstraps again when it reconnects.
+ */
+public class ReplicationLeader implements LinkJournal.Tap, Closeable {
+
+    static final int MAX_BACKLOG = 1 << 20;
+    static final long HEARTBEAT_MILLIS = 100;
+    private static final int BATCH = 4096; // records per wakeup of a sender
+
+    /** One journal record, as shipped. */
+    private static final class Entry {
+        final long seq, millis;
+        final byte[] record;
+
+        Entry(long seq, long millis, byte[] record) {
+            this.seq = seq;
+            this.millis = millis;
+            this.record = record;
+        }
+    }
+
+    private final class Peer {
+        final Socket socket;
+        final String address;
+        volatile String name = "?";
+        volatile long sent, acked;   // guarded by log for writes; acked only from the follower's A lines
+        volatile long from;          // seq the bootstrap covers; the stream starts after it
+        volatile boolean ready;      // bootstrap sent
+        boolean dropped;             // guarded by log
+
+        Peer(Socket socket) {
+            this.socket = socket;
+            this.address = socket.getRemoteSocketAddress().toString();
+        }
+    }
+
+    private final SnapshotLinkStore store;
+    private final LinkExpiry expiry;
+    private final int acks;
+    private final long ackTimeoutMillis;
+    private final ServerSocket server;
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+
+    private final Object log = new Object();
+    private final List<Entry> entries = new ArrayList<>(); // seqs consecutive from entries[start]; guarded by log
+    private int start;
+    private long head, headMillis;                          // guarded by log
+    private byte[] lease;                                   // newest I record; guarded by log
+    private volatile boolean closed;
+
+    public final Metrics.Histogram ackWait = new Metrics.Histogram();
+    private final LongAdder bootstraps = new LongAdder();
+    private final LongAdder ackTimeouts = new LongAdder();
+
+    /**
+     * Listens on {@code port}; call {@link LinkJournal#tap} with this before
+     * any follower connects.
+     *
+     * @param acks followers that must have a record before {@link #await} returns (0 = none)
+     */
+    public ReplicationLeader(int port, int acks, long ackTimeoutMillis, SnapshotLinkStore store,
+                             LinkExpiry expiry) throws IOException {
+        this.store = store;
+        this.expiry = expiry;
+        this.acks = acks;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+        server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(new InetSocketAddress(port));
+        Thread t = new Thread(this::acceptLoop, "replication-accept");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    // --- Tap ---
+
+    @Override public void appended(long seq, byte[] record) {
+        long now = System.currentTimeMillis();
+        synchronized (log) {
+            head = seq;
+            headMillis = now;
+            if (record.length > 0 && record[0] == 'I') lease = record;
+            if (peers.isEmpty()) return;
+            entries.add(new Entry(seq, now, record));
+            if (entries.size() - start > MAX_BACKLOG) dropSlowest();
+            log.notifyAll();
+        }
+    }
+
+    @Override public void await(long seq) throws IOException {
+        if (acks <= 0) return;
+        long t = System.nanoTime(), deadline = t + ackTimeoutMillis * 1_000_000;
+        synchronized (log) {
+            while (confirmed(seq) < acks) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0 || closed) {
+                    ackTimeouts.increment();
+                    throw new IOException("Only " + confirmed(seq) + " of " + acks
+                            + " followers confirmed the write within " + ackTimeoutMillis + " ms");
+                }
+                try {
+                    log.wait(Math.max(1, left / 1_000_000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+        ackWait.since(t);
+    }
+
+    private int confirmed(long seq) {
+        int n = 0;
+        for (Peer p : peers) if (p.acked >= seq) n++;
+        return n;
+    }
+
+    /** Highest seq the follower no longer needs from the log: sent in its bootstrap or confirmed. */
+    private static long held(Peer p) {
+        return Math.max(p.acked, p.from);
+    }
+
+    // --- Status ---
+
+    public int followers() {
+        return peers.size();
+    }
+
+    public long bootstraps() {
+        return bootstraps.sum();
+    }
+
+    public long ackTimeouts() {
+        return ackTimeouts.sum();
+    }
+
+    /** Records the furthest-behind follower has not confirmed yet. */
+    public long lagRecords() {
+        synchronized (log) {
+            long lag = 0;
+            for (Peer p : peers) lag = Math.max(lag, head - held(p));
+            return lag;
+        }
+    }
+
+    /** Age of the oldest record some follower has not confirmed yet, in millis. */
+    public long lagMillis() {
+        long now = System.currentTimeMillis();
+        synchronized (log) {
+            long lag = 0;
+            for (Peer p : peers) {
+                Entry e = held(p) < head ? entry(held(p) + 1) : null;
+                if (e != null) lag = Math.max(lag, now - e.millis);
+            }
+            return lag;
+        }
+    }
+
+    /** Adds the replication gauges to /metrics. */
+    public void registerMetrics(Metrics metrics) {
+        metrics.gauge("urlshortener_replication_followers", "Followers connected.", () -> (long) followers());
+        metrics.gauge("urlshortener_replication_lag_records", "Records the furthest-behind follower has not confirmed.",
+                this::lagRecords);
+        metrics.gauge("urlshortener_replication_lag_seconds", "Age of the oldest record some follower has not confirmed.",
+                () -> lagMillis() / 1000.0);
+        metrics.counter("urlshortener_replication_bootstraps_total", "Snapshots sent to followers.", null, this::bootstraps);
+        metrics.histogram("urlshortener_replication_ack_seconds",
+                "Wait for --replicate-acks followers after the local fsync.", null, ackWait);
+        metrics.counter("urlshortener_replication_ack_timeouts_total",
+                "Writes not confirmed by enough followers in time (reported as failed).", null, this::ackTimeouts);
+    }
+
+    /** {"role":"leader",...} with one member per follower, for /api/replication. */
+    public String toJson() {
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder(256);
+        synchronized (log) {
+            sb.append("{\"role\":\"leader\",\"port\":").append(port())
+              .append(",\"seq\":").append(head)
+              .append(",\"acks\":").append(acks)
+              .append(",\"backlog\":").append(entries.size() - start)
+              .append(",\"followers\":[");
+            String sep = "";
+            for (Peer p : peers) {
+                Entry e = held(p) < head ? entry(held(p) + 1) : null;
+                sb.append(sep);
+                Json.quote(sb.append("{\"name\":"), p.name);
+                Json.quote(sb.append(",\"address\":"), p.address);
+                sb.append(",\"bootstrapped\":").append(p.ready)
+                  .append(",\"acked\":").append(p.acked)
+                  .append(",\"lag_records\":").append(head - held(p))
+                  .append(",\"lag_ms\":").append(e == null ? 0 : now - e.millis)
+                  .append('}');
+                sep = ",";
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    // --- Log ---
+
+    /** The entry with this seq, or null if it was trimmed or not made yet; under log. */
+    private Entry entry(long seq) {
+        if (start == entries.size()) return null;
+        long i = seq - entries.get(start).seq + start;
+        return i < start || i >= entries.size() ? null : entries.get((int) i);
+    }
+
+    /** Forgets the entries every follower has confirmed; under log. */
+    private void trim() {
+        if (peers.isEmpty()) {
+            entries.clear();
+            start = 0;
+            return;
+        }
+        long min = Long.MAX_VALUE;
+        for (Peer p : peers) min = Math.min(min, held(p));
+        while (start < entries.size() && entries.get(start).seq <= min) entries.set(start++, null);
+        if (start > 4096 && start > entries.size() / 2) {
+            entries.subList(0, start).clear();
+            start = 0;
+        }
+    }
+
+    private void dropSlowest() {
+        Peer slowest = null;
+        for (Peer p : peers) if (slowest == null || held(p) < held(slowest)) slowest = p;
+        System.err.println("Replication: dropping follower " + slowest.name + " (" + slowest.address
+                + "), more than " + MAX_BACKLOG + " records behind");
+        remove(slowest);
+    }
+
+    /** Takes a follower out of the log and wakes its sender to close it; under log. */
+    private void remove(Peer p) {
+        if (p.dropped) return;
+        p.dropped = true;
+        peers.remove(p);
+        trim();
+        log.notifyAll();
+    }
+
+    // --- Connections ---
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket s;
+            try {
+                s = server.accept();
+            } catch (IOException e) {
+                if (!closed) e.printStackTrace();
+                return;
+            }
+            Peer p = new Peer(s);
+            Thread t = new Thread(() -> serve(p), "replication-" + p.address);
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    private void serve(Peer p) {
+        try {
+            p.socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(p.socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(p.socket.getOutputStream(), 1 << 16);
+            String hello = readLine(in);
+            if (hello == null || !hello.startsWith("F\t")) throw new IOException("Not a follower: " + hello);
+            p.name = hello.substring(2);
+            bootstrap(p, out);
+            Thread acker = new Thread(() -> readAcks(p, in), "replication-acks-" + p.address);
+            acker.setDaemon(true);
+            acker.start();
+            stream(p, out);
+        } catch (IOException | UncheckedIOException e) {
+            if (!closed && !p.dropped) {
+                System.err.println("Replication: follower " + p.name + " (" + p.address + ") left: " + e.getMessage());
+            }
+        } finally {
+            synchronized (log) {
+                remove(p);
+            }
+            closeQuietly(p.socket);
+        }
+    }
+
+    private void bootstrap(Peer p, OutputStream out) throws IOException {
+        long seq;
+        byte[] leased;
+        synchronized (log) {
+            seq = head;
+            leased = lease; // a newer one comes after seq in the stream
+            // Nothing is confirmed until the follower has the bootstrap on disk and says so.
+            p.sent = p.from = seq;
+            p.acked = -1;
+            peers.add(p);
+        }
+        SnapshotLinkStore.Layers layers = store.layers();
+        LinkSnapshot base = layers.base();
+        ascii(out, "L\t" + seq + "\t" + base.fileSize() + "\n");
+        base.writeTo(out);
+        try {
+            for (String code : layers.deletedFromBase()) utf8(out, LinkJournal.deleteRecord(code));
+            layers.forEachAdded(l -> utf8(out, LinkJournal.createRecord(l)));
+            if (expiry != null) expiry.replayTo(new LinkJournal.Replay() {
+                @Override public void create(Link link) {}
+                @Override public void delete(String code) {}
+                @Override public void expiry(String code, long expiresAt, long clicksLeft) {
+                    utf8(out, LinkJournal.expiryRecord(code, expiresAt, clicksLeft));
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        if (leased != null) out.write(leased);
+        ascii(out, "E\n");
+        out.flush();
+        p.ready = true;
+        bootstraps.increment();
+    }
+
+    /** Sends records (or a heartbeat when there are none) until the follower goes away. */
+    private void stream(Peer p, OutputStream out) throws IOException {
+        List<Entry> batch = new ArrayList<>(BATCH);
+        while (true) {
+            long h, hMillis;
+            synchronized (log) {
+                long until = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+                while (!closed && !p.dropped && p.sent >= head) {
+                    long left = until - System.currentTimeMillis();
+                    if (left <= 0) break;
+                    try {
+                        log.wait(left);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed || p.dropped) return;
+                for (long s = p.sent + 1; s <= head && batch.size() < BATCH; s++) {
+                    Entry e = entry(s);
+                    if (e == null) throw new IOException("Record " + s + " no longer held");
+                    batch.add(e);
+                }
+                h = head;
+                hMillis = headMillis;
+            }
+            if (batch.isEmpty()) {
+                ascii(out, "H\t" + h + "\t" + hMillis + "\n");
+            } else {
+                for (Entry e : batch) {
+                    ascii(out, "R\t" + e.seq + "\t" + e.millis + "\t");
+                    out.write(e.record);
+                }
+                p.sent = batch.get(batch.size() - 1).seq;
+                batch.clear();
+            }
+            out.flush();
+        }
+    }
+
+    private void readAcks(Peer p, InputStream in) {
+        try {
+            for (String line; (line = readLine(in)) != null; ) {
+                if (!line.startsWith("A\t")) continue;
+                long seq = Long.parseLong(line.substring(2));
+                synchronized (log) {
+                    if (seq > p.acked) {
+                        p.acked = seq;
+                        trim();
+                        log.notifyAll();
+                    }
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // the sender notices the closed socket
+        }
+        closeQuietly(p.socket);
+    }
+
+    /** Stops accepting and disconnects every follower. */
+    @Override public void close() {
+        closed = true;
+        closeQuietly(server);
+        for (Peer p : peers) closeQuietly(p.socket);
+        synchronized (log) {
+            log.notifyAll();
+        }
+    }
+
+    // --- Wire helpers, shared with Follower ---
+
+    /** One \n-terminated UTF-8 line without its newline, or null at end of stream. */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        for (int b; (b = in.read()) != '\n'; ) {
+            if (b < 0) {
+                if (line.size() == 0) return null;
+                throw new EOFException("Connection closed mid-line");
+            }
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static void ascii(OutputStream out, String s) throws IOException {
+        out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static void utf8(OutputStream out, String s) {
+        try {
+            out.write(s.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void closeQuietly(Closeable c) {
+        try {
+            c.close();
+        } catch (IOException ignore) {
+            // already gone
+        }
+    }
+}
@@ -0,0 +1,483 @@
+package urlshortener;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Trigram inverted index over codes and URLs for case-insensitive substring
+ * search.
+ *
+ * Every link gets a document id: snapshot links use their snapshot index,
+ * later links are numbered after them in the order they were added. Each
+ * lower-cased trigram of "code url" maps to a posting list of document ids,
+ * stored as ascending varint deltas (usually one byte each). A query
+ * intersects the postings of its rarest trigrams and then checks each
+ * candidate against the store, so hash collisions, deleted links and
+ * trigrams that span the code/url boundary never produce false hits.
+ *
+ * Queries shorter than a trigram scan the documents in order and stop once
+ * the page is full. Adds and removes are incremental and thread-safe; the
+ * build runs in {@link #load}, again after each rebase of the store, and
+ * until the first one finishes queries fall back to a scan of the store.
+ *
+ * A removal only marks the document. Once marked documents make up a
+ * quarter of the index, the postings are rewritten without them and the
+ * documents added since the snapshot are numbered again from the end of
+ * it, so expiry churn does not grow the index or slow queries down.
+ *
+ * With {@link #scanOnly} there is no index at all: every query scans the
+ * store, and adds and removes are ignored.
+ */
+public class SearchIndex {
+
+    /** One page of results. {@code total} is exact unless {@code totalCapped}. */
+    public static final class Result {
+        public final List<Link> links;
+        public final int total;
+        public final boolean totalCapped;
+
+        Result(List<Link> links, int total, boolean totalCapped) {
+            this.links = links;
+            this.total = total;
+            this.totalCapped = totalCapped;
+        }
+    }
+
+    /** Stop counting matches past this many; the first pages are exact regardless. */
+    static final int MAX_COUNTED = 100_000;
+    /** Purge removed documents from the postings once there are this many, and a quarter of all. */
+    static final int PURGE_MIN = 4096;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private LinkStore store = new ConcurrentLinkStore();
+    private LinkSnapshot base = LinkSnapshot.EMPTY;
+    private final List<String> added = new ArrayList<>();
+    private final Map<String, Integer> addedIds = new HashMap<>();
+    private final BitSet removed = new BitSet();
+    private int dead; // removed documents still in the postings
+    private Grams grams = new Grams();
+    private volatile boolean ready;
+    private volatile boolean scanOnly;
+    // Changes made while a build runs, applied to the new index once it is done.
+    private List<Object[]> pending = new ArrayList<>();
+
+    /**
+     * Indexes everything in {@code store}, off the EDT. A {@link SnapshotLinkStore}'s
+     * base is read in place. Run again after the store was rebased, it builds
+     * an index over the new base while the old one keeps answering, then
+     * drops the old one and its mapping.
+     */
+    public synchronized void load(LinkStore store) {
+        lock.writeLock().lock();
+        try {
+            if (scanOnly) return;
+            if (pending == null) pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        LinkSnapshot snap = LinkSnapshot.EMPTY;
+        Set<String> deletedFromBase = Collections.emptySet();
+        List<String> extra = new ArrayList<>();
+        if (store instanceof SnapshotLinkStore) {
+            SnapshotLinkStore.Layers s = ((SnapshotLinkStore) store).layers();
+            snap = s.base();
+            deletedFromBase = s.deletedFromBase();
+            s.forEachAdded(l -> extra.add(l.code));
+        } else {
+            store.forEach(l -> extra.add(l.code));
+        }
+
+        // Build outside the lock: nothing else touches these grams until they are swapped in.
+        Grams g = new Grams();
+        for (int i = 0, n = snap.size(); i < n; i++) g.addDoc(i, snap.code(i), snap.url(i));
+
+        lock.writeLock().lock();
+        try {
+            this.store = store;
+            this.base = snap;
+            grams = g;
+            added.clear();
+            addedIds.clear();
+            removed.clear();
+            dead = 0;
+            for (String code : deletedFromBase) {
+                int i = snap.indexOf(code);
+                if (i >= 0 && !removed.get(i)) {
+                    removed.set(i);
+                    dead++;
+                }
+            }
+            for (String code : extra) {
+                Link l = store.link(code);
+                if (l != null) addLocked(l.code, l.url);
+            }
+            for (Object[] change : pending) {
+                if (change[1] != null) addLocked((String) change[0], (String) change[1]);
+                else removeLocked((String) change[0]);
+            }
+            pending = null;
+            ready = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /** Answers every query from a scan of {@code store} instead of indexing it. */
+    public void scanOnly(LinkStore store) {
+        lock.writeLock().lock();
+        try {
+            this.store = store;
+            pending = null;
+            scanOnly = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void add(String code, String url) {
+        if (scanOnly) return;
+        lock.writeLock().lock();
+        try {
+            if (pending != null) pending.add(new Object[]{code, url});
+            if (ready) addLocked(code, url);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String code) {
+        if (scanOnly) return;
+        lock.writeLock().lock();
+        try {
+            if (pending != null) pending.add(new Object[]{code, null});
+            if (ready) removeLocked(code);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addLocked(String code, String url) {
+        Integer old = addedIds.get(code);
+        if (old != null && !removed.get(old)) return;
+        if (old == null) {
+            int i = base.indexOf(code);
+            if (i >= 0 && !removed.get(i)) return;
+        }
+        int doc = base.size() + added.size();
+        added.add(code);
+        addedIds.put(code, doc);
+        grams.addDoc(doc, code, url);
+    }
+
+    private void removeLocked(String code) {
+        Integer doc = addedIds.get(code);
+        int d = doc != null ? doc : base.indexOf(code);
+        if (d < 0 || removed.get(d)) return;
+        removed.set(d);
+        if (++dead >= PURGE_MIN && dead * 4L >= base.size() + added.size()) purgeLocked();
+    }
+
+    /**
+     * Rewrites the postings without removed documents. Snapshot documents keep
+     * their ids (and their removed bits, for scans); added ones are numbered
+     * again after the snapshot, live ones only, in the same order.
+     */
+    private void purgeLocked() {
+        int n = base.size();
+        int[] remap = new int[added.size()];
+        List<String> live = new ArrayList<>();
+        addedIds.clear();
+        for (int i = 0; i < remap.length; i++) {
+            if (removed.get(n + i)) {
+                remap[i] = -1;
+            } else {
+                remap[i] = n + live.size();
+                addedIds.put(added.get(i), remap[i]);
+                live.add(added.get(i));
+            }
+        }
+        grams = grams.purge(doc -> doc < n ? (removed.get(doc) ? -1 : doc) : remap[doc - n]);
+        removed.clear(n, n + remap.length);
+        added.clear();
+        added.addAll(live);
+        dead = 0;
+    }
+
+    /** Documents numbered so far, removed ones included until the next purge. */
+    int docs() {
+        lock.readLock().lock();
+        try {
+            return base.size() + added.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Bytes of posting data. */
+    long postingBytes() {
+        lock.readLock().lock();
+        try {
+            return grams.bytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Links whose code or URL contains {@code query} (ignoring case), in
+     * document order, skipping {@code offset} matches.
+     */
+    public Result search(String query, int offset, int limit) {
+        String q = lower(query);
+        if (!ready) return scanStore(q, offset, limit);
+        lock.readLock().lock();
+        try {
+            return q.length() < 3 ? scanDocs(q, offset, limit) : lookup(q, offset, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Result lookup(String q, int offset, int limit) {
+        int[] candidates = grams.candidates(q);
+        List<Link> page = new ArrayList<>();
+        int total = 0;
+        for (int doc : candidates) {
+            Link l = verify(doc, q);
+            if (l == null) continue;
+            if (total >= offset && page.size() < limit) page.add(l);
+            if (++total >= MAX_COUNTED && page.size() >= limit) {
+                return new Result(page, total, true);
+            }
+        }
+        return new Result(page, total, false);
+    }
+
+    private Result scanDocs(String q, int offset, int limit) {
+        List<Link> page = new ArrayList<>();
+        int total = 0;
+        for (int doc = 0, n = base.size() + added.size(); doc < n; doc++) {
+            Link l = verify(doc, q);
+            if (l == null) continue;
+            if (total >= offset && page.size() < limit) page.add(l);
+            if (++total >= offset + limit) return new Result(page, total, true);
+        }
+        return new Result(page, total, false);
+    }
+
+    private Result scanStore(String q, int offset, int limit) {
+        List<Link> page = new ArrayList<>();
+        int[] total = {0};
+        store.forEach(l -> {
+            if (!matches(l, q)) return;
+            if (total[0] >= offset && page.size() < limit) page.add(l);
+            total[0]++;
+        });
+        return new Result(page, total[0], false);
+    }
+
+    /** The live link for a document if it still matches, else null. */
+    private Link verify(int doc, String q) {
+        if (removed.get(doc)) return null;
+        String code = doc < base.size() ? base.code(doc) : added.get(doc - base.size());
+        Link l = store.link(code);
+        return l != null && matches(l, q) ? l : null;
+    }
+
+    /** Per-char lower case, so the query keeps its length and matches how trigrams were keyed. */
+    private static String lower(String s) {
+        char[] c = s.toCharArray();
+        for (int i = 0; i < c.length; i++) c[i] = Character.toLowerCase(c[i]);
+        return new String(c);
+    }
+
+    private static boolean matches(Link l, String q) {
+        return contains(l.code, q) || contains(l.url, q);
+    }
+
+    private static boolean contains(String s, String lowerQuery) {
+        int n = lowerQuery.length();
+        for (int i = 0; i + n <= s.length(); i++) {
+            if (s.regionMatches(true, i, lowerQuery, 0, n)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Trigram -> posting list. Trigrams are packed into a long (three UTF-16
+     * units) and kept in an open-addressing table next to their postings, so
+     * building never boxes.
+     */
+    private static final class Grams {
+        private long[] keys = new long[1 << 16];
+        private Postings[] values = new Postings[1 << 16];
+        private int size;
+
+        void addDoc(int doc, String code, String url) {
+            addText(doc, code);
+            addText(doc, url);
+        }
+
+        private void addText(int doc, String s) {
+            if (s.length() < 3) return;
+            char a = Character.toLowerCase(s.charAt(0)), b = Character.toLowerCase(s.charAt(1));
+            for (int i = 2; i < s.length(); i++) {
+                char c = Character.toLowerCase(s.charAt(i));
+                postingsFor(key(a, b, c), true).add(doc);
+                a = b;
+                b = c;
+            }
+        }
+
+        private static long key(char a, char b, char c) {
+            return 1L << 48 | (long) a << 32 | (long) b << 16 | c; // never 0, which marks a free slot
+        }
+
+        private Postings postingsFor(long key, boolean create) {
+            int mask = keys.length - 1;
+            int i = (int) mix(key) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) return values[i];
+                i = (i + 1) & mask;
+            }
+            if (!create) return null;
+            if (size * 2 >= keys.length) {
+                grow();
+                return postingsFor(key, true);
+            }
+            keys[i] = key;
+            size++;
+            return values[i] = new Postings();
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            Postings[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new Postings[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int j = 0; j < oldKeys.length; j++) {
+                if (oldKeys[j] == 0) continue;
+                int i = (int) mix(oldKeys[j]) & mask;
+                while (keys[i] != 0) i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+            return z ^ (z >>> 29);
+        }
+
+        /** A copy with each doc mapped through {@code map} (order kept), dropping docs it maps to -1 and empty lists. */
+        Grams purge(IntUnaryOperator map) {
+            Grams g = new Grams();
+            for (int j = 0; j < keys.length; j++) {
+                if (keys[j] == 0) continue;
+                Postings p = values[j].purge(map);
+                if (p.count > 0) g.postingsFor(keys[j], true).replaceWith(p);
+            }
+            return g;
+        }
+
+        long bytes() {
+            long b = 0;
+            for (Postings p : values) if (p != null) b += p.data.length;
+            return b;
+        }
+
+        /** Ascending doc ids that contain every trigram of {@code q} (q.length() >= 3). */
+        int[] candidates(String q) {
+            List<Postings> lists = new ArrayList<>();
+            for (int i = 2; i < q.length(); i++) {
+                Postings p = postingsFor(key(q.charAt(i - 2), q.charAt(i - 1), q.charAt(i)), false);
+                if (p == null) return new int[0];
+                if (!lists.contains(p)) lists.add(p);
+            }
+            lists.sort(Comparator.comparingInt(p -> p.count));
+            int[] docs = lists.get(0).decode();
+            int n = docs.length;
+            // A few of the rarest lists narrow things down; verification does the rest.
+            for (int k = 1; k < Math.min(lists.size(), 4) && n > 0; k++) n = lists.get(k).retain(docs, n);
+            return Arrays.copyOf(docs, n);
+        }
+    }
+
+    /** Ascending doc ids as varint-encoded gaps. */
+    private static final class Postings {
+        private byte[] data = new byte[4];
+        private int length;
+        private int last = -1;
+        int count;
+
+        void add(int doc) {
+            if (doc == last) return; // trigram repeated within one document
+            int gap = doc - last;
+            if (length + 5 > data.length) data = Arrays.copyOf(data, data.length + (data.length >> 1) + 5);
+            while ((gap & ~0x7F) != 0) {
+                data[length++] = (byte) ((gap & 0x7F) | 0x80);
+                gap >>>= 7;
+            }
+            data[length++] = (byte) gap;
+            last = doc;
+            count++;
+        }
+
+        int[] decode() {
+            int[] out = new int[count];
+            int doc = -1, pos = 0;
+            for (int k = 0; k < count; k++) {
+                int gap = 0, shift = 0, b;
+                do {
+                    b = data[pos++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                out[k] = doc += gap;
+            }
+            return out;
+        }
+
+        Postings purge(IntUnaryOperator map) {
+            Postings p = new Postings();
+            for (int doc : decode()) {
+                int d = map.applyAsInt(doc);
+                if (d >= 0) p.add(d);
+            }
+            p.data = Arrays.copyOf(p.data, p.length);
+            return p;
+        }
+
+        void replaceWith(Postings p) {
+            data = p.data;
+            length = p.length;
+            last = p.last;
+            count = p.count;
+        }
+
+        /** Keeps the first {@code n} docs that are also in this list; returns the new n. */
+        int retain(int[] docs, int n) {
+            int kept = 0, j = 0, doc = -1, pos = 0, seen = 0;
+            while (j < n && seen < count) {
+                int gap = 0, shift = 0, b;
+                do {
+                    b = data[pos++];
+                    gap |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0);
+                doc += gap;
+                seen++;
+                while (j < n && docs[j] < doc) j++;
+                if (j < n && docs[j] == doc) docs[kept++] = docs[j++];
+            }
+            return kept;
+        }
+    }
+}
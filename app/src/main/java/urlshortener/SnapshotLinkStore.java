@@ -0,0 +1,255 @@
+package urlshortener;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * {@link LinkStore} layered over a memory-mapped {@link LinkSnapshot}.
+ *
+ * Links from the snapshot are read straight from the mapped file; links made
+ * since it was written live in a delta store ({@link CompactLinkStore} or
+ * {@link ConcurrentLinkStore}, per --store), and snapshot codes
+ * deleted since are remembered as tombstones. Lookups check the delta,
+ * then the tombstones, then the snapshot, so the store is usable as soon as
+ * the snapshot is mapped.
+ *
+ * Snapshot codes never appear in the delta unless they were deleted first,
+ * which keeps the {@link LinkStore} reverse-lookup invariant across layers.
+ *
+ * When compaction has written a newer snapshot, {@link #rebase} moves the
+ * store onto it: the delta and the tombstones start over with only what the
+ * new snapshot does not have yet, roughly the journal written since it was
+ * cut. The delta of a {@link CompactLinkStore} never shrinks on its own, so
+ * this is what keeps churn (expiry above all) from growing the store.
+ * Lookups do not wait for a rebase; changes wait only for its last step.
+ */
+public class SnapshotLinkStore implements LinkStore {
+
+    private static final int STRIPES = 256; // power of two
+
+    /**
+     * A snapshot and the changes over it. A rebase replaces all three at
+     * once, so anything reading them in turn takes them from one of these.
+     */
+    public static final class Layers {
+        private final LinkSnapshot base;
+        private final LinkStore delta;
+        private final Set<String> deleted = ConcurrentHashMap.newKeySet();
+
+        Layers(LinkSnapshot base, LinkStore delta) {
+            this.base = base;
+            this.delta = delta;
+        }
+
+        /** The mapped snapshot. */
+        public LinkSnapshot base() {
+            return base;
+        }
+
+        /** Snapshot codes deleted since it was written (some may have been made again). */
+        public Set<String> deletedFromBase() {
+            return Collections.unmodifiableSet(deleted);
+        }
+
+        /** Links that are not in the snapshot: replayed from the journal or made since. */
+        public void forEachAdded(Consumer<Link> action) {
+            delta.forEach(action);
+        }
+
+        LinkStore delta() {
+            return delta;
+        }
+
+        private Link link(String code) {
+            Link l = delta.link(code);
+            if (l != null || deleted.contains(code)) return l;
+            return base.link(code);
+        }
+
+        private boolean liveInBase(String code) {
+            return !deleted.contains(code) && base.indexOf(code) >= 0;
+        }
+    }
+
+    private volatile Layers layers;
+    private volatile Set<String> touched; // codes changed while a rebase reads the layers, else null
+    private final Object[] locks = new Object[STRIPES];
+    private final LongAdder retries = new LongAdder();   // of deltas rebased away; the current one counts its own
+    private final AtomicLong removals = new AtomicLong();
+
+    public SnapshotLinkStore(LinkSnapshot base) {
+        this(base, new ConcurrentLinkStore());
+    }
+
+    /** @param delta empty store for the links that are not in the snapshot */
+    public SnapshotLinkStore(LinkSnapshot base, LinkStore delta) {
+        this.layers = new Layers(base, delta);
+        for (int i = 0; i < STRIPES; i++) locks[i] = new Object();
+    }
+
+    private Object lockFor(String url) {
+        int h = url.hashCode();
+        return locks[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /** Notes a change for a running rebase; called under the code's stripe lock. */
+    private void touch(String code) {
+        Set<String> t = touched;
+        if (t != null) t.add(code);
+    }
+
+    @Override public String get(String code) {
+        Layers l = layers;
+        String url = l.delta.get(code);
+        if (url != null || l.deleted.contains(code)) return url;
+        return l.base.get(code);
+    }
+
+    @Override public Link link(String code) {
+        return layers.link(code);
+    }
+
+    @Override public String codeFor(String url) {
+        Layers l = layers;
+        String code = l.delta.codeFor(url);
+        if (code != null) return code;
+        return l.base.codeFor(url, l.deleted);
+    }
+
+    @Override public String put(Link link) {
+        synchronized (lockFor(link.url)) {
+            Layers l = layers;
+            if (l.liveInBase(link.code)) {
+                String existing = l.base.get(link.code);
+                return existing.equals(link.url) ? null : existing;
+            }
+            String existing = l.delta.put(link);
+            touch(link.code);
+            return existing;
+        }
+    }
+
+    @Override public String shorten(String url, String created, boolean temporary, Supplier<String> newCode) {
+        synchronized (lockFor(url)) {
+            Layers l = layers;
+            String existing = codeFor(url);
+            if (existing != null) return existing;
+            String code = l.delta.shorten(url, created, temporary, () -> {
+                String c = newCode.get();
+                while (l.liveInBase(c)) {
+                    retries.increment();
+                    c = newCode.get();
+                }
+                return c;
+            });
+            touch(code);
+            return code;
+        }
+    }
+
+    @Override public boolean remove(String code) {
+        String url = get(code);
+        if (url == null) return false;
+        synchronized (lockFor(url)) {
+            Layers l = layers;
+            if (!l.delta.remove(code) && (l.base.indexOf(code) < 0 || !l.deleted.add(code))) return false;
+            touch(code);
+            removals.incrementAndGet();
+            return true;
+        }
+    }
+
+    @Override public int size() {
+        Layers l = layers;
+        return l.base.size() - l.deleted.size() + l.delta.size();
+    }
+
+    @Override public long codeRetries() {
+        return retries.sum() + layers.delta.codeRetries();
+    }
+
+    @Override public long removals() {
+        return removals.get();
+    }
+
+    /** The snapshot under this store and the changes over it, as of now. */
+    public Layers layers() {
+        return layers;
+    }
+
+    /**
+     * Moves the store onto {@code newer}, a snapshot written from the journal
+     * of this store's changes (so it has none that the store does not), with
+     * {@code delta} (empty) for whatever it lacks. The old snapshot is not
+     * closed: lookups that started on it may still be reading it, and the
+     * mapping goes when the last of them lets go of it.
+     */
+    public void rebase(LinkSnapshot newer, LinkStore delta) {
+        Set<String> changed = ConcurrentHashMap.newKeySet();
+        allLocked(0, () -> touched = changed);
+        Layers old = layers, next = new Layers(newer, delta);
+
+        // Walk both snapshots, sorted by code, and carry over what the newer one lacks.
+        LinkSnapshot was = old.base;
+        for (int i = 0, j = 0, n = newer.size(), m = was.size(); i < n; i++) {
+            String code = newer.code(i);
+            while (j < m && was.code(j).compareTo(code) < 0) j++;
+            if (j < m && !old.deleted.contains(code) && was.code(j).equals(code)) {
+                if (was.url(j).equals(newer.url(i)) && was.temporary(j) == newer.temporary(i)) continue;
+                carry(next, code, was.link(j));
+            } else {
+                carry(next, code, old.delta.link(code));
+            }
+        }
+        old.delta.forEach(l -> {
+            if (newer.indexOf(l.code) < 0) next.delta.put(l);
+        });
+
+        // Changes made meanwhile may have been read half done; take those codes again.
+        allLocked(0, () -> {
+            for (String code : changed) {
+                next.delta.remove(code);
+                next.deleted.remove(code);
+                carry(next, code, old.link(code));
+            }
+            retries.add(old.delta.codeRetries());
+            layers = next;
+            touched = null;
+        });
+    }
+
+    /** Puts {@code code} in {@code next} as {@code now} (null: deleted), over whatever its base has. */
+    private static void carry(Layers next, String code, Link now) {
+        int i = next.base.indexOf(code);
+        if (i >= 0) {
+            if (now != null && now.url.equals(next.base.url(i)) && now.temporary == next.base.temporary(i)) return;
+            next.deleted.add(code);
+        }
+        if (now != null) next.delta.put(now);
+    }
+
+    /** Runs {@code r} holding every stripe lock, taken in order. */
+    private void allLocked(int i, Runnable r) {
+        if (i == STRIPES) {
+            r.run();
+            return;
+        }
+        synchronized (locks[i]) {
+            allLocked(i + 1, r);
+        }
+    }
+
+    @Override public void forEach(Consumer<Link> action) {
+        Layers l = layers;
+        for (int i = 0, n = l.base.size(); i < n; i++) {
+            Link link = l.base.link(i);
+            if (!l.deleted.contains(link.code)) action.accept(link);
+        }
+        l.delta.forEach(action);
+    }
+}
@@ -0,0 +1,345 @@
+package urlshortener;
+
+import java.net.IDN;
+
+/**
+ * Validates a URL typed or imported by a user and puts it in canonical form,
+ * so that equivalent spellings get the same code. One pass over the input
+ * into one StringBuilder; an input that is already canonical is returned
+ * as is.
+ *
+ * Rules, applied in order:
+ * <ol>
+ * <li>Leading and trailing whitespace is trimmed. Without a "scheme://",
+ *     "http://" is assumed ("//host" also gets "http:"). Only http, https
+ *     and ftp are accepted. The scheme is lowercased.</li>
+ * <li>User info is kept, percent-encoding normalized as below.</li>
+ * <li>The host is lowercased. A host with non-ASCII characters is converted
+ *     to its ASCII (punycode) form with {@link IDN#toASCII(String)}. A host
+ *     is dot-separated labels of 1-63 letters, digits, '_' and '-' (not
+ *     first or last), 253 chars in all; one trailing dot is dropped. An
+ *     IPv6 literal in brackets is kept, lowercased.</li>
+ * <li>The port is dropped when empty or the scheme's default (80, 443, 21),
+ *     otherwise written without leading zeros; it must be 0-65535.</li>
+ * <li>An empty path becomes "/". "." and ".." segments are removed as in
+ *     RFC 3986 section 5.2.4, after percent-decoding, so "%2E" counts as a
+ *     dot. ".." never climbs above the root.</li>
+ * <li>Percent-encoding, everywhere after the host: escapes of unreserved
+ *     characters (letters, digits, "-._~") are decoded, the others are
+ *     written with uppercase hex. Characters not allowed in the component
+ *     (space, non-ASCII as UTF-8, {@code "<>\^`{|}[]}) are encoded. A '%'
+ *     not followed by two hex digits, a control character or a lone
+ *     surrogate makes the URL invalid.</li>
+ * <li>Query parameter order is kept. An empty query or fragment is dropped
+ *     together with its '?' or '#'. With {@code stripTracking}, parameters
+ *     named utm_* or one of {@link #TRACKING} are dropped.</li>
+ * </ol>
+ */
+public final class UrlNormalizer {
+
+    /** Click-tracking parameters dropped with stripTracking, besides utm_*. */
+    static final String[] TRACKING = {
+            "fbclid", "gclid", "dclid", "gbraid", "wbraid", "msclkid", "yclid", "twclid",
+            "igshid", "mc_cid", "mc_eid", "_ga", "_gl", "_hsenc", "_hsmi", "mkt_tok"};
+
+    private static final int UNRESERVED = 1, SUB_DELIM = 2, PCHAR_EXTRA = 4, QUERY_EXTRA = 8;
+    private static final int USERINFO = UNRESERVED | SUB_DELIM;     // plus ':'
+    private static final int PATH = UNRESERVED | SUB_DELIM | PCHAR_EXTRA;
+    private static final int QUERY = PATH | QUERY_EXTRA;
+    private static final byte[] CLASS = new byte[128];
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    static {
+        for (int c = 'a'; c <= 'z'; c++) CLASS[c] = UNRESERVED;
+        for (int c = 'A'; c <= 'Z'; c++) CLASS[c] = UNRESERVED;
+        for (int c = '0'; c <= '9'; c++) CLASS[c] = UNRESERVED;
+        for (char c : "-._~".toCharArray()) CLASS[c] = UNRESERVED;
+        for (char c : "!$&'()*+,;=".toCharArray()) CLASS[c] = SUB_DELIM;
+        CLASS[':'] = PCHAR_EXTRA;
+        CLASS['@'] = PCHAR_EXTRA;
+        CLASS['/'] = QUERY_EXTRA;
+        CLASS['?'] = QUERY_EXTRA;
+    }
+
+    private final boolean stripTracking;
+
+    public UrlNormalizer(boolean stripTracking) {
+        this.stripTracking = stripTracking;
+    }
+
+    /** Canonical form of {@code input}, or null if it is not a usable URL. */
+    public String normalize(String input) {
+        int i = 0, end = input.length();
+        while (i < end && input.charAt(i) <= ' ') i++;
+        while (end > i && input.charAt(end - 1) <= ' ') end--;
+        if (i == end) return null;
+        StringBuilder out = new StringBuilder(end - i + 16);
+
+        // Scheme
+        int defaultPort = 80;
+        int colon = schemeEnd(input, i, end);
+        if (colon < 0) {
+            if (input.startsWith("//", i)) i += 2;
+            out.append("http://");
+        } else {
+            int n = colon - i;
+            if (n == 4 && input.regionMatches(true, i, "http", 0, 4)) out.append("http://");
+            else if (n == 5 && input.regionMatches(true, i, "https", 0, 5)) out.append("https://");
+            else if (n == 3 && input.regionMatches(true, i, "ftp", 0, 3)) out.append("ftp://");
+            else return null;
+            defaultPort = n == 5 ? 443 : n == 3 ? 21 : 80;
+            i = colon + 3;
+        }
+
+        // Authority: [userinfo@]host[:port]
+        int authEnd = i;
+        while (authEnd < end && "/?#".indexOf(input.charAt(authEnd)) < 0) authEnd++;
+        int at = input.lastIndexOf('@', authEnd - 1);
+        if (at >= i) {
+            for (int k = i; k < at; ) {
+                char c = input.charAt(k);
+                if (c == ':') {
+                    out.append(c);
+                    k++;
+                } else if ((k = append(out, input, k, at, USERINFO)) < 0) {
+                    return null;
+                }
+            }
+            out.append('@');
+            i = at + 1;
+        }
+        int hostEnd;
+        if (i < authEnd && input.charAt(i) == '[') {
+            hostEnd = input.indexOf(']', i);
+            if (hostEnd < 0 || hostEnd >= authEnd || hostEnd == i + 1) return null;
+            out.append('[');
+            for (int k = i + 1; k < hostEnd; k++) {
+                char c = lower(input.charAt(k));
+                if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c == ':' || c == '.')) return null;
+                out.append(c);
+            }
+            out.append(']');
+            hostEnd++;
+            if (hostEnd < authEnd && input.charAt(hostEnd) != ':') return null;
+        } else {
+            hostEnd = input.lastIndexOf(':', authEnd - 1);
+            if (hostEnd < i) hostEnd = authEnd;
+            if (!appendHost(out, input, i, hostEnd)) return null;
+        }
+        if (hostEnd < authEnd) { // ':' port
+            int p = hostEnd + 1, port = 0;
+            if (p == authEnd) port = -1;
+            for (; p < authEnd; p++) {
+                char c = input.charAt(p);
+                if (c < '0' || c > '9' || (port = port * 10 + (c - '0')) > 65535) return null;
+            }
+            if (port >= 0 && port != defaultPort) out.append(':').append(port);
+        }
+        i = authEnd;
+
+        // Path, removing dot segments as each one ends
+        int pathStart = out.length();
+        out.append('/');
+        if (i < end && input.charAt(i) == '/') i++;
+        int segment = out.length();
+        boolean dropSlash = false; // the separator after a removed dot segment
+        while (true) {
+            char c = i < end ? input.charAt(i) : '?';
+            if (c == '/' || c == '?' || c == '#') {
+                int n = out.length() - segment;
+                if (n == 1 && out.charAt(segment) == '.') {
+                    out.setLength(segment);
+                    dropSlash = true;
+                } else if (n == 2 && out.charAt(segment) == '.' && out.charAt(segment + 1) == '.') {
+                    int prev = out.lastIndexOf("/", segment - 2);
+                    out.setLength(prev < pathStart ? pathStart + 1 : prev + 1);
+                    dropSlash = true;
+                } else {
+                    dropSlash = false;
+                }
+                if (c == '?' || c == '#') break;
+                i++;
+                if (!dropSlash) out.append('/');
+                segment = out.length();
+                continue;
+            }
+            if (c < 0x80 && (CLASS[c] & PATH) != 0) {
+                out.append(c);
+                i++;
+            } else if ((i = append(out, input, i, end, PATH)) < 0) {
+                return null;
+            }
+        }
+
+        // Query
+        if (i < end && input.charAt(i) == '?') {
+            i++;
+            out.append('?');
+            int query = out.length();
+            boolean first = true;
+            while (true) {
+                int param = out.length();
+                if (!first) out.append('&');
+                int name = out.length(), eq = -1;
+                for (char c; i < end && (c = input.charAt(i)) != '&' && c != '#'; ) {
+                    if (c == '=' && eq < 0) eq = out.length();
+                    if (c < 0x80 && (CLASS[c] & QUERY) != 0) {
+                        out.append(c);
+                        i++;
+                    } else if ((i = append(out, input, i, end, QUERY)) < 0) {
+                        return null;
+                    }
+                }
+                if (stripTracking && isTracking(out, name, eq < 0 ? out.length() : eq)) {
+                    out.setLength(param);
+                } else {
+                    first = false;
+                }
+                if (i < end && input.charAt(i) == '&') {
+                    i++;
+                } else {
+                    break;
+                }
+            }
+            if (out.length() == query) out.setLength(query - 1);
+        }
+
+        // Fragment
+        if (i < end && input.charAt(i) == '#') {
+            i++;
+            if (i < end) {
+                out.append('#');
+                while (i < end) {
+                    if ((i = append(out, input, i, end, QUERY)) < 0) return null;
+                }
+            }
+        }
+        return input.length() == out.length() && input.contentEquals(out) ? input : out.toString();
+    }
+
+    /** Index of the ':' of a leading "scheme://", or -1. */
+    private static int schemeEnd(String s, int from, int end) {
+        if (from >= end || !isAlpha(s.charAt(from))) return -1;
+        for (int k = from + 1; k < end; k++) {
+            char c = s.charAt(k);
+            if (c == ':') return s.startsWith("//", k + 1) ? k : -1;
+            if (!(isAlpha(c) || c >= '0' && c <= '9' || c == '+' || c == '-' || c == '.')) return -1;
+        }
+        return -1;
+    }
+
+    /** Appends the lowercased ASCII host of s[from, to), converting IDNs; false if it is not a valid host. */
+    private static boolean appendHost(StringBuilder out, String s, int from, int to) {
+        if (to > from && s.charAt(to - 1) == '.') to--;
+        if (from == to) return false;
+        int start = out.length(), label = 0;
+        for (int k = from; k < to; k++) {
+            char c = s.charAt(k);
+            if (c >= 0x80) {
+                out.setLength(start);
+                String ascii;
+                try {
+                    ascii = IDN.toASCII(s.substring(from, to));
+                } catch (IllegalArgumentException e) {
+                    return false;
+                }
+                for (int j = 0; j < ascii.length(); j++) {
+                    if (ascii.charAt(j) >= 0x80) return false;
+                }
+                return appendHost(out, ascii, 0, ascii.length());
+            }
+            if (c == '.') {
+                if (label == 0 || s.charAt(k - 1) == '-') return false;
+                label = 0;
+            } else if (isAlpha(c) || c >= '0' && c <= '9' || c == '_' || c == '-' && label > 0) {
+                if (++label > 63) return false;
+            } else {
+                return false;
+            }
+            out.append(lower(c));
+        }
+        return label > 0 && s.charAt(to - 1) != '-' && out.length() - start <= 253;
+    }
+
+    /**
+     * Appends the character (or escape) at s[i] to out, normalized for a
+     * component whose allowed characters are {@code allowed}; returns the
+     * index after it, or -1 if it is invalid.
+     */
+    private static int append(StringBuilder out, String s, int i, int end, int allowed) {
+        char c = s.charAt(i);
+        if (c == '%') {
+            if (i + 2 >= end) return -1;
+            int hi = hex(s.charAt(i + 1)), lo = hex(s.charAt(i + 2));
+            if ((hi | lo) < 0) return -1;
+            int v = hi << 4 | lo;
+            if (v < 0x80 && CLASS[v] == UNRESERVED) out.append((char) v);
+            else out.append('%').append(HEX[hi]).append(HEX[lo]);
+            return i + 3;
+        }
+        if (c < 0x80) {
+            if ((CLASS[c] & allowed) != 0) {
+                out.append(c);
+            } else if (c >= ' ' && c < 0x7F) {
+                escape(out, c);
+            } else {
+                return -1;
+            }
+            return i + 1;
+        }
+        int cp = c;
+        if (Character.isHighSurrogate(c)) {
+            if (i + 1 >= end || !Character.isLowSurrogate(s.charAt(i + 1))) return -1;
+            cp = Character.toCodePoint(c, s.charAt(++i));
+        } else if (Character.isLowSurrogate(c)) {
+            return -1;
+        }
+        if (cp < 0x800) {
+            escape(out, 0xC0 | cp >> 6);
+        } else {
+            if (cp < 0x10000) {
+                escape(out, 0xE0 | cp >> 12);
+            } else {
+                escape(out, 0xF0 | cp >> 18);
+                escape(out, 0x80 | cp >> 12 & 0x3F);
+            }
+            escape(out, 0x80 | cp >> 6 & 0x3F);
+        }
+        escape(out, 0x80 | cp & 0x3F);
+        return i + 1;
+    }
+
+    private boolean isTracking(StringBuilder out, int from, int to) {
+        int n = to - from;
+        if (n > 4 && out.charAt(from) == 'u' && out.charAt(from + 1) == 't' && out.charAt(from + 2) == 'm'
+                && out.charAt(from + 3) == '_') return true;
+        outer:
+        for (String t : TRACKING) {
+            if (t.length() != n) continue;
+            for (int k = 0; k < n; k++) {
+                if (out.charAt(from + k) != t.charAt(k)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static void escape(StringBuilder out, int b) {
+        out.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') return c - '0';
+        if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+        if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+        return -1;
+    }
+
+    private static boolean isAlpha(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+    }
+
+    private static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + 32) : c;
+    }
+}
@@ -0,0 +1,706 @@
+package urlshortener;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.datatransfer.StringSelection;
+import java.awt.event.*;
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * URL Shortener Swing App with a tiny embedded HTTP redirect server.
+ * Short links look like: http://localhost:8080/<code>
+ *
+ * Build:   mvn package
+ * Run:     java -jar app/target/url-shortener.jar [--port=8080] [--executor=single|fixed|steal|virtual]
+ *              [--server=jdk|nio] [--api-port=N] [--threads=N] [--backlog=N] [--sync-ms=N] [--compact-mb=N] [--codes=block|sequential]
+ *
+ * Links are kept in a memory-mapped snapshot (urls-N.snap) plus an append-only
+ * journal (urls.journal.N), see LinkJournal. An existing urls.csv is imported
+ * on first start;  java -jar url-shortener.jar --export-csv=FILE  writes one back.
+ *
+ * Export (see LinkExporter): the Export button streams every link to CSV or
+ * NDJSON, gzipped if the file name ends in .gz, on a background thread;
+ * GET /api/export?format=csv|ndjson streams the same as a chunked response.
+ *
+ * Bulk import (see BulkImporter): POST CSV or NDJSON to /api/shorten, use the
+ * Import button, or run  java -jar url-shortener.jar --import=FILE  (results on stdout).
+ *
+ * Click analytics (see ClickTracker): GET /api/stats for the most clicked
+ * codes, /api/stats/<code> for one link. Off with --analytics=off.
+ *
+ * Server, store and persistence metrics: GET /metrics (Prometheus text format),
+ * summarized live in the status bar.
+ *
+ * Search (see SearchIndex): the search box and GET /api/search?q=&offset=&limit=
+ * both use a trigram index over codes and URLs.
+ *
+ * Load test (see LoadGenerator):  java -jar url-shortener.jar --loadgen [--load-...]
+ * serves synthetic links with the given server options and reports throughput and latency.
+ *
+ * Expiry (see LinkExpiry): a link may get a time to live and/or a click budget
+ * from the form or from /api/expiry/<code>; expired links are deleted.
+ *
+ * Replication (see ReplicationLeader and Follower): with --replicate-port the
+ * journal is shipped to read-only followers, started headless with
+ * java -jar url-shortener.jar --follow=HOST:PORT; GET /api/replication shows lag.
+ *
+ * Headless (see LinkService): with --headless, or when there is no display,
+ * the server runs without this window. Either way the server starts first
+ * and the links load in the background; codes resolve as soon as they can.
+ *
+ * Requires: Java 8+
+ */
+public class UrlShortenerApp extends JFrame {
+
+    // --- Service ---
+    private final LinkService service; // store, journal, server and API; this is only its front end
+    private final LinkStore store;     // == service.store
+    private final SearchIndex search;
+
+    // --- UI ---
+    private JTextField urlField;
+    private JTextField aliasField;
+    private JCheckBox temporaryBox;
+    private JTextField ttlField;
+    private JTextField maxClicksField;
+    private JTextField shortField;
+    private JTextField searchField;
+    private JLabel statusLabel;
+    private JLabel metricsLabel;
+    private JProgressBar exportProgress;
+    private JButton exportCancel;
+    private volatile LinkExporter exporter; // the UI export running, or null
+    private JTable table;
+    private LinkTableModel model;
+
+    // Search box: typing restarts the debounce timer; queries run on one background thread.
+    // Index updates from the window go through the same thread, so they stay in order with
+    // queries and an occasional purge of removed links (SearchIndex) never stalls the EDT.
+    private javax.swing.Timer searchDebounce;
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "search");
+        t.setDaemon(true);
+        return t;
+    });
+    private Future<?> searchTask;
+    private String searchQuery = "";
+    // Waits for new links to be durable (journal fsync, --replicate-acks) before they are shown as saved.
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(AppConfig.daemonFactory("ui-save-"));
+
+    // --- Server / Config ---
+    private final AppConfig config;
+    private final UrlNormalizer normalizer;
+
+    public UrlShortenerApp(LinkService service) {
+        super("URL Shortener (Swing + Local Redirect Server)");
+        this.service = service;
+        this.config = service.config;
+        this.normalizer = service.normalizer;
+        this.store = service.store;
+        this.search = service.search;
+        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        setMinimumSize(new Dimension(980, 560));
+        setLocationRelativeTo(null);
+        buildUI();
+        attachHandlers();
+        service.attach(new LinkService.Listener() {
+            @Override public void message(String msg) {
+                SwingUtilities.invokeLater(() -> toast(msg));
+            }
+
+            @Override public void added(List<Link> links) {
+                SwingUtilities.invokeLater(() -> {
+                    List<String> added = new ArrayList<>(links.size());
+                    for (Link l : links) added.add(l.code);
+                    model.addAll(added);
+                    if (model.isFiltered()) searchDebounce.restart();
+                });
+            }
+
+            @Override public void removed(List<String> codes) {
+                SwingUtilities.invokeLater(() -> model.removeAll(codes));
+            }
+
+            @Override public void rebased() {
+                SwingUtilities.invokeLater(() -> {
+                    boolean filtered = model.isFiltered();
+                    fillTable();
+                    if (filtered) searchDebounce.restart();
+                });
+            }
+
+            @Override public void loaded() {
+                SwingUtilities.invokeLater(() -> {
+                    fillTable();
+                    toast(String.format("Loaded %,d links.", store.size()));
+                });
+            }
+        });
+        addWindowListener(new WindowAdapter() {
+            @Override public void windowClosing(WindowEvent e) {
+                service.close();
+            }
+        });
+        setVisible(true);
+    }
+
+    private void buildUI() {
+        JPanel root = new JPanel(new BorderLayout(12, 12));
+        root.setBorder(new EmptyBorder(12, 12, 12, 12));
+
+        // Top Form Panel
+        JPanel form = new JPanel();
+        form.setLayout(new GridBagLayout());
+        GridBagConstraints gc = new GridBagConstraints();
+        gc.insets = new Insets(6, 6, 6, 6);
+        gc.gridx = 0; gc.gridy = 0; gc.anchor = GridBagConstraints.LINE_END;
+        form.add(new JLabel("Long URL:"), gc);
+        gc.gridx = 1; gc.gridy = 0; gc.weightx = 1; gc.fill = GridBagConstraints.HORIZONTAL;
+        urlField = new JTextField();
+        form.add(urlField, gc);
+
+        gc.gridx = 0; gc.gridy = 1; gc.weightx = 0; gc.fill = GridBagConstraints.NONE; gc.anchor = GridBagConstraints.LINE_END;
+        form.add(new JLabel("Custom alias (optional):"), gc);
+        gc.gridx = 1; gc.gridy = 1; gc.weightx = 1; gc.fill = GridBagConstraints.HORIZONTAL;
+        aliasField = new JTextField();
+        form.add(aliasField, gc);
+
+        gc.gridx = 0; gc.gridy = 2; gc.weightx = 0; gc.fill = GridBagConstraints.NONE; gc.anchor = GridBagConstraints.LINE_END;
+        form.add(new JLabel("Expires after (optional):"), gc);
+        JPanel expiryRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        ttlField = new JTextField(6);
+        ttlField.setToolTipText("Time to live: seconds, or a number with s, m, h or d (e.g. 7d)");
+        maxClicksField = new JTextField(6);
+        maxClicksField.setToolTipText("Delete the link after this many redirects");
+        expiryRow.add(ttlField);
+        expiryRow.add(new JLabel("or after clicks:"));
+        expiryRow.add(maxClicksField);
+        gc.gridx = 1; gc.gridy = 2; gc.weightx = 1; gc.fill = GridBagConstraints.NONE; gc.anchor = GridBagConstraints.LINE_START;
+        form.add(expiryRow, gc);
+
+        JPanel buttonsRow = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        JButton shortenBtn = new JButton("Shorten");
+        JButton copyBtn = new JButton("Copy");
+        JButton openBtn = new JButton("Open");
+        JButton clearBtn = new JButton("Clear");
+        buttonsRow.add(shortenBtn);
+        buttonsRow.add(copyBtn);
+        buttonsRow.add(openBtn);
+        buttonsRow.add(clearBtn);
+        temporaryBox = new JCheckBox("Temporary (302)");
+        temporaryBox.setToolTipText("Redirect with 302 so browsers re-check every visit (and every click is counted)");
+        buttonsRow.add(temporaryBox);
+
+        gc.gridx = 0; gc.gridy = 3; gc.anchor = GridBagConstraints.LINE_END; gc.fill = GridBagConstraints.NONE; gc.weightx = 0;
+        form.add(new JLabel("Short URL:"), gc);
+        gc.gridx = 1; gc.gridy = 3; gc.fill = GridBagConstraints.HORIZONTAL; gc.weightx = 1;
+        shortField = new JTextField();
+        shortField.setEditable(false);
+        form.add(shortField, gc);
+
+        gc.gridx = 1; gc.gridy = 4; gc.fill = GridBagConstraints.NONE; gc.anchor = GridBagConstraints.LINE_START; gc.weightx = 0;
+        form.add(buttonsRow, gc);
+
+        // Middle: Table + Toolbar
+        JPanel mid = new JPanel(new BorderLayout(8, 8));
+        JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.LEFT, 8, 0));
+        JButton deleteBtn = new JButton("Delete");
+        JButton importBtn = new JButton("Import...");
+        JButton exportBtn = new JButton("Export...");
+        JButton pickPortBtn = new JButton("Change Port");
+        toolbar.add(new JLabel("Search:"));
+        searchField = new JTextField(24);
+        toolbar.add(searchField);
+        toolbar.add(deleteBtn);
+        toolbar.add(importBtn);
+        toolbar.add(exportBtn);
+        toolbar.add(pickPortBtn);
+
+        model = new LinkTableModel(this::baseUrl, service.clicks);
+        table = new JTable(model);
+        table.setRowHeight(24);
+        table.setAutoCreateRowSorter(true);
+        new javax.swing.Timer(1000, e -> refreshLive()).start();
+
+        mid.add(toolbar, BorderLayout.NORTH);
+        mid.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        // Bottom: Status
+        statusLabel = new JLabel(" Loading links... Server: " + baseUrl() + "/{code} (" + config + ")");
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.setBorder(new EmptyBorder(4, 8, 4, 8));
+        statusPanel.add(statusLabel, BorderLayout.WEST);
+        JPanel exportRow = new JPanel(new FlowLayout(FlowLayout.CENTER, 6, 0));
+        exportProgress = new JProgressBar();
+        exportProgress.setStringPainted(true);
+        exportCancel = new JButton("Cancel");
+        exportRow.add(exportProgress);
+        exportRow.add(exportCancel);
+        exportProgress.setVisible(false);
+        exportCancel.setVisible(false);
+        statusPanel.add(exportRow, BorderLayout.CENTER);
+        metricsLabel = new JLabel();
+        metricsLabel.setForeground(Color.GRAY);
+        statusPanel.add(metricsLabel, BorderLayout.EAST);
+
+        root.add(form, BorderLayout.NORTH);
+        root.add(mid, BorderLayout.CENTER);
+        root.add(statusPanel, BorderLayout.SOUTH);
+
+        setContentPane(root);
+
+        // Actions
+        shortenBtn.addActionListener(e -> onShorten());
+        copyBtn.addActionListener(e -> onCopy());
+        openBtn.addActionListener(e -> onOpen());
+        clearBtn.addActionListener(e -> {
+            urlField.setText(""); aliasField.setText(""); ttlField.setText(""); maxClicksField.setText(""); shortField.setText("");
+            urlField.requestFocus();
+        });
+        deleteBtn.addActionListener(e -> onDelete());
+        importBtn.addActionListener(e -> onImport());
+        exportBtn.addActionListener(e -> onExport());
+        exportCancel.addActionListener(e -> {
+            LinkExporter x = exporter;
+            if (x != null) x.cancel();
+        });
+        pickPortBtn.addActionListener(e -> onChangePort());
+    }
+
+    private void attachHandlers() {
+        // Press Enter to shorten
+        urlField.addActionListener(e -> onShorten());
+        aliasField.addActionListener(e -> onShorten());
+
+        // Search filter, once typing pauses
+        searchDebounce = new javax.swing.Timer(150, e -> runSearch());
+        searchDebounce.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { searchDebounce.restart(); }
+            public void removeUpdate(DocumentEvent e) { searchDebounce.restart(); }
+            public void changedUpdate(DocumentEvent e) { searchDebounce.restart(); }
+        });
+
+        // Double click a row -> put short link into field
+        table.addMouseListener(new MouseAdapter() {
+            @Override public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    int row = table.getSelectedRow();
+                    if (row >= 0) {
+                        int modelRow = table.convertRowIndexToModel(row);
+                        String shortUrl = (String) model.getValueAt(modelRow, 1);
+                        shortField.setText(shortUrl);
+                    }
+                }
+            }
+        });
+    }
+
+    private void onShorten() {
+        String longUrl = urlField.getText().trim();
+        String alias = aliasField.getText().trim();
+        boolean temporary = temporaryBox.isSelected();
+
+        if (longUrl.isEmpty()) {
+            toast("Please enter a URL.");
+            return;
+        }
+        if (!service.isLoaded()) {
+            toast("Still loading links, try again in a moment.");
+            return;
+        }
+        if (service.codes == null) {
+            toast("Cannot create links: the code allocator state did not open.");
+            return;
+        }
+        String normalized = normalizer.normalize(longUrl);
+        if (normalized == null) {
+            toast("Invalid URL. Include http:// or https://");
+            return;
+        }
+        String ttlText = ttlField.getText().trim(), maxText = maxClicksField.getText().trim();
+        long ttl = ttlText.isEmpty() ? 0 : LinkExpiry.parseTtl(ttlText);
+        long maxClicks = maxText.isEmpty() ? LinkExpiry.UNLIMITED : LinkService.parseCount(maxText);
+        if (ttl < 0 || (!maxText.isEmpty() && maxClicks <= 0)) {
+            toast(ttl < 0 ? "Expiry must be like 90, 15m, 12h or 7d." : "Max clicks must be a positive number.");
+            return;
+        }
+
+        try {
+            String code;
+            String now = LinkService.timeStamp();
+            boolean created = true;
+            boolean expiring = ttl > 0 || maxClicks > 0;
+            LinkJournal journal = service.journal;
+            long seq = 0;
+            // under the URL's lock, so the record that made an existing link is already appended
+            synchronized (journal != null ? journal.createLock(normalized) : this) {
+                if (!alias.isEmpty()) {
+                    if (!LinkService.ALIAS.matcher(alias).matches()) {
+                        toast("Alias must be 3–32 chars: letters, numbers, _ or -");
+                        return;
+                    }
+                    boolean had = normalized.equals(store.get(alias));
+                    // an expiry only goes on a new alias, never on one that is already handed out
+                    if ((had && expiring) || store.put(new Link(alias, normalized, now, temporary)) != null) {
+                        toast("Alias already in use.");
+                        return;
+                    }
+                    code = alias;
+                    created = !had;
+                } else {
+                    // Reuse existing code for same URL if present, unless either link has an expiry
+                    String existing = store.codeFor(normalized);
+                    code = service.expiry.shorten(store, normalized, now, temporary, expiring, service.codes::next);
+                    created = !code.equals(existing);
+                }
+                if (journal != null) {
+                    // an existing link is shown once its record is saved too, as for a new one
+                    seq = created ? journal.appendCreate(new Link(code, normalized, now, temporary)) : journal.appendedSeq();
+                }
+            }
+            if (created) searchExecutor.execute(() -> search.add(code, normalized));
+            if (expiring) {
+                seq = service.expiry.set(code, ttl > 0 ? System.currentTimeMillis() + ttl : LinkExpiry.NEVER, maxClicks);
+            }
+            model.add(code);
+            if (model.isFiltered()) searchDebounce.restart();
+            String shortUrl = baseUrl() + "/" + code;
+            if (seq == 0) {
+                saved(shortUrl, null);
+                return;
+            }
+            // Off the EDT: the fsync, and with --replicate-acks the followers, can take a while.
+            long durable = seq;
+            toast("Saving...");
+            saveExecutor.execute(() -> {
+                String error = null;
+                try {
+                    journal.awaitDurable(durable);
+                } catch (IOException ex) {
+                    error = ex.getMessage();
+                }
+                String e = error;
+                SwingUtilities.invokeLater(() -> saved(shortUrl, e));
+            });
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            toast("Error: " + ex.getMessage());
+        }
+    }
+
+    /** Shows a created link once it is durable, or why it may not be. */
+    private void saved(String shortUrl, String error) {
+        if (error != null) {
+            toast("Not saved: " + error);
+            return;
+        }
+        shortField.setText(shortUrl);
+        toast("Short link ready.");
+    }
+
+    private void onCopy() {
+        String text = shortField.getText().trim();
+        if (text.isEmpty()) { toast("Nothing to copy."); return; }
+        Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new StringSelection(text), null);
+        toast("Copied to clipboard.");
+    }
+
+    private void onOpen() {
+        String text = shortField.getText().trim();
+        if (text.isEmpty()) { toast("Nothing to open."); return; }
+        try {
+            Desktop.getDesktop().browse(new URI(text));
+        } catch (Exception ex) {
+            toast("Cannot open link: " + ex.getMessage());
+        }
+    }
+
+    private void onDelete() {
+        int[] rows = table.getSelectedRows();
+        if (rows.length == 0) { toast("Select row(s) to delete."); return; }
+        int confirm = JOptionPane.showConfirmDialog(this, "Delete selected short links?", "Confirm", JOptionPane.YES_NO_OPTION);
+        if (confirm != JOptionPane.YES_OPTION) return;
+
+        // Collect codes first, the rows shift once they are removed
+        List<String> codes = new ArrayList<>();
+        for (int r : rows) codes.add(model.codeAt(table.convertRowIndexToModel(r)));
+
+        LinkJournal journal = service.journal;
+        ClickTracker clicks = service.clicks;
+        List<String> deleted = new ArrayList<>();
+        try {
+            for (String code : codes) {
+                service.expiry.clear(code);
+                if (store.remove(code) && journal != null) journal.appendDelete(code);
+                if (clicks != null) clicks.forget(code);
+                searchExecutor.execute(() -> search.remove(code));
+                deleted.add(code);
+            }
+            toast("Deleted.");
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+            toast("Error: " + ex.getMessage());
+        }
+        model.removeAll(deleted);
+    }
+
+    private void onImport() {
+        BulkImporter importer = service.importer;
+        if (importer == null) {
+            toast(service.isLoaded() ? "Import unavailable." : "Still loading links, try again in a moment.");
+            return;
+        }
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File f = chooser.getSelectedFile();
+        toast("Importing " + f.getName() + "...");
+        Thread t = new Thread(() -> {
+            File[] results = new File[1];
+            String msg;
+            try (InputStream in = new FileInputStream(f)) {
+                BulkImporter.Summary sum = importer.run(in, null, fmt -> {
+                    results[0] = new File(f.getPath() + ".results." + (fmt == BulkImporter.Format.CSV ? "csv" : "ndjson"));
+                    try {
+                        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(results[0]), StandardCharsets.UTF_8), 1 << 16);
+                    } catch (FileNotFoundException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                });
+                msg = "Imported " + sum + ". Results: " + results[0].getName();
+            } catch (IOException | UncheckedIOException ex) {
+                msg = "Import failed: " + ex.getMessage();
+            }
+            String m = msg;
+            SwingUtilities.invokeLater(() -> toast(m));
+        }, "import");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Writes every link to a file on the export thread, straight from the
+     * store; the format follows the file name (see LinkExporter.Format). The
+     * status bar shows progress and can cancel, which deletes the partial file.
+     */
+    private void onExport() {
+        if (exporter != null) { toast("An export is already running."); return; }
+        JFileChooser chooser = new JFileChooser();
+        chooser.setDialogTitle("Export links (.csv or .ndjson, add .gz to compress)");
+        chooser.setSelectedFile(new File("urls_export_" + LinkService.timeStamp().replace(':', '-').replace(' ', '_') + ".csv"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File f = chooser.getSelectedFile();
+        String name = f.getName();
+        LinkExporter x = new LinkExporter(LinkExporter.Format.forFileName(name),
+                name.toLowerCase().endsWith(".gz"), baseUrl() + "/");
+        exporter = x;
+        exportProgress.setValue(0);
+        exportProgress.setString("Exporting...");
+        exportProgress.setVisible(true);
+        exportCancel.setVisible(true);
+        javax.swing.Timer progress = new javax.swing.Timer(200, e -> {
+            long total = Math.max(1, x.total());
+            exportProgress.setValue((int) Math.min(100, x.written() * 100 / total));
+            exportProgress.setString(String.format("%,d of %,d links", x.written(), x.total()));
+        });
+        progress.start();
+        Thread t = new Thread(() -> {
+            long start = System.nanoTime();
+            String msg;
+            try (OutputStream os = new FileOutputStream(f)) {
+                long n = x.export(service.links.recovered(), os);
+                service.exportTime.since(start);
+                msg = String.format("Exported %,d links: %s", n, f.getAbsolutePath());
+            } catch (CancellationException | IOException ex) {
+                f.delete();
+                msg = x.isCancelled() ? "Export cancelled." : "Export failed: " + ex.getMessage();
+            }
+            String m = msg;
+            SwingUtilities.invokeLater(() -> {
+                progress.stop();
+                exportProgress.setVisible(false);
+                exportCancel.setVisible(false);
+                exporter = null;
+                toast(m);
+            });
+        }, "export");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void onChangePort() {
+        String input = JOptionPane.showInputDialog(this, "Enter port (1024–65535):", String.valueOf(service.port()));
+        if (input == null) return;
+        try {
+            int p = Integer.parseInt(input.trim());
+            if (p < 1024 || p > 65535) throw new IllegalArgumentException("Port out of range");
+            service.restartServer(p);
+            table.repaint(); // short URLs are computed from the port when painted
+            if (!shortField.getText().isEmpty()) {
+                String code = shortField.getText().substring(shortField.getText().lastIndexOf('/') + 1);
+                shortField.setText(baseUrl() + "/" + code);
+            }
+            statusLabel.setText(" Server restarted on " + baseUrl() + "/{code}");
+            toast("Port changed to " + service.port());
+        } catch (Exception ex) {
+            toast("Failed to change port: " + ex.getMessage());
+        }
+    }
+
+    /** Most matches the table shows for one query; narrow the query to see the rest. */
+    private static final int SEARCH_ROWS = 10_000;
+
+    /**
+     * Looks up the search box text on the search thread and shows the matches.
+     * A newer query cancels an older one that has not started yet, and a
+     * result that arrives after the text changed again is dropped.
+     */
+    private void runSearch() {
+        String q = searchField.getText().trim();
+        searchQuery = q;
+        if (searchTask != null) searchTask.cancel(false);
+        if (q.isEmpty()) {
+            searchTask = null;
+            model.showAll();
+            return;
+        }
+        searchTask = searchExecutor.submit(() -> {
+            long t = System.nanoTime();
+            SearchIndex.Result r = search.search(q, 0, SEARCH_ROWS);
+            double ms = (System.nanoTime() - t) / 1e6;
+            List<String> found = new ArrayList<>(r.links.size());
+            for (Link l : r.links) found.add(l.code);
+            SwingUtilities.invokeLater(() -> {
+                if (!q.equals(searchQuery)) return;
+                model.showOnly(found);
+                String total = String.format("%,d%s", r.total, r.totalCapped ? "+" : "");
+                toast(found.size() < r.total
+                        ? String.format("Showing %,d of %s matches (%.1f ms).", found.size(), total, ms)
+                        : String.format("%s matches (%.1f ms).", total, ms));
+            });
+        });
+    }
+
+    // --- Helpers ---
+
+    private String baseUrl() {
+        return service.baseUrl();
+    }
+
+    /** Once a second: live click counts in the table and the metrics summary. */
+    private void refreshLive() {
+        if (service.clicks != null) table.repaint();
+        RedirectHandler redirects = service.redirects;
+        long p99 = redirects.latency.quantile(0.99);
+        metricsLabel.setText(String.format("%,d links · %,d redirects · %,d not found · redirect p99 ≤ %s ",
+                store.size(), redirects.served301.sum() + redirects.served302.sum(), redirects.served404.sum(), millis(p99)));
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 1_000_000 ? String.format("%.2f ms", nanos / 1e6) : String.format("%.0f ms", nanos / 1e6);
+    }
+
+    private void toast(String msg) {
+        statusLabel.setText(" " + msg);
+        // Also show a brief balloon
+        ToolTipManager.sharedInstance().setInitialDelay(0);
+        statusLabel.setToolTipText(msg);
+    }
+
+    // --- Persistence ---
+
+    private void fillTable() {
+        model.load(service.links.recovered());
+    }
+
+    /** One-shot import for --import: results go to stdout, the summary to stderr. */
+    private static void importFile(AppConfig config) throws IOException {
+        try (LinkJournal j = LinkService.newJournal(config);
+             InputStream in = new FileInputStream(config.importFile)) {
+            LinkStore s = LinkService.recoverStore(j, config, null);
+            CodeAllocator c = CodeAllocator.open(Paths.get(LinkService.DATA_NAME + ".ids"), config.codes);
+            String base = "http://localhost:" + config.port;
+            BulkImporter imp = new BulkImporter(s, j, c, new UrlNormalizer(config.stripTracking), () -> base, null, config.threads);
+            Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+            BulkImporter.Summary sum = imp.run(in, null, fmt -> out);
+            imp.shutdown();
+            System.err.println("Imported " + sum);
+        }
+    }
+
+    /** One-shot export of the stored links, for --export-csv; the format follows the file name. */
+    private static void exportCsv(AppConfig config) throws IOException {
+        String name = config.exportCsv;
+        LinkExporter x = new LinkExporter(LinkExporter.Format.forFileName(name), name.toLowerCase().endsWith(".gz"),
+                "http://localhost:" + config.port + "/");
+        try (LinkJournal j = LinkService.newJournal(config);
+             OutputStream os = new FileOutputStream(name)) {
+            long n = x.export(LinkService.recoverStore(j, config, null), os);
+            System.out.println("Exported " + n + " links to " + name);
+        }
+    }
+
+    // --- Main ---
+    public static void main(String[] args) {
+        AppConfig config = AppConfig.parse(args);
+        if (config.importFile != null) {
+            try {
+                importFile(config);
+            } catch (IOException ex) {
+                System.err.println("Import failed: " + ex.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (config.follow != null) {
+            try {
+                Follower.run(config);
+            } catch (IOException | InterruptedException ex) {
+                System.err.println("Follower failed: " + ex.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (config.loadgen) {
+            try {
+                LoadGenerator.run(config);
+            } catch (IOException | InterruptedException ex) {
+                System.err.println("Load test failed: " + ex.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (config.exportCsv != null) {
+            try {
+                exportCsv(config);
+            } catch (IOException ex) {
+                System.err.println("Export failed: " + ex.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (config.headless || GraphicsEnvironment.isHeadless()) {
+            try {
+                LinkService.run(config);
+            } catch (InterruptedException ex) {
+                System.exit(1);
+            }
+            return;
+        }
+        LinkService service = new LinkService(config); // serving before the window is up
+        service.start();
+        SwingUtilities.invokeLater(() -> new UrlShortenerApp(service));
+    }
+}
@@ -0,0 +1,126 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BulkImporterTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LinkStore store;
+    private BulkImporter importer;
+
+    @Before public void setUp() throws Exception {
+        store = new ConcurrentLinkStore();
+        CodeAllocator codes = CodeAllocator.open(tmp.newFolder().toPath().resolve("urls.ids"), CodeAllocator.Strategy.BLOCK);
+        importer = new BulkImporter(store, null, codes, new UrlNormalizer(false), () -> "http://s", null, 2);
+    }
+
+    @After public void tearDown() {
+        importer.shutdown();
+    }
+
+    @Test public void importsRowsInInputOrder() throws Exception {
+        store.put(new Link("taken", "http://other.example/", "t"));
+        String csv = "url,alias\nexample.com/a,\nnot a url,\nexample.com/b,mine\nexample.com/a,\nexample.com/c,taken\n";
+        StringWriter out = new StringWriter();
+        BulkImporter.Summary s = importer.run(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), null,
+                fmt -> out);
+        assertEquals("5 rows: 2 created, 1 existing, 1 invalid, 1 conflicts", s.toString());
+        String[] lines = out.toString().split("\n");
+        assertEquals("line,status,code,short_url,url", lines[0]);
+        assertTrue(lines[1], lines[1].startsWith("2,created,"));
+        assertTrue(lines[2], lines[2].startsWith("3,invalid,"));
+        assertEquals("4,created,mine,http://s/mine,http://example.com/b", lines[3]);
+        assertTrue(lines[4], lines[4].startsWith("5,existing," + store.codeFor("http://example.com/a") + ","));
+        assertTrue(lines[5], lines[5].startsWith("6,conflict,"));
+    }
+
+    /** A row that finds its link already there is answered once the record that made it is durable. */
+    @Test public void existingRowsWaitForTheCreatingRecord() throws Exception {
+        LinkJournal journal = new LinkJournal(tmp.newFolder().toPath(), "urls", 400, 1 << 20);
+        journal.recover(new LinkJournal.Replay() {
+            @Override public void create(Link link) {}
+            @Override public void delete(String code) {}
+        });
+        CodeAllocator codes = CodeAllocator.open(tmp.newFolder().toPath().resolve("urls.ids"), CodeAllocator.Strategy.BLOCK);
+        BulkImporter durable = new BulkImporter(store, journal, codes, new UrlNormalizer(false), () -> "http://s", null, 2);
+        try {
+            Link link = new Link("made", "http://example.com/a", "t");
+            store.put(link);
+            long seq = journal.appendCreate(link); // another creator's, still in its group commit
+            long start = System.nanoTime();
+            StringWriter out = new StringWriter();
+            durable.run(new ByteArrayInputStream("url\nexample.com/a\n".getBytes(StandardCharsets.UTF_8)), null, fmt -> out);
+            long waited = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(out.toString(), out.toString().contains("\n2,existing,made,"));
+            assertTrue("answered after " + waited + " ms", waited >= 300);
+            journal.awaitDurable(seq);
+        } finally {
+            durable.shutdown();
+            journal.close();
+        }
+    }
+
+    /** With no executor everything runs on the dispatcher thread: an open import must not hold it. */
+    @Test public void httpImportDoesNotHoldTheServerThread() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/shorten", new LinkService.BulkHandler(() -> importer));
+        server.createContext("/", ex -> {
+            ex.sendResponseHeaders(204, -1);
+            ex.close();
+        });
+        server.start();
+        String base = "http://localhost:" + server.getAddress().getPort();
+        try {
+            HttpURLConnection upload = (HttpURLConnection) new URL(base + "/api/shorten").openConnection();
+            upload.setRequestMethod("POST");
+            upload.setDoOutput(true);
+            upload.setChunkedStreamingMode(256);
+            upload.setRequestProperty("Content-Type", "text/csv");
+            OutputStream body = upload.getOutputStream();
+            body.write("example.com/1\nexample.com/2\n".getBytes(StandardCharsets.UTF_8));
+            body.flush(); // and keep the request open
+
+            HttpURLConnection ping = (HttpURLConnection) new URL(base + "/ping").openConnection();
+            ping.setReadTimeout(5000);
+            assertEquals(204, ping.getResponseCode());
+
+            body.write("example.com/3\n".getBytes(StandardCharsets.UTF_8));
+            body.close();
+            assertEquals(200, upload.getResponseCode());
+            String response;
+            try (InputStream in = upload.getInputStream()) {
+                response = new String(readAll(in), StandardCharsets.UTF_8);
+            }
+            assertEquals(response, 4, response.split("\n").length);
+            assertEquals(3, store.size());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        for (int n; (n = in.read(buf)) > 0; ) b.write(buf, 0, n);
+        return b.toByteArray();
+    }
+}
@@ -0,0 +1,85 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CodeAllocatorTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test public void codesAreUniqueAcrossThreads() throws Exception {
+        for (CodeAllocator.Strategy strategy : CodeAllocator.Strategy.values()) {
+            CodeAllocator codes = CodeAllocator.open(tmp.newFolder().toPath().resolve("urls.ids"), strategy);
+            Set<String> seen = ConcurrentHashMap.newKeySet();
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 100_000; i++) assertTrue(seen.add(codes.next()));
+                }));
+            }
+            for (Thread t : threads) t.start();
+            for (Thread t : threads) t.join();
+            assertEquals(strategy.toString(), 400_000, seen.size());
+            for (String c : seen) assertEquals(7, c.length());
+        }
+    }
+
+    /** Threads that make one code each must not lease (and fsync) a block each. */
+    @Test public void shortLivedThreadsShareTheLease() throws Exception {
+        Path state = tmp.newFolder().toPath().resolve("urls.ids");
+        CodeAllocator codes = CodeAllocator.open(state, CodeAllocator.Strategy.BLOCK);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        for (int i = 0; i < 1000; i++) {
+            Thread t = new Thread(() -> seen.add(codes.next()));
+            t.start();
+            t.join();
+        }
+        assertEquals(1000, seen.size());
+        assertEquals(1 << 16, next(state));
+    }
+
+    /** Stripes take chunks of the one lease; busy threads do not lease blocks of their own either. */
+    @Test public void concurrentCreatorsShareOneLease() throws Exception {
+        Path state = tmp.newFolder().toPath().resolve("urls.ids");
+        CodeAllocator codes = CodeAllocator.open(state, CodeAllocator.Strategy.BLOCK);
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 2000; i++) assertTrue(seen.add(codes.next()));
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads) t.join();
+        assertEquals(32_000, seen.size());
+        assertEquals(1 << 16, next(state));
+    }
+
+    @Test public void restartResumesAboveEveryLease() throws Exception {
+        Path state = tmp.newFolder().toPath().resolve("urls.ids");
+        Set<String> seen = new HashSet<>();
+        for (int run = 0; run < 3; run++) {
+            CodeAllocator codes = CodeAllocator.open(state, CodeAllocator.Strategy.BLOCK);
+            for (int i = 0; i < 70_000; i++) assertTrue(seen.add(codes.next()));
+        }
+        assertEquals(3 * (2 << 16), next(state)); // two blocks per run
+    }
+
+    private static long next(Path state) throws Exception {
+        for (String line : Files.readAllLines(state, StandardCharsets.UTF_8)) {
+            if (line.startsWith("next=")) return Long.parseLong(line.substring(5));
+        }
+        throw new AssertionError("no next= in " + state);
+    }
+}
@@ -0,0 +1,116 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+
+/** Differential test of {@link CompactLinkStore} against {@link ConcurrentLinkStore}. */
+public class CompactLinkStoreTest {
+
+    private static final String CODE_CHARS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz_-";
+    private static final String[] HOSTS = {"https://example.com", "http://a.b:8080", "https://exämple.de", "ftp://x",
+            "mailto:foo@x", "https://h.com?q"};
+
+    /** Mostly short base62 codes (which pack into a long), some long ones and some with '_' or '-' (which do not). */
+    private static String code(Random r) {
+        int n = 1 + r.nextInt(r.nextInt(10) == 0 ? 14 : 4);
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < n; i++) b.append(CODE_CHARS.charAt(r.nextInt(r.nextInt(5) == 0 ? 64 : 62)));
+        return b.toString();
+    }
+
+    private static String url(Random r) {
+        String h = HOSTS[r.nextInt(HOSTS.length)];
+        switch (r.nextInt(4)) {
+            case 0: return h;
+            case 1: return h + "/p/" + r.nextInt(50);
+            case 2: return h + "/ü€😀/" + r.nextInt(50);
+            default: return h + "?x=" + r.nextInt(50);
+        }
+    }
+
+    /** Timestamps that pack into seconds, and ones that must be kept as text (or null). */
+    private static String created(Random r) {
+        switch (r.nextInt(4)) {
+            case 0: return null;
+            case 1: return "not a date";
+            case 2: return "2024-02-30 00:00:00";
+            default:
+                return String.format("%04d-%02d-%02d %02d:%02d:%02d", 1 + r.nextInt(9999), 1 + r.nextInt(12),
+                        1 + r.nextInt(28), r.nextInt(24), r.nextInt(60), r.nextInt(60));
+        }
+    }
+
+    @Test public void matchesConcurrentLinkStoreOnHeap() {
+        differential(new CompactLinkStore(false));
+    }
+
+    @Test public void matchesConcurrentLinkStoreOffHeap() {
+        differential(new CompactLinkStore(true));
+    }
+
+    /** 400K random puts, shortens, removes and lookups, applied to both stores; every answer must match. */
+    private static void differential(CompactLinkStore c) {
+        Random r = new Random(1);
+        ConcurrentLinkStore ref = new ConcurrentLinkStore();
+        for (int i = 0; i < 400_000; i++) {
+            int op = r.nextInt(10);
+            if (op < 4) {
+                Link l = new Link(code(r), url(r), created(r), r.nextBoolean());
+                assertEquals("put", ref.put(l), c.put(l));
+            } else if (op < 6) {
+                String u = url(r), cr = created(r);
+                boolean t = r.nextBoolean();
+                long seed = r.nextLong();
+                Random r1 = new Random(seed), r2 = new Random(seed);
+                assertEquals("shorten", ref.shorten(u, cr, t, () -> code(r1)), c.shorten(u, cr, t, () -> code(r2)));
+            } else if (op < 8) {
+                String k = code(r);
+                assertEquals("remove " + k, ref.remove(k), c.remove(k));
+            } else {
+                String k = code(r);
+                Link x = ref.link(k), y = c.link(k);
+                assertEquals("link " + k, x == null, y == null);
+                if (x != null) {
+                    assertEquals(x.url, y.url);
+                    assertEquals(x.created, y.created);
+                    assertEquals(x.temporary, y.temporary);
+                    assertEquals(x.url, c.get(k));
+                }
+                String u = url(r);
+                assertEquals("codeFor " + u, ref.codeFor(u), c.codeFor(u));
+            }
+            if (i % 1000 == 0) {
+                assertEquals(ref.size(), c.size());
+                assertEquals(ref.codeRetries(), c.codeRetries());
+                assertEquals(ref.removals(), c.removals());
+            }
+        }
+        Map<String, String> want = new HashMap<>(), got = new HashMap<>();
+        ref.forEach(l -> want.put(l.code, l.url + "|" + l.created + "|" + l.temporary));
+        c.forEach(l -> got.put(l.code, l.url + "|" + l.created + "|" + l.temporary));
+        assertEquals(want, got);
+        assertTrue(c.prefixCount() <= HOSTS.length + 1);
+    }
+
+    @Test public void createdTimestampsRoundTrip() {
+        for (String s : new String[] {"0001-01-01 00:00:00", "9999-12-31 23:59:59", "1969-12-31 23:59:59",
+                "2024-02-29 12:00:00"}) {
+            assertEquals(s, CompactLinkStore.formatCreated(CompactLinkStore.packCreated(s)));
+        }
+        assertEquals(Long.MIN_VALUE, CompactLinkStore.packCreated("2024-02-30 00:00:00"));
+        assertEquals(Long.MIN_VALUE, CompactLinkStore.packCreated("not a date"));
+    }
+
+    @Test public void bothDirectionsStayConsistentUnderConcurrentWrites() throws Exception {
+        ConcurrentLinkStoreTest.stress(new CompactLinkStore());
+        ConcurrentLinkStoreTest.stress(new CompactLinkStore(true));
+    }
+
+    @Test public void concurrentShortensOfOneUrlGetOneCode() throws Exception {
+        ConcurrentLinkStoreTest.oneCodePerUrl(new CompactLinkStore());
+    }
+}
@@ -0,0 +1,142 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class ConcurrentLinkStoreTest {
+
+    private static final int URLS = 2000, WRITERS = 4, OPS = 200_000;
+
+    @Test public void bothDirectionsStayConsistentUnderConcurrentWrites() throws Exception {
+        stress(new ConcurrentLinkStore());
+    }
+
+    @Test public void concurrentShortensOfOneUrlGetOneCode() throws Exception {
+        oneCodePerUrl(new ConcurrentLinkStore());
+    }
+
+    @Test public void putRefusesATakenCode() {
+        LinkStore s = new ConcurrentLinkStore();
+        assertNull(s.put(new Link("abc", "http://a/", "t")));
+        assertEquals("http://a/", s.put(new Link("abc", "http://b/", "t")));
+        assertNull(s.codeFor("http://b/"));
+        assertTrue(s.remove("abc"));
+        assertFalse(s.remove("abc"));
+        assertNull(s.codeFor("http://a/"));
+        assertEquals(1, s.removals());
+    }
+
+    /**
+     * Writers shorten, put and remove over a small set of URLs while readers
+     * check the {@link LinkStore} invariant: a code found by codeFor resolves
+     * to the same URL, unless a removal happened in between.
+     */
+    static void stress(LinkStore s) throws Exception {
+        AtomicInteger fresh = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicLong checks = new AtomicLong();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int w = 0; w < WRITERS; w++) {
+            int seed = w;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < OPS && failure.get() == null; i++) {
+                    String url = "http://u" + r.nextInt(URLS) + "/";
+                    switch (r.nextInt(3)) {
+                        case 0:
+                            s.shorten(url, "t", false, () -> "g" + fresh.incrementAndGet());
+                            break;
+                        case 1:
+                            s.put(new Link("p" + r.nextInt(URLS / 4), url, "t"));
+                            break;
+                        default:
+                            String code = s.codeFor(url);
+                            if (code != null) s.remove(code);
+                    }
+                }
+            }));
+        }
+        for (int c = 0; c < 2; c++) {
+            int seed = 100 + c;
+            threads.add(new Thread(() -> {
+                Random r = new Random(seed);
+                while (!done.get() && failure.get() == null) {
+                    String url = "http://u" + r.nextInt(URLS) + "/";
+                    long before = s.removals();
+                    String code = s.codeFor(url);
+                    if (code == null) continue;
+                    String back = s.get(code);
+                    if (s.removals() == before && !url.equals(back)) {
+                        failure.compareAndSet(null, url + " -> " + code + " -> " + back);
+                    }
+                    checks.incrementAndGet();
+                }
+            }));
+        }
+        for (Thread t : threads) t.start();
+        for (Thread t : threads.subList(0, WRITERS)) t.join();
+        done.set(true);
+        for (Thread t : threads) t.join();
+
+        assertNull(failure.get(), failure.get());
+        assertTrue(checks.get() > 0);
+        int mapped = 0;
+        for (int u = 0; u < URLS; u++) {
+            String url = "http://u" + u + "/", code = s.codeFor(url);
+            if (code == null) continue;
+            mapped++;
+            assertEquals(url, s.get(code));
+            assertEquals(url, s.link(code).url);
+        }
+        Set<String> codes = new HashSet<>();
+        s.forEach(l -> {
+            assertEquals(l.url, s.get(l.code));
+            codes.add(l.code);
+        });
+        assertEquals(s.size(), codes.size());
+        assertTrue(mapped <= s.size());
+    }
+
+    /** Threads race to shorten the same URLs; each URL must end up with exactly one code. */
+    static void oneCodePerUrl(LinkStore s) throws Exception {
+        int threads = 4, urls = 5000;
+        AtomicInteger fresh = new AtomicInteger();
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ConcurrentHashMap<String, String> seen = new ConcurrentHashMap<>();
+        AtomicReference<String> failure = new AtomicReference<>();
+        List<Thread> ts = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            ts.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+                for (int u = 0; u < urls; u++) {
+                    String url = "http://same" + u + "/";
+                    String code = s.shorten(url, "t", false, () -> "c" + fresh.incrementAndGet());
+                    String prev = seen.putIfAbsent(url, code);
+                    if (prev != null && !prev.equals(code)) failure.compareAndSet(null, url + ": " + prev + " / " + code);
+                }
+            }));
+        }
+        for (Thread t : ts) t.start();
+        for (Thread t : ts) t.join();
+        assertNull(failure.get(), failure.get());
+        assertEquals(urls, s.size());
+        for (int u = 0; u < urls; u++) assertEquals("http://same" + u + "/", s.get(seen.get("http://same" + u + "/")));
+    }
+}
@@ -0,0 +1,150 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * A follower taking over from a leader that died. The follower keeps its data
+ * in the working directory (target/test-data); the leader is put together
+ * from its parts in a folder of its own.
+ */
+public class FollowerTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Follower follower;
+
+    @Before public void setUp() throws Exception {
+        clean();
+    }
+
+    @After public void tearDown() throws Exception {
+        if (follower != null) follower.close();
+        clean();
+    }
+
+    private static void clean() throws IOException {
+        Path dir = Paths.get("").toAbsolutePath();
+        assertEquals("run from target/test-data", "test-data", dir.getFileName().toString());
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, LinkService.DATA_NAME + "*")) {
+            for (Path p : ds) Files.delete(p);
+        }
+    }
+
+    /** Links the leader confirmed survive it, and the promoted follower issues none of its codes again. */
+    @Test public void promotedFollowerKeepsAckedLinksAndCodes() throws Exception {
+        Path dir = tmp.newFolder().toPath();
+        AppConfig config = AppConfig.parse(new String[] {"--sync-ms=0"});
+        LinkJournal journal = new LinkJournal(dir, LinkService.DATA_NAME, 0, 1 << 20);
+        SnapshotLinkStore store = LinkService.recoverStore(journal, config, null);
+        ReplicationLeader leader = new ReplicationLeader(0, 1, 5000, store, null);
+        journal.tap(leader);
+        CodeAllocator codes = CodeAllocator.open(dir.resolve(LinkService.DATA_NAME + ".ids"), CodeAllocator.Strategy.BLOCK);
+        codes.journalTo(journal);
+        BulkImporter importer = new BulkImporter(store, journal, codes, new UrlNormalizer(false), () -> "http://s", null, 2);
+
+        follower = new Follower(AppConfig.parse(new String[] {
+                "--follow=127.0.0.1:" + leader.port(), "--port=0", "--sync-ms=0"}));
+        follower.start();
+        for (int i = 0; !follower.toJson().contains("\"connected\":true"); i++) {
+            assertTrue("follower did not connect", i < 250);
+            Thread.sleep(20);
+        }
+
+        StringBuilder csv = new StringBuilder("url\n");
+        for (int i = 0; i < 300; i++) csv.append("https://example.com/").append(i).append('\n');
+        StringWriter out = new StringWriter();
+        importer.run(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)), null, fmt -> out);
+        Map<String, String> acked = new HashMap<>(); // code -> url, each on the follower's disk
+        for (String line : out.toString().split("\n")) {
+            String[] f = line.split(",");
+            if (f[1].equals("created")) acked.put(f[2], f[4]);
+        }
+        assertEquals(300, acked.size());
+        String deleted = acked.keySet().iterator().next();
+        assertTrue(store.remove(deleted));
+        journal.awaitDurable(journal.appendDelete(deleted));
+        acked.remove(deleted);
+
+        // the leader dies
+        importer.shutdown();
+        leader.close();
+        journal.close();
+        request("POST", "/api/replication/promote", null);
+
+        String base = "http://localhost:" + follower.port();
+        for (Map.Entry<String, String> e : acked.entrySet()) {
+            HttpURLConnection c = (HttpURLConnection) new URL(base + "/" + e.getKey()).openConnection();
+            c.setInstanceFollowRedirects(false);
+            assertEquals(e.getKey(), 301, c.getResponseCode());
+            assertEquals(e.getValue(), c.getHeaderField("Location"));
+            c.disconnect();
+        }
+        assertEquals(404, ((HttpURLConnection) new URL(base + "/" + deleted).openConnection()).getResponseCode());
+
+        // new links get codes the old leader never issued, the deleted one included
+        StringBuilder more = new StringBuilder();
+        for (int i = 0; i < 300; i++) more.append("https://example.org/").append(i).append('\n');
+        String made = request("POST", "/api/shorten", more.toString());
+        int created = 0;
+        for (String line : made.split("\n")) {
+            String[] f = line.split(",");
+            if (!f[1].equals("created")) continue;
+            created++;
+            assertFalse(f[2], acked.containsKey(f[2]) || f[2].equals(deleted));
+        }
+        assertEquals(300, created);
+        assertEquals(state(dir.resolve(LinkService.DATA_NAME + ".ids"), "key="),
+                state(Paths.get(LinkService.DATA_NAME + ".ids"), "key="));
+        assertTrue(Long.parseLong(state(Paths.get(LinkService.DATA_NAME + ".ids"), "next="))
+                > Long.parseLong(state(dir.resolve(LinkService.DATA_NAME + ".ids"), "next=")));
+    }
+
+    private static String state(Path file, String prefix) throws IOException {
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.startsWith(prefix)) return line.substring(prefix.length());
+        }
+        throw new AssertionError("no " + prefix + " in " + file);
+    }
+
+    private String request(String method, String path, String body) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + follower.port() + path).openConnection();
+        c.setRequestMethod(method);
+        if (body != null) {
+            c.setDoOutput(true);
+            try (OutputStream os = c.getOutputStream()) {
+                os.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        } else if (method.equals("POST")) {
+            c.setFixedLengthStreamingMode(0);
+            c.setDoOutput(true);
+        }
+        assertEquals(path, 200, c.getResponseCode());
+        try (InputStream in = c.getInputStream()) {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            for (int n; (n = in.read(buf)) > 0; ) b.write(buf, 0, n);
+            return new String(b.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
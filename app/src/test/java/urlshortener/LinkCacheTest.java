@@ -0,0 +1,89 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class LinkCacheTest {
+
+    private static final Link LINK = new Link("x", "http://example.com/", "t");
+
+    private static void put(LinkCache c, String code) {
+        c.put(code, LINK, c.stamp(code));
+    }
+
+    @Test public void popularLinksSurviveAScan() {
+        LinkCache c = new LinkCache(1000);
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 100; i++) {
+                String code = "hot" + i;
+                if (c.get(code) == null) put(c, code);
+            }
+        }
+        for (int i = 0; i < 20_000; i++) {
+            String code = "scan" + i;
+            if (c.get(code) == null) put(c, code);
+        }
+        int kept = 0;
+        for (int i = 0; i < 100; i++) if (c.get("hot" + i) != null) kept++;
+        assertTrue("kept " + kept, kept >= 90);
+        assertTrue(c.size() <= c.capacity());
+    }
+
+    @Test public void invalidatedLinksStayGone() {
+        LinkCache c = new LinkCache(100);
+        put(c, "a");
+        long stamp = c.stamp("b");
+        assertNotNull(c.get("a"));
+        c.invalidate("a");
+        c.invalidate("b");
+        assertNull(c.get("a"));
+        c.put("b", LINK, stamp); // read before the invalidation
+        assertNull(c.get("b"));
+        put(c, "b");
+        assertNotNull(c.get("b"));
+        c.clear();
+        assertEquals(0, c.size());
+        put(c, "a");
+        assertNotNull(c.get("a"));
+    }
+
+    /** Hits replayed after their link was evicted, invalidated or cleared must not corrupt the policy. */
+    @Test public void hitsRaceWritesAndInvalidation() throws Exception {
+        LinkCache c = new LinkCache(2048);
+        AtomicReference<Throwable> failed = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            Random r = new Random(t);
+            readers[t] = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 500_000; i++) c.get("c" + r.nextInt(4096));
+                } catch (Throwable e) {
+                    failed.set(e);
+                }
+            });
+            readers[t].start();
+        }
+        Random r = new Random(99);
+        for (int i = 0; i < 200_000; i++) {
+            String code = "c" + r.nextInt(4096);
+            switch (r.nextInt(10)) {
+                case 0: c.invalidate(code); break;
+                case 1: if (i % 50_000 == 0) c.clear(); break;
+                default: put(c, code);
+            }
+        }
+        for (Thread t : readers) t.join();
+        assertNull(failed.get());
+        assertTrue("size " + c.size(), c.size() <= c.capacity());
+
+        // the lists still add up: fill it again and stay within capacity
+        for (int i = 0; i < 10_000; i++) put(c, "d" + i);
+        assertTrue("size " + c.size(), c.size() <= c.capacity());
+        for (int i = 0; i < 4096; i++) c.invalidate("c" + i);
+        for (int i = 0; i < 10_000; i++) c.invalidate("d" + i);
+        assertEquals(0, c.size());
+    }
+}
@@ -0,0 +1,208 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkExpiryTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** One-millisecond ticks, so a deadline in millis is its tick. */
+    @Test public void deadlinesFireExactlyOnTheirTick() {
+        long t0 = 1_000_003;
+        long[] now = {t0};
+        Map<String, Long> fired = new HashMap<>();
+        LinkExpiry e = new LinkExpiry(null, codes -> {
+            for (String c : codes) assertNull(c, fired.put(c, now[0]));
+            return codes.size();
+        }, 1, t0);
+        Map<String, Long> want = new HashMap<>();
+        Random r = new Random(3);
+        for (int i = 0; i < 50_000; i++) {
+            long d;
+            switch (i % 5) {
+                case 0: d = t0 + r.nextInt(100); break;
+                case 1: d = t0 + r.nextInt(300_000); break;
+                // level boundaries: these come down from levels 1, 2 and 3 on the tick they are due
+                case 2: d = (t0 / 64 + 1 + r.nextInt(4000)) * 64; break;
+                case 3: d = (t0 / 4096 + 1 + r.nextInt(70)) * 4096; break;
+                default: d = (t0 / 262144 + 1) * 262144; break;
+            }
+            e.set("c" + i, d, LinkExpiry.UNLIMITED);
+            want.put("c" + i, Math.max(d, t0 + 1));
+        }
+        for (int i = 0; i < 50_000; i += 7) {
+            e.clear("c" + i);
+            want.remove("c" + i);
+        }
+        for (int i = 3; i < 50_000; i += 11) {
+            if (!want.containsKey("c" + i)) continue;
+            long d = t0 + r.nextInt(100_000);
+            e.set("c" + i, d, LinkExpiry.UNLIMITED);
+            want.put("c" + i, Math.max(d, t0 + 1));
+        }
+        long end = (t0 / 262144 + 2) * 262144;
+        for (now[0] = t0 + 1; now[0] <= end; now[0]++) e.advance(now[0]);
+
+        assertEquals(want, fired);
+        assertEquals(want.size(), e.expiredByTtl());
+        assertEquals(0, e.size());
+    }
+
+    @Test public void skippedTicksCatchUp() {
+        List<String> gone = new ArrayList<>();
+        LinkExpiry e = new LinkExpiry(null, codes -> {
+            gone.addAll(codes);
+            return codes.size();
+        }, 1000, 0);
+        e.set("a", 5_000, LinkExpiry.UNLIMITED);
+        e.set("b", 3_600_000, LinkExpiry.UNLIMITED);
+        e.advance(4_999);
+        assertTrue(gone.isEmpty());
+        e.advance(10_000);
+        assertEquals(Collections.singletonList("a"), gone);
+        e.advance(4_000_000);
+        assertEquals(2, gone.size());
+    }
+
+    @Test public void clickBudgetRunsOut() {
+        List<String> gone = new ArrayList<>();
+        LinkExpiry e = new LinkExpiry(null, codes -> {
+            gone.addAll(codes);
+            return codes.size();
+        }, 1000, 0);
+        assertTrue(e.click("x"));
+        e.set("x", LinkExpiry.NEVER, 3);
+        assertTrue(e.click("x"));
+        assertTrue(e.click("x"));
+        assertTrue(e.click("x"));
+        assertFalse(e.click("x"));
+        assertEquals("{\"code\":\"x\",\"expires_at\":null,\"clicks_left\":0}", e.toJson("x"));
+        e.advance(1000);
+        assertEquals(Collections.singletonList("x"), gone);
+        assertEquals(1, e.expiredByClicks());
+        assertFalse(e.has("x"));
+    }
+
+    @Test public void rulesStayOnTheirOwnLinks() {
+        LinkStore s = new ConcurrentLinkStore();
+        LinkExpiry e = new LinkExpiry(null, codes -> codes.size(), 1000, 0);
+        int[] n = {0};
+        String url = "http://example.com/";
+        String permanent = e.shorten(s, url, "t", false, false, () -> "c" + n[0]++);
+        assertEquals(permanent, e.shorten(s, url, "t", false, false, () -> "c" + n[0]++));
+
+        String expiring = e.shorten(s, url, "t", false, true, () -> "c" + n[0]++);
+        assertNotEquals(permanent, expiring);
+        e.set(expiring, 60_000, LinkExpiry.UNLIMITED);
+        assertTrue(e.has(expiring));
+        assertFalse(e.has(permanent));
+
+        // the URL points at the expiring code now, but a permanent request must not get it
+        String again = e.shorten(s, url, "t", false, false, () -> "c" + n[0]++);
+        assertNotEquals(expiring, again);
+        assertFalse(e.has(again));
+        assertEquals(again, e.shorten(s, url, "t", false, false, () -> "c" + n[0]++));
+        assertEquals(url, s.get(permanent));
+        assertEquals(url, s.get(expiring));
+    }
+
+    @Test public void linksWithARuleAreRedirectedTemporarily() throws Exception {
+        LinkStore s = new ConcurrentLinkStore();
+        s.put(new Link("perm", "http://example.com/a", "t", false));
+        s.put(new Link("ttl", "http://example.com/b", "t", false));
+        LinkExpiry e = new LinkExpiry(null, codes -> codes.size());
+        e.set("ttl", System.currentTimeMillis() + 60_000, LinkExpiry.UNLIMITED);
+        RedirectHandler h = new RedirectHandler(s, null, null, e);
+        try (NioRedirectServer server = new NioRedirectServer(h, 0, 50, 1, () -> 1, new String[0])) {
+            for (int i = 0; i < 2; i++) { // the second round is served from the loop's cache
+                assertEquals(301, status(server.port(), "perm"));
+                assertEquals(302, status(server.port(), "ttl"));
+            }
+            e.clear("ttl");
+            assertEquals(301, status(server.port(), "ttl"));
+        }
+        assertEquals(3, h.served301.sum());
+        assertEquals(2, h.served302.sum());
+    }
+
+    @Test public void parsesTimesToLive() {
+        assertEquals(90_000, LinkExpiry.parseTtl("90"));
+        assertEquals(900_000, LinkExpiry.parseTtl("15m"));
+        assertEquals(43_200_000, LinkExpiry.parseTtl(" 12h "));
+        assertEquals(604_800_000, LinkExpiry.parseTtl("7D"));
+        assertEquals(-1, LinkExpiry.parseTtl("0"));
+        assertEquals(-1, LinkExpiry.parseTtl("x"));
+        assertEquals(-1, LinkExpiry.parseTtl(""));
+    }
+
+    private static int status(int port, String code) throws Exception {
+        HttpURLConnection c = (HttpURLConnection) new URL("http://localhost:" + port + "/" + code).openConnection();
+        c.setInstanceFollowRedirects(false);
+        try {
+            return c.getResponseCode();
+        } finally {
+            c.disconnect();
+        }
+    }
+
+    /** Links that come and go leave nothing behind in memory once compaction has run. */
+    @Test public void churnStaysFlatAcrossCompactions() throws Exception {
+        Path dir = tmp.newFolder().toPath();
+        AppConfig config = AppConfig.parse(new String[] {"--sync-ms=0", "--store=compact"});
+        config.compactBytes = 16 << 10;
+        LinkJournal j = new LinkJournal(dir, "urls", config.syncMillis, config.compactBytes);
+        SnapshotLinkStore s = LinkService.recoverStore(j, config, null);
+        long[] now = {1_000_000};
+        LinkExpiry e = new LinkExpiry(j, codes -> {
+            int n = 0;
+            for (String c : codes) {
+                if (s.remove(c)) {
+                    j.appendDelete(c);
+                    n++;
+                }
+            }
+            return n;
+        }, 1, now[0]);
+        for (int i = 0; i < 500; i++) j.appendCreate(s.link(s.shorten("http://keep/" + i, "t", false, () -> "k" + s.size())));
+
+        int[] code = {0};
+        long peak = 0;
+        for (int round = 0; round < 40; round++) {
+            long compactions = j.compactions.count();
+            for (int i = 0; i < 1000; i++) {
+                String c = s.shorten("http://tmp/" + round + "/" + i, "t", false, () -> "t" + code[0]++);
+                j.appendCreate(s.link(c));
+                e.set(c, now[0] + 2, LinkExpiry.UNLIMITED);
+            }
+            for (int k = 0; k < 3; k++) e.advance(++now[0]);
+            assertEquals(500, s.size());
+            j.awaitDurable(j.appendedSeq());
+            for (long deadline = System.nanoTime() + 10_000_000_000L; j.compactions.count() == compactions; ) {
+                assertTrue("no compaction", System.nanoTime() < deadline);
+                Thread.sleep(5);
+            }
+            if (round < 5) continue;
+            SnapshotLinkStore.Layers l = s.layers();
+            long bytes = ((CompactLinkStore) l.delta()).arenaBytes();
+            if (round == 5) peak = 2 * bytes + (64 << 10); // a round or two still to fold in at any time
+            assertTrue(round + ": " + bytes + " arena bytes", bytes <= peak);
+            assertTrue(round + ": " + l.deletedFromBase().size() + " tombstones", l.deletedFromBase().size() <= 3000);
+        }
+        assertEquals(500, s.size());
+        assertEquals(40_000, e.expiredByTtl());
+        j.close();
+    }
+}
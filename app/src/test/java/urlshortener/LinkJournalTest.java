@@ -0,0 +1,145 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkJournalTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    /** Replays into a map of code -> url, and code -> "expiresAt/clicksLeft". */
+    private static final class State implements LinkJournal.Replay {
+        final Map<String, String> links = new LinkedHashMap<>();
+        final Map<String, String> expiry = new LinkedHashMap<>();
+
+        @Override public void create(Link link) {
+            links.put(link.code, link.url);
+        }
+
+        @Override public void delete(String code) {
+            links.remove(code);
+            expiry.remove(code);
+        }
+
+        @Override public void expiry(String code, long expiresAt, long clicksLeft) {
+            expiry.put(code, expiresAt + "/" + clicksLeft);
+        }
+    }
+
+    private static State recover(LinkJournal j) throws IOException {
+        State s = new State();
+        j.recover(s);
+        return s;
+    }
+
+    @Test public void replaysWhatWasAppended() throws IOException {
+        Path dir = tmp.newFolder().toPath();
+        LinkJournal j = new LinkJournal(dir, "urls", 5, 1 << 20);
+        recover(j);
+        j.appendCreate(new Link("a", "http://a/", "t"));
+        j.appendCreate(new Link("b", "http://b/", "t", true));
+        j.appendExpiry("b", 1234, 5);
+        long seq = j.appendDelete("a");
+        j.awaitDurable(seq);
+        j.close();
+
+        LinkJournal again = new LinkJournal(dir, "urls", 5, 1 << 20);
+        assertEquals(0, again.openBase().size());
+        State s = recover(again);
+        assertEquals(Collections.singletonMap("b", "http://b/"), s.links);
+        assertEquals("1234/5", s.expiry.get("b"));
+        again.close();
+    }
+
+    @Test public void tornTailIsSkipped() throws IOException {
+        Path dir = tmp.newFolder().toPath();
+        Files.write(dir.resolve("urls.journal.1"), "C\ta\thttp://a/\tt\nC\tb\thttp://b/\tt".getBytes(StandardCharsets.UTF_8));
+        LinkJournal j = new LinkJournal(dir, "urls", 0, 1 << 20);
+        State s = recover(j);
+        assertEquals(Collections.singletonMap("a", "http://a/"), s.links);
+        j.close();
+    }
+
+    @Test public void compactionFoldsSegmentsIntoASnapshot() throws Exception {
+        Path dir = tmp.newFolder().toPath();
+        LinkJournal j = new LinkJournal(dir, "urls", 0, 200); // roll after ~200 bytes
+        recover(j);
+        long seq = 0;
+        for (int i = 0; i < 100; i++) {
+            seq = j.appendCreate(new Link("c" + i, "http://example.com/" + i, "t"));
+            if (i % 10 == 9) j.awaitDurable(seq);
+        }
+        for (int i = 0; i < 100; i += 2) seq = j.appendDelete("c" + i);
+        j.awaitDurable(seq);
+        for (long deadline = System.nanoTime() + 10_000_000_000L; j.compactions.count() == 0; ) {
+            assertTrue("no compaction", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+        j.close();
+
+        LinkJournal again = new LinkJournal(dir, "urls", 0, 1 << 20);
+        LinkSnapshot base = again.openBase();
+        assertTrue(base.size() > 0);
+        SnapshotLinkStore store = new SnapshotLinkStore(base);
+        again.recover(new LinkJournal.Replay() {
+            @Override public void create(Link link) { store.put(link); }
+            @Override public void delete(String code) { store.remove(code); }
+        });
+        assertEquals(50, store.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i % 2 == 0 ? null : "http://example.com/" + i, store.get("c" + i));
+        }
+        again.close();
+    }
+
+    /** A failed write stops the journal for good: appends throw instead of queueing without end. */
+    @Test public void failureIsFinal() throws IOException {
+        Path dir = tmp.newFolder().toPath();
+        LinkJournal j = new LinkJournal(dir, "urls", 0, 1); // rolls to a new segment after every batch
+        recover(j);
+        // With the directory gone the next segment cannot be created.
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+        long seq = j.appendCreate(new Link("a", "http://a/", "t"));
+        try {
+            j.awaitDurable(seq);
+            fail("awaitDurable succeeded without a segment");
+        } catch (IOException expected) {
+            // the roll failed
+        }
+        assertNotNull(j.failure());
+        try {
+            j.appendDelete("a");
+            fail("append after a failure");
+        } catch (UncheckedIOException expected) {
+            assertSame(j.failure(), expected.getCause());
+        }
+        try {
+            j.close();
+            fail("close hid the failure");
+        } catch (IOException expected) {
+            // reported again
+        }
+    }
+
+    @Test public void directorySyncWorks() throws IOException {
+        Path dir = tmp.newFolder().toPath();
+        Files.write(dir.resolve("x"), new byte[] {1}, StandardOpenOption.CREATE_NEW);
+        LinkJournal.syncDirectory(dir);
+    }
+}
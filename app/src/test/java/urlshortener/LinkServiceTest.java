@@ -0,0 +1,121 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The service end to end over HTTP. It keeps its data in the working
+ * directory, which the build points at target/test-data.
+ */
+public class LinkServiceTest {
+
+    private LinkService service;
+    private String base;
+
+    @Before public void setUp() throws Exception {
+        Path dir = Paths.get("").toAbsolutePath();
+        assertEquals("run from target/test-data", "test-data", dir.getFileName().toString());
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, LinkService.DATA_NAME + "*")) {
+            for (Path p : ds) Files.delete(p);
+        }
+        start("--sync-ms=0");
+    }
+
+    private void start(String... args) throws InterruptedException {
+        String[] all = new String[args.length + 1];
+        all[0] = "--port=0";
+        System.arraycopy(args, 0, all, 1, args.length);
+        service = new LinkService(AppConfig.parse(all));
+        service.start();
+        for (int i = 0; !service.isLoaded(); i++) {
+            assertTrue("links did not load", i < 500);
+            Thread.sleep(20);
+        }
+        base = "http://localhost:" + service.port();
+    }
+
+    @After public void tearDown() {
+        if (service != null) service.close();
+    }
+
+    @Test public void searchFindsImportedLinksUntilTheyExpire() throws Exception {
+        String csv = "https://example.com/alpha,alpha1\nhttps://example.com/beta,beta1\nhttps://other.org/ALPHA/x,\n";
+        String imported = request("POST", "/api/shorten", csv, 200);
+        assertEquals(imported, 4, imported.split("\n").length);
+
+        String json = request("GET", "/api/search?q=alpha", null, 200);
+        assertTrue(json, json.contains("\"total\":2,"));
+        assertTrue(json, json.contains("\"code\":\"alpha1\""));
+        assertTrue(json, json.contains("\"url\":\"https://other.org/ALPHA/x\""));
+        assertTrue(json, json.contains("\"short_url\":\"" + base + "/alpha1\""));
+        assertTrue(json, request("GET", "/api/search?q=ALPHA&offset=1&limit=1", null, 200).contains("\"total\":2,"));
+        request("GET", "/api/search", null, 400);
+
+        // one click left, then the expiry thread deletes the link and it drops out of search
+        request("POST", "/api/expiry/alpha1?max_clicks=1", null, 200);
+        assertEquals(302, status("/alpha1"));
+        assertEquals(404, status("/alpha1"));
+        for (int i = 0; request("GET", "/api/search?q=alpha", null, 200).contains("alpha1"); i++) {
+            assertTrue("alpha1 still in search", i < 100);
+            Thread.sleep(50);
+        }
+        assertTrue(request("GET", "/api/search?q=alpha", null, 200).contains("\"total\":1,"));
+    }
+
+    /** An expiry change is confirmed only after its journal record is on disk. */
+    @Test public void expiryChangesAreAnsweredOnceDurable() throws Exception {
+        service.close();
+        start("--sync-ms=400"); // every fsync waits out the window
+        request("POST", "/api/shorten", "https://example.com/slow,slow1\n", 200);
+        long t = System.nanoTime();
+        request("POST", "/api/expiry/slow1?ttl=1h", null, 200);
+        assertTrue("answered before the fsync", System.nanoTime() - t >= 300_000_000L);
+        t = System.nanoTime();
+        request("DELETE", "/api/expiry/slow1", null, 200);
+        assertTrue("answered before the fsync", System.nanoTime() - t >= 300_000_000L);
+    }
+
+    private String request(String method, String path, String body, int expect) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(base + path).openConnection();
+        c.setRequestMethod(method);
+        if (body != null) {
+            c.setDoOutput(true);
+            c.setRequestProperty("Content-Type", "text/csv");
+            try (OutputStream out = c.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(method + " " + path, expect, c.getResponseCode());
+        if (expect >= 400) return "";
+        try (InputStream in = c.getInputStream()) {
+            ByteArrayOutputStream b = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = in.read(buf)) > 0; ) b.write(buf, 0, n);
+            return new String(b.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private int status(String path) throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(base + path).openConnection();
+        c.setInstanceFollowRedirects(false);
+        try {
+            return c.getResponseCode();
+        } finally {
+            c.disconnect();
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LinkSnapshotTest {
+
+    private static final int LINKS = 3000;
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    static String code(int i) {
+        return String.format("c%05d", i);
+    }
+
+    /** Varying lengths, some non-ASCII; codes 3n, 3n+1 and 3n+2 share a URL. */
+    static String url(int i) {
+        StringBuilder b = new StringBuilder("http://example.com/").append(i / 3);
+        for (int k = 0; k < i / 3 % 37; k++) b.append(k % 5 == 0 ? "é" : "x");
+        return b.toString();
+    }
+
+    private Path write() throws IOException {
+        Path file = tmp.getRoot().toPath().resolve("urls-1.snap");
+        try (LinkSnapshot.Writer w = new LinkSnapshot.Writer(file)) {
+            for (int i = 0; i < LINKS; i++) w.add(code(i), url(i), "2024-01-0" + (i % 9 + 1), i % 7 == 0);
+            w.finish();
+        }
+        return file;
+    }
+
+    @Test public void readsBackAcrossChunkBoundaries() throws IOException {
+        Path file = write();
+        // 256-byte chunks: blob strings straddle chunks all the time, index entries never do
+        for (LinkSnapshot snap : new LinkSnapshot[] {LinkSnapshot.open(file), LinkSnapshot.open(file, 8)}) {
+            assertEquals(LINKS, snap.size());
+            byte[] entry = new byte[1024];
+            for (int i = 0; i < LINKS; i++) {
+                assertEquals(i, snap.indexOf(code(i)));
+                assertEquals(url(i), snap.get(code(i)));
+                Link l = snap.link(i);
+                assertEquals(code(i), l.code);
+                assertEquals(url(i), l.url);
+                assertEquals("2024-01-0" + (i % 9 + 1), l.created);
+                assertEquals(i % 7 == 0, l.temporary);
+                String c = snap.codeFor(url(i));
+                assertNotNull(c);
+                assertEquals(url(i), snap.get(c));
+
+                snap.entryBytes(i, entry);
+                String all = new String(entry, 0, snap.codeLen(i) + snap.urlLen(i) + snap.createdLen(i),
+                        StandardCharsets.UTF_8);
+                assertEquals(l.code + l.url + l.created, all);
+            }
+            assertNull(snap.get("zzz"));
+            assertNull(snap.codeFor("http://example.com/missing"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            snap.writeTo(out);
+            assertEquals(snap.fileSize(), out.size());
+            assertArrayEquals(Files.readAllBytes(file), out.toByteArray());
+        }
+    }
+
+    @Test public void codeForSkipsExcludedCodes() throws IOException {
+        LinkSnapshot snap = LinkSnapshot.open(write());
+        String url = url(3);
+        Set<String> codes = new HashSet<>();
+        for (int i = 0; i < LINKS; i++) if (url(i).equals(url)) codes.add(code(i));
+        assertEquals(3, codes.size());
+        Set<String> skip = new HashSet<>();
+        for (int k = 0; k < codes.size(); k++) {
+            String c = snap.codeFor(url, skip);
+            assertTrue(codes.contains(c));
+            assertFalse(skip.contains(c));
+            skip.add(c);
+        }
+        assertNull(snap.codeFor(url, skip));
+        assertNotNull(snap.codeFor(url, Collections.<String>emptySet()));
+    }
+
+    @Test public void closingOneMappingLeavesOthersReadable() throws IOException {
+        Path file = write();
+        LinkSnapshot live = LinkSnapshot.open(file);
+        LinkSnapshot other = LinkSnapshot.open(file);
+        assertEquals(url(10), other.get(code(10)));
+        other.close();
+        Files.delete(file);
+        assertEquals(url(10), live.get(code(10)));
+        LinkSnapshot.EMPTY.close();
+        assertEquals(0, LinkSnapshot.EMPTY.size());
+    }
+}
@@ -0,0 +1,36 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test public void quantilesResolveQuarterOctaves() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int i = 0; i < 98; i++) h.record(500);
+        h.record(9_000);
+        h.record(15_000);
+        assertEquals(1024, h.quantile(0.5));
+        assertEquals(10_240, h.quantile(0.99));  // 8192 + 2048
+        assertEquals(16_384, h.quantile(1.0));
+        h.record(8_192);
+        h.record(8_193);
+        assertEquals(8_192, h.quantile(99.0 / 102));
+        assertEquals(10_240, h.quantile(100.0 / 102));
+    }
+
+    @Test public void exportKeepsPowerOfTwoBuckets() {
+        Metrics m = new Metrics();
+        Metrics.Histogram h = new Metrics.Histogram();
+        m.histogram("t_seconds", "test", null, h);
+        h.record(500);
+        h.record(9_000);
+        h.record(15_000);
+        String text = m.render();
+        assertTrue(text, text.contains("t_seconds_bucket{le=\"1.024E-6\"} 1\n"));
+        assertTrue(text, text.contains("t_seconds_bucket{le=\"8.192E-6\"} 1\n"));
+        assertTrue(text, text.contains("t_seconds_bucket{le=\"1.6384E-5\"} 3\n"));
+        assertTrue(text, text.contains("t_seconds_count 3\n"));
+    }
+}
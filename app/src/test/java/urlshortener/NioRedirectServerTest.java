@@ -0,0 +1,123 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NioRedirectServerTest {
+
+    private final CompletableFuture<Link> slow = new CompletableFuture<>();
+    private LinkStore store;
+    private NioRedirectServer server;
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+
+    @Before public void setUp() throws Exception {
+        store = new ConcurrentLinkStore() {
+            @Override public CompletableFuture<Link> linkAsync(String code) {
+                return code.equals("slow") ? slow : super.linkAsync(code); // "on disk" until the test says so
+            }
+        };
+        store.put(new Link("a", "http://example.com/a", "t"));
+        store.put(new Link("b", "http://example.com/b", "t"));
+        server = new NioRedirectServer(new RedirectHandler(store, null), 0, 16, 1, () -> 0);
+        socket = new Socket(InetAddress.getLoopbackAddress(), server.port());
+        socket.setSoTimeout(5000);
+        in = new BufferedInputStream(socket.getInputStream());
+        out = socket.getOutputStream();
+    }
+
+    @After public void tearDown() throws Exception {
+        socket.close();
+        server.close();
+    }
+
+    @Test public void pipelinedRequestsComeBackInOrderAroundAParkedMiss() throws Exception {
+        send("GET /a HTTP/1.1\r\nHost: s\r\n\r\nGET /slow HTTP/1.1\r\nHost: s\r\n\r\nGET /b HTTP/1.1\r\nHost: s\r\n\r\n");
+        assertLocation("http://example.com/a", response());
+        Thread.sleep(200);
+        assertEquals("answered /b before the parked /slow", 0, in.available());
+        slow.complete(new Link("slow", "http://example.com/slow", "t"));
+        assertLocation("http://example.com/slow", response());
+        assertLocation("http://example.com/b", response());
+    }
+
+    @Test public void requestBodiesAreSkipped() throws Exception {
+        String body = "GET /a HTTP/1.1\r\n\r\n"; // would be answered if it were taken for a request
+        send("POST /b HTTP/1.1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body + "GET /b HTTP/1.1\r\n\r\n");
+        assertLocation("http://example.com/b", response());
+        assertLocation("http://example.com/b", response());
+    }
+
+    @Test public void http10ClosesTheConnection() throws Exception {
+        send("GET /a HTTP/1.0\r\n\r\n");
+        String head = response();
+        assertLocation("http://example.com/a", head);
+        assertTrue(head, head.contains("\r\nConnection: close\r\n"));
+        assertEquals(-1, in.read());
+    }
+
+    @Test public void oversizeHeadGets431() throws Exception {
+        byte[] head = new byte[NioRedirectServer.MAX_HEAD]; // and no blank line yet
+        Arrays.fill(head, (byte) 'x');
+        byte[] start = "GET /a HTTP/1.1\r\nX-Padding: ".getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(start, 0, head, 0, start.length);
+        out.write(head);
+        out.flush();
+        assertTrue(response().startsWith("HTTP/1.1 431 "));
+        assertEquals(-1, in.read());
+    }
+
+    @Test public void deletedCodeStopsRedirectingDespiteItsCachedEntry() throws Exception {
+        send("GET /a HTTP/1.1\r\n\r\n");
+        assertLocation("http://example.com/a", response());
+        send("GET /a HTTP/1.1\r\n\r\n"); // now from the loop's cache
+        assertLocation("http://example.com/a", response());
+        assertTrue(store.remove("a"));
+        send("GET /a HTTP/1.1\r\n\r\n");
+        assertTrue(response().startsWith("HTTP/1.1 404 "));
+        send("GET /b HTTP/1.1\r\n\r\n");
+        assertLocation("http://example.com/b", response());
+    }
+
+    private void send(String requests) throws IOException {
+        out.write(requests.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    private static void assertLocation(String url, String head) {
+        assertTrue(head, head.startsWith("HTTP/1.1 301 "));
+        assertTrue(head, head.contains("\r\nLocation: " + url + "\r\n"));
+    }
+
+    /** Reads one response and returns its head; the body is read and dropped. */
+    private String response() throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        while (true) {
+            int b = in.read();
+            if (b < 0) throw new IOException("closed after " + head);
+            head.write(b);
+            byte[] h = head.toByteArray();
+            int n = h.length;
+            if (n >= 4 && h[n - 4] == '\r' && h[n - 3] == '\n' && h[n - 2] == '\r' && h[n - 1] == '\n') break;
+        }
+        String s = head.toString("ISO-8859-1");
+        int i = s.indexOf("\r\nContent-Length: ");
+        int length = i < 0 ? 0 : Integer.parseInt(s.substring(i + 18, s.indexOf('\r', i + 2)).trim());
+        for (int k = 0; k < length; k++) if (in.read() < 0) throw new IOException("body cut short");
+        return s;
+    }
+}
@@ -0,0 +1,94 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReplicationLeaderTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private SnapshotLinkStore store() throws IOException {
+        Path file = tmp.newFolder().toPath().resolve("urls-1.snap");
+        try (LinkSnapshot.Writer w = new LinkSnapshot.Writer(file)) {
+            w.add("a", "http://a/", "t", false);
+            w.finish();
+        }
+        return new SnapshotLinkStore(LinkSnapshot.open(file));
+    }
+
+    /** A follower that has been sent the bootstrap but not confirmed it must not count towards acks. */
+    @Test public void followersCountOnlyOnceTheyAck() throws Exception {
+        try (ReplicationLeader leader = new ReplicationLeader(0, 1, 200, store(), null);
+             Socket s = new Socket(InetAddress.getLoopbackAddress(), leader.port())) {
+            leader.appended(1, record(LinkJournal.createRecord(new Link("b", "http://b/", "t"))));
+            OutputStream out = s.getOutputStream();
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            ReplicationLeader.ascii(out, "F\ttest\n");
+            out.flush();
+            String[] l = ReplicationLeader.readLine(in).split("\t");
+            assertEquals("L", l[0]);
+            assertEquals(1, Long.parseLong(l[1]));
+            for (long skip = Long.parseLong(l[2]); skip > 0; ) skip -= in.skip(skip);
+            while (!"E".equals(ReplicationLeader.readLine(in))) { }
+
+            assertTimesOut(leader, 1);
+            ReplicationLeader.ascii(out, "A\t1\n");
+            out.flush();
+            awaitOk(leader, 1);
+
+            leader.appended(2, record(LinkJournal.deleteRecord("b")));
+            String r;
+            do r = ReplicationLeader.readLine(in); while (r.startsWith("H\t")); // heartbeats
+            assertTrue(r, r.startsWith("R\t2\t"));
+            assertTimesOut(leader, 2);
+            ReplicationLeader.ascii(out, "A\t2\n");
+            out.flush();
+            awaitOk(leader, 2);
+            assertEquals(0, leader.lagRecords());
+        }
+    }
+
+    @Test public void noFollowerNoAck() throws Exception {
+        try (ReplicationLeader leader = new ReplicationLeader(0, 1, 50, store(), null)) {
+            leader.appended(1, record(LinkJournal.createRecord(new Link("b", "http://b/", "t"))));
+            assertTimesOut(leader, 1);
+            assertEquals(1, leader.ackTimeouts());
+        }
+    }
+
+    private static byte[] record(String line) {
+        return line.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertTimesOut(ReplicationLeader leader, long seq) {
+        try {
+            leader.await(seq);
+            fail("await(" + seq + ") returned without an ack");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Only 0 of 1"));
+        }
+    }
+
+    /** The timeout is short, so give the ack a few tries to arrive. */
+    private static void awaitOk(ReplicationLeader leader, long seq) throws IOException {
+        for (int i = 0; ; i++) {
+            try {
+                leader.await(seq);
+                return;
+            } catch (IOException e) {
+                if (i == 20) throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SearchIndexTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String[] QUERIES = {"ex", "EXAMPLE", "ample.c", "/p1", "p12", "zz", "a", "c4", "/q/", "nope"};
+
+    @Test public void findsWhatAScanFinds() {
+        LinkStore s = new ConcurrentLinkStore();
+        SearchIndex index = new SearchIndex();
+        for (int i = 0; i < 500; i++) s.put(new Link("c" + i, "http://example.com/p" + i, "t"));
+        index.load(s);
+        Random r = new Random(5);
+        for (int i = 500; i < 5000; i++) {
+            String code = "c" + i;
+            s.put(new Link(code, "http://Example.com/q/p" + r.nextInt(2000), "t"));
+            index.add(code, s.get(code));
+            if (r.nextInt(3) == 0) {
+                String gone = "c" + r.nextInt(i);
+                if (s.remove(gone)) index.remove(gone);
+            }
+        }
+        assertMatchesScan(s, index);
+    }
+
+    @Test public void scanOnlyKeepsNoIndex() {
+        LinkStore s = new ConcurrentLinkStore();
+        for (int i = 0; i < 500; i++) s.put(new Link("c" + i, "http://example.com/p" + i, "t"));
+        SearchIndex index = new SearchIndex();
+        index.scanOnly(s);
+        for (int i = 500; i < 1000; i++) {
+            s.put(new Link("c" + i, "http://Example.com/q/p" + i, "t"));
+            index.add("c" + i, s.get("c" + i));
+        }
+        assertTrue(s.remove("c7"));
+        index.remove("c7");
+        assertFalse(index.isReady());
+        assertEquals(0, index.postingBytes());
+        assertMatchesScan(s, index);
+    }
+
+    /** Expiry-style churn: links come and go, the index must not keep them all. */
+    @Test public void removedDocumentsArePurged() throws IOException {
+        Path file = tmp.newFolder().toPath().resolve("urls-1.snap");
+        try (LinkSnapshot.Writer w = new LinkSnapshot.Writer(file)) {
+            for (int i = 0; i < 1000; i++) w.add(String.format("b%04d", i), "http://example.com/base/" + i, "t", false);
+            w.finish();
+        }
+        SnapshotLinkStore s = new SnapshotLinkStore(LinkSnapshot.open(file));
+        SearchIndex index = new SearchIndex();
+        index.load(s);
+        long before = index.postingBytes();
+
+        Random r = new Random(9);
+        List<String> live = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            String code = "x" + i;
+            s.put(new Link(code, "http://example.com/tmp/" + r.nextInt(1_000_000), "t"));
+            index.add(code, s.get(code));
+            live.add(code);
+            if (live.size() > 2000) {
+                String gone = live.remove(r.nextInt(live.size()));
+                assertTrue(s.remove(gone));
+                index.remove(gone);
+            }
+        }
+        for (int i = 0; i < 1000; i += 2) { // some snapshot links go too
+            String code = String.format("b%04d", i);
+            assertTrue(s.remove(code));
+            index.remove(code);
+        }
+        s.put(new Link("b0000", "http://example.com/again", "t")); // a removed snapshot code made again
+        index.add("b0000", "http://example.com/again");
+
+        assertTrue("docs " + index.docs(), index.docs() < 1000 + 4 * 2000 + SearchIndex.PURGE_MIN * 2);
+        assertTrue("bytes " + index.postingBytes(), index.postingBytes() < before * 20);
+        assertMatchesScan(s, index);
+        assertEquals(1, index.search("/again", 0, 10).total);
+    }
+
+    private static void assertMatchesScan(LinkStore s, SearchIndex index) {
+        for (String q : QUERIES) {
+            Set<String> want = new HashSet<>();
+            String lq = q.toLowerCase(Locale.ROOT);
+            s.forEach(l -> {
+                if (l.code.toLowerCase(Locale.ROOT).contains(lq) || l.url.toLowerCase(Locale.ROOT).contains(lq)) {
+                    want.add(l.code);
+                }
+            });
+            SearchIndex.Result r = index.search(q, 0, 1_000_000);
+            Set<String> got = new HashSet<>();
+            for (Link l : r.links) assertTrue(q + ": " + l.code + " twice", got.add(l.code));
+            assertEquals(q, want, got);
+            assertEquals(q, want.size(), r.total);
+
+            // pages line up with the full list
+            if (r.links.size() > 20) {
+                List<Link> page = index.search(q, 10, 5).links;
+                assertEquals(5, page.size());
+                for (int i = 0; i < 5; i++) assertEquals(r.links.get(10 + i).code, page.get(i).code);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotLinkStoreTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private LinkSnapshot snapshot(String... codeUrl) throws IOException {
+        Path file = tmp.newFolder().toPath().resolve("urls-1.snap");
+        try (LinkSnapshot.Writer w = new LinkSnapshot.Writer(file)) {
+            for (int i = 0; i < codeUrl.length; i += 2) w.add(codeUrl[i], codeUrl[i + 1], "t", false);
+            w.finish();
+        }
+        return LinkSnapshot.open(file);
+    }
+
+    @Test public void reverseLookupFindsAnotherLiveBaseCodeAfterADelete() throws IOException {
+        SnapshotLinkStore s = new SnapshotLinkStore(snapshot("a", "http://x/", "b", "http://x/", "c", "http://y/"));
+        String first = s.codeFor("http://x/");
+        assertTrue(s.remove(first));
+        String second = s.codeFor("http://x/");
+        assertNotNull(second);
+        assertNotEquals(first, second);
+        assertEquals("http://x/", s.get(second));
+        // shorten reuses the live base code instead of making a third one
+        assertEquals(second, s.shorten("http://x/", "t", false, () -> "new"));
+        assertEquals(2, s.size());
+
+        assertTrue(s.remove(second));
+        assertNull(s.codeFor("http://x/"));
+        assertEquals("new", s.shorten("http://x/", "t", false, () -> "new"));
+        assertEquals("new", s.codeFor("http://x/"));
+    }
+
+    @Test public void deletedBaseCodeCanBeMadeAgain() throws IOException {
+        SnapshotLinkStore s = new SnapshotLinkStore(snapshot("a", "http://x/"));
+        assertEquals("http://x/", s.put(new Link("a", "http://z/", "t")));
+        assertTrue(s.remove("a"));
+        assertNull(s.get("a"));
+        assertNull(s.put(new Link("a", "http://z/", "t")));
+        assertEquals("http://z/", s.get("a"));
+        assertEquals("a", s.codeFor("http://z/"));
+        assertNull(s.codeFor("http://x/"));
+        assertEquals(1, s.size());
+    }
+
+    @Test public void layersStayConsistentUnderConcurrentWrites() throws Exception {
+        String[] base = new String[2 * 1000];
+        for (int i = 0; i < 1000; i++) {
+            base[2 * i] = String.format("b%04d", i);
+            base[2 * i + 1] = "http://u" + (i * 2) + "/";
+        }
+        ConcurrentLinkStoreTest.stress(new SnapshotLinkStore(snapshot(base), new CompactLinkStore()));
+    }
+
+    /** Writers keep going while compaction moves the store onto new snapshots; nothing is lost or comes back. */
+    @Test public void rebasesOntoCompactedSnapshotsUnderWrites() throws Exception {
+        Path dir = tmp.newFolder().toPath();
+        AppConfig config = AppConfig.parse(new String[] {"--sync-ms=0", "--store=compact"});
+        config.compactBytes = 4096;
+        LinkJournal j = new LinkJournal(dir, "urls", config.syncMillis, config.compactBytes);
+        SnapshotLinkStore s = LinkService.recoverStore(j, config, null);
+        SnapshotLinkStore.Layers first = s.layers();
+
+        AtomicInteger fresh = new AtomicInteger();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int seed = w;
+            writers.add(new Thread(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < 20_000; i++) {
+                    String url = "http://u" + r.nextInt(3000) + "/";
+                    synchronized (j.createLock(url)) { // store, then journal, as the service does
+                        if (r.nextInt(3) > 0) {
+                            String[] made = {null};
+                            String code = s.shorten(url, "t", false, () -> made[0] = "g" + fresh.incrementAndGet());
+                            if (code.equals(made[0])) j.appendCreate(new Link(code, url, "t"));
+                        } else {
+                            String code = s.codeFor(url);
+                            if (code != null && s.remove(code)) j.appendDelete(code);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Thread t : writers) t.start();
+        for (Thread t : writers) t.join();
+        j.awaitDurable(j.appendedSeq());
+        j.close();
+        assertTrue(j.compactions.count() > 0);
+        assertNotSame(first, s.layers());
+        assertTrue(s.layers().base().size() > 0);
+
+        Map<String, String> live = new HashMap<>();
+        s.forEach(l -> assertNull(l.code, live.put(l.code, l.url)));
+        assertEquals(live.size(), s.size());
+        LinkJournal again = new LinkJournal(dir, "urls", 0, 1 << 20);
+        Map<String, String> recovered = new HashMap<>();
+        LinkService.recoverStore(again, config, null).forEach(l -> recovered.put(l.code, l.url));
+        again.close();
+        assertEquals(recovered, live);
+        for (Map.Entry<String, String> e : live.entrySet()) {
+            assertEquals(e.getValue(), s.get(e.getKey()));
+            assertEquals(e.getKey(), s.codeFor(e.getValue()));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Differential test of {@link UrlNormalizer} against java.net.URI: generated
+ * URLs mixing case, IDN, IPv6, userinfo, ports, dot segments, escapes,
+ * non-ASCII, spaces and empty queries and fragments are normalized by both,
+ * and must agree wherever URI accepts the input.
+ */
+public class UrlNormalizerTest {
+
+    private static final int CASES = 200_000;
+    private static final UrlNormalizer N = new UrlNormalizer(false);
+
+    private static final String[] SCHEME = {"", "", "http://", "HTTP://", "HtTpS://", "https://", "ftp://", "//",
+            "mailto:", "javascript:", "gopher://", "http:/"};
+    private static final String[] USER = {"", "", "", "", "user@", "us%65r:p%3aw@", "a@b@"};
+    private static final String[] HOST = {"example.com", "Example.COM", "www.EXAMPLE.com.", "bücher.de", "例え.jp",
+            "a_b.com", "[::1]", "[2001:DB8::1]", "127.0.0.1", "a..b", "-a.com", "x", "", "ex ample.com", "a%41.com",
+            "EXAMPLE.com..", "xn--bcher-kva.de"};
+    private static final String[] PORT = {"", "", "", ":", ":80", ":443", ":21", ":8080", ":0080", ":99999", ":x",
+            ":65535"};
+    private static final String[] SEGMENT = {".", "..", "%2e", "%2E%2e", "a", "B", "%7e", "%7E", "%41", "%2f", "%zz",
+            "%4", "é", " ", "a b", "[x]", "~", "!$&'()*+,;=:@", "\"", "|", "%", "", "%c3%a9", "😀", "\t"};
+    private static final String[] PARAM = {"a=1", "utm_source=x", "b=%2a", "c=d/e?f", "", "x=é", "q=a+b",
+            "%7e=%7E", "k"};
+    private static final String[] FRAGMENT = {"", "", "", "#", "#top", "#a%2Fb", "#x y", "#é"};
+
+    @Test public void examples() {
+        assertEquals("http://example.com/", N.normalize("HTTP://Example.COM:80"));
+        assertEquals("https://example.com:8080/a/c?x=1", N.normalize(" https://example.com:08080/a/./b/../c?x=1# "));
+        assertEquals("http://xn--bcher-kva.de/%C3%A9~", N.normalize("bücher.de/é%7e"));
+        assertEquals("http://example.com/", N.normalize("//example.com/../.."));
+        assertEquals("http://example.com/?a=1", new UrlNormalizer(true).normalize("example.com?utm_source=x&a=1&fbclid=2"));
+        assertNull(N.normalize("javascript:alert(1)"));
+        assertNull(N.normalize("http://example.com/%zz"));
+        assertNull(N.normalize("http://-a.com/"));
+        assertNull(N.normalize("   "));
+    }
+
+    @Test public void canonicalInputIsReturnedAsIs() {
+        String url = "https://example.com/a/b?c=d#e";
+        assertSame(url, N.normalize(url));
+    }
+
+    /** The one deliberate difference from URI: it takes any number of port digits, we take 0-65535. */
+    @Test public void portsOutOfRangeAreRejected() throws URISyntaxException {
+        assertEquals(99999, new URI("http://example.com:99999/").getPort());
+        assertNull(N.normalize("http://example.com:99999/"));
+        assertNull(N.normalize("http://example.com:65536/"));
+        assertEquals("http://example.com:65535/", N.normalize("http://example.com:65535"));
+        assertEquals("http://example.com:0/", N.normalize("http://example.com:0000"));
+    }
+
+    @Test public void outputsParseAndAreIdempotent() throws Exception {
+        Random r = new Random(7);
+        int accepted = 0;
+        for (int t = 0; t < CASES; t++) {
+            String in = randomUrl(r), out = N.normalize(in);
+            if (out == null) continue;
+            accepted++;
+            URI u = new URI(out);
+            u.toURL();
+            assertEquals(in + " -> " + out, out, N.normalize(out));
+        }
+        assertTrue("too few valid cases: " + accepted, accepted > CASES / 10);
+    }
+
+    @Test public void agreesWithUriWhereverUriAcceptsTheInput() throws URISyntaxException {
+        Random r = new Random(11);
+        int same = 0, portOutOfRange = 0;
+        for (int t = 0; t < CASES; t++) {
+            String in = randomUrl(r), ours = N.normalize(in), ref = viaUri(in);
+            if (ref == null) continue;
+            if (ours == null) {
+                int port = new URI(withScheme(in.trim())).getPort();
+                assertTrue("only URI accepts " + in, port > 65535);
+                portOutOfRange++;
+                continue;
+            }
+            assertEquals(in, ref, ours);
+            same++;
+        }
+        assertTrue("too few comparable cases: " + same, same > CASES / 20);
+        assertTrue(portOutOfRange > 0);
+    }
+
+    private static String randomUrl(Random r) {
+        StringBuilder b = new StringBuilder();
+        if (r.nextInt(20) == 0) b.append("  ");
+        b.append(pick(r, SCHEME)).append(pick(r, USER)).append(pick(r, HOST)).append(pick(r, PORT));
+        for (int i = r.nextInt(5); i > 0; i--) {
+            b.append('/');
+            for (int k = 1 + r.nextInt(2); k > 0; k--) b.append(pick(r, SEGMENT));
+        }
+        if (r.nextInt(4) == 0) b.append('/');
+        if (r.nextBoolean()) {
+            b.append('?');
+            for (int i = r.nextInt(3); i >= 0; i--) {
+                b.append(pick(r, PARAM));
+                if (i > 0) b.append('&');
+            }
+        }
+        return b.append(pick(r, FRAGMENT)).toString();
+    }
+
+    private static String pick(Random r, String[] a) {
+        return a[r.nextInt(a.length)];
+    }
+
+    private static String withScheme(String s) {
+        if (s.matches("^[a-zA-Z][a-zA-Z0-9+.-]*://.*$")) return s;
+        return s.startsWith("//") ? "http:" + s : "http://" + s;
+    }
+
+    /**
+     * The canonical form by way of java.net.URI: parse, lowercase scheme and
+     * host, drop the default port, normalize escapes, remove dot segments with
+     * URI.normalize. Null where URI rejects the input or it has no host.
+     */
+    private static String viaUri(String input) {
+        String s = input.trim();
+        if (s.isEmpty()) return null;
+        URI x;
+        try {
+            x = new URI(withScheme(s));
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = x.getScheme().toLowerCase(Locale.ROOT);
+        if (!scheme.equals("http") && !scheme.equals("https") && !scheme.equals("ftp")) return null;
+        if (x.getHost() == null) return null;
+        String host = x.getHost().toLowerCase(Locale.ROOT);
+        if (host.endsWith(".")) host = host.substring(0, host.length() - 1);
+        int defaultPort = scheme.equals("http") ? 80 : scheme.equals("https") ? 443 : 21;
+
+        // URI.normalize drops empty segments, RFC 3986 keeps them: protect them with a marker
+        String raw = escapes(x.getRawPath());
+        while (raw.contains("//")) raw = raw.replace("//", "/_E_/");
+        String path = URI.create("http://h" + raw).normalize().getRawPath().replace("_E_", "");
+        if (path.isEmpty()) path = "/";
+        while (path.startsWith("/../")) path = path.substring(3);
+        if (path.equals("/..")) path = "/";
+
+        StringBuilder b = new StringBuilder(scheme).append("://");
+        if (x.getRawUserInfo() != null) b.append(escapes(x.getRawUserInfo())).append('@');
+        b.append(host);
+        if (x.getPort() != -1 && x.getPort() != defaultPort) b.append(':').append(x.getPort());
+        b.append(path);
+        String q = escapes(x.getRawQuery()), f = escapes(x.getRawFragment());
+        if (q != null && !q.isEmpty()) b.append('?').append(q);
+        if (f != null && !f.isEmpty()) b.append('#').append(f);
+        return b.toString();
+    }
+
+    /** Decodes escapes of unreserved characters, uppercases the rest, encodes non-ASCII as UTF-8. */
+    private static String escapes(String s) {
+        if (s == null) return null;
+        StringBuilder b = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '%') {
+                int v = Integer.parseInt(s.substring(i + 1, i + 3), 16);
+                if (v < 0x80 && (Character.isLetterOrDigit(v) || "-._~".indexOf(v) >= 0)) b.append((char) v);
+                else b.append('%').append(s.substring(i + 1, i + 3).toUpperCase(Locale.ROOT));
+                i += 2;
+            } else if (c >= 0x80) {
+                int cp = s.codePointAt(i);
+                if (cp > 0xFFFF) i++;
+                for (byte x : new String(Character.toChars(cp)).getBytes(StandardCharsets.UTF_8)) {
+                    b.append(String.format("%%%02X", x & 0xFF));
+                }
+            } else {
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package urlshortener;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Runs the JMH benchmarks and compares them with a checked-in baseline.
+ *
+ *   java -jar benchmarks/target/benchmarks.jar [JMH options] [--save=FILE] [--check=FILE] [--tolerance=0.25]
+ *
+ *   --save=F       write the results as a baseline CSV
+ *   --check=F      compare with baseline F; exit 1 if any benchmark is slower
+ *                  than its baseline by more than the tolerance (default 25%),
+ *                  or than the two runs' error bars where those are wider
+ *
+ * Everything else is handed to JMH, e.g. a benchmark regex, -f, -wi, -i, -p.
+ * Baseline CSV: benchmark,params,mode,score,error,unit ('#' lines are comments).
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {}
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        String save = null, check = null;
+        double tolerance = 0.25;
+        List<String> jmhArgs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--save=")) save = arg.substring(7);
+            else if (arg.startsWith("--check=")) check = arg.substring(8);
+            else if (arg.startsWith("--tolerance=")) tolerance = Double.parseDouble(arg.substring(12));
+            else jmhArgs.add(arg);
+        }
+        CommandLineOptions opts;
+        try {
+            opts = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        } catch (CommandLineOptionException e) {
+            System.err.println("Bad JMH options: " + e.getMessage());
+            System.exit(2);
+            return;
+        }
+        Collection<RunResult> results = new Runner(opts).run();
+
+        List<Row> rows = new ArrayList<>();
+        for (RunResult r : results) rows.add(Row.of(r));
+        if (save != null) {
+            writeBaseline(save, rows);
+            System.out.println("Baseline written to " + save);
+        }
+        if (check != null && !compare(readBaseline(check), rows, tolerance)) System.exit(1);
+    }
+
+    /** One benchmark result, keyed by name + parameters. */
+    static final class Row {
+        final String benchmark, params, mode, unit;
+        final double score, error;
+
+        Row(String benchmark, String params, String mode, double score, double error, String unit) {
+            this.benchmark = benchmark;
+            this.params = params;
+            this.mode = mode;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        static Row of(RunResult r) {
+            Result<?> p = r.getPrimaryResult();
+            StringBuilder params = new StringBuilder();
+            for (String k : new TreeSet<>(r.getParams().getParamsKeys())) {
+                if (params.length() > 0) params.append(';');
+                params.append(k).append('=').append(r.getParams().getParam(k));
+            }
+            return new Row(r.getParams().getBenchmark(), params.toString(), r.getParams().getMode().shortLabel(),
+                    p.getScore(), Double.isNaN(p.getScoreError()) ? 0 : p.getScoreError(), p.getScoreUnit());
+        }
+
+        String key() {
+            return benchmark + " [" + params + "]";
+        }
+
+        /** Throughput modes are better when higher, time modes when lower. */
+        boolean higherIsBetter() {
+            return mode.equals("thrpt");
+        }
+    }
+
+    static void writeBaseline(String file, List<Row> rows) throws IOException {
+        try (PrintWriter pw = new PrintWriter(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8))) {
+            pw.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version")
+                    + ", " + Runtime.getRuntime().availableProcessors() + " cpu, " + System.getProperty("os.name"));
+            pw.println("benchmark,params,mode,score,error,unit");
+            for (Row r : rows) {
+                pw.println(Csv.field(r.benchmark) + "," + Csv.field(r.params) + "," + r.mode + ","
+                        + String.format(Locale.ROOT, "%.3f,%.3f", r.score, r.error)
+                        + "," + Csv.field(r.unit));
+            }
+        }
+    }
+
+    static Map<String, Row> readBaseline(String file) throws IOException {
+        Map<String, Row> rows = new LinkedHashMap<>();
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            br.readLine(); // machine comment or header
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("#") || line.startsWith("benchmark,")) continue;
+                List<String> c = Csv.parseLine(line);
+                if (c.size() < 6) continue;
+                Row r = new Row(c.get(0), c.get(1), c.get(2),
+                        Double.parseDouble(c.get(3)), Double.parseDouble(c.get(4)), c.get(5));
+                rows.put(r.key(), r);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * How much worse than {@code base} a result may be: the tolerance, or the
+     * two runs' error bars (99.9% intervals, relative, added in quadrature)
+     * where those are wider. An end-to-end benchmark that swings 25% between
+     * runs would otherwise fail a 25% gate about as often as not.
+     */
+    static double allowed(Row base, Row now, double tolerance) {
+        double b = base.error / base.score, n = now.error / now.score;
+        return Math.max(tolerance, Math.sqrt(b * b + n * n));
+    }
+
+    /** Prints each result against its baseline; false if any regressed past what {@link #allowed} allows. */
+    static boolean compare(Map<String, Row> baseline, List<Row> rows, double tolerance) {
+        boolean ok = true;
+        System.out.printf(Locale.ROOT, "%n%-70s %14s %14s %8s %8s%n", "Benchmark", "Baseline", "Now", "Change", "Allowed");
+        for (Row now : rows) {
+            Row base = baseline.get(now.key());
+            if (base == null || !base.unit.equals(now.unit)) {
+                System.out.printf(Locale.ROOT, "%-70s %14s %14.3f %8s%n", now.key(), "-", now.score, "new");
+                continue;
+            }
+            double change = (now.score - base.score) / base.score;
+            double worse = now.higherIsBetter() ? -change : change;
+            double allowed = allowed(base, now, tolerance);
+            boolean regressed = worse > allowed;
+            ok &= !regressed;
+            System.out.printf(Locale.ROOT, "%-70s %14.3f %14.3f %+7.1f%% %7.0f%%%s%n", now.key(), base.score, now.score,
+                    change * 100, allowed * 100, regressed ? "  REGRESSION" : "");
+        }
+        System.out.println(ok ? "No regressions beyond the allowed change." : "Regressions beyond the allowed change found.");
+        return ok;
+    }
+}
@@ -0,0 +1,48 @@
+package urlshortener;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * What analytics add to one redirect in the handler: the 1-in-16 sampling
+ * check and ClickTracker.click, with the aggregator thread draining the
+ * rings as it does in the app. Sampled, so the percentiles show the tail a
+ * redirect pays, not just the mean.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClickBench {
+
+    private static final int CODES = 1 << 14;
+
+    private ClickTracker clicks;
+    private final String[] codes = new String[CODES];
+    private int i;
+
+    @Setup
+    public void setup() {
+        clicks = new ClickTracker();
+        for (int n = 0; n < CODES; n++) codes[n] = "c" + n;
+    }
+
+    @TearDown
+    public void tearDown() {
+        clicks.close();
+    }
+
+    /** As RedirectHandler.answer does it for a redirect with analytics on. */
+    @Benchmark
+    public ClickTracker click() {
+        String code = codes[i++ & (CODES - 1)];
+        if (clicks.shouldSample()) {
+            clicks.click(code, "https://referrer.example/page", "Mozilla/5.0 (X11; Linux x86_64)");
+        } else {
+            clicks.click(code, null, null);
+        }
+        return clicks;
+    }
+}
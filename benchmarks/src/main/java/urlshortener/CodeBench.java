@@ -0,0 +1,68 @@
+package urlshortener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Short code generation: the allocator as used by shorten(), and its parts. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodeBench {
+
+    /** An allocator with its own state file, per strategy. */
+    @State(Scope.Benchmark)
+    public static class Allocator {
+        @Param({"BLOCK", "SEQUENTIAL"})
+        public CodeAllocator.Strategy strategy;
+
+        Path dir;
+        CodeAllocator codes;
+
+        @Setup
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("codebench");
+            codes = CodeAllocator.open(dir.resolve("urls.ids"), strategy);
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            Files.deleteIfExists(dir.resolve("urls.ids"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private final char[] buf = new char[10];
+    private long id;
+
+    /** Allocator.next(): lease bookkeeping + scramble + base62 + String. */
+    @Benchmark
+    public String next(Allocator a) {
+        return a.codes.next();
+    }
+
+    /** Allocator.next() from four threads at once, as concurrent creators call it. */
+    @Benchmark
+    @Threads(4)
+    public String nextConcurrent(Allocator a) {
+        return a.codes.next();
+    }
+
+    /** Just the keyed Feistel permutation of one id. */
+    @Benchmark
+    public long scramble(Allocator a) {
+        return a.codes.scramble(id++ & 0xFFFFFFFFL, 7);
+    }
+
+    /** Just the base62 encoding into a reused buffer. */
+    @Benchmark
+    public char[] base62() {
+        Base62.encode(id++ & 0xFFFFFFFFL, 7, buf, 0);
+        return buf;
+    }
+}
@@ -0,0 +1,98 @@
+package urlshortener;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Store lookups (the redirect hot path) at 10K, 1M and 10M links, for the
+ * heap store, the compact store, the memory-mapped snapshot store and the
+ * snapshot store behind the default-size hot link cache. The probes fit in
+ * the cache, so "cached" hits measure the cache itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class LookupBench {
+
+    @Param({"10000", "1000000", "10000000"})
+    public int size;
+
+    @Param({"concurrent", "compact", "snapshot", "cached"})
+    public String store;
+
+    private static final int PROBES = 1 << 12;
+
+    private LinkStore links;
+    private Path dir;
+    private final String[] hits = new String[PROBES];
+    private final String[] misses = new String[PROBES];
+    private final String[] urls = new String[PROBES];
+    private int i;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (store.equals("snapshot") || store.equals("cached")) {
+            dir = Files.createTempDirectory("lookupbench");
+            Path snap = dir.resolve("urls-0.snap");
+            try (LinkSnapshot.Writer w = new LinkSnapshot.Writer(snap)) {
+                for (int n = 0; n < size; n++) w.add(code(n), url(n), "2024-01-01 00:00:00", false);
+                w.finish();
+            }
+            links = new SnapshotLinkStore(LinkSnapshot.open(snap));
+            if (store.equals("cached")) links = new CachedLinkStore(links, new AppConfig().cacheSize, 1);
+        } else {
+            links = store.equals("compact") ? new CompactLinkStore() : new ConcurrentLinkStore();
+            for (int n = 0; n < size; n++) links.put(new Link(code(n), url(n), "2024-01-01 00:00:00"));
+        }
+        Random r = new Random(42);
+        for (int k = 0; k < PROBES; k++) {
+            int n = r.nextInt(size);
+            hits[k] = code(n);
+            urls[k] = url(n);
+            misses[k] = "z" + code(n).substring(1);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (links instanceof CachedLinkStore) ((CachedLinkStore) links).shutdown();
+        links = null;
+        if (dir != null) {
+            Files.deleteIfExists(dir.resolve("urls-0.snap"));
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    /** Fixed-width, sorted codes; "z..." never occurs, so it makes misses. */
+    private static String code(int n) {
+        char[] c = new char[7];
+        Base62.encode(n, 7, c, 0);
+        return new String(c);
+    }
+
+    private static String url(int n) {
+        return "https://example.com/item/" + n + "?ref=bench";
+    }
+
+    @Benchmark
+    public Link hit() {
+        return links.link(hits[i++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public Link miss() {
+        return links.link(misses[i++ & (PROBES - 1)]);
+    }
+
+    @Benchmark
+    public String codeForUrl() {
+        return links.codeFor(urls[i++ & (PROBES - 1)]);
+    }
+}
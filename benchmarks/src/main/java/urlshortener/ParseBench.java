@@ -0,0 +1,54 @@
+package urlshortener;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Per-row parsing on the create and import paths. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBench {
+
+    private final UrlNormalizer normalizer = new UrlNormalizer(false);
+    private final UrlNormalizer stripping = new UrlNormalizer(true);
+    private final String url = "https://www.example.com/articles/2024/05/some-long-slug?utm_source=news&id=42";
+    private final String messyUrl = "HTTPS://WWW.Example.com:443/a/./b/../%7euser/caf\u00e9?utm_source=news&id=%2a42#";
+    private final String bareUrl = "example.com/a/./b/../c";
+    private final String csvLine = "aB3xY9q,http://localhost:8080/aB3xY9q,\"https://example.com/q?a=1,b=2\",2024-05-01 10:11:12";
+    private final String jsonLine = "{\"url\": \"https://example.com/path?x=1\", \"alias\": \"promo-2024\", \"redirect\": 302}";
+
+    @Benchmark
+    public String normalizeUrl() {
+        return normalizer.normalize(url);
+    }
+
+    @Benchmark
+    public String normalizeMessyUrl() {
+        return normalizer.normalize(messyUrl);
+    }
+
+    @Benchmark
+    public String normalizeStripTracking() {
+        return stripping.normalize(url);
+    }
+
+    @Benchmark
+    public String normalizeBareUrl() {
+        return normalizer.normalize(bareUrl);
+    }
+
+    @Benchmark
+    public List<String> parseCsvLine() {
+        return Csv.parseLine(csvLine);
+    }
+
+    @Benchmark
+    public Map<String, String> parseJsonLine() {
+        return Json.parseFlatObject(jsonLine);
+    }
+}
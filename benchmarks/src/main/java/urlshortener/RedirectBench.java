@@ -0,0 +1,84 @@
+package urlshortener;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * End-to-end redirects over loopback: RedirectHandler under HttpServer
+ * (server=jdk) or NioRedirectServer (server=nio), hit by four client threads
+ * with keep-alive HttpURLConnections. Client and server share the machine,
+ * so scores swing from one JVM to the next; three forks by default keep
+ * the error bar narrow enough for --check.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(3)
+public class RedirectBench {
+
+    private static final int LINKS = 10_000;
+
+    @Param({"on", "off"})
+    public String analytics;
+
+    @Param({"jdk", "nio"})
+    public String server;
+
+    private HttpServer httpServer;
+    private NioRedirectServer nioServer;
+    private ExecutorService executor;
+    private ClickTracker clicks;
+    private String base;
+
+    @Setup
+    public void setup() throws IOException {
+        LinkStore store = new MeteredLinkStore(new ConcurrentLinkStore());
+        for (int n = 0; n < LINKS; n++) store.put(new Link("c" + n, "https://example.com/" + n, "2024-01-01 00:00:00"));
+        clicks = analytics.equals("on") ? new ClickTracker() : null;
+        AppConfig config = new AppConfig();
+        RedirectHandler handler = new RedirectHandler(store, clicks);
+        int port;
+        if (server.equals("nio")) {
+            nioServer = new NioRedirectServer(handler, 0, config.backlog, config.threads, () -> 0);
+            port = nioServer.port();
+        } else {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), config.backlog);
+            httpServer.createContext("/", handler);
+            executor = config.newServerExecutor();
+            httpServer.setExecutor(executor);
+            httpServer.start();
+            port = httpServer.getAddress().getPort();
+        }
+        base = "http://127.0.0.1:" + port + "/c";
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (nioServer != null) nioServer.close();
+        if (httpServer != null) httpServer.stop(0);
+        if (executor != null) executor.shutdown();
+        if (clicks != null) clicks.close();
+    }
+
+    @Benchmark
+    public int redirect() throws IOException {
+        HttpURLConnection c = (HttpURLConnection) new URL(base + ThreadLocalRandom.current().nextInt(LINKS)).openConnection();
+        c.setInstanceFollowRedirects(false);
+        int status = c.getResponseCode();
+        try (InputStream in = c.getInputStream()) {
+            while (in.read() >= 0) { /* drain so the connection is reused */ }
+        }
+        return status;
+    }
+}
@@ -0,0 +1,72 @@
+package urlshortener;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BenchmarkMainTest {
+
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static BenchmarkMain.Row avgt(double score, double error) {
+        return new BenchmarkMain.Row("urlshortener.ParseBench.normalizeMessyUrl", "", "avgt", score, error, "ns/op");
+    }
+
+    private static BenchmarkMain.Row thrpt(double score, double error) {
+        return new BenchmarkMain.Row("urlshortener.RedirectBench.redirect", "analytics=on;server=nio", "thrpt",
+                score, error, "ops/s");
+    }
+
+    private static boolean check(BenchmarkMain.Row base, BenchmarkMain.Row now) {
+        return BenchmarkMain.compare(Collections.singletonMap(base.key(), base), Collections.singletonList(now), 0.25);
+    }
+
+    @Test public void slowerPastToleranceAndErrorBarsFails() {
+        assertFalse(check(avgt(817.8, 40), avgt(1100, 50)));
+        assertFalse(check(thrpt(20000, 1000), thrpt(14000, 800)));
+        // bars of 25% and 20%: 32% allowed
+        assertFalse(check(thrpt(16000, 4000), thrpt(10000, 2000)));
+    }
+
+    @Test public void slowerWithinWideErrorBarsPasses() {
+        assertTrue(check(thrpt(16000, 4000), thrpt(11500, 2300)));
+        assertTrue(check(avgt(817.8, 871.8), avgt(1100, 900)));
+    }
+
+    @Test public void allowanceIsTheToleranceOrTheErrorBars() {
+        assertEquals(0.25, BenchmarkMain.allowed(avgt(100, 5), avgt(100, 5), 0.25), 1e-9);
+        assertEquals(0.5, BenchmarkMain.allowed(avgt(100, 30), avgt(100, 40), 0.25), 1e-9);
+    }
+
+    @Test public void withinToleranceOrFasterPasses() {
+        assertTrue(check(avgt(817.8, 1), avgt(1000, 1)));
+        assertTrue(check(avgt(817.8, 1), avgt(400, 1)));
+        assertTrue(check(thrpt(20000, 1), thrpt(16000, 1)));
+        assertTrue(check(thrpt(20000, 1), thrpt(40000, 1)));
+    }
+
+    @Test public void benchmarksMissingFromTheBaselineNeverFail() {
+        assertTrue(BenchmarkMain.compare(Collections.<String, BenchmarkMain.Row>emptyMap(),
+                Collections.singletonList(avgt(1e9, 0)), 0.25));
+    }
+
+    @Test public void baselineRoundTrips() throws IOException {
+        File f = tmp.newFile("baseline.csv");
+        BenchmarkMain.writeBaseline(f.getPath(), Arrays.asList(avgt(817.778, 12.5), thrpt(19627.076, 104.6)));
+        Map<String, BenchmarkMain.Row> read = BenchmarkMain.readBaseline(f.getPath());
+        assertEquals(2, read.size());
+        BenchmarkMain.Row r = read.get(thrpt(0, 0).key());
+        assertEquals("thrpt", r.mode);
+        assertEquals(19627.076, r.score, 1e-9);
+        assertEquals(104.6, r.error, 1e-9);
+        assertEquals("ops/s", r.unit);
+        assertTrue(read.containsKey(avgt(0, 0).key()));
+    }
+}